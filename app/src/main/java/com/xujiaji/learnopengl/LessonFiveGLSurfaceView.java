@@ -21,13 +21,8 @@ public class LessonFiveGLSurfaceView extends GLSurfaceView {
             return super.onTouchEvent(event);
         }
         // 确保我们在OpenGL线程上调用switchMode()
-        // queueEvent() 是GLSurfaceView的一个方法，它将为我们做到这点
-        queueEvent(new Runnable() {
-            @Override
-            public void run() {
-                mRenderer.switchMode();
-            }
-        });
+        // 命令放入渲染器预先分配的队列，下一帧开始时执行，不需要为每次点击创建Runnable
+        mRenderer.postCommand(LessonFiveRenderer.CMD_SWITCH_MODE);
         return true;
     }
 
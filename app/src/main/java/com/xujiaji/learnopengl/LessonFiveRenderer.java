@@ -7,8 +7,11 @@ import android.opengl.Matrix;
 import android.os.SystemClock;
 
 import com.xujiaji.learnopengl.common.RawResourceReader;
+import com.xujiaji.learnopengl.common.RenderCommandQueue;
 import com.xujiaji.learnopengl.common.ShaderHelper;
 import com.xujiaji.learnopengl.common.ShapeBuilder;
+import com.xujiaji.learnopengl.common.VertexLayout;
+import com.xujiaji.learnopengl.common.VertexPacker;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -36,7 +39,13 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
 //    private final int mNormalDataSize = 3;
 
     private final FloatBuffer mCubePositions;
-    private final FloatBuffer mCubeColors;
+    private final ByteBuffer mCubeColors;
+
+    /** 立方体的顶点格式，颜色是压缩成4个字节的RGBA */
+    private final VertexLayout mCubeLayout = VertexLayout.separate()
+            .addFloat("a_Position", mPositionDataSize)
+            .add("a_Color", mColorDataSize, GLES20.GL_UNSIGNED_BYTE, true)
+            .build();
 //    private final FloatBuffer mCubeNormals;
 
     private float[] mModelMatrix = new float[16];
@@ -71,8 +80,6 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
     private int mMVPMatrixHandle;
 //    private int mMVMatrixHandle;
 //    private int mLightPosHandle;
-    private int mPositionHandle;
-    private int mColorHandle;
 //    private int mNormalHandle;
 //
 //    // 存放我们的模型数据在浮点缓冲区
@@ -92,6 +99,21 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
 
     private boolean mBlending = true;
 
+    /** 切换混合模式 */
+    public static final int CMD_SWITCH_MODE = 0;
+
+    // UI线程发送的命令，在onDrawFrame()的开头处理
+    private final RenderCommandQueue mCommands = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+
+    private final RenderCommandQueue.Handler mCommandHandler = new RenderCommandQueue.Handler() {
+        @Override
+        public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+            if (type == CMD_SWITCH_MODE) {
+                switchMode();
+            }
+        }
+    };
+
     public LessonFiveRenderer(Context context) {
         this.mActivityContext = context;
         // 定义点
@@ -223,8 +245,8 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
         mCubePositions = ByteBuffer.allocateDirect(cubePositionData.length * mBytePerFloat)
                 .order(ByteOrder.nativeOrder()).asFloatBuffer();
 
-        mCubeColors = ByteBuffer.allocateDirect(cubeColorData.length * mBytePerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        // 颜色压缩成RGBA8
+        mCubeColors = VertexPacker.packColors(cubeColorData);
 
 //        mCubeNormals = ByteBuffer.allocateDirect(cubeNormalData.length * mBytePerFloat)
 //                .order(ByteOrder.nativeOrder()).asFloatBuffer();
@@ -233,7 +255,6 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
 //                .order(ByteOrder.nativeOrder()).asFloatBuffer();
 
         mCubePositions.put(cubePositionData).position(0);
-        mCubeColors.put(cubeColorData).position(0);
 //        mCubeNormals.put(cubeNormalData).position(0);
 //        mCubeTextureCoordinates.put(cubeTextureCoordinateData).position(0);
     }
@@ -246,6 +267,15 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
         return RawResourceReader.readTextFileFromRawResource(mActivityContext, R.raw.color_fragment_shader);
     }
 
+    /**
+     * 在UI线程调用，下一帧在OpenGL线程执行
+     *
+     * @return 队列满了时返回false，命令被丢弃
+     */
+    public boolean postCommand(int type) {
+        return mCommands.offer(type);
+    }
+
     public void switchMode() {
         mBlending = !mBlending;
 
@@ -301,6 +331,7 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
         final int fragmentShaderHandle = ShaderHelper.compileShader(GLES20.GL_FRAGMENT_SHADER, getFragmentShader());
 
         mProgramHandle = ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, "a_Position", "a_Color", "a_Normal", "a_TexCoordinate");
+        mCubeLayout.resetLocations();
 
 //        // 加载纹理
 //        mTextureDataHandle = TextureHelper.loadTexture(mActivityContext, R.drawable.bumpy_bricks_public_domain);
@@ -335,6 +366,8 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        mCommands.drain(mCommandHandler);
+
         if (mBlending) {
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         } else {
@@ -351,8 +384,6 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
         mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVPMatrix");
 //        mMVMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVMatrix");
 //        mLightPosHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_LightPos");
-        mPositionHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Position");
-        mColorHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Color");
 //        mNormalHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Normal");
 
 //        mTextureUniformHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Texture");
@@ -426,17 +457,8 @@ public class LessonFiveRenderer implements GLSurfaceView.Renderer {
 //    }
 
     private void drawCube() {
-        // 传入位置信息
-        mCubePositions.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, mPositionDataSize, GLES20.GL_FLOAT, false,
-                0, mCubePositions);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // 传入颜色信息
-        mCubeColors.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, mColorDataSize, GLES20.GL_FLOAT, false,
-                0, mCubeColors);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
+        // 传入位置和颜色信息
+        mCubeLayout.bind(mProgramHandle, mCubePositions, mCubeColors);
 
 //        // 传入法线信息
 //        mCubeNormals.position(0);
@@ -13,6 +13,7 @@ import android.util.Log;
 import com.xujiaji.learnopengl.common.RawResourceReader;
 import com.xujiaji.learnopengl.common.ShaderHelper;
 import com.xujiaji.learnopengl.common.TextureHelper;
+import com.xujiaji.learnopengl.common.VertexLayout;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -75,9 +76,6 @@ public class LessonFourRenderer implements GLSurfaceView.Renderer {
     private int mMVPMatrixHandle;
     private int mMVMatrixHandle;
     private int mLightPosHandle;
-    private int mPositionHandle;
-    private int mColorHandle;
-    private int mNormalHandle;
 
     // 存放我们的模型数据在浮点缓冲区
     private final FloatBuffer mCubeTextureCoordinates;
@@ -85,12 +83,17 @@ public class LessonFourRenderer implements GLSurfaceView.Renderer {
     // 用来传入纹理
     private int mTextureUniformHandle;
 
-    // 用来传入模型纹理坐标
-    private int mTextureCoordinateHandle;
-
     // 每个数据元素的纹理坐标大小
     private final int mTextureCoordinateDataSize = 2;
 
+    /** 立方体的顶点格式，每种数据在自己的缓冲区中 */
+    private final VertexLayout mCubeLayout = VertexLayout.separate()
+            .addFloat("a_Position", mPositionDataSize)
+            .addFloat("a_Color", mColorDataSize)
+            .addFloat("a_Normal", mNormalDataSize)
+            .addFloat("a_TexCoordinate", mTextureCoordinateDataSize)
+            .build();
+
     // 纹理数据
     private int mTextureDataHandle;
 
@@ -360,6 +363,7 @@ public class LessonFourRenderer implements GLSurfaceView.Renderer {
         final int fragmentShaderHandle = ShaderHelper.compileShader(GLES20.GL_FRAGMENT_SHADER, getFragmentShader());
 
         mProgramHandle = ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, "a_Position", "a_Color", "a_Normal", "a_TexCoordinate");
+        mCubeLayout.resetLocations();
 
         // 加载纹理
         mTextureDataHandle = TextureHelper.loadTexture(mActivityContext, R.drawable.bumpy_bricks_public_domain);
@@ -406,12 +410,8 @@ public class LessonFourRenderer implements GLSurfaceView.Renderer {
         mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVPMatrix");
         mMVMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVMatrix");
         mLightPosHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_LightPos");
-        mPositionHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Position");
-        mColorHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Color");
-        mNormalHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Normal");
 
         mTextureUniformHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Texture");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_TexCoordinate");
 
         // 将纹理单元设置为纹理单元0
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
@@ -481,29 +481,8 @@ public class LessonFourRenderer implements GLSurfaceView.Renderer {
     }
 
     private void drawCube() {
-        // 传入位置信息
-        mCubePositions.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, mPositionDataSize, GLES20.GL_FLOAT, false,
-                0, mCubePositions);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // 传入颜色信息
-        mCubeColors.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, mColorDataSize, GLES20.GL_FLOAT, false,
-                0, mCubeColors);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // 传入法线信息
-        mCubeNormals.position(0);
-        GLES20.glVertexAttribPointer(mNormalHandle, mNormalDataSize, GLES20.GL_FLOAT, false,
-                0, mCubeNormals);
-        GLES20.glEnableVertexAttribArray(mNormalHandle);
-
-        // 传入纹理坐标信息
-        mCubeTextureCoordinates.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, mTextureCoordinateDataSize, GLES20.GL_FLOAT, false,
-                0, mCubeTextureCoordinates);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        // 传入位置、颜色、法线和纹理坐标信息
+        mCubeLayout.bind(mProgramHandle, mCubePositions, mCubeColors, mCubeNormals, mCubeTextureCoordinates);
 
         // 将视图矩阵乘以模型矩阵，并将结果存放到MVP Matrix（model * view）
         Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
@@ -5,9 +5,9 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.os.SystemClock;
 
+import com.xujiaji.learnopengl.common.VertexPacker;
+
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -15,9 +15,9 @@ import javax.microedition.khronos.opengles.GL10;
 public class LessonOneRenderer implements GLSurfaceView.Renderer {
 
     // new 类成员
-    private final FloatBuffer mTriangle1Vertices;
-    private final FloatBuffer mTriangle2Vertices;
-    private final FloatBuffer mTriangle3Vertices;
+    private final ByteBuffer mTriangle1Vertices;
+    private final ByteBuffer mTriangle2Vertices;
+    private final ByteBuffer mTriangle3Vertices;
 
     /** 每个Float多少字节*/
     private final int mBytePerFloat = 4;
@@ -80,17 +80,10 @@ public class LessonOneRenderer implements GLSurfaceView.Renderer {
                 0.0f, 0.559016994f, 0.0f,
                 0.0f, 0.0f, 0.0f, 1.0f};
 
-        // 初始化缓冲区
-        mTriangle1Vertices = ByteBuffer.allocateDirect(triangle1VerticesData.length * mBytePerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTriangle2Vertices = ByteBuffer.allocateDirect(triangle2VerticesData.length * mBytePerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTriangle3Vertices = ByteBuffer.allocateDirect(triangle3VerticesData.length * mBytePerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-
-        mTriangle1Vertices.put(triangle1VerticesData).position(0);
-        mTriangle2Vertices.put(triangle2VerticesData).position(0);
-        mTriangle3Vertices.put(triangle3VerticesData).position(0);
+        // 初始化缓冲区，颜色压缩成RGBA8
+        mTriangle1Vertices = VertexPacker.packColorsInterleaved(triangle1VerticesData, mPositionDataSize);
+        mTriangle2Vertices = VertexPacker.packColorsInterleaved(triangle2VerticesData, mPositionDataSize);
+        mTriangle3Vertices = VertexPacker.packColorsInterleaved(triangle3VerticesData, mPositionDataSize);
     }
 
     // new class 定义
@@ -271,17 +264,17 @@ public class LessonOneRenderer implements GLSurfaceView.Renderer {
     /** 为最终的组合矩阵分配存储空间，这将用来传入着色器程序*/
     private float[] mMVPMatrix = new float[16];
 
-    /** 每个顶点有多少字节组成，每次需要迈过这么一大步（每个顶点有7个元素，3个表示位置，4个表示颜色，7 * 4 = 28个字节）*/
-    private final int mStrideBytes = 7 * mBytePerFloat;
-
-    /** 位置数据偏移量*/
-    private final int mPositionOffset = 0;
-
     /** 一个元素的位置数据大小*/
     private final int mPositionDataSize = 3;
 
-    /** 颜色数据偏移量*/
-    private final int mColorOffset = 3;
+    /** 每个顶点有多少字节组成，每次需要迈过这么一大步（3个float表示位置，颜色压缩成4个字节，3 * 4 + 4 = 16个字节）*/
+    private final int mStrideBytes = mPositionDataSize * mBytePerFloat + VertexPacker.BYTES_PER_COLOR;
+
+    /** 位置数据字节偏移量*/
+    private final int mPositionOffset = 0;
+
+    /** 颜色数据字节偏移量*/
+    private final int mColorOffset = mPositionDataSize * mBytePerFloat;
 
     /** 一个元素的颜色数据大小*/
     private final int mColorDataSize = 4;
@@ -290,7 +283,7 @@ public class LessonOneRenderer implements GLSurfaceView.Renderer {
      * 从给定的顶点数据中绘制一个三角形
      * @param aTriangleBuffer 包含顶点数据的缓冲区
      */
-    private void drawTriangle(FloatBuffer aTriangleBuffer) {
+    private void drawTriangle(ByteBuffer aTriangleBuffer) {
         aTriangleBuffer.position(mPositionOffset);
         GLES20.glVertexAttribPointer(mPositionHandle, mPositionDataSize, GLES20.GL_FLOAT, false,
                 mStrideBytes, aTriangleBuffer);
@@ -299,7 +292,7 @@ public class LessonOneRenderer implements GLSurfaceView.Renderer {
 
         // 传入颜色信息
         aTriangleBuffer.position(mColorOffset);
-        GLES20.glVertexAttribPointer(mColorHandle, mColorDataSize, GLES20.GL_FLOAT, false,
+        GLES20.glVertexAttribPointer(mColorHandle, mColorDataSize, GLES20.GL_UNSIGNED_BYTE, true,
                 mStrideBytes, aTriangleBuffer);
 
         GLES20.glEnableVertexAttribArray(mColorHandle);
@@ -106,66 +106,54 @@ public class LessonSixActivity  extends AppCompatActivity {
     {
         mMinSetting = item;
 
-        mGLSurfaceView.queueEvent(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                final int filter;
+        // 过滤器在OpenGL线程上设置，命令放入渲染器预先分配的队列，下一帧开始时执行
+        final int filter;
 
-                if (item == 0)
-                {
-                    filter = GLES20.GL_NEAREST;
-                }
-                else if (item == 1)
-                {
-                    filter = GLES20.GL_LINEAR;
-                }
-                else if (item == 2)
-                {
-                    filter = GLES20.GL_NEAREST_MIPMAP_NEAREST;
-                }
-                else if (item == 3)
-                {
-                    filter = GLES20.GL_NEAREST_MIPMAP_LINEAR;
-                }
-                else if (item == 4)
-                {
-                    filter = GLES20.GL_LINEAR_MIPMAP_NEAREST;
-                }
-                else // if (item == 5)
-                {
-                    filter = GLES20.GL_LINEAR_MIPMAP_LINEAR;
-                }
+        if (item == 0)
+        {
+            filter = GLES20.GL_NEAREST;
+        }
+        else if (item == 1)
+        {
+            filter = GLES20.GL_LINEAR;
+        }
+        else if (item == 2)
+        {
+            filter = GLES20.GL_NEAREST_MIPMAP_NEAREST;
+        }
+        else if (item == 3)
+        {
+            filter = GLES20.GL_NEAREST_MIPMAP_LINEAR;
+        }
+        else if (item == 4)
+        {
+            filter = GLES20.GL_LINEAR_MIPMAP_NEAREST;
+        }
+        else // if (item == 5)
+        {
+            filter = GLES20.GL_LINEAR_MIPMAP_LINEAR;
+        }
 
-                mRenderer.setMinFilter(filter);
-            }
-        });
+        mRenderer.postCommand(LessonSixRenderer.CMD_SET_MIN_FILTER, filter);
     }
 
     private void setMagSetting(final int item)
     {
         mMagSetting = item;
 
-        mGLSurfaceView.queueEvent(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                final int filter;
+        // 过滤器在OpenGL线程上设置，命令放入渲染器预先分配的队列，下一帧开始时执行
+        final int filter;
 
-                if (item == 0)
-                {
-                    filter = GLES20.GL_NEAREST;
-                }
-                else // if (item == 1)
-                {
-                    filter = GLES20.GL_LINEAR;
-                }
+        if (item == 0)
+        {
+            filter = GLES20.GL_NEAREST;
+        }
+        else // if (item == 1)
+        {
+            filter = GLES20.GL_LINEAR;
+        }
 
-                mRenderer.setMagFilter(filter);
-            }
-        });
+        mRenderer.postCommand(LessonSixRenderer.CMD_SET_MAG_FILTER, filter);
     }
 
     @Override
@@ -15,6 +15,10 @@ public class LessonSixGLSurfaceView extends GLSurfaceView {
 
     private float mDensity;
 
+    // 队列满时还没有发送的偏移，和下一次的偏移一起发送
+    private float mPendingDeltaX;
+    private float mPendingDeltaY;
+
     public LessonSixGLSurfaceView(Context context) {
         super(context);
     }
@@ -34,8 +38,12 @@ public class LessonSixGLSurfaceView extends GLSurfaceView {
                 float deltaX = (x - mPreviousX) / mDensity / 2F;
                 float deltaY = (y - mPreviousY) / mDensity / 2F;
 
-                mRenderer.mDeltaX += deltaX;
-                mRenderer.mDeltaY += deltaY;
+                mPendingDeltaX += deltaX;
+                mPendingDeltaY += deltaY;
+                if (mRenderer.postRotation(mPendingDeltaX, mPendingDeltaY)) {
+                    mPendingDeltaX = 0.0F;
+                    mPendingDeltaY = 0.0F;
+                }
             }
         }
 
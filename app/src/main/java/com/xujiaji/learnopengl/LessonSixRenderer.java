@@ -8,9 +8,11 @@ import android.os.SystemClock;
 
 import com.xujiaji.learnopengl.common.BufferBuilder;
 import com.xujiaji.learnopengl.common.RawResourceReader;
+import com.xujiaji.learnopengl.common.RenderCommandQueue;
 import com.xujiaji.learnopengl.common.ShaderHelper;
 import com.xujiaji.learnopengl.common.ShapeBuilder;
 import com.xujiaji.learnopengl.common.TextureHelper;
+import com.xujiaji.learnopengl.common.VertexLayout;
 
 import java.nio.FloatBuffer;
 
@@ -35,6 +37,13 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
     private final FloatBuffer mCubeTextureCoordinates;
     private final FloatBuffer mCubeTextureCoordiantesForPlane;
 
+    /** 立方体和平面共用位置和法线，纹理坐标各自不同，所以每种数据在自己的缓冲区中 */
+    private final VertexLayout mCubeLayout = VertexLayout.separate()
+            .addFloat("a_Position", POSITION_SIZE)
+            .addFloat("a_Normal", NORMAL_SIZE)
+            .addFloat("a_TexCoordinate", COORDINATE_ZISE)
+            .build();
+
     /**
      * 存储view矩阵。可以认为这是一个相机，我们通过相机将世界空间转换为眼睛空间
      * 它定位相对于我们眼睛的东西
@@ -73,20 +82,41 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
     private int mMVPMatrixHandle;
     private int mMVMatrixHandle;
     private int mLightPosHandle;
-    private int mPositionHandle;
-    private int mNormalHandle;
 
     private int mTextureUniformHandle;
-    private int mTextureCoordinateHandle;
 
 
     // 在Activity被重启的时候，保存放大和缩小的过滤器
     private int mQueueMinFilter;
     private int mQueueMagFilter;
 
-    // 没有volatile仍然工作，但是不保证能刷新
-    public volatile float mDeltaX;
-    public volatile float mDeltaY;
+    // 这一帧累积的触摸偏移，只在OpenGL线程访问
+    private float mDeltaX;
+    private float mDeltaY;
+
+    /** 设置缩小的过滤器，参数是过滤器 */
+    public static final int CMD_SET_MIN_FILTER = 0;
+    /** 设置放大的过滤器，参数是过滤器 */
+    public static final int CMD_SET_MAG_FILTER = 1;
+    /** 旋转立方体，两个参数是x和y方向的触摸偏移 */
+    public static final int CMD_ROTATE = 2;
+
+    // UI线程发送的命令，在onDrawFrame()的开头处理
+    private final RenderCommandQueue mCommands = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+
+    private final RenderCommandQueue.Handler mCommandHandler = new RenderCommandQueue.Handler() {
+        @Override
+        public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+            if (type == CMD_SET_MIN_FILTER) {
+                setMinFilter(intArg);
+            } else if (type == CMD_SET_MAG_FILTER) {
+                setMagFilter(intArg);
+            } else if (type == CMD_ROTATE) {
+                mDeltaX += floatArg1;
+                mDeltaY += floatArg2;
+            }
+        }
+    };
 
     public LessonSixRenderer(Context context) {
         this.mActivityContext = context;
@@ -173,6 +203,7 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
 
         mProgramHandle = ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle,
                 "a_Position", "a_Normal", "a_TexCoordinate");
+        mCubeLayout.resetLocations();
 
         final String pointVertexShader = RawResourceReader.readTextFileFromRawResource(mActivityContext, R.raw.point_vertex_shader);
         final String pointFragmentShader = RawResourceReader.readTextFileFromRawResource(mActivityContext, R.raw.point_fragment_shader);
@@ -202,6 +233,24 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
         Matrix.setIdentityM(mAccumulatedRotation, 0);
     }
 
+    /**
+     * 在UI线程调用，下一帧在OpenGL线程执行
+     *
+     * @return 队列满了时返回false，命令被丢弃
+     */
+    public boolean postCommand(int type, int intArg) {
+        return mCommands.offer(type, intArg);
+    }
+
+    /**
+     * 在UI线程调用，偏移在下一帧加到旋转上
+     *
+     * @return 队列满了时返回false，调用者保留偏移，和下一次的偏移一起发送
+     */
+    public boolean postRotation(float deltaX, float deltaY) {
+        return mCommands.offer(CMD_ROTATE, deltaX, deltaY);
+    }
+
     public void setMinFilter(final int filter) {
         if (mBrickDataHandle != 0 && mGrassDataHandle != 0) {
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mBrickDataHandle);
@@ -243,6 +292,8 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        mCommands.drain(mCommandHandler);
+
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
         // 每10s完成一次旋转
@@ -258,9 +309,6 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
         mMVMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVMatrix");
         mLightPosHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_LightPos");
         mTextureUniformHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Texture");
-        mPositionHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Position");
-        mNormalHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Normal");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_TexCoordinate");
 
         // 计算光源的位置，旋转并移动位置
         Matrix.setIdentityM(mLightModelMatrix, 0);
@@ -300,14 +348,7 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
         // 通过绑定到纹理单元0，告诉纹理统一采样器在着色器中使用此纹理
         GLES20.glUniform1i(mTextureUniformHandle, 0);
 
-        // 传入纹理坐标信息
-        mCubeTextureCoordinates.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, COORDINATE_ZISE,
-                GLES20.GL_FLOAT, false,
-                0, mCubeTextureCoordinates);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-
-        drawCube();
+        drawCube(mCubeTextureCoordinates);
 
         // 绘制平面
         Matrix.setIdentityM(mModelMatrix, 0);
@@ -324,14 +365,7 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
         // 通过绑定到纹理单元0，告诉纹理统一采样器在着色器中使用此纹理
         GLES20.glUniform1i(mTextureUniformHandle, 0);
 
-        // 传入纹理坐标信息
-        mCubeTextureCoordiantesForPlane.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, COORDINATE_ZISE,
-                GLES20.GL_FLOAT, false,
-                0, mCubeTextureCoordiantesForPlane);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-
-        drawCube();
+        drawCube(mCubeTextureCoordiantesForPlane);
 
         // 绘制光源
         GLES20.glUseProgram(mPointProgramHandle);
@@ -340,19 +374,12 @@ public class LessonSixRenderer implements GLSurfaceView.Renderer {
 
     /**
      * 画立方体
+     *
+     * @param textureCoordinates 这个立方体使用的纹理坐标
      */
-    private void drawCube() {
-        // 传入位置信息
-        mCubePositions.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, POSITION_SIZE, GLES20.GL_FLOAT, false,
-                0, mCubePositions);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // 传入法线信息
-        mCubeNormals.position(0);
-        GLES20.glVertexAttribPointer(mNormalHandle, NORMAL_SIZE, GLES20.GL_FLOAT, false,
-                0, mCubeNormals);
-        GLES20.glEnableVertexAttribArray(mNormalHandle);
+    private void drawCube(FloatBuffer textureCoordinates) {
+        // 传入位置、法线和纹理坐标信息
+        mCubeLayout.bind(mProgramHandle, mCubePositions, mCubeNormals, textureCoordinates);
 
         // 将视图矩阵乘以模型矩阵，并将结果存放到MVP Matrix（model * view）
         Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
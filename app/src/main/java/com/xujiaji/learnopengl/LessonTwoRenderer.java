@@ -6,6 +6,8 @@ import android.opengl.Matrix;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.xujiaji.learnopengl.common.VertexLayout;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -33,6 +35,13 @@ public class LessonTwoRenderer implements GLSurfaceView.Renderer {
     private final FloatBuffer mCubeColors;
     private final FloatBuffer mCubeNormals;
 
+    /** 立方体的顶点格式，位置、颜色、法线各在自己的缓冲区中 */
+    private final VertexLayout mCubeLayout = VertexLayout.separate()
+            .addFloat("a_Position", mPositionDataSize)
+            .addFloat("a_Color", mColorDataSize)
+            .addFloat("a_Normal", mNormalDataSize)
+            .build();
+
     private float[] mModelMatrix = new float[16];
     /**
      * 存储view矩阵。可以认为这是一个相机，我们通过相机将世界空间转换为眼睛空间
@@ -65,9 +74,6 @@ public class LessonTwoRenderer implements GLSurfaceView.Renderer {
     private int mMVPMatrixHandle;
     private int mMVMatrixHandle;
     private int mLightPosHandle;
-    private int mPositionHandle;
-    private int mColorHandle;
-    private int mNormalHandle;
 
     public LessonTwoRenderer() {
         //X, Y, Z
@@ -371,6 +377,7 @@ public class LessonTwoRenderer implements GLSurfaceView.Renderer {
         final int fragmentShaderHandle = compileShader(GLES20.GL_FRAGMENT_SHADER, getFragmentShader2());
 
         mPerVertexProgramHandle = createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, "a_Position", "a_Color", "a_Normal");
+        mCubeLayout.resetLocations();
         // 定义一个简单的着色程序
         final String pointVertexShader =
                 "uniform mat4 u_MVPMatrix;                  \n" +
@@ -484,9 +491,6 @@ public class LessonTwoRenderer implements GLSurfaceView.Renderer {
         mMVPMatrixHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_MVPMatrix");
         mMVMatrixHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_MVMatrix");
         mLightPosHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_LightPos");
-        mPositionHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_Position");
-        mColorHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_Color");
-        mNormalHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_Normal");
 
         // 计算光源的位置，旋转并移动位置
         Matrix.setIdentityM(mLightModelMatrix, 0);
@@ -547,23 +551,8 @@ public class LessonTwoRenderer implements GLSurfaceView.Renderer {
     }
 
     private void drawCube() {
-        // 传入位置信息
-        mCubePositions.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, mPositionDataSize, GLES20.GL_FLOAT, false,
-                0, mCubePositions);
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // 传入颜色信息
-        mCubeColors.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, mColorDataSize, GLES20.GL_FLOAT, false,
-                0, mCubeColors);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
-
-        // 传入法线信息
-        mCubeNormals.position(0);
-        GLES20.glVertexAttribPointer(mNormalHandle, mNormalDataSize, GLES20.GL_FLOAT, false,
-                0, mCubeNormals);
-        GLES20.glEnableVertexAttribArray(mNormalHandle);
+        // 传入位置、颜色和法线信息
+        mCubeLayout.bind(mPerVertexProgramHandle, mCubePositions, mCubeColors, mCubeNormals);
 
         // 将视图矩阵乘以模型矩阵，并将结果存放到MVP Matrix（model * view）
         Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
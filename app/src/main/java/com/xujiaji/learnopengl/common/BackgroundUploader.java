@@ -0,0 +1,312 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * 在后台线程上用和渲染上下文共享的OpenGL上下文创建资源，上传不再和绘制抢渲染线程。
+ *
+ * 后台线程把排队的任务按顺序执行完之后调用一次glFinish，GLES 2.0没有fence，
+ * glFinish返回之后其他共享上下文才保证能看到这些数据。然后才在渲染线程上把任务标记为完成。
+ * 后台线程不能绑定共享上下文时，所有任务都改为在渲染线程上执行。
+ */
+public class BackgroundUploader {
+
+    /** 后台线程使用的OpenGL调用，测试中可以替换成假的实现 */
+    public interface GlFacade {
+        /**
+         * 在当前线程绑定共享上下文
+         *
+         * @return 不支持共享上下文时返回false
+         */
+        boolean makeCurrent();
+
+        void releaseCurrent();
+
+        void bufferData(int target, int bufferId, int size, Buffer data, int usage);
+
+        void finish();
+    }
+
+    private static final int STATE_NEW = 0;
+    private static final int STATE_SHARED = 1;
+    private static final int STATE_FALLBACK = 2;
+    private static final int STATE_SHUT_DOWN = 3;
+
+    private final GlFacade mGl;
+    private final Executor mRenderThread;
+    private final Thread mThread;
+
+    private final ArrayDeque<Task> mTasks = new ArrayDeque<>();
+    private int mState = STATE_NEW;
+
+    /**
+     * @param renderThread 在渲染线程上执行，比如GLSurfaceView.queueEvent
+     */
+    public BackgroundUploader(GlFacade gl, Executor renderThread) {
+        this.mGl = gl;
+        this.mRenderThread = renderThread;
+        this.mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        }, "BackgroundUploader");
+    }
+
+    /**
+     * 启动后台线程，等它绑定共享上下文
+     *
+     * @return 后台线程可以上传时返回true，否则所有任务都会在渲染线程上执行
+     */
+    public boolean start() {
+        mThread.start();
+
+        synchronized (this) {
+            boolean interrupted = false;
+            while (mState == STATE_NEW) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return mState == STATE_SHARED;
+        }
+    }
+
+    public synchronized boolean isShared() {
+        return mState == STATE_SHARED;
+    }
+
+    /**
+     * 在有OpenGL上下文的线程上执行glWork，完成之后在渲染线程上执行onComplete
+     *
+     * @param onComplete 可以为null，任务被取消时不会执行
+     */
+    public Task submit(Runnable glWork, Runnable onComplete) {
+        return submit(glWork, onComplete, null);
+    }
+
+    /**
+     * @param onFinished 可以为null。glWork不再运行之后执行，比如释放它读取的客户端缓冲区：
+     *                   后台线程上在glFinish返回之后，任务被取消或者没有执行就停止时也会执行。
+     *                   可能在任何线程上执行
+     */
+    public Task submit(Runnable glWork, Runnable onComplete, Runnable onFinished) {
+        final Task task = new Task(glWork, onComplete, onFinished);
+
+        synchronized (this) {
+            if (mState == STATE_NEW || mState == STATE_SHUT_DOWN) {
+                throw new IllegalStateException("BackgroundUploader is not running.");
+            }
+
+            if (mState == STATE_SHARED) {
+                mTasks.add(task);
+                notifyAll();
+                return task;
+            }
+        }
+
+        mRenderThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!task.mCancelled) {
+                        task.mGlWork.run();
+                        task.complete();
+                    }
+                } finally {
+                    task.finish();
+                }
+            }
+        });
+        return task;
+    }
+
+    /**
+     * 用glBufferData上传data从0到capacity的全部内容。上传完成之前调用者需要保持内容不变
+     */
+    public Task upload(int target, int bufferId, Buffer data, int usage, Runnable onComplete) {
+        return upload(target, bufferId, data, usage, onComplete, null);
+    }
+
+    /**
+     * @param onFinished 不再读取data之后执行，见{@link #submit(Runnable, Runnable, Runnable)}
+     */
+    public Task upload(final int target, final int bufferId, Buffer data, final int usage, Runnable onComplete,
+                       Runnable onFinished) {
+        // 使用自己的视图，渲染线程移动data的位置不影响后台线程
+        final Buffer view = duplicate(data);
+        final int size = (int) MeshCache.getByteSize(data);
+
+        return submit(new Runnable() {
+            @Override
+            public void run() {
+                mGl.bufferData(target, bufferId, size, view, usage);
+            }
+        }, onComplete, onFinished);
+    }
+
+    /**
+     * 停止后台线程并释放上下文，还没有执行的任务不再执行。需要在销毁共享上下文之前调用
+     */
+    public void shutdown() {
+        final Task[] skipped;
+        synchronized (this) {
+            if (mState == STATE_NEW) {
+                mState = STATE_SHUT_DOWN;
+                return;
+            }
+            mState = STATE_SHUT_DOWN;
+            skipped = mTasks.toArray(new Task[mTasks.size()]);
+            mTasks.clear();
+            notifyAll();
+        }
+
+        // 后台线程不会再取走这些任务
+        for (Task task : skipped) {
+            task.finish();
+        }
+
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWorker() {
+        final boolean shared = mGl.makeCurrent();
+
+        synchronized (this) {
+            if (mState == STATE_NEW) {
+                mState = shared ? STATE_SHARED : STATE_FALLBACK;
+            }
+            notifyAll();
+        }
+
+        if (!shared) {
+            return;
+        }
+
+        try {
+            final ArrayList<Task> batch = new ArrayList<>();
+            while (true) {
+                synchronized (this) {
+                    while (mTasks.isEmpty() && mState != STATE_SHUT_DOWN) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            mState = STATE_SHUT_DOWN;
+                        }
+                    }
+                    if (mState == STATE_SHUT_DOWN) {
+                        return;
+                    }
+                    batch.addAll(mTasks);
+                    mTasks.clear();
+                }
+
+                for (Task task : batch) {
+                    if (!task.mCancelled) {
+                        task.mGlWork.run();
+                    }
+                }
+
+                // 一批任务只需要等一次
+                mGl.finish();
+
+                // 数据已经到了OpenGL的内存，包括取消的任务在内都不再需要客户端缓冲区
+                final Task[] completed = batch.toArray(new Task[batch.size()]);
+                for (Task task : completed) {
+                    task.finish();
+                }
+
+                batch.clear();
+                mRenderThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Task task : completed) {
+                            task.complete();
+                        }
+                    }
+                });
+            }
+        } finally {
+            mGl.releaseCurrent();
+        }
+    }
+
+    private static Buffer duplicate(Buffer buffer) {
+        final Buffer duplicate;
+        if (buffer instanceof FloatBuffer) {
+            duplicate = ((FloatBuffer) buffer).duplicate();
+        } else if (buffer instanceof ShortBuffer) {
+            duplicate = ((ShortBuffer) buffer).duplicate();
+        } else if (buffer instanceof ByteBuffer) {
+            duplicate = ((ByteBuffer) buffer).duplicate();
+        } else {
+            throw new IllegalArgumentException("Unsupported buffer type: " + buffer.getClass());
+        }
+        duplicate.clear();
+        return duplicate;
+    }
+
+    public static final class Task implements PendingUpload {
+        private final Runnable mGlWork;
+        private final Runnable mOnComplete;
+        private final Runnable mOnFinished;
+
+        // 只在渲染线程上修改
+        private volatile boolean mComplete;
+        private volatile boolean mCancelled;
+
+        Task(Runnable glWork, Runnable onComplete, Runnable onFinished) {
+            this.mGlWork = glWork;
+            this.mOnComplete = onComplete;
+            this.mOnFinished = onFinished;
+        }
+
+        /** 每个任务只调用一次，之后不会再运行mGlWork */
+        void finish() {
+            if (mOnFinished != null) {
+                mOnFinished.run();
+            }
+        }
+
+        void complete() {
+            if (mCancelled) {
+                return;
+            }
+            mComplete = true;
+            if (mOnComplete != null) {
+                mOnComplete.run();
+            }
+        }
+
+        @Override
+        public boolean isComplete() {
+            return mComplete;
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
+}
@@ -9,6 +9,9 @@ public class BufferBuilder {
     // 每个float由4个字节组成
     private final static int BYTE_PER_FLOAT = 4;
 
+    /**
+     * 生成的缓冲区和渲染器一样长寿，直接分配，不从DirectBufferPool取出，否则池中的租约会一直持有它们
+     */
     public static FloatBuffer generate(float[] data) {
         FloatBuffer fb = ByteBuffer.allocateDirect(data.length * BYTE_PER_FLOAT)
                 .order(ByteOrder.nativeOrder())
@@ -0,0 +1,243 @@
+package com.xujiaji.learnopengl.common;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 把大的VBO分成固定大小的块，每帧最多上传一定的字节数，避免一次glBufferData让一帧卡住。
+ *
+ * upload()时立即用glBufferData分配整个缓冲区，之后每次onFrame()用glBufferSubData按顺序上传一些块。
+ * 所有方法都必须在OpenGL线程调用。上传完成之前，调用者需要保持客户端缓冲区的内容不变。
+ */
+public class ChunkedBufferUploader {
+
+    /** 上传使用的OpenGL调用，测试中可以替换成假的实现 */
+    public interface GlFacade {
+        /** 分配bufferId的存储，不上传数据 */
+        void bufferData(int target, int bufferId, int size, int usage);
+
+        /** 从data的当前位置开始读取size字节，写入bufferId的offset处 */
+        void bufferSubData(int target, int bufferId, int offset, int size, Buffer data);
+    }
+
+    /** 在当前线程的OpenGL上下文上调用GLES20 */
+    private static final GlFacade GLES20_FACADE = new GlFacade() {
+        @Override
+        public void bufferData(int target, int bufferId, int size, int usage) {
+            GLES20.glBindBuffer(target, bufferId);
+            GLES20.glBufferData(target, size, null, usage);
+            GLES20.glBindBuffer(target, 0);
+        }
+
+        @Override
+        public void bufferSubData(int target, int bufferId, int offset, int size, Buffer data) {
+            GLES20.glBindBuffer(target, bufferId);
+            GLES20.glBufferSubData(target, offset, size, data);
+            GLES20.glBindBuffer(target, 0);
+        }
+    };
+
+    public static final int DEFAULT_CHUNK_BYTES = 256 * 1024;
+    public static final int DEFAULT_BYTES_PER_FRAME = 1024 * 1024;
+
+    private final GlFacade mGl;
+    private final ArrayDeque<Upload> mUploads = new ArrayDeque<>();
+
+    private final int mChunkBytes;
+    private int mBytesPerFrame;
+
+    private int mLastFrameUploadBytes;
+    private long mLastFrameUploadNanos;
+    private long mMaxFrameUploadNanos;
+    private long mTotalUploadNanos;
+    private int mUploadFrameCount;
+
+    public ChunkedBufferUploader() {
+        this(DEFAULT_CHUNK_BYTES, DEFAULT_BYTES_PER_FRAME);
+    }
+
+    /**
+     * @param chunkBytes 每次glBufferSubData的字节数，需要是8的倍数，这样块的边界总是对齐到元素
+     * @param bytesPerFrame 每帧最多上传的字节数，每帧至少会上传一块，预算小于一块时这一帧只上传一块
+     */
+    public ChunkedBufferUploader(int chunkBytes, int bytesPerFrame) {
+        this(GLES20_FACADE, chunkBytes, bytesPerFrame);
+    }
+
+    /**
+     * @param gl 执行上传的OpenGL调用
+     */
+    public ChunkedBufferUploader(GlFacade gl, int chunkBytes, int bytesPerFrame) {
+        if (chunkBytes <= 0 || chunkBytes % 8 != 0) {
+            throw new IllegalArgumentException("chunkBytes must be a positive multiple of 8: " + chunkBytes);
+        }
+        this.mGl = gl;
+        this.mChunkBytes = chunkBytes;
+        this.mBytesPerFrame = bytesPerFrame;
+    }
+
+    /**
+     * 分配bufferId的存储，并排队上传data从0到capacity的全部内容
+     */
+    public Upload upload(int target, int bufferId, Buffer data, int usage) {
+        final Upload upload = new Upload(this, target, bufferId, data);
+
+        mGl.bufferData(target, bufferId, upload.mByteCount, usage);
+        mUploads.add(upload);
+        return upload;
+    }
+
+    /** 不再需要的上传，比如缓冲区在上传完之前就被删除了 */
+    public void cancel(Upload upload) {
+        mUploads.remove(upload);
+    }
+
+    /** 取消所有排队的上传，比如OpenGL上下文丢失之后，旧的缓冲区编号可能已经分配给新的缓冲区 */
+    public void cancelAll() {
+        mUploads.clear();
+    }
+
+    /**
+     * 每帧调用一次，按顺序上传不超过每帧预算的块，最后一块截短到剩下的预算
+     *
+     * @return 这一帧上传的字节数
+     */
+    public int onFrame() {
+        if (mUploads.isEmpty()) {
+            mLastFrameUploadBytes = 0;
+            mLastFrameUploadNanos = 0;
+            return 0;
+        }
+
+        final long startTime = System.nanoTime();
+        int bytesUploaded = 0;
+
+        while (!mUploads.isEmpty()) {
+            // 第一块总是完整的，之后的块不超过剩下的预算，向下对齐到8字节
+            final int chunkBytes = bytesUploaded == 0
+                    ? mChunkBytes : Math.min(mChunkBytes, (mBytesPerFrame - bytesUploaded) & ~7);
+            if (chunkBytes <= 0) {
+                break;
+            }
+
+            final Upload upload = mUploads.peek();
+            bytesUploaded += upload.uploadChunk(chunkBytes);
+            if (upload.isComplete()) {
+                mUploads.poll();
+            }
+        }
+
+        mLastFrameUploadBytes = bytesUploaded;
+        mLastFrameUploadNanos = System.nanoTime() - startTime;
+        mMaxFrameUploadNanos = Math.max(mMaxFrameUploadNanos, mLastFrameUploadNanos);
+        mTotalUploadNanos += mLastFrameUploadNanos;
+        mUploadFrameCount++;
+        return bytesUploaded;
+    }
+
+    public boolean isIdle() {
+        return mUploads.isEmpty();
+    }
+
+    public void setBytesPerFrame(int bytesPerFrame) {
+        mBytesPerFrame = bytesPerFrame;
+    }
+
+    public int getBytesPerFrame() {
+        return mBytesPerFrame;
+    }
+
+    public int getLastFrameUploadBytes() {
+        return mLastFrameUploadBytes;
+    }
+
+    /** 上一帧在glBufferSubData上花费的CPU时间，驱动可能延后真正的拷贝 */
+    public long getLastFrameUploadNanos() {
+        return mLastFrameUploadNanos;
+    }
+
+    public long getMaxFrameUploadNanos() {
+        return mMaxFrameUploadNanos;
+    }
+
+    /** 所有帧在glBufferSubData上花费的时间 */
+    public long getTotalUploadNanos() {
+        return mTotalUploadNanos;
+    }
+
+    /** 上传过数据的帧数 */
+    public int getUploadFrameCount() {
+        return mUploadFrameCount;
+    }
+
+    public void resetStatistics() {
+        mMaxFrameUploadNanos = 0;
+        mTotalUploadNanos = 0;
+        mUploadFrameCount = 0;
+    }
+
+    public static final class Upload implements PendingUpload {
+        private final ChunkedBufferUploader mUploader;
+        private final int mTarget;
+        private final int mBufferId;
+        private final Buffer mData;
+        private final int mBytesPerElement;
+        private final int mByteCount;
+        private int mBytesUploaded;
+
+        Upload(ChunkedBufferUploader uploader, int target, int bufferId, Buffer data) {
+            this.mUploader = uploader;
+            this.mTarget = target;
+            this.mBufferId = bufferId;
+            this.mData = data;
+            this.mBytesPerElement = getBytesPerElement(data);
+            this.mByteCount = data.capacity() * mBytesPerElement;
+        }
+
+        int uploadChunk(int chunkBytes) {
+            final int bytes = Math.min(chunkBytes, mByteCount - mBytesUploaded);
+
+            // glBufferSubData从缓冲区当前的位置开始读取
+            mData.position(mBytesUploaded / mBytesPerElement);
+            mUploader.mGl.bufferSubData(mTarget, mBufferId, mBytesUploaded, bytes, mData);
+            mData.position(0);
+
+            mBytesUploaded += bytes;
+            return bytes;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return mBytesUploaded == mByteCount;
+        }
+
+        @Override
+        public void cancel() {
+            mUploader.cancel(this);
+        }
+
+        public int getBytesUploaded() {
+            return mBytesUploaded;
+        }
+
+        public int getByteCount() {
+            return mByteCount;
+        }
+
+        private static int getBytesPerElement(Buffer data) {
+            if (data instanceof FloatBuffer) {
+                return 4;
+            } else if (data instanceof ShortBuffer) {
+                return 2;
+            } else if (data instanceof ByteBuffer) {
+                return 1;
+            }
+            throw new IllegalArgumentException("Unsupported buffer type: " + data.getClass());
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * 把cubeFactor * cubeFactor * cubeFactor的立方体网格分成边长chunkSize的块，数据按块连续存放，
+ * 每块是缓冲区中连续的一段立方体，可以单独绘制。块按x、y、z嵌套的顺序排列，块内的立方体也是这个顺序。
+ *
+ * x相同的块是连续的，所以每一层块也可以作为一片并行生成。
+ * cull()用视锥体测试每块的包围盒，结果保存在这个对象中，只应该在一个线程（OpenGL线程）上调用。
+ *
+ * putCubeGridFaceData等方法按面的方向分成6段（ShapeBuilder.FACE_FRONT...FACE_BOTTOM），每段中立方体仍然按块排列。
+ * 网格和坐标轴对齐，眼睛在包围盒外面时一块最多有3个方向朝向眼睛，所以每块只需要绘制cull()留下的方向。
+ *
+ * 每块还有更粗的细节层次（LOD）：第1级把2×2×2个立方体合并成一个盒子，第2级整块只有一个盒子。
+ * 每级的盒子都在块的包围盒中，所以cull()的结果对所有级别都成立。selectLods()按块在屏幕上的大小为每块选择一级。
+ *
+ * 使用ORDER_MORTON时块内的盒子按Morton码（Z序）排列，空间上相邻的盒子在缓冲区中也靠近，
+ * 块内对齐的八叉树节点是这一块中连续的一段盒子，范围由getMortonOrder()给出。块的顺序不变。
+ */
+public class CubeGridChunks {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8;
+
+    /** 细节层次的数量，第0级是每个立方体 */
+    public static final int LOD_COUNT = 3;
+
+    /** 一个立方体在屏幕上小于这么多像素时换成下一级，第i个元素是第i级和第i+1级的界限 */
+    static final float[] LOD_MIN_CUBE_PIXELS = {4.0F, 1.0F};
+
+    /** 界限两边各留出这个比例，屏幕大小在界限附近来回变化时不会反复切换 */
+    static final float LOD_HYSTERESIS = 1.25F;
+
+    // 眼睛在包围盒中时的距离，这时总是使用第0级
+    private static final float MIN_LOD_DISTANCE = 1e-3F;
+
+    /** 块内盒子的顺序：x、y、z嵌套，或者Morton码 */
+    public static final int ORDER_LINEAR = 0;
+    public static final int ORDER_MORTON = 1;
+
+    // putLodBoxes()的输出格式
+    private static final int FORMAT_ARRAYS = 0;
+    private static final int FORMAT_INDEXED = 1;
+    private static final int FORMAT_CUBE_INDEX = 2;
+
+    private final int mCubeFactor;
+    private final int mChunkSize;
+    private final int mChunksPerAxis;
+    private final float mMinPosition;
+    private final float mMaxPosition;
+
+    // 每块第一个立方体的序号，最后多一个元素等于立方体总数
+    private final int[] mFirstCubes;
+
+    // 每一级中每块第一个盒子的序号，第0级就是mFirstCubes
+    private final int[][] mFirstBoxes;
+
+    // 每一级之前所有级别的盒子数
+    private final int[] mLodBases = new int[LOD_COUNT + 1];
+
+    // 每块的包围盒：minX, minY, minZ, maxX, maxY, maxZ
+    private final float[] mBounds;
+
+    // 每块可能朝向眼睛的方向，第face位对应ShapeBuilder.FACE_*，0表示整块不可见
+    private final int[] mFaceMasks;
+    private int mVisibleCount;
+
+    // 每块最后一次selectLods()选择的级别，以及每一级的可见块数
+    private final int[] mLods;
+    private final int[] mLodChunkCounts = new int[LOD_COUNT];
+
+    // ORDER_MORTON时每一级块内盒子的顺序，按块在每个轴上是否不完整分成8种，第i位对应第i个轴；ORDER_LINEAR时为null
+    private final MortonOrder[][] mMortonOrders;
+
+    /** 所有方向 */
+    public static final int ALL_FACES = (1 << ShapeBuilder.FACE_COUNT) - 1;
+
+    public CubeGridChunks(int cubeFactor, int chunkSize, float minPosition, float maxPosition) {
+        this(cubeFactor, chunkSize, minPosition, maxPosition, ORDER_LINEAR);
+    }
+
+    /**
+     * @param cubeOrder ORDER_LINEAR或者ORDER_MORTON
+     */
+    public CubeGridChunks(int cubeFactor, int chunkSize, float minPosition, float maxPosition, int cubeOrder) {
+        if (cubeFactor < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid cube factor " + cubeFactor + " or chunk size " + chunkSize);
+        }
+        mCubeFactor = cubeFactor;
+        mChunkSize = chunkSize;
+        mChunksPerAxis = (cubeFactor + chunkSize - 1) / chunkSize;
+        mMinPosition = minPosition;
+        mMaxPosition = maxPosition;
+
+        final int chunkCount = mChunksPerAxis * mChunksPerAxis * mChunksPerAxis;
+        mFirstCubes = new int[chunkCount + 1];
+        mBounds = new float[chunkCount * 6];
+        mFaceMasks = new int[chunkCount];
+        mLods = new int[chunkCount];
+        mFirstBoxes = new int[LOD_COUNT][];
+        mFirstBoxes[0] = mFirstCubes;
+        for (int level = 1; level < LOD_COUNT; level++) {
+            mFirstBoxes[level] = new int[chunkCount + 1];
+        }
+
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            for (int level = 0; level < LOD_COUNT; level++) {
+                final int groupSize = getLodGroupSize(level, chunkSize);
+                int boxes = 1;
+                for (int axis = 0; axis < 3; axis++) {
+                    boxes *= (getTo(chunk, axis) - getFrom(chunk, axis) + groupSize - 1) / groupSize;
+                }
+                mFirstBoxes[level][chunk + 1] = mFirstBoxes[level][chunk] + boxes;
+            }
+
+            for (int axis = 0; axis < 3; axis++) {
+                mBounds[chunk * 6 + axis] = getLow(getFrom(chunk, axis));
+                mBounds[chunk * 6 + 3 + axis] = getHigh(getTo(chunk, axis) - 1);
+            }
+            mFaceMasks[chunk] = ALL_FACES;
+        }
+        mVisibleCount = chunkCount;
+        mLodChunkCounts[0] = chunkCount;
+
+        for (int level = 0; level < LOD_COUNT; level++) {
+            mLodBases[level + 1] = mLodBases[level] + mFirstBoxes[level][chunkCount];
+        }
+
+        mMortonOrders = cubeOrder == ORDER_MORTON ? createMortonOrders() : null;
+    }
+
+    // 完整的块和最后一层不完整的块在每一级的盒子数只有两种，所以只有8种形状
+    private MortonOrder[][] createMortonOrders() {
+        final int remainder = mCubeFactor - (mChunksPerAxis - 1) * mChunkSize;
+        final MortonOrder[][] orders = new MortonOrder[LOD_COUNT][8];
+        for (int level = 0; level < LOD_COUNT; level++) {
+            final int groupSize = getLodGroupSize(level, mChunkSize);
+            final int fullBoxes = (Math.min(mChunkSize, mCubeFactor) + groupSize - 1) / groupSize;
+            final int partialBoxes = (remainder + groupSize - 1) / groupSize;
+            for (int shape = 0; shape < 8; shape++) {
+                orders[level][shape] = new MortonOrder((shape & 1) != 0 ? partialBoxes : fullBoxes,
+                        (shape & 2) != 0 ? partialBoxes : fullBoxes, (shape & 4) != 0 ? partialBoxes : fullBoxes);
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * 不创建对象就能算出所有级别一共有多少个盒子，和getMeshBoxCount()相同
+     */
+    public static int getMeshBoxCount(int cubeFactor, int chunkSize) {
+        int boxCount = 0;
+        for (int level = 0; level < LOD_COUNT; level++) {
+            final int groupSize = getLodGroupSize(level, chunkSize);
+            // 每一级的盒子在三个轴上独立划分，所以总数是一个轴上盒子数的立方
+            int boxesPerAxis = 0;
+            for (int from = 0; from < cubeFactor; from += chunkSize) {
+                boxesPerAxis += (Math.min(from + chunkSize, cubeFactor) - from + groupSize - 1) / groupSize;
+            }
+            boxCount += boxesPerAxis * boxesPerAxis * boxesPerAxis;
+        }
+        return boxCount;
+    }
+
+    /** 第level级中每个盒子在每个轴上最多包含几个立方体 */
+    private static int getLodGroupSize(int level, int chunkSize) {
+        if (level == 0) {
+            return 1;
+        } else if (level == LOD_COUNT - 1) {
+            return chunkSize;
+        } else {
+            return 2;
+        }
+    }
+
+    // 第cube个立方体的最小和最大坐标，和ShapeBuilder计算立方体位置的表达式相同
+    private float getLow(int cube) {
+        final int segments = mCubeFactor + (mCubeFactor - 1);
+        return mMinPosition + (((mMaxPosition - mMinPosition) / segments) * (cube * 2));
+    }
+
+    private float getHigh(int cube) {
+        final int segments = mCubeFactor + (mCubeFactor - 1);
+        return mMinPosition + (((mMaxPosition - mMinPosition) / segments) * ((cube * 2) + 1));
+    }
+
+    public int getCubeFactor() {
+        return mCubeFactor;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public int getCubeOrder() {
+        return mMortonOrders != null ? ORDER_MORTON : ORDER_LINEAR;
+    }
+
+    /**
+     * ORDER_MORTON时第level级中这块的盒子顺序，坐标以盒子为单位。八叉树节点的盒子从
+     * getFirstBox(level, chunk) + order.getNodeFirst(...)开始连续存放；ORDER_LINEAR时返回null
+     */
+    public MortonOrder getMortonOrder(int level, int chunk) {
+        if (mMortonOrders == null) {
+            return null;
+        }
+        int shape = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            if (getTo(chunk, axis) - getFrom(chunk, axis) < Math.min(mChunkSize, mCubeFactor)) {
+                shape |= 1 << axis;
+            }
+        }
+        return mMortonOrders[level][shape];
+    }
+
+    public int getChunksPerAxis() {
+        return mChunksPerAxis;
+    }
+
+    public int getChunkCount() {
+        return mFaceMasks.length;
+    }
+
+    public int getTotalCubeCount() {
+        return mFirstCubes[mFaceMasks.length];
+    }
+
+    /** 块中第一个立方体在缓冲区中的序号；chunk等于getChunkCount()时返回立方体总数 */
+    public int getFirstCube(int chunk) {
+        return mFirstCubes[chunk];
+    }
+
+    public int getCubeCount(int chunk) {
+        return mFirstCubes[chunk + 1] - mFirstCubes[chunk];
+    }
+
+    /**
+     * @param axis 0、1、2分别是x、y、z
+     * @return 块在这个轴上第一个立方体的坐标
+     */
+    public int getFrom(int chunk, int axis) {
+        return getChunkCoordinate(chunk, axis) * mChunkSize;
+    }
+
+    /** 块在这个轴上最后一个立方体之后的坐标 */
+    public int getTo(int chunk, int axis) {
+        return Math.min(getFrom(chunk, axis) + mChunkSize, mCubeFactor);
+    }
+
+    /** @param bound 0到5分别是minX, minY, minZ, maxX, maxY, maxZ */
+    public float getBound(int chunk, int bound) {
+        return mBounds[chunk * 6 + bound];
+    }
+
+    /** 第level级中这块的盒子数，第0级等于getCubeCount() */
+    public int getBoxCount(int level, int chunk) {
+        return mFirstBoxes[level][chunk + 1] - mFirstBoxes[level][chunk];
+    }
+
+    /** 第level级中这块第一个盒子的序号；chunk等于getChunkCount()时返回这一级的盒子总数 */
+    public int getFirstBox(int level, int chunk) {
+        return mFirstBoxes[level][chunk];
+    }
+
+    /** 所有级别的盒子总数 */
+    public int getMeshBoxCount() {
+        return mLodBases[LOD_COUNT];
+    }
+
+    /**
+     * 第level级中第box个盒子朝face方向的面在网格中的序号。
+     * 网格先是第0级，然后是每个更粗的级别，每一级按方向分成6段，每段中盒子按块排列
+     */
+    public int getFaceIndex(int level, int face, int box) {
+        return mLodBases[level] * ShapeBuilder.FACE_COUNT + face * mFirstBoxes[level][getChunkCount()] + box;
+    }
+
+    /** x方向第chunkX层块中的第一块，x方向相同的块在缓冲区中连续 */
+    public int getFirstChunkOfSlab(int chunkX) {
+        return chunkX * mChunksPerAxis * mChunksPerAxis;
+    }
+
+    /**
+     * 用视锥体测试每一块，frustum的平面需要和包围盒在同一个空间中（通常由model-view-projection矩阵得到）
+     *
+     * @return 可见的块数
+     */
+    public int cull(Frustum frustum) {
+        int visibleCount = 0;
+        for (int chunk = 0; chunk < mFaceMasks.length; chunk++) {
+            final int i = chunk * 6;
+            final boolean visible = frustum.intersectsBox(mBounds[i], mBounds[i + 1], mBounds[i + 2],
+                    mBounds[i + 3], mBounds[i + 4], mBounds[i + 5]);
+            mFaceMasks[chunk] = visible ? ALL_FACES : 0;
+            if (visible) {
+                visibleCount++;
+            }
+        }
+        mVisibleCount = visibleCount;
+        return visibleCount;
+    }
+
+    /**
+     * 和cull(Frustum)相同，另外对每个可见的块记录可能朝向眼睛的方向。
+     * 一个方向的面在块中最靠后的平面还在眼睛后面时，这个方向的所有面都背对眼睛
+     *
+     * @param eyeX 眼睛在包围盒所在空间（模型空间）中的位置
+     */
+    public int cull(Frustum frustum, float eyeX, float eyeY, float eyeZ) {
+        final int visibleCount = cull(frustum);
+        final float[] normals = ShapeBuilder.CUBE_FACE_NORMALS;
+        for (int chunk = 0; chunk < mFaceMasks.length; chunk++) {
+            if (mFaceMasks[chunk] == 0) {
+                continue;
+            }
+
+            final int i = chunk * 6;
+            int faceMask = 0;
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                final float nx = normals[face * 3];
+                final float ny = normals[face * 3 + 1];
+                final float nz = normals[face * 3 + 2];
+                // 包围盒在法线方向上最小的投影，面都在它的前面
+                final float boxMin = nx * (nx > 0.0F ? mBounds[i] : mBounds[i + 3])
+                        + ny * (ny > 0.0F ? mBounds[i + 1] : mBounds[i + 4])
+                        + nz * (nz > 0.0F ? mBounds[i + 2] : mBounds[i + 5]);
+                if (nx * eyeX + ny * eyeY + nz * eyeZ > boxMin) {
+                    faceMask |= 1 << face;
+                }
+            }
+            mFaceMasks[chunk] = faceMask;
+        }
+        return visibleCount;
+    }
+
+    /**
+     * 块的中心到眼睛的距离，用来从前到后排序
+     *
+     * @param modelView 按列存放的model-view矩阵
+     */
+    public float getViewDepth(int chunk, float[] modelView, int offset) {
+        final int i = chunk * 6;
+        final float x = (mBounds[i] + mBounds[i + 3]) * 0.5F;
+        final float y = (mBounds[i + 1] + mBounds[i + 4]) * 0.5F;
+        final float z = (mBounds[i + 2] + mBounds[i + 5]) * 0.5F;
+        // 眼睛看向-z，距离是视图空间z的相反数
+        return -(modelView[offset + 2] * x + modelView[offset + 6] * y + modelView[offset + 10] * z + modelView[offset + 14]);
+    }
+
+    /**
+     * 为每个可见的块选择细节层次：块中离眼睛最近的立方体在屏幕上越小，级别越高。
+     * 和上一次的级别比较时界限两边各留出LOD_HYSTERESIS的比例，避免来回切换
+     *
+     * @param modelView     按列存放的model-view矩阵
+     * @param pixelsPerUnit 视图空间中距离为1的地方，一个单位长度在屏幕上的像素数，为无穷大时所有块都使用第0级
+     */
+    public void selectLods(float[] modelView, int offset, float pixelsPerUnit) {
+        Arrays.fill(mLodChunkCounts, 0);
+        final float cubePixels = (getHigh(0) - getLow(0)) * pixelsPerUnit;
+        for (int chunk = 0; chunk < mFaceMasks.length; chunk++) {
+            if (mFaceMasks[chunk] == 0) {
+                continue;
+            }
+
+            final int i = chunk * 6;
+            final float dx = mBounds[i + 3] - mBounds[i];
+            final float dy = mBounds[i + 4] - mBounds[i + 1];
+            final float dz = mBounds[i + 5] - mBounds[i + 2];
+            final float radius = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) * 0.5F;
+            final float distance = Math.max(getViewDepth(chunk, modelView, offset) - radius, MIN_LOD_DISTANCE);
+            final float size = cubePixels / distance;
+
+            int lod = mLods[chunk];
+            while (lod < LOD_COUNT - 1 && size < LOD_MIN_CUBE_PIXELS[lod] / LOD_HYSTERESIS) {
+                lod++;
+            }
+            while (lod > 0 && size > LOD_MIN_CUBE_PIXELS[lod - 1] * LOD_HYSTERESIS) {
+                lod--;
+            }
+            mLods[chunk] = lod;
+            mLodChunkCounts[lod]++;
+        }
+    }
+
+    /** 这块最后一次selectLods()选择的级别，之前没有调用时是0 */
+    public int getLod(int chunk) {
+        return mLods[chunk];
+    }
+
+    /** 最后一次selectLods()中使用第level级的可见块数 */
+    public int getLodChunkCount(int level) {
+        return mLodChunkCounts[level];
+    }
+
+    /** 最后一次cull()的结果，之前没有调用时所有块都可见 */
+    public boolean isVisible(int chunk) {
+        return mFaceMasks[chunk] != 0;
+    }
+
+    /** 最后一次cull()之后，这块朝face方向的面是否需要绘制 */
+    public boolean isFaceVisible(int chunk, int face) {
+        return (mFaceMasks[chunk] & (1 << face)) != 0;
+    }
+
+    public int getVisibleCount() {
+        return mVisibleCount;
+    }
+
+    /**
+     * 按块的顺序生成和ShapeBuilder.putCubeGridData格式相同的数据
+     */
+    public void putCubeGridData(float[] cubeNormals, float[] cubeTextureCoordinates, FloatBuffer out) {
+        putCubeGridData(0, getChunkCount(), cubeNormals, cubeTextureCoordinates, out);
+    }
+
+    /**
+     * 只生成[fromChunk, toChunk)之间的块，从out的当前位置开始写入
+     */
+    public void putCubeGridData(int fromChunk, int toChunk, float[] cubeNormals, float[] cubeTextureCoordinates,
+                                FloatBuffer out) {
+        for (int chunk = fromChunk; chunk < toChunk; chunk++) {
+            CubeGridReplicator.putCubeGridData(mCubeFactor, mMinPosition, mMaxPosition,
+                    getFrom(chunk, 0), getTo(chunk, 0), getFrom(chunk, 1), getTo(chunk, 1), getFrom(chunk, 2), getTo(chunk, 2),
+                    cubeNormals, cubeTextureCoordinates, out);
+        }
+    }
+
+    /**
+     * 按块的顺序生成和ShapeBuilder.putIndexedCubeGridData格式相同的数据
+     */
+    public void putIndexedCubeGridData(FloatBuffer out) {
+        for (int chunk = 0; chunk < getChunkCount(); chunk++) {
+            ShapeBuilder.putIndexedCubeGridData(mCubeFactor, mMinPosition, mMaxPosition,
+                    getFrom(chunk, 0), getTo(chunk, 0), getFrom(chunk, 1), getTo(chunk, 1), getFrom(chunk, 2), getTo(chunk, 2),
+                    out);
+        }
+    }
+
+    /**
+     * 按方向分段生成和ShapeBuilder.putCubeGridData格式相同的数据，
+     * 方向face中第cube个立方体的面从(face * getTotalCubeCount() + cube) * ShapeBuilder.VERTICES_PER_FACE个顶点开始
+     */
+    public void putCubeGridFaceData(float[] cubeNormals, float[] cubeTextureCoordinates, FloatBuffer out) {
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            putCubeGridFaceData(face, 0, getChunkCount(), cubeNormals, cubeTextureCoordinates, out);
+        }
+    }
+
+    /**
+     * 只生成[fromChunk, toChunk)之间的块朝face方向的面，从out的当前位置开始写入
+     */
+    public void putCubeGridFaceData(int face, int fromChunk, int toChunk, float[] cubeNormals, float[] cubeTextureCoordinates,
+                                    FloatBuffer out) {
+        if (mMortonOrders != null) {
+            for (int chunk = fromChunk; chunk < toChunk; chunk++) {
+                putLodBoxes(0, face, chunk, FORMAT_ARRAYS, cubeNormals, cubeTextureCoordinates, out);
+            }
+            return;
+        }
+        for (int chunk = fromChunk; chunk < toChunk; chunk++) {
+            ShapeBuilder.putCubeGridFaceData(mCubeFactor, mMinPosition, mMaxPosition, face,
+                    getFrom(chunk, 0), getTo(chunk, 0), getFrom(chunk, 1), getTo(chunk, 1), getFrom(chunk, 2), getTo(chunk, 2),
+                    cubeNormals, cubeTextureCoordinates, out);
+        }
+    }
+
+    /**
+     * 按方向分段生成和ShapeBuilder.putIndexedCubeGridData格式相同的数据，每个面ShapeBuilder.INDEXED_VERTICES_PER_FACE个顶点
+     */
+    public void putIndexedCubeGridFaceData(FloatBuffer out) {
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            for (int chunk = 0; chunk < getChunkCount(); chunk++) {
+                if (mMortonOrders != null) {
+                    putLodBoxes(0, face, chunk, FORMAT_INDEXED, null, null, out);
+                    continue;
+                }
+                ShapeBuilder.putIndexedCubeGridFaceData(mCubeFactor, mMinPosition, mMaxPosition, face,
+                        getFrom(chunk, 0), getTo(chunk, 0), getFrom(chunk, 1), getTo(chunk, 1), getFrom(chunk, 2), getTo(chunk, 2),
+                        out);
+            }
+        }
+    }
+
+    /**
+     * 按级别和方向分段生成第1级开始的所有更粗的级别，格式和putCubeGridFaceData相同，接在第0级的数据后面。
+     * 合并的盒子使用一个立方体的法线和纹理坐标，纹理拉伸到整个面
+     */
+    public void putLodFaceData(float[] cubeNormals, float[] cubeTextureCoordinates, FloatBuffer out) {
+        for (int level = 1; level < LOD_COUNT; level++) {
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                putLodFaceData(level, face, 0, getChunkCount(), cubeNormals, cubeTextureCoordinates, out);
+            }
+        }
+    }
+
+    /**
+     * 只生成第level级中[fromChunk, toChunk)之间的块朝face方向的面，从out的当前位置开始写入。第0级和putCubeGridFaceData相同
+     */
+    public void putLodFaceData(int level, int face, int fromChunk, int toChunk, float[] cubeNormals,
+                               float[] cubeTextureCoordinates, FloatBuffer out) {
+        if (level == 0) {
+            putCubeGridFaceData(face, fromChunk, toChunk, cubeNormals, cubeTextureCoordinates, out);
+            return;
+        }
+        for (int chunk = fromChunk; chunk < toChunk; chunk++) {
+            putLodBoxes(level, face, chunk, FORMAT_ARRAYS, cubeNormals, cubeTextureCoordinates, out);
+        }
+    }
+
+    /**
+     * 按级别和方向分段生成第1级开始的所有更粗的级别，格式和putIndexedCubeGridFaceData相同，接在第0级的数据后面
+     */
+    public void putIndexedLodFaceData(FloatBuffer out) {
+        for (int level = 1; level < LOD_COUNT; level++) {
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                for (int chunk = 0; chunk < getChunkCount(); chunk++) {
+                    putLodBoxes(level, face, chunk, FORMAT_INDEXED, null, null, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按级别和方向分段生成所有级别的CubeIndexPacker格式的顶点，顶点顺序和putCubeGridFaceData、putLodFaceData相同
+     */
+    public void putCubeIndexFaceData(ByteBuffer out) {
+        if (mCubeFactor > CubeIndexPacker.MAX_CUBE_FACTOR) {
+            throw new IllegalStateException("Cube factor " + mCubeFactor + " does not fit in a packed cube index");
+        }
+        for (int level = 0; level < LOD_COUNT; level++) {
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                for (int chunk = 0; chunk < getChunkCount(); chunk++) {
+                    putLodBoxes(level, face, chunk, FORMAT_CUBE_INDEX, null, null, out);
+                }
+            }
+        }
+    }
+
+    // 盒子和立方体一样按x、y、z嵌套或者Morton码的顺序排列
+    private void putLodBoxes(int level, int face, int chunk, int format, float[] cubeNormals,
+                             float[] cubeTextureCoordinates, Buffer out) {
+        final int groupSize = getLodGroupSize(level, mChunkSize);
+        final int fromX = getFrom(chunk, 0);
+        final int fromY = getFrom(chunk, 1);
+        final int fromZ = getFrom(chunk, 2);
+        final int toX = getTo(chunk, 0);
+        final int toY = getTo(chunk, 1);
+        final int toZ = getTo(chunk, 2);
+
+        final MortonOrder order = getMortonOrder(level, chunk);
+        if (order != null) {
+            for (int i = 0; i < order.getCount(); i++) {
+                putLodBox(fromX + order.getX(i) * groupSize, fromY + order.getY(i) * groupSize, fromZ + order.getZ(i) * groupSize,
+                        groupSize, toX, toY, toZ, face, format, cubeNormals, cubeTextureCoordinates, out);
+            }
+            return;
+        }
+
+        for (int x = fromX; x < toX; x += groupSize) {
+            for (int y = fromY; y < toY; y += groupSize) {
+                for (int z = fromZ; z < toZ; z += groupSize) {
+                    putLodBox(x, y, z, groupSize, toX, toY, toZ, face, format, cubeNormals, cubeTextureCoordinates, out);
+                }
+            }
+        }
+    }
+
+    // 从(x, y, z)开始的盒子，从第一个立方体的最小角到最后一个立方体的最大角
+    private void putLodBox(int x, int y, int z, int groupSize, int toX, int toY, int toZ, int face, int format,
+                           float[] cubeNormals, float[] cubeTextureCoordinates, Buffer out) {
+        final int lastX = Math.min(x + groupSize, toX) - 1;
+        final int lastY = Math.min(y + groupSize, toY) - 1;
+        final int lastZ = Math.min(z + groupSize, toZ) - 1;
+        if (format == FORMAT_CUBE_INDEX) {
+            CubeIndexPacker.putBoxFace(x, y, z, lastX, lastY, lastZ, face, (ByteBuffer) out);
+        } else if (format == FORMAT_INDEXED) {
+            ShapeBuilder.putIndexedBoxFaceData(getLow(x), getHigh(lastX), getLow(y), getHigh(lastY), getLow(z), getHigh(lastZ),
+                    face, (FloatBuffer) out);
+        } else {
+            ShapeBuilder.putBoxFaceData(getLow(x), getHigh(lastX), getLow(y), getHigh(lastY), getLow(z), getHigh(lastZ),
+                    face, cubeNormals, cubeTextureCoordinates, (FloatBuffer) out);
+        }
+    }
+
+    /**
+     * 按块的顺序写入每个立方体的最小角，和ShapeBuilder.putCubeGridOffsets格式相同
+     */
+    public void putCubeGridOffsets(float[] out) {
+        int offset = 0;
+        for (int chunk = 0; chunk < getChunkCount(); chunk++) {
+            offset = ShapeBuilder.putCubeGridOffsets(mCubeFactor, mMinPosition, mMaxPosition,
+                    getFrom(chunk, 0), getTo(chunk, 0), getFrom(chunk, 1), getTo(chunk, 1), getFrom(chunk, 2), getTo(chunk, 2),
+                    out, offset);
+        }
+    }
+
+    private int getChunkCoordinate(int chunk, int axis) {
+        if (axis == 0) {
+            return chunk / (mChunksPerAxis * mChunksPerAxis);
+        } else if (axis == 1) {
+            return (chunk / mChunksPerAxis) % mChunksPerAxis;
+        } else {
+            return chunk % mChunksPerAxis;
+        }
+    }
+}
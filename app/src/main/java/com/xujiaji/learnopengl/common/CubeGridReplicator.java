@@ -0,0 +1,163 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 用倍增的批量拷贝生成重复的顶点数据。先写入一份，之后每次把已经写好的部分整块拷贝到后面，
+ * 重复n份只需要log2(n)次FloatBuffer.put(FloatBuffer)，直接缓冲区之间的拷贝相当于memcpy。
+ *
+ * 立方体网格先生成z方向的一行，整行复制出一层，再把整层复制出整个网格，
+ * 每次复制之后只改写变化的那个坐标，法线和纹理坐标不再逐个写入。
+ */
+public class CubeGridReplicator {
+
+    /**
+     * 把data连续写入count次，从out的当前位置开始
+     */
+    public static void putRepeated(float[] data, int count, FloatBuffer out) {
+        if (count <= 0) {
+            return;
+        }
+
+        final int start = out.position();
+        out.put(data);
+        replicate(out, start, data.length, count);
+    }
+
+    /**
+     * 和ShapeBuilder.putCubeGridData的输出相同
+     */
+    public static void putCubeGridData(int cubeFactor,
+                                       float minPosition,
+                                       float maxPosition,
+                                       float[] cubeNormals,
+                                       float[] cubeTextureCoordinates,
+                                       FloatBuffer out) {
+        putCubeGridData(cubeFactor, minPosition, maxPosition, 0, cubeFactor, cubeNormals, cubeTextureCoordinates, out);
+    }
+
+    /**
+     * 和ShapeBuilder.putCubeGridData的同名方法输出相同，只生成x在[fromX, toX)之间的一片，可以并行写入不同的片
+     */
+    public static void putCubeGridData(int cubeFactor,
+                                       float minPosition,
+                                       float maxPosition,
+                                       int fromX,
+                                       int toX,
+                                       float[] cubeNormals,
+                                       float[] cubeTextureCoordinates,
+                                       FloatBuffer out) {
+        putCubeGridData(cubeFactor, minPosition, maxPosition, fromX, toX, 0, cubeFactor, 0, cubeFactor,
+                cubeNormals, cubeTextureCoordinates, out);
+    }
+
+    /**
+     * 只生成x、y、z分别在[fromX, toX)、[fromY, toY)、[fromZ, toZ)之间的立方体，按x、y、z嵌套的顺序输出，
+     * 立方体的位置和整个网格中相同
+     */
+    public static void putCubeGridData(int cubeFactor,
+                                       float minPosition,
+                                       float maxPosition,
+                                       int fromX,
+                                       int toX,
+                                       int fromY,
+                                       int toY,
+                                       int fromZ,
+                                       int toZ,
+                                       float[] cubeNormals,
+                                       float[] cubeTextureCoordinates,
+                                       FloatBuffer out) {
+        if (fromX >= toX || fromY >= toY || fromZ >= toZ) {
+            return;
+        }
+
+        final int normalSize = cubeNormals != null ? cubeNormals.length / ShapeBuilder.VERTICES_PER_CUBE : 0;
+        final int textureCoordinateSize = cubeTextureCoordinates != null
+                ? cubeTextureCoordinates.length / ShapeBuilder.VERTICES_PER_CUBE : 0;
+        final int floatsPerVertex = 3 + normalSize + textureCoordinateSize;
+        final int floatsPerCube = ShapeBuilder.VERTICES_PER_CUBE * floatsPerVertex;
+        final int floatsPerRow = floatsPerCube * (toZ - fromZ);
+        final int floatsPerLayer = floatsPerRow * (toY - fromY);
+
+        // 和ShapeBuilder使用同样的表达式，保证结果完全相同
+        final int segments = cubeFactor + (cubeFactor - 1);
+        final float positionRange = maxPosition - minPosition;
+        final float[] low = new float[cubeFactor];
+        final float[] high = new float[cubeFactor];
+        for (int i = 0; i < cubeFactor; i++) {
+            low[i] = minPosition + ((positionRange / segments) * (i * 2));
+            high[i] = minPosition + ((positionRange / segments) * ((i * 2) + 1));
+        }
+
+        final int start = out.position();
+
+        // 第一个立方体，完整写入
+        for (int v = 0; v < ShapeBuilder.VERTICES_PER_CUBE; v++) {
+            final int corner = ShapeBuilder.CUBE_VERTEX_CORNERS[v];
+            out.put((corner & 1) != 0 ? high[fromX] : low[fromX]);
+            out.put((corner & 2) != 0 ? high[fromY] : low[fromY]);
+            out.put((corner & 4) != 0 ? high[fromZ] : low[fromZ]);
+
+            if (normalSize > 0) {
+                out.put(cubeNormals, v * normalSize, normalSize);
+            }
+            if (textureCoordinateSize > 0) {
+                out.put(cubeTextureCoordinates, v * textureCoordinateSize, textureCoordinateSize);
+            }
+        }
+
+        // 复制出z方向的一行，改写z
+        replicate(out, start, floatsPerCube, toZ - fromZ);
+        patchCoordinate(out, start, floatsPerVertex, floatsPerCube, toZ - fromZ, 2, 4, low, high, fromZ);
+
+        // 复制出一层，改写y
+        replicate(out, start, floatsPerRow, toY - fromY);
+        patchCoordinate(out, start, floatsPerVertex, floatsPerRow, toY - fromY, 1, 2, low, high, fromY);
+
+        // 复制出其他层，改写x
+        replicate(out, start, floatsPerLayer, toX - fromX);
+        patchCoordinate(out, start, floatsPerVertex, floatsPerLayer, toX - fromX, 0, 1, low, high, fromX);
+
+        out.position(start + floatsPerLayer * (toX - fromX));
+    }
+
+    /**
+     * out中从start开始的一份数据已经写好，倍增复制到一共count份，完成后out的位置在数据末尾
+     */
+    static void replicate(FloatBuffer out, int start, int unitLength, int count) {
+        final FloatBuffer source = out.duplicate();
+        int filled = 1;
+        while (filled < count) {
+            final int copies = Math.min(filled, count - filled);
+            source.limit(start + copies * unitLength);
+            source.position(start);
+            out.position(start + filled * unitLength);
+            out.put(source);
+            filled += copies;
+        }
+        out.position(start + count * unitLength);
+    }
+
+    /**
+     * 第i份（i >= 1）里每个立方体的一个坐标改为第firstIndex + i个位置。
+     * 第0份已经是firstIndex，不需要改写
+     */
+    private static void patchCoordinate(FloatBuffer out, int start, int floatsPerVertex, int unitLength, int count,
+                                        int component, int cornerBit, float[] low, float[] high, int firstIndex) {
+        final int floatsPerCube = ShapeBuilder.VERTICES_PER_CUBE * floatsPerVertex;
+        final int cubesPerUnit = unitLength / floatsPerCube;
+
+        for (int i = 1; i < count; i++) {
+            final float lowValue = low[firstIndex + i];
+            final float highValue = high[firstIndex + i];
+            int index = start + i * unitLength + component;
+
+            for (int cube = 0; cube < cubesPerUnit; cube++) {
+                for (int v = 0; v < ShapeBuilder.VERTICES_PER_CUBE; v++) {
+                    out.put(index, (ShapeBuilder.CUBE_VERTEX_CORNERS[v] & cornerBit) != 0 ? highValue : lowValue);
+                    index += floatsPerVertex;
+                }
+            }
+        }
+    }
+}
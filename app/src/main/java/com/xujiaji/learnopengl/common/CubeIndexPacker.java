@@ -0,0 +1,81 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 立方体网格的每个立方体形状相同，位置在规则的格子上，所以顶点只需要记录它属于哪个立方体和是立方体的第几个顶点。
+ *
+ * 压缩后的顶点格式，每顶点4字节（原来8个float是32字节）：
+ * 立方体坐标 3 x GL_UNSIGNED_BYTE，不归一化；
+ * 顶点在ShapeBuilder立方体中的序号 1 x GL_UNSIGNED_BYTE，0到VERTICES_PER_CUBE - 1。
+ * 着色器用getVertexCorners()、getFaceNormals()和纹理坐标表还原位置、法线和纹理坐标，
+ * 位置 = minPosition + cubeSize * (2 * 立方体坐标 + 角)，和ShapeBuilder的网格相同。
+ *
+ * 每个顶点的立方体坐标可以不同，所以合并多个立方体的盒子也能表示：取大值的角使用最后一个立方体的坐标。
+ * 下面的unpack方法和GPU上的换算一致，用来在CPU上校验。
+ */
+public class CubeIndexPacker {
+
+    /** 压缩后每个顶点的字节数 */
+    public static final int PACKED_BYTES_PER_VERTEX = 4;
+
+    /** 立方体坐标用一个字节表示 */
+    public static final int MAX_CUBE_FACTOR = 256;
+
+    /**
+     * 写入从(fromX, fromY, fromZ)到(lastX, lastY, lastZ)的立方体合成的盒子朝face方向的一个面，
+     * 顶点顺序和ShapeBuilder.putCubeGridFaceData相同。单个立方体时from和last相同
+     */
+    public static void putBoxFace(int fromX, int fromY, int fromZ, int lastX, int lastY, int lastZ, int face, ByteBuffer out) {
+        final int firstVertex = face * ShapeBuilder.VERTICES_PER_FACE;
+        for (int v = firstVertex; v < firstVertex + ShapeBuilder.VERTICES_PER_FACE; v++) {
+            final int corner = ShapeBuilder.CUBE_VERTEX_CORNERS[v];
+            out.put((byte) ((corner & 1) != 0 ? lastX : fromX));
+            out.put((byte) ((corner & 2) != 0 ? lastY : fromY));
+            out.put((byte) ((corner & 4) != 0 ? lastZ : fromZ));
+            out.put((byte) v);
+        }
+    }
+
+    /**
+     * 每个顶点序号的角和所在的面，每个顶点4个float：x、y、z（0或1）和面的序号，着色器中作为vec4数组
+     */
+    public static float[] getVertexCorners() {
+        final float[] corners = new float[ShapeBuilder.VERTICES_PER_CUBE * 4];
+        for (int v = 0; v < ShapeBuilder.VERTICES_PER_CUBE; v++) {
+            final int corner = ShapeBuilder.CUBE_VERTEX_CORNERS[v];
+            corners[v * 4] = corner & 1;
+            corners[v * 4 + 1] = (corner >> 1) & 1;
+            corners[v * 4 + 2] = (corner >> 2) & 1;
+            corners[v * 4 + 3] = v / ShapeBuilder.VERTICES_PER_FACE;
+        }
+        return corners;
+    }
+
+    /** 6个面的法线，顺序和ShapeBuilder.FACE_*相同，着色器中作为vec3数组 */
+    public static float[] getFaceNormals() {
+        return ShapeBuilder.CUBE_FACE_NORMALS.clone();
+    }
+
+    public static void unpackPosition(ByteBuffer packed, int vertex, float minPosition, float cubeSize, float[] out, int offset) {
+        final int index = vertex * PACKED_BYTES_PER_VERTEX;
+        final int corner = ShapeBuilder.CUBE_VERTEX_CORNERS[packed.get(index + 3) & 0xFF];
+        for (int axis = 0; axis < 3; axis++) {
+            out[offset + axis] = minPosition + cubeSize * ((packed.get(index + axis) & 0xFF) * 2 + ((corner >> axis) & 1));
+        }
+    }
+
+    public static void unpackNormal(ByteBuffer packed, int vertex, float[] out, int offset) {
+        final int face = (packed.get(vertex * PACKED_BYTES_PER_VERTEX + 3) & 0xFF) / ShapeBuilder.VERTICES_PER_FACE;
+        System.arraycopy(ShapeBuilder.CUBE_FACE_NORMALS, face * 3, out, offset, 3);
+    }
+
+    /**
+     * @param cubeTextureCoordinates 和ShapeBuilder.generateTextureCoordinateData的结果相同，每个顶点序号2个float
+     */
+    public static void unpackTextureCoordinate(ByteBuffer packed, int vertex, float[] cubeTextureCoordinates, float[] out, int offset) {
+        final int v = packed.get(vertex * PACKED_BYTES_PER_VERTEX + 3) & 0xFF;
+        out[offset] = cubeTextureCoordinates[v * 2];
+        out[offset + 1] = cubeTextureCoordinates[v * 2 + 1];
+    }
+}
@@ -0,0 +1,56 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按壳排列的立方体网格：第s层壳是max(x, y, z) == s的立方体，壳内按x、y、z嵌套的顺序。
+ * 这样cubeFactor为n的网格正好是前n³个立方体，增加立方体数时只需要在后面追加新的壳，减少时少画一些就可以。
+ *
+ * 顶点使用CubeIndexPacker的格式，只有整数的立方体坐标，和cubeFactor无关；
+ * 缩放到[-1, 1]的部分在着色器的u_GridMin和u_CubeSize中，相当于模型矩阵中的缩放。
+ * 每个立方体的6个面连续存放，不按方向分段。
+ */
+public class CubeLatticeShells {
+
+    /** 每个立方体的字节数 */
+    public static final int BYTES_PER_CUBE = ShapeBuilder.VERTICES_PER_CUBE * CubeIndexPacker.PACKED_BYTES_PER_VERTEX;
+
+    public static int getCubeCount(int cubeFactor) {
+        return cubeFactor * cubeFactor * cubeFactor;
+    }
+
+    /** 从fromFactor增加到toFactor时新增的立方体数 */
+    public static int getShellCubeCount(int fromFactor, int toFactor) {
+        return getCubeCount(toFactor) - getCubeCount(fromFactor);
+    }
+
+    /**
+     * 放得下cubeCount个立方体的容量，按2的幂增长，逐个增加立方体数时重新分配的次数是对数级的
+     */
+    public static int getCapacity(int cubeCount) {
+        return cubeCount <= 1 ? 1 : Integer.highestOneBit(cubeCount - 1) << 1;
+    }
+
+    /**
+     * 写入第fromFactor层到第toFactor - 1层壳的所有立方体，接在前fromFactor³个立方体后面
+     */
+    public static void putShells(int fromFactor, int toFactor, ByteBuffer out) {
+        if (toFactor > CubeIndexPacker.MAX_CUBE_FACTOR) {
+            throw new IllegalArgumentException("Cube factor " + toFactor + " does not fit in a byte");
+        }
+
+        for (int shell = fromFactor; shell < toFactor; shell++) {
+            for (int x = 0; x <= shell; x++) {
+                for (int y = 0; y <= shell; y++) {
+                    // x和y都不在壳上时只有z == shell的立方体在壳上
+                    final int firstZ = x == shell || y == shell ? 0 : shell;
+                    for (int z = firstZ; z <= shell; z++) {
+                        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                            CubeIndexPacker.putBoxFace(x, y, z, x, y, z, face, out);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.xujiaji.learnopengl.common;
+
+/**
+ * 按视图空间深度从前到后排列不透明物体，让深度测试尽早丢弃后面的片段。
+ *
+ * 深度在这一帧的最小值和最大值之间量化为16位整数，用两趟8位的基数排序，排序是稳定的。
+ * 所有数组在构造时分配，clear()、add()和sort()都不分配内存，适合每帧调用。
+ */
+public class DepthSorter {
+
+    private static final int KEY_BITS = 16;
+    private static final int MAX_KEY = (1 << KEY_BITS) - 1;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private final int[] mItems;
+    private final float[] mDepths;
+    private final int[] mKeys;
+    private final int[] mTempItems;
+    private final int[] mTempKeys;
+    private final int[] mCounts = new int[RADIX];
+
+    private int mCount;
+    private float mMinDepth;
+    private float mMaxDepth;
+
+    public DepthSorter(int capacity) {
+        mItems = new int[capacity];
+        mDepths = new float[capacity];
+        mKeys = new int[capacity];
+        mTempItems = new int[capacity];
+        mTempKeys = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return mItems.length;
+    }
+
+    public void clear() {
+        mCount = 0;
+        mMinDepth = Float.POSITIVE_INFINITY;
+        mMaxDepth = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @param item  调用者自己的编号，比如块的序号
+     * @param depth 到眼睛的距离，越小越先绘制
+     */
+    public void add(int item, float depth) {
+        if (mCount == mItems.length) {
+            throw new IllegalStateException("DepthSorter is full: " + mCount);
+        }
+        mItems[mCount] = item;
+        mDepths[mCount] = depth;
+        mCount++;
+        mMinDepth = Math.min(mMinDepth, depth);
+        mMaxDepth = Math.max(mMaxDepth, depth);
+    }
+
+    /** 把add()的物体按深度从小到大排列，深度相同时保持add()的顺序 */
+    public void sort() {
+        if (mCount < 2) {
+            return;
+        }
+
+        final float range = mMaxDepth - mMinDepth;
+        final float scale = range > 0.0F ? MAX_KEY / range : 0.0F;
+        for (int i = 0; i < mCount; i++) {
+            mKeys[i] = (int) ((mDepths[i] - mMinDepth) * scale);
+        }
+
+        // 低8位排到临时数组，高8位排回来
+        radixPass(mKeys, mItems, mTempKeys, mTempItems, 0);
+        radixPass(mTempKeys, mTempItems, mKeys, mItems, RADIX_BITS);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /** sort()之后第i个应该绘制的物体 */
+    public int getItem(int i) {
+        return mItems[i];
+    }
+
+    private void radixPass(int[] keys, int[] items, int[] outKeys, int[] outItems, int shift) {
+        final int[] counts = mCounts;
+        for (int digit = 0; digit < RADIX; digit++) {
+            counts[digit] = 0;
+        }
+        for (int i = 0; i < mCount; i++) {
+            counts[(keys[i] >>> shift) & (RADIX - 1)]++;
+        }
+
+        // 计数变成每个数字的起始位置
+        int position = 0;
+        for (int digit = 0; digit < RADIX; digit++) {
+            final int count = counts[digit];
+            counts[digit] = position;
+            position += count;
+        }
+
+        for (int i = 0; i < mCount; i++) {
+            final int digit = (keys[i] >>> shift) & (RADIX - 1);
+            final int target = counts[digit]++;
+            outKeys[target] = keys[i];
+            outItems[target] = items[i];
+        }
+    }
+}
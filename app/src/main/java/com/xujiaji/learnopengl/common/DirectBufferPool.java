@@ -0,0 +1,199 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * 直接缓冲区池。按2的幂分级分配，释放后留在池中给下一次同级的请求使用，
+ * 避免反复allocateDirect产生大量等待GC回收的本地内存。
+ *
+ * 取出的缓冲区带有一个引用计数：acquire之后为1，retain加1，release减1，减到0时回到池中。
+ * 返回的缓冲区capacity正好是请求的大小，只有acquire返回的那个对象可以传给retain和release。
+ */
+public class DirectBufferPool {
+
+    /** 最小的分级，更小的请求也按这个大小分配 */
+    private static final int MIN_SIZE_CLASS = 6;
+
+    /** 最大的分级，1GB */
+    private static final int MAX_SIZE_CLASS = 30;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ByteBuffer>[] mFreeBuffers = new ArrayDeque[MAX_SIZE_CLASS + 1];
+    private final IdentityHashMap<Buffer, Lease> mLeases = new IdentityHashMap<>();
+
+    private long mMaxFreeBytes;
+
+    private long mBytesHeld;
+    private long mBytesInUse;
+    private long mHighWaterMark;
+
+    /**
+     * @param maxFreeBytes 池中最多保留多少字节的空闲缓冲区，超出的部分交给GC回收
+     */
+    public DirectBufferPool(long maxFreeBytes) {
+        this.mMaxFreeBytes = maxFreeBytes;
+        for (int i = 0; i < mFreeBuffers.length; i++) {
+            mFreeBuffers[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 取出一个本地字节序、capacity为bytes的直接缓冲区
+     *
+     * @param zero 是否清零，池中复用的缓冲区保留着上次的内容，只有需要时才清零
+     */
+    public synchronized ByteBuffer acquire(int bytes, boolean zero) {
+        final ByteBuffer view = slice(take(bytes), bytes, zero);
+        mLeases.put(view, new Lease(view, getSizeClass(bytes)));
+        return view;
+    }
+
+    public synchronized FloatBuffer acquireFloatBuffer(int floatCount, boolean zero) {
+        final ByteBuffer backing = take(floatCount * 4);
+        final FloatBuffer view = slice(backing, floatCount * 4, zero).asFloatBuffer();
+        mLeases.put(view, new Lease(backing, getSizeClass(floatCount * 4)));
+        return view;
+    }
+
+    public synchronized ShortBuffer acquireShortBuffer(int shortCount, boolean zero) {
+        final ByteBuffer backing = take(shortCount * 2);
+        final ShortBuffer view = slice(backing, shortCount * 2, zero).asShortBuffer();
+        mLeases.put(view, new Lease(backing, getSizeClass(shortCount * 2)));
+        return view;
+    }
+
+    /** 增加一个引用，之后需要多调用一次release */
+    public synchronized void retain(Buffer buffer) {
+        getLease(buffer).mReferenceCount++;
+    }
+
+    /** 减少一个引用，没有引用时缓冲区回到池中，之后不能再使用 */
+    public synchronized void release(Buffer buffer) {
+        final Lease lease = getLease(buffer);
+        if (--lease.mReferenceCount > 0) {
+            return;
+        }
+
+        mLeases.remove(buffer);
+        final int size = 1 << lease.mSizeClass;
+        final boolean keep = getFreeBytes() + size <= mMaxFreeBytes;
+        mBytesInUse -= size;
+
+        if (keep) {
+            mFreeBuffers[lease.mSizeClass].push(lease.mBacking);
+        } else {
+            mBytesHeld -= size;
+        }
+    }
+
+    /** 是否是这个池取出并且还没有释放的缓冲区 */
+    public synchronized boolean owns(Buffer buffer) {
+        return mLeases.containsKey(buffer);
+    }
+
+    /** 丢弃所有空闲的缓冲区 */
+    public synchronized void trim() {
+        for (int sizeClass = 0; sizeClass < mFreeBuffers.length; sizeClass++) {
+            mBytesHeld -= (long) mFreeBuffers[sizeClass].size() << sizeClass;
+            mFreeBuffers[sizeClass].clear();
+        }
+    }
+
+    public synchronized void setMaxFreeBytes(long maxFreeBytes) {
+        mMaxFreeBytes = maxFreeBytes;
+        for (int sizeClass = MAX_SIZE_CLASS; sizeClass >= 0 && getFreeBytes() > mMaxFreeBytes; sizeClass--) {
+            while (!mFreeBuffers[sizeClass].isEmpty() && getFreeBytes() > mMaxFreeBytes) {
+                mFreeBuffers[sizeClass].pop();
+                mBytesHeld -= 1L << sizeClass;
+            }
+        }
+    }
+
+    /** 池分配的、还没有交给GC的全部字节数，包括使用中的和空闲的 */
+    public synchronized long getBytesHeld() {
+        return mBytesHeld;
+    }
+
+    /** 使用中的字节数，按分级后的大小计算 */
+    public synchronized long getBytesInUse() {
+        return mBytesInUse;
+    }
+
+    /** getBytesHeld()出现过的最大值 */
+    public synchronized long getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    private long getFreeBytes() {
+        return mBytesHeld - mBytesInUse;
+    }
+
+    private ByteBuffer take(int bytes) {
+        final int sizeClass = getSizeClass(bytes);
+        final int size = 1 << sizeClass;
+
+        ByteBuffer backing = mFreeBuffers[sizeClass].poll();
+        if (backing == null) {
+            backing = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            mBytesHeld += size;
+            mHighWaterMark = Math.max(mHighWaterMark, mBytesHeld);
+        }
+
+        mBytesInUse += size;
+        return backing;
+    }
+
+    private static ByteBuffer slice(ByteBuffer backing, int bytes, boolean zero) {
+        backing.clear();
+        backing.limit(bytes);
+        final ByteBuffer view = backing.slice().order(ByteOrder.nativeOrder());
+        if (zero) {
+            while (view.remaining() >= 8) {
+                view.putLong(0L);
+            }
+            while (view.hasRemaining()) {
+                view.put((byte) 0);
+            }
+            view.clear();
+        }
+        return view;
+    }
+
+    private Lease getLease(Buffer buffer) {
+        final Lease lease = mLeases.get(buffer);
+        if (lease == null) {
+            throw new IllegalArgumentException("Buffer was not acquired from this pool or was already released.");
+        }
+        return lease;
+    }
+
+    /** 请求bytes字节时池实际分配的字节数 */
+    public static long getAllocationSize(int bytes) {
+        return 1L << getSizeClass(bytes);
+    }
+
+    static int getSizeClass(int bytes) {
+        if (bytes < 0 || bytes > (1 << MAX_SIZE_CLASS)) {
+            throw new IllegalArgumentException("Unsupported buffer size: " + bytes);
+        }
+        final int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+        return Math.max(MIN_SIZE_CLASS, sizeClass);
+    }
+
+    private static final class Lease {
+        final ByteBuffer mBacking;
+        final int mSizeClass;
+        int mReferenceCount = 1;
+
+        Lease(ByteBuffer backing, int sizeClass) {
+            this.mBacking = backing;
+            this.mSizeClass = sizeClass;
+        }
+    }
+}
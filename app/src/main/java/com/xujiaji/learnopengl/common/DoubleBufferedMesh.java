@@ -0,0 +1,106 @@
+package com.xujiaji.learnopengl.common;
+
+/**
+ * 前后两个网格：前面的正在绘制，后面的在准备（比如还在上传）。
+ * 后面的准备好之后在两帧之间换到前面，然后才释放旧的，所以重新生成网格时画面不会空，
+ * 新网格创建失败时旧的也还在。
+ *
+ * 所有方法都必须在OpenGL线程调用。
+ */
+public class DoubleBufferedMesh<T extends DoubleBufferedMesh.Mesh> {
+
+    public interface Mesh {
+        /**
+         * @return 已经可以绘制。每帧都会调用，直到返回true
+         */
+        boolean finishUploads();
+
+        /** 释放网格的资源，每个网格只会调用一次 */
+        void release();
+
+        /**
+         * OpenGL上下文丢失时代替release()调用：OpenGL对象已经随上下文一起删除，
+         * 这里只释放客户端的资源，不能调用OpenGL，因为新的上下文可能复用了同样的编号
+         */
+        void discard();
+    }
+
+    private T mFront;
+    private T mBack;
+    // mBack换到前面之后运行
+    private Runnable mBackSwappedIn;
+
+    /** 正在绘制的网格，还没有网格时为null */
+    public T getFront() {
+        return mFront;
+    }
+
+    /** 准备中的网格 */
+    public T getBack() {
+        return mBack;
+    }
+
+    /**
+     * 设置准备中的网格。之前还没有换到前面的网格直接释放
+     *
+     * @param onSwappedIn 换到前面之后运行，可以为null
+     */
+    public void setBack(T mesh, Runnable onSwappedIn) {
+        if (mBack != null) {
+            mBack.release();
+        }
+        mBack = mesh;
+        mBackSwappedIn = onSwappedIn;
+    }
+
+    /**
+     * 在每帧绘制之前调用，后面的网格准备好时换到前面并释放旧的
+     *
+     * @return 这一帧换了网格
+     */
+    public boolean swapIfReady() {
+        if (mBack == null || !mBack.finishUploads()) {
+            return false;
+        }
+
+        final T oldFront = mFront;
+        final Runnable onSwappedIn = mBackSwappedIn;
+        mFront = mBack;
+        mBack = null;
+        mBackSwappedIn = null;
+
+        if (oldFront != null) {
+            oldFront.release();
+        }
+        if (onSwappedIn != null) {
+            onSwappedIn.run();
+        }
+        return true;
+    }
+
+    /** 释放两个网格，比如不再绘制时 */
+    public void releaseAll() {
+        if (mBack != null) {
+            mBack.release();
+            mBack = null;
+            mBackSwappedIn = null;
+        }
+        if (mFront != null) {
+            mFront.release();
+            mFront = null;
+        }
+    }
+
+    /** OpenGL上下文丢失时调用，丢弃两个网格而不删除它们的OpenGL对象。之后直到新的网格换上之前不绘制 */
+    public void discardAll() {
+        if (mBack != null) {
+            mBack.discard();
+            mBack = null;
+            mBackSwappedIn = null;
+        }
+        if (mFront != null) {
+            mFront.discard();
+            mFront = null;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.xujiaji.learnopengl.common;
+
+/**
+ * 从裁剪矩阵中取出视锥体的6个平面（Gribb/Hartmann方法），用来判断包围盒是否可能可见。
+ *
+ * 传入投影矩阵 * view矩阵时平面在世界空间；再乘以model矩阵时平面在模型空间，
+ * 模型空间中的包围盒不需要先变换就可以直接测试。所有方法都不分配内存。
+ */
+public class Frustum {
+
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int TOP = 3;
+    public static final int NEAR = 4;
+    public static final int FAR = 5;
+
+    // 每个平面4个float：法线a、b、c和距离d，法线指向视锥体内部并且已经归一化
+    private final float[] mPlanes = new float[24];
+
+    /**
+     * @param matrix 按列存放的4x4矩阵，和android.opengl.Matrix的格式相同
+     */
+    public void set(float[] matrix, int offset) {
+        for (int plane = 0; plane < 6; plane++) {
+            // 左右用第一行，上下用第二行，远近用第三行；偶数平面加，奇数平面减
+            final int row = plane / 2;
+            final float sign = (plane & 1) == 0 ? 1.0F : -1.0F;
+
+            final float a = matrix[offset + 3] + sign * matrix[offset + row];
+            final float b = matrix[offset + 7] + sign * matrix[offset + 4 + row];
+            final float c = matrix[offset + 11] + sign * matrix[offset + 8 + row];
+            final float d = matrix[offset + 15] + sign * matrix[offset + 12 + row];
+
+            final float length = (float) Math.sqrt(a * a + b * b + c * c);
+            final float scale = length > 0.0F ? 1.0F / length : 0.0F;
+            mPlanes[plane * 4] = a * scale;
+            mPlanes[plane * 4 + 1] = b * scale;
+            mPlanes[plane * 4 + 2] = c * scale;
+            mPlanes[plane * 4 + 3] = d * scale;
+        }
+    }
+
+    /**
+     * @return 点到平面的有符号距离，在视锥体一侧为正
+     */
+    public float distance(int plane, float x, float y, float z) {
+        final int i = plane * 4;
+        return mPlanes[i] * x + mPlanes[i + 1] * y + mPlanes[i + 2] * z + mPlanes[i + 3];
+    }
+
+    /**
+     * 对每个平面只测试最靠内的角，全部角都在某个平面外面时不可见。
+     * 包围盒跨越两个平面的角落时可能误判为可见，但不会把可见的包围盒判为不可见
+     */
+    public boolean intersectsBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        for (int i = 0; i < 24; i += 4) {
+            final float a = mPlanes[i];
+            final float b = mPlanes[i + 1];
+            final float c = mPlanes[i + 2];
+            final float x = a >= 0.0F ? maxX : minX;
+            final float y = b >= 0.0F ? maxY : minY;
+            final float z = c >= 0.0F ? maxZ : minZ;
+            if (a * x + b * y + c * z + mPlanes[i + 3] < 0.0F) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,202 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * 为VoxelChunk生成网格：两个实心体素之间的面不生成，同一面片中相邻的、种类相同的面贪心地合并成尽量大的矩形。
+ *
+ * 每个面片的矩形单独保存，remesh()只重新生成VoxelChunk记录的面片，修改几个体素时不需要重新生成整块。
+ * 输出的格式和ShapeBuilder.putCubeGridFaceData相同，每个矩形是一个面，按方向分成6段。
+ * 块外面的体素当作空的，所以块边界上的面总是生成。
+ * 修改记录保存在VoxelChunk中，一个VoxelChunk只能有一个GreedyVoxelMesher。
+ */
+public class GreedyVoxelMesher {
+
+    // 每个方向的法线所在的轴，以及法线朝正方向还是负方向
+    private static final int[] FACE_AXES = new int[ShapeBuilder.FACE_COUNT];
+    private static final int[] FACE_SIGNS = new int[ShapeBuilder.FACE_COUNT];
+
+    static {
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            for (int axis = 0; axis < 3; axis++) {
+                final float normal = ShapeBuilder.CUBE_FACE_NORMALS[face * 3 + axis];
+                if (normal != 0.0F) {
+                    FACE_AXES[face] = axis;
+                    FACE_SIGNS[face] = normal > 0.0F ? 1 : -1;
+                }
+            }
+        }
+    }
+
+    private final VoxelChunk mChunk;
+    private final int mSize;
+
+    // 每个面片的矩形：u、v、宽度-1、高度-1各8位
+    private final int[][] mSliceQuads;
+    private final int[] mSliceQuadCounts;
+    private final int[] mFaceQuadCounts = new int[ShapeBuilder.FACE_COUNT];
+
+    // 生成一个面片时使用的临时数据
+    private final byte[] mMask;
+    private final int[] mVoxel = new int[3];
+    private final float[] mLow = new float[3];
+    private final float[] mHigh = new float[3];
+
+    public GreedyVoxelMesher(VoxelChunk chunk) {
+        mChunk = chunk;
+        mSize = chunk.getSize();
+        mSliceQuads = new int[ShapeBuilder.FACE_COUNT * mSize][];
+        mSliceQuadCounts = new int[ShapeBuilder.FACE_COUNT * mSize];
+        mMask = new byte[mSize * mSize];
+        for (int slice = 0; slice < mSliceQuads.length; slice++) {
+            mSliceQuads[slice] = new int[4];
+        }
+    }
+
+    /**
+     * 重新生成上次之后被修改过的面片
+     *
+     * @return 重新生成的面片数
+     */
+    public int remesh() {
+        if (!mChunk.hasDirtySlices()) {
+            return 0;
+        }
+
+        int remeshedSlices = 0;
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            for (int layer = 0; layer < mSize; layer++) {
+                if (mChunk.isSliceDirty(face, layer)) {
+                    meshSlice(face, layer);
+                    remeshedSlices++;
+                }
+            }
+        }
+        mChunk.clearDirtySlices();
+        return remeshedSlices;
+    }
+
+    /** 最后一次remesh()之后的矩形总数，每个矩形ShapeBuilder.VERTICES_PER_FACE个顶点 */
+    public int getQuadCount() {
+        int quadCount = 0;
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            quadCount += mFaceQuadCounts[face];
+        }
+        return quadCount;
+    }
+
+    /** 朝face方向的矩形数，putMeshData()中每个方向的矩形是连续的一段 */
+    public int getQuadCount(int face) {
+        return mFaceQuadCounts[face];
+    }
+
+    /** putMeshData()写入的float数 */
+    public int getMeshDataLength(float[] cubeNormals, float[] cubeTextureCoordinates) {
+        return ShapeBuilder.getCubeGridDataLength(1, cubeNormals, cubeTextureCoordinates) / ShapeBuilder.FACE_COUNT * getQuadCount();
+    }
+
+    /**
+     * 按方向分段写入所有矩形，格式和ShapeBuilder.putCubeGridFaceData相同，纹理拉伸到整个矩形
+     *
+     * @param minPosition 体素(0, 0, 0)的最小角在每个轴上的坐标
+     * @param voxelSize   一个体素的边长
+     */
+    public void putMeshData(float minPosition, float voxelSize, float[] cubeNormals, float[] cubeTextureCoordinates,
+                            FloatBuffer out) {
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            final int axis = FACE_AXES[face];
+            final int uAxis = (axis + 1) % 3;
+            final int vAxis = (axis + 2) % 3;
+
+            for (int layer = 0; layer < mSize; layer++) {
+                final int slice = face * mSize + layer;
+                final int[] quads = mSliceQuads[slice];
+
+                // 正方向的面在体素的另一边
+                mLow[axis] = mHigh[axis] = minPosition + (layer + (FACE_SIGNS[face] > 0 ? 1 : 0)) * voxelSize;
+                for (int i = 0; i < mSliceQuadCounts[slice]; i++) {
+                    final int quad = quads[i];
+                    final int u = quad & 0xFF;
+                    final int v = (quad >>> 8) & 0xFF;
+                    mLow[uAxis] = minPosition + u * voxelSize;
+                    mHigh[uAxis] = minPosition + (u + ((quad >>> 16) & 0xFF) + 1) * voxelSize;
+                    mLow[vAxis] = minPosition + v * voxelSize;
+                    mHigh[vAxis] = minPosition + (v + (quad >>> 24) + 1) * voxelSize;
+
+                    ShapeBuilder.putBoxFaceData(mLow[0], mHigh[0], mLow[1], mHigh[1], mLow[2], mHigh[2], face,
+                            cubeNormals, cubeTextureCoordinates, out);
+                }
+            }
+        }
+    }
+
+    private void meshSlice(int face, int layer) {
+        final int axis = FACE_AXES[face];
+        final int uAxis = (axis + 1) % 3;
+        final int vAxis = (axis + 2) % 3;
+        final int[] voxel = mVoxel;
+        final byte[] mask = mMask;
+
+        // 露在外面的面记录体素的种类，被邻居挡住的面记录为空
+        for (int v = 0; v < mSize; v++) {
+            for (int u = 0; u < mSize; u++) {
+                voxel[axis] = layer;
+                voxel[uAxis] = u;
+                voxel[vAxis] = v;
+                byte value = mChunk.get(voxel[0], voxel[1], voxel[2]);
+                if (value != VoxelChunk.EMPTY) {
+                    voxel[axis] += FACE_SIGNS[face];
+                    if (mChunk.isSolid(voxel[0], voxel[1], voxel[2])) {
+                        value = VoxelChunk.EMPTY;
+                    }
+                }
+                mask[v * mSize + u] = value;
+            }
+        }
+
+        // 从每个还没有合并的面开始，先沿u尽量延长，再沿v延长整行
+        final int slice = face * mSize + layer;
+        int quadCount = 0;
+        for (int v = 0; v < mSize; v++) {
+            int u = 0;
+            while (u < mSize) {
+                final byte value = mask[v * mSize + u];
+                if (value == VoxelChunk.EMPTY) {
+                    u++;
+                    continue;
+                }
+
+                int width = 1;
+                while (u + width < mSize && mask[v * mSize + u + width] == value) {
+                    width++;
+                }
+
+                int height = 1;
+                extend:
+                while (v + height < mSize) {
+                    final int row = (v + height) * mSize + u;
+                    for (int k = 0; k < width; k++) {
+                        if (mask[row + k] != value) {
+                            break extend;
+                        }
+                    }
+                    height++;
+                }
+
+                for (int dv = 0; dv < height; dv++) {
+                    Arrays.fill(mask, (v + dv) * mSize + u, (v + dv) * mSize + u + width, VoxelChunk.EMPTY);
+                }
+
+                if (quadCount == mSliceQuads[slice].length) {
+                    mSliceQuads[slice] = Arrays.copyOf(mSliceQuads[slice], quadCount * 2);
+                }
+                mSliceQuads[slice][quadCount++] = u | (v << 8) | ((width - 1) << 16) | ((height - 1) << 24);
+                u += width;
+            }
+        }
+
+        mFaceQuadCounts[face] += quadCount - mSliceQuadCounts[slice];
+        mSliceQuadCounts[slice] = quadCount;
+    }
+}
@@ -0,0 +1,167 @@
+package com.xujiaji.learnopengl.common;
+
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 只执行最新请求的调度器：请求放在一个原子槽中，还没开始的旧请求直接被新的替换（合并），
+ * 每次请求把代数加一，正在生成的旧请求用isCurrent()发现自己已经被取代，提前放弃。
+ *
+ * 执行器上同时最多有一个任务，每个任务只生成一个请求，之后还有请求时重新提交，
+ * 所以和提交到同一个执行器的其他任务保持先后顺序。
+ * request()可以在任何线程调用，不加锁。
+ */
+public class LatestRequestScheduler<T> {
+
+    public interface Builder<T> {
+        /**
+         * 在执行器上生成request。生成的结果被使用时调用complete(generation)，
+         * 发现isCurrent(generation)为false而放弃时调用abort()，结果可以在其他线程上使用。
+         * 抛出的异常交给FailureListener，这一代算作放弃，调度器继续执行之后的请求
+         */
+        void build(T request, long generation);
+    }
+
+    /** 生成失败时在执行器上调用，测试中可以替换成记录失败的实现 */
+    public interface FailureListener<T> {
+        void onBuildFailed(T request, long generation, Throwable error);
+    }
+
+    private static final String TAG = "LatestRequestScheduler";
+
+    /** 记录到logcat */
+    private static final FailureListener<Object> LOG_FAILURES = new FailureListener<Object>() {
+        @Override
+        public void onBuildFailed(Object request, long generation, Throwable error) {
+            Log.e(TAG, "Failed to build generation " + generation, error);
+        }
+    };
+
+    private final Executor mExecutor;
+    private final Builder<T> mBuilder;
+    private final FailureListener<? super T> mFailureListener;
+
+    // 还没有开始的最新请求
+    private final AtomicReference<Pending<T>> mPending = new AtomicReference<>();
+    private final AtomicLong mGeneration = new AtomicLong();
+    // 执行器上已经有任务
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    // 最新完成的代数
+    private final AtomicLong mCompletedGeneration = new AtomicLong();
+
+    private final AtomicLong mRequestedCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+    private final AtomicLong mAbortedCount = new AtomicLong();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            final Pending<T> pending = mPending.getAndSet(null);
+            if (pending != null) {
+                try {
+                    mBuilder.build(pending.mRequest, pending.mGeneration);
+                } catch (Throwable error) {
+                    // execute()没有Future接住异常，抛出去会进入线程的未捕获异常处理，在Android上结束进程
+                    mAbortedCount.incrementAndGet();
+                    mFailureListener.onBuildFailed(pending.mRequest, pending.mGeneration, error);
+                }
+            }
+
+            // 先清除标记再检查槽，request()在两步之间放入的请求不会丢失
+            mScheduled.set(false);
+            if (mPending.get() != null && mScheduled.compareAndSet(false, true)) {
+                mExecutor.execute(this);
+            }
+        }
+    };
+
+    public LatestRequestScheduler(Executor executor, Builder<T> builder) {
+        this(executor, builder, LOG_FAILURES);
+    }
+
+    /**
+     * @param failureListener build()抛出异常时调用
+     */
+    public LatestRequestScheduler(Executor executor, Builder<T> builder, FailureListener<? super T> failureListener) {
+        mExecutor = executor;
+        mBuilder = builder;
+        mFailureListener = failureListener;
+    }
+
+    /**
+     * @return 这个请求的代数
+     */
+    public long request(T request) {
+        mRequestedCount.incrementAndGet();
+        final long generation = mGeneration.incrementAndGet();
+        if (mPending.getAndSet(new Pending<>(request, generation)) != null) {
+            mCoalescedCount.incrementAndGet();
+        }
+
+        if (mScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrain);
+        }
+        return generation;
+    }
+
+    /** 这一代之后还没有新的请求 */
+    public boolean isCurrent(long generation) {
+        return mGeneration.get() == generation;
+    }
+
+    /**
+     * 结果在其他线程上使用时，旧一代的结果可能在更新的一代之后才到达，这时算作放弃
+     *
+     * @return 更新的一代已经完成时返回false，调用者应该丢弃这个结果
+     */
+    public boolean complete(long generation) {
+        long completed;
+        do {
+            completed = mCompletedGeneration.get();
+            if (generation <= completed) {
+                mAbortedCount.incrementAndGet();
+                return false;
+            }
+        } while (!mCompletedGeneration.compareAndSet(completed, generation));
+
+        mCompletedCount.incrementAndGet();
+        return true;
+    }
+
+    public void abort() {
+        mAbortedCount.incrementAndGet();
+    }
+
+    public long getRequestedCount() {
+        return mRequestedCount.get();
+    }
+
+    /** 还没有开始就被新请求替换的次数 */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /** 开始生成之后被新请求取代而放弃、生成失败，或者完成时已经过时的次数 */
+    public long getAbortedCount() {
+        return mAbortedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    private static final class Pending<T> {
+        final T mRequest;
+        final long mGeneration;
+
+        Pending(T request, long generation) {
+            this.mRequest = request;
+            this.mGeneration = generation;
+        }
+    }
+}
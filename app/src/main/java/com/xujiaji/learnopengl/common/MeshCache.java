@@ -0,0 +1,196 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按(cubeFactor, layout)缓存已经生成的客户端网格数据，总字节数超过预算时淘汰最久没有使用的项。
+ *
+ * 取出的就是放入的缓冲区对象，使用者在读取前需要自己设置位置，并且不能修改内容或者limit。
+ * 指定了DirectBufferPool时，缓存对放入的缓冲区持有一个引用，淘汰时释放；
+ * get()为调用者增加一个引用，调用者用完后需要release。这时按池实际分配的分级大小计入预算。
+ */
+public class MeshCache {
+
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(16, 0.75F, true);
+    private final DirectBufferPool mBufferPool;
+
+    private long mByteBudget;
+    private long mBytesCached;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    public MeshCache(long byteBudget) {
+        this(byteBudget, null);
+    }
+
+    /**
+     * @param bufferPool 缓冲区来自的池，为null时不计引用
+     */
+    public MeshCache(long byteBudget, DirectBufferPool bufferPool) {
+        this.mByteBudget = byteBudget;
+        this.mBufferPool = bufferPool;
+    }
+
+    /**
+     * @return 缓存的缓冲区，没有缓存时返回null
+     */
+    public synchronized Buffer[] get(int cubeFactor, int layout) {
+        final Entry entry = mEntries.get(new Key(cubeFactor, layout));
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        retainAll(entry.mBuffers);
+        return entry.mBuffers.clone();
+    }
+
+    /**
+     * 缓存这些缓冲区（从位置0到capacity的全部内容）。比整个预算还大的网格不会被缓存。
+     */
+    public synchronized void put(int cubeFactor, int layout, Buffer... buffers) {
+        final Key key = new Key(cubeFactor, layout);
+        final Entry previous = mEntries.remove(key);
+        if (previous != null) {
+            mBytesCached -= previous.mBytes;
+            releaseAll(previous.mBuffers);
+        }
+
+        long bytes = 0;
+        for (Buffer buffer : buffers) {
+            bytes += getCachedSize(buffer);
+        }
+        if (bytes > mByteBudget) {
+            return;
+        }
+
+        retainAll(buffers);
+        mEntries.put(key, new Entry(buffers.clone(), bytes));
+        mBytesCached += bytes;
+        trimToBudget();
+    }
+
+    public synchronized void setByteBudget(long byteBudget) {
+        mByteBudget = byteBudget;
+        trimToBudget();
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            releaseAll(entry.mBuffers);
+        }
+        mEntries.clear();
+        mBytesCached = 0;
+    }
+
+    public synchronized long getByteBudget() {
+        return mByteBudget;
+    }
+
+    public synchronized long getBytesCached() {
+        return mBytesCached;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private void trimToBudget() {
+        final Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mBytesCached > mByteBudget && iterator.hasNext()) {
+            final Entry entry = iterator.next().getValue();
+            mBytesCached -= entry.mBytes;
+            releaseAll(entry.mBuffers);
+            iterator.remove();
+            mEvictionCount++;
+        }
+    }
+
+    /** 缓冲区占用的内存，来自池的缓冲区背后是2的幂大小的分级 */
+    private long getCachedSize(Buffer buffer) {
+        final long bytes = getByteSize(buffer);
+        return mBufferPool != null ? DirectBufferPool.getAllocationSize((int) bytes) : bytes;
+    }
+
+    static long getByteSize(Buffer buffer) {
+        if (buffer instanceof FloatBuffer) {
+            return buffer.capacity() * 4L;
+        } else if (buffer instanceof ShortBuffer) {
+            return buffer.capacity() * 2L;
+        } else if (buffer instanceof ByteBuffer) {
+            return buffer.capacity();
+        }
+        throw new IllegalArgumentException("Unsupported buffer type: " + buffer.getClass());
+    }
+
+    private void retainAll(Buffer[] buffers) {
+        if (mBufferPool != null) {
+            for (Buffer buffer : buffers) {
+                mBufferPool.retain(buffer);
+            }
+        }
+    }
+
+    private void releaseAll(Buffer[] buffers) {
+        if (mBufferPool != null) {
+            for (Buffer buffer : buffers) {
+                mBufferPool.release(buffer);
+            }
+        }
+    }
+
+    private static final class Key {
+        final int mCubeFactor;
+        final int mLayout;
+
+        Key(int cubeFactor, int layout) {
+            this.mCubeFactor = cubeFactor;
+            this.mLayout = layout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mCubeFactor == other.mCubeFactor && mLayout == other.mLayout;
+        }
+
+        @Override
+        public int hashCode() {
+            return mCubeFactor * 31 + mLayout;
+        }
+    }
+
+    private static final class Entry {
+        final Buffer[] mBuffers;
+        final long mBytes;
+
+        Entry(Buffer[] buffers, long bytes) {
+            this.mBuffers = buffers;
+            this.mBytes = bytes;
+        }
+    }
+}
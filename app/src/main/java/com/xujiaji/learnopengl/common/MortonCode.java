@@ -0,0 +1,58 @@
+package com.xujiaji.learnopengl.common;
+
+/**
+ * 三维Morton码（Z序）：把x、y、z的二进制位交错成一个整数，按码排序时空间上相邻的格子在序列中也靠近，
+ * 边长2的幂、对齐的立方体区域（八叉树节点）正好是一段连续的码。
+ *
+ * 每三位中x在最高位、z在最低位，所以2×2×2的格子内部和x、y、z嵌套的顺序相同。
+ * 位交错用移位和掩码完成，不需要查表和循环。
+ */
+public class MortonCode {
+
+    /** 每个轴的位数，三个轴一共30位 */
+    public static final int BITS_PER_AXIS = 10;
+
+    /** 每个轴上坐标的上限（不包含） */
+    public static final int MAX_COORDINATE = 1 << BITS_PER_AXIS;
+
+    public static int encode(int x, int y, int z) {
+        return (spread(x) << 2) | (spread(y) << 1) | spread(z);
+    }
+
+    public static int decodeX(int code) {
+        return compact(code >>> 2);
+    }
+
+    public static int decodeY(int code) {
+        return compact(code >>> 1);
+    }
+
+    public static int decodeZ(int code) {
+        return compact(code);
+    }
+
+    /** 边长2^level的八叉树节点中的格子个数，也是节点在码上覆盖的长度 */
+    public static int getNodeSpan(int level) {
+        return 1 << (3 * level);
+    }
+
+    // 低10位的每一位之间插入两个0
+    private static int spread(int value) {
+        int v = value & (MAX_COORDINATE - 1);
+        v = (v | (v << 16)) & 0x030000FF;
+        v = (v | (v << 8)) & 0x0300F00F;
+        v = (v | (v << 4)) & 0x030C30C3;
+        v = (v | (v << 2)) & 0x09249249;
+        return v;
+    }
+
+    // spread()的逆运算，取出每三位中的最低位
+    private static int compact(int value) {
+        int v = value & 0x09249249;
+        v = (v | (v >>> 2)) & 0x030C30C3;
+        v = (v | (v >>> 4)) & 0x0300F00F;
+        v = (v | (v >>> 8)) & 0x030000FF;
+        v = (v | (v >>> 16)) & 0x000003FF;
+        return v;
+    }
+}
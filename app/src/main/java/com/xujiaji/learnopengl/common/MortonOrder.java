@@ -0,0 +1,83 @@
+package com.xujiaji.learnopengl.common;
+
+import java.util.Arrays;
+
+/**
+ * sizeX * sizeY * sizeZ个格子按Morton码排列的顺序，边长不是2的幂时跳过范围外的码。
+ *
+ * 也是八叉树节点到序列范围的索引：对齐的节点中的格子在序列中是连续的一段[getNodeFirst(), getNodeEnd())，
+ * 所以裁剪到节点的粒度时每个可见的节点只需要一次绘制。创建之后只读，可以在多个线程上使用。
+ */
+public class MortonOrder {
+
+    private final int mSizeX;
+    private final int mSizeY;
+    private final int mSizeZ;
+
+    // 按从小到大排列的码
+    private final int[] mCodes;
+
+    public MortonOrder(int sizeX, int sizeY, int sizeZ) {
+        if (sizeX < 1 || sizeY < 1 || sizeZ < 1
+                || sizeX > MortonCode.MAX_COORDINATE || sizeY > MortonCode.MAX_COORDINATE || sizeZ > MortonCode.MAX_COORDINATE) {
+            throw new IllegalArgumentException("Invalid size " + sizeX + " x " + sizeY + " x " + sizeZ);
+        }
+        mSizeX = sizeX;
+        mSizeY = sizeY;
+        mSizeZ = sizeZ;
+
+        mCodes = new int[sizeX * sizeY * sizeZ];
+        int index = 0;
+        for (int x = 0; x < sizeX; x++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    mCodes[index++] = MortonCode.encode(x, y, z);
+                }
+            }
+        }
+        Arrays.sort(mCodes);
+    }
+
+    public int getSize(int axis) {
+        return axis == 0 ? mSizeX : axis == 1 ? mSizeY : mSizeZ;
+    }
+
+    public int getCount() {
+        return mCodes.length;
+    }
+
+    public int getX(int index) {
+        return MortonCode.decodeX(mCodes[index]);
+    }
+
+    public int getY(int index) {
+        return MortonCode.decodeY(mCodes[index]);
+    }
+
+    public int getZ(int index) {
+        return MortonCode.decodeZ(mCodes[index]);
+    }
+
+    /** (x, y, z)在序列中的序号 */
+    public int indexOf(int x, int y, int z) {
+        return Arrays.binarySearch(mCodes, MortonCode.encode(x, y, z));
+    }
+
+    /**
+     * 包含(x, y, z)、边长2^level的八叉树节点中第一个格子的序号
+     */
+    public int getNodeFirst(int level, int x, int y, int z) {
+        return getRank(MortonCode.encode(x, y, z) & -MortonCode.getNodeSpan(level));
+    }
+
+    /** 这个节点中最后一个格子之后的序号，节点在范围外时和getNodeFirst()相同 */
+    public int getNodeEnd(int level, int x, int y, int z) {
+        return getRank((MortonCode.encode(x, y, z) & -MortonCode.getNodeSpan(level)) + MortonCode.getNodeSpan(level));
+    }
+
+    // 码小于code的格子个数
+    private int getRank(int code) {
+        final int index = Arrays.binarySearch(mCodes, code);
+        return index >= 0 ? index : -index - 1;
+    }
+}
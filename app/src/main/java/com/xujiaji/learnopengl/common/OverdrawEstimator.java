@@ -0,0 +1,135 @@
+package com.xujiaji.learnopengl.common;
+
+/**
+ * 用屏幕上的粗糙分块估计overdraw，不需要读取GPU计数器。
+ *
+ * 按绘制顺序传入每个物体的包围盒，投影到屏幕之后覆盖若干个块。每块记录已经绘制的物体中最远的深度
+ * 能遮挡的范围：一个物体的最近深度比块中已有物体的最远深度还远时，认为它在这块的片段会被深度测试丢弃。
+ * 其余的覆盖都算作着色一次。估计值是着色的次数除以被覆盖的块数，从前到后绘制时接近1。
+ *
+ * 包围盒的矩形比物体大，所以这只是用来比较不同绘制顺序的估计。所有方法都不分配内存。
+ */
+public class OverdrawEstimator {
+
+    public static final int DEFAULT_TILES_PER_AXIS = 16;
+
+    private final int mTilesPerAxis;
+    // 每块中已经绘制的物体能遮挡住的深度，比它远的物体被丢弃
+    private final float[] mTileDepths;
+    private int mShadedTiles;
+    private int mCoveredTiles;
+
+    public OverdrawEstimator() {
+        this(DEFAULT_TILES_PER_AXIS);
+    }
+
+    public OverdrawEstimator(int tilesPerAxis) {
+        mTilesPerAxis = tilesPerAxis;
+        mTileDepths = new float[tilesPerAxis * tilesPerAxis];
+        begin();
+    }
+
+    /** 开始新的一帧 */
+    public void begin() {
+        for (int i = 0; i < mTileDepths.length; i++) {
+            mTileDepths[i] = Float.POSITIVE_INFINITY;
+        }
+        mShadedTiles = 0;
+        mCoveredTiles = 0;
+    }
+
+    /**
+     * 按绘制顺序传入一个物体的包围盒
+     *
+     * @param mvp 把包围盒变换到裁剪空间的矩阵，按列存放
+     */
+    public void addBox(float[] mvp, int offset, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        float left = Float.POSITIVE_INFINITY;
+        float right = Float.NEGATIVE_INFINITY;
+        float bottom = Float.POSITIVE_INFINITY;
+        float top = Float.NEGATIVE_INFINITY;
+        float near = Float.POSITIVE_INFINITY;
+        float far = Float.NEGATIVE_INFINITY;
+        boolean crossesEye = false;
+
+        for (int corner = 0; corner < 8; corner++) {
+            final float x = (corner & 1) != 0 ? maxX : minX;
+            final float y = (corner & 2) != 0 ? maxY : minY;
+            final float z = (corner & 4) != 0 ? maxZ : minZ;
+            final float w = mvp[offset + 3] * x + mvp[offset + 7] * y + mvp[offset + 11] * z + mvp[offset + 15];
+            if (w <= 0.0F) {
+                crossesEye = true;
+                break;
+            }
+
+            final float ndcX = (mvp[offset] * x + mvp[offset + 4] * y + mvp[offset + 8] * z + mvp[offset + 12]) / w;
+            final float ndcY = (mvp[offset + 1] * x + mvp[offset + 5] * y + mvp[offset + 9] * z + mvp[offset + 13]) / w;
+            final float ndcZ = (mvp[offset + 2] * x + mvp[offset + 6] * y + mvp[offset + 10] * z + mvp[offset + 14]) / w;
+            left = Math.min(left, ndcX);
+            right = Math.max(right, ndcX);
+            bottom = Math.min(bottom, ndcY);
+            top = Math.max(top, ndcY);
+            near = Math.min(near, ndcZ);
+            far = Math.max(far, ndcZ);
+        }
+
+        if (crossesEye) {
+            // 包围盒跨过眼睛所在的平面时可能覆盖整个屏幕，也不能遮挡其他物体
+            left = -1.0F;
+            right = 1.0F;
+            bottom = -1.0F;
+            top = 1.0F;
+            near = -1.0F;
+            far = Float.POSITIVE_INFINITY;
+        }
+
+        addRect(left, bottom, right, top, near, far);
+    }
+
+    /**
+     * 按绘制顺序传入一个物体在标准化设备坐标中的矩形和深度范围
+     */
+    public void addRect(float left, float bottom, float right, float top, float nearDepth, float farDepth) {
+        final int fromX = toTile(left);
+        final int toX = toTile(right);
+        final int fromY = toTile(bottom);
+        final int toY = toTile(top);
+        if (right < -1.0F || left > 1.0F || top < -1.0F || bottom > 1.0F) {
+            return;
+        }
+
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                final int tile = y * mTilesPerAxis + x;
+                if (mTileDepths[tile] == Float.POSITIVE_INFINITY) {
+                    mCoveredTiles++;
+                }
+                if (nearDepth <= mTileDepths[tile]) {
+                    mShadedTiles++;
+                }
+                // 矩形只是部分覆盖这一块，但是物体前后排列时仍然可以近似地认为它挡住了后面的物体
+                if (farDepth < mTileDepths[tile]) {
+                    mTileDepths[tile] = farDepth;
+                }
+            }
+        }
+    }
+
+    /** 这一帧估计的每个像素的平均着色次数，没有覆盖任何块时为0 */
+    public float getOverdraw() {
+        return mCoveredTiles > 0 ? (float) mShadedTiles / mCoveredTiles : 0.0F;
+    }
+
+    public int getShadedTiles() {
+        return mShadedTiles;
+    }
+
+    public int getCoveredTiles() {
+        return mCoveredTiles;
+    }
+
+    private int toTile(float ndc) {
+        final int tile = (int) ((ndc + 1.0F) * 0.5F * mTilesPerAxis);
+        return Math.max(0, Math.min(mTilesPerAxis - 1, tile));
+    }
+}
@@ -0,0 +1,144 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 把立方体网格沿x轴切成若干片，在线程池中并行生成。
+ * 每个立方体的数据长度是固定的，所以每片的输出位置可以提前算出来，各片写入缓冲区中互不重叠的区域。
+ */
+public class ParallelCubeGridBuilder {
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
+    /**
+     * @param executor    执行各片任务的线程池，调用线程也会执行其中一片
+     * @param parallelism 最多切成多少片
+     */
+    public ParallelCubeGridBuilder(ExecutorService executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.mExecutor = executor;
+        this.mParallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * 和ShapeBuilder.putCubeGridData的输出相同，从out的当前位置开始写入，完成后out的位置在数据末尾。
+     */
+    public void putCubeGridData(final int cubeFactor,
+                                final float minPosition,
+                                final float maxPosition,
+                                final float[] cubeNormals,
+                                final float[] cubeTextureCoordinates,
+                                FloatBuffer out) throws InterruptedException {
+        final int slabCount = Math.min(mParallelism, cubeFactor);
+        final int floatsPerSlice = ShapeBuilder.getCubeGridDataLength(cubeFactor, cubeNormals, cubeTextureCoordinates) / cubeFactor;
+        final int start = out.position();
+
+        final List<Future<?>> futures = new ArrayList<>(slabCount - 1);
+        try {
+            for (int slab = 1; slab < slabCount; slab++) {
+                final int fromX = cubeFactor * slab / slabCount;
+                final int toX = cubeFactor * (slab + 1) / slabCount;
+                final FloatBuffer slabBuffer = out.duplicate();
+                slabBuffer.position(start + fromX * floatsPerSlice);
+
+                futures.add(mExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        CubeGridReplicator.putCubeGridData(cubeFactor, minPosition, maxPosition, fromX, toX,
+                                cubeNormals, cubeTextureCoordinates, slabBuffer);
+                        return null;
+                    }
+                }));
+            }
+
+            // 第一片在当前线程生成
+            final FloatBuffer firstSlab = out.duplicate();
+            CubeGridReplicator.putCubeGridData(cubeFactor, minPosition, maxPosition, 0, cubeFactor / slabCount,
+                    cubeNormals, cubeTextureCoordinates, firstSlab);
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Error generating cube grid.", cause);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        out.position(start + floatsPerSlice * cubeFactor);
+    }
+
+    /**
+     * 和CubeGridChunks.putCubeGridFaceData的输出相同。每个方向按x方向的块层切片，每片是这个方向中连续的几层块。
+     */
+    public void putCubeGridFaceData(final CubeGridChunks chunks,
+                                    final float[] cubeNormals,
+                                    final float[] cubeTextureCoordinates,
+                                    FloatBuffer out) throws InterruptedException {
+        final int chunksPerAxis = chunks.getChunksPerAxis();
+        final int slabCount = Math.min(mParallelism, chunksPerAxis);
+        final int floatsPerFace = ShapeBuilder.getCubeGridDataLength(1, cubeNormals, cubeTextureCoordinates) / ShapeBuilder.FACE_COUNT;
+        final int cubeCount = chunks.getTotalCubeCount();
+        final int start = out.position();
+
+        final List<Future<?>> futures = new ArrayList<>(ShapeBuilder.FACE_COUNT * slabCount - 1);
+        try {
+            for (int task = 1; task < ShapeBuilder.FACE_COUNT * slabCount; task++) {
+                final int face = task / slabCount;
+                final int slab = task % slabCount;
+                final int fromChunk = chunks.getFirstChunkOfSlab(chunksPerAxis * slab / slabCount);
+                final int toChunk = chunks.getFirstChunkOfSlab(chunksPerAxis * (slab + 1) / slabCount);
+                final FloatBuffer slabBuffer = out.duplicate();
+                slabBuffer.position(start + (face * cubeCount + chunks.getFirstCube(fromChunk)) * floatsPerFace);
+
+                futures.add(mExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        chunks.putCubeGridFaceData(face, fromChunk, toChunk, cubeNormals, cubeTextureCoordinates, slabBuffer);
+                        return null;
+                    }
+                }));
+            }
+
+            // 第一个方向的第一片在当前线程生成
+            final FloatBuffer firstSlab = out.duplicate();
+            chunks.putCubeGridFaceData(0, 0, chunks.getFirstChunkOfSlab(chunksPerAxis / slabCount),
+                    cubeNormals, cubeTextureCoordinates, firstSlab);
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Error generating cube grid.", cause);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        out.position(start + floatsPerFace * ShapeBuilder.FACE_COUNT * cubeCount);
+    }
+}
@@ -0,0 +1,13 @@
+package com.xujiaji.learnopengl.common;
+
+/**
+ * 排队中的上传，只在OpenGL渲染线程上查询和取消
+ */
+public interface PendingUpload {
+
+    /** 数据已经可以在渲染线程上使用 */
+    boolean isComplete();
+
+    /** 不再需要这次上传，还没有开始的上传不会再执行 */
+    void cancel();
+}
@@ -0,0 +1,126 @@
+package com.xujiaji.learnopengl.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个生产者线程（通常是UI线程）向OpenGL线程发送命令的环形缓冲区，代替GLSurfaceView.queueEvent()。
+ *
+ * 每条命令是一个类型和几个参数，放在预先分配的数组中，发送和处理都不分配对象，也不加锁：
+ * 生产者写完一格之后才推进mTail，消费者处理完之后才推进mHead。
+ * 满了的时候offer()返回false，由生产者决定合并到下一条命令还是放弃，不会阻塞UI线程。
+ *
+ * offer()只能在同一个线程调用，drain()只能在OpenGL线程调用，通常在onDrawFrame()的开头。
+ */
+public class RenderCommandQueue {
+
+    /** 每帧处理一次时足够容纳一帧之内的点击和触摸 */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    public interface Handler {
+        /**
+         * 处理一条命令，参数的含义由类型决定，没有用到的参数是0或者null
+         */
+        void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg);
+    }
+
+    private final int mMask;
+    private final int[] mTypes;
+    private final int[] mIntArgs;
+    private final float[] mFloatArgs;
+    private final Object[] mObjectArgs;
+
+    // 下一条要处理和要写入的命令的序号，只增加，对容量取余得到格子
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    private final AtomicLong mRejectedCount = new AtomicLong();
+
+    /**
+     * @param capacity 向上取到2的幂
+     */
+    public RenderCommandQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mMask = size - 1;
+        mTypes = new int[size];
+        mIntArgs = new int[size];
+        mFloatArgs = new float[size * 2];
+        mObjectArgs = new Object[size];
+    }
+
+    public int getCapacity() {
+        return mTypes.length;
+    }
+
+    /** 还没有处理的命令数，其他线程读到的是近似值 */
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /** 因为队列满了被拒绝的命令数 */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    public boolean offer(int type) {
+        return offer(type, 0, 0.0F, 0.0F, null);
+    }
+
+    public boolean offer(int type, int intArg) {
+        return offer(type, intArg, 0.0F, 0.0F, null);
+    }
+
+    public boolean offer(int type, float floatArg1, float floatArg2) {
+        return offer(type, 0, floatArg1, floatArg2, null);
+    }
+
+    public boolean offer(int type, Object objectArg) {
+        return offer(type, 0, 0.0F, 0.0F, objectArg);
+    }
+
+    /**
+     * @return 队列满了时返回false，命令没有加入
+     */
+    public boolean offer(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+        final long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            mRejectedCount.incrementAndGet();
+            return false;
+        }
+
+        final int slot = (int) tail & mMask;
+        mTypes[slot] = type;
+        mIntArgs[slot] = intArg;
+        mFloatArgs[slot * 2] = floatArg1;
+        mFloatArgs[slot * 2 + 1] = floatArg2;
+        mObjectArgs[slot] = objectArg;
+        // 格子写完之后才对消费者可见
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * 按顺序处理调用时已经在队列中的命令，处理过程中新加入的命令留到下一次
+     *
+     * @return 处理的命令数
+     */
+    public int drain(Handler handler) {
+        final long head = mHead.get();
+        final long tail = mTail.get();
+        for (long i = head; i < tail; i++) {
+            final int slot = (int) i & mMask;
+            final Object objectArg = mObjectArgs[slot];
+            // 不让队列继续引用处理过的对象
+            mObjectArgs[slot] = null;
+            try {
+                handler.onCommand(mTypes[slot], mIntArgs[slot], mFloatArgs[slot * 2], mFloatArgs[slot * 2 + 1], objectArg);
+            } finally {
+                // 处理完这一格之后生产者才可以覆盖它，出现异常时也跳过这条命令
+                mHead.lazySet(i + 1);
+            }
+        }
+        return (int) (tail - head);
+    }
+}
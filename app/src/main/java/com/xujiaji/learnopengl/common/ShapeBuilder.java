@@ -1,7 +1,90 @@
 package com.xujiaji.learnopengl.common;
 
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
 public class ShapeBuilder
 {
+	/** 每个立方体的顶点数：6个面，每面2个三角形，每个三角形3个顶点 */
+	public static final int VERTICES_PER_CUBE = 36;
+
+	/** 每个立方体位置数据的float数 */
+	public static final int POSITION_FLOATS_PER_CUBE = VERTICES_PER_CUBE * 3;
+
+	// 立方体的8个角用3位表示：bit0 = x取大值，bit1 = y取大值，bit2 = z取大值。
+	// 按generateCubeData的面顺序和三角形顺序展开，point1..point8分别对应 6, 7, 4, 5, 2, 3, 0, 1
+	static final int[] CUBE_VERTEX_CORNERS = {
+			6, 4, 7, 4, 5, 7, // front
+			7, 5, 3, 5, 1, 3, // right
+			3, 1, 2, 1, 0, 2, // back
+			2, 0, 6, 0, 4, 6, // left
+			2, 6, 3, 6, 7, 3, // top
+			1, 5, 0, 5, 4, 0  // bottom
+	};
+
+	/** 索引绘制时每个立方体的顶点数：6个面，每面4个共享顶点 */
+	public static final int INDEXED_VERTICES_PER_CUBE = 24;
+
+	/** 索引绘制时每个立方体的索引数 */
+	public static final int INDICES_PER_CUBE = 36;
+
+	/** 索引绘制时每个顶点的float数：位置3，法线3，纹理坐标2 */
+	public static final int INDEXED_FLOATS_PER_VERTEX = 3 + 3 + 2;
+
+	/** 一次索引绘制最多的立方体数，保证short索引不超过65535 */
+	public static final int MAX_CUBES_PER_SHORT_INDEX_BATCH = 65536 / INDEXED_VERTICES_PER_CUBE;
+
+	/** 立方体6个面的顺序，和generateCubeData相同 */
+	public static final int FACE_FRONT = 0;
+	public static final int FACE_RIGHT = 1;
+	public static final int FACE_BACK = 2;
+	public static final int FACE_LEFT = 3;
+	public static final int FACE_TOP = 4;
+	public static final int FACE_BOTTOM = 5;
+	public static final int FACE_COUNT = 6;
+
+	/** 每个面的顶点数：2个三角形，每个三角形3个顶点 */
+	public static final int VERTICES_PER_FACE = VERTICES_PER_CUBE / FACE_COUNT;
+
+	/** 索引绘制时每个面的顶点数和索引数 */
+	public static final int INDEXED_VERTICES_PER_FACE = INDEXED_VERTICES_PER_CUBE / FACE_COUNT;
+	public static final int INDICES_PER_FACE = INDICES_PER_CUBE / FACE_COUNT;
+
+	/** 一次索引绘制最多的面数，保证short索引不超过65535 */
+	public static final int MAX_FACES_PER_SHORT_INDEX_BATCH = 65536 / INDEXED_VERTICES_PER_FACE;
+
+	// 每个面的4个角：左上，右上，左下，右下，面的顺序和generateCubeData相同
+	private static final int[] CUBE_FACE_CORNERS = {
+			6, 7, 4, 5, // front
+			7, 3, 5, 1, // right
+			3, 2, 1, 0, // back
+			2, 6, 0, 4, // left
+			2, 3, 6, 7, // top
+			1, 0, 5, 4  // bottom
+	};
+
+	static final float[] CUBE_FACE_NORMALS = {
+			 0.0F,  0.0F,  1.0F, // front
+			 1.0F,  0.0F,  0.0F, // right
+			 0.0F,  0.0F, -1.0F, // back
+			-1.0F,  0.0F,  0.0F, // left
+			 0.0F,  1.0F,  0.0F, // top
+			 0.0F, -1.0F,  0.0F  // bottom
+	};
+
+	// 左上，右上，左下，右下的纹理坐标
+	private static final float[] CUBE_FACE_TEXTURE_COORDINATES = {
+			0.0F, 0.0F,
+			1.0F, 0.0F,
+			0.0F, 1.0F,
+			1.0F, 1.0F
+	};
+
+	// 每个面两个三角形在4个角中的索引，和generateCubeData的三角形顺序一致
+	//  0---1
+	//  | / |
+	//  2---3
+	private static final short[] CUBE_FACE_INDICES = {0, 2, 1, 2, 3, 1};
 	public static float[] generateCubeData(float[] point1,
 			float[] point2,
 			float[] point3,
@@ -114,4 +197,413 @@ public class ShapeBuilder
 		}
 		return coordinateData;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * 生成cubeFactor * cubeFactor * cubeFactor个立方体组成的网格，直接写入调用者提供的缓冲区，
+	 * 不为每个立方体分配数组。立方体按x、y、z嵌套循环的顺序输出，结果与逐个调用generateCubeData相同。
+	 *
+	 * cubeNormals和cubeTextureCoordinates为null时只写入位置（每顶点3个float）；
+	 * 否则按 位置、法线、纹理坐标 的顺序交错写入，它们是一个立方体36个顶点的数据，每个立方体重复使用。
+	 */
+	public static void putCubeGridData(int cubeFactor,
+			float minPosition,
+			float maxPosition,
+			float[] cubeNormals,
+			float[] cubeTextureCoordinates,
+			FloatBuffer out)
+	{
+		putCubeGridData(cubeFactor, minPosition, maxPosition, 0, cubeFactor, cubeNormals, cubeTextureCoordinates, out);
+	}
+
+	/**
+	 * 只生成x在[fromX, toX)之间的一片立方体，从out的当前位置开始写入。
+	 * 每片的输出偏移是getCubeGridDataLength(cubeFactor, ...) / cubeFactor * fromX，不同的片可以并行写入同一个缓冲区的不同区域。
+	 */
+	public static void putCubeGridData(int cubeFactor,
+			float minPosition,
+			float maxPosition,
+			int fromX,
+			int toX,
+			float[] cubeNormals,
+			float[] cubeTextureCoordinates,
+			FloatBuffer out)
+	{
+		final int segments = cubeFactor + (cubeFactor - 1);
+		final float positionRange = maxPosition - minPosition;
+
+		for (int x = fromX; x < toX; x++)
+		{
+			final float x1 = minPosition + ((positionRange / segments) * (x * 2));
+			final float x2 = minPosition + ((positionRange / segments) * ((x * 2) + 1));
+
+			for (int y = 0; y < cubeFactor; y++)
+			{
+				final float y1 = minPosition + ((positionRange / segments) * (y * 2));
+				final float y2 = minPosition + ((positionRange / segments) * ((y * 2) + 1));
+
+				for (int z = 0; z < cubeFactor; z++)
+				{
+					final float z1 = minPosition + ((positionRange / segments) * (z * 2));
+					final float z2 = minPosition + ((positionRange / segments) * ((z * 2) + 1));
+
+					putCubeData(x1, x2, y1, y2, z1, z2, cubeNormals, cubeTextureCoordinates, out);
+				}
+			}
+		}
+	}
+
+	/** 网格数据需要的float数，cubeNormals和cubeTextureCoordinates可以为null */
+	public static int getCubeGridDataLength(int cubeFactor, float[] cubeNormals, float[] cubeTextureCoordinates)
+	{
+		int floatsPerCube = POSITION_FLOATS_PER_CUBE;
+		if (cubeNormals != null)
+		{
+			floatsPerCube += cubeNormals.length;
+		}
+		if (cubeTextureCoordinates != null)
+		{
+			floatsPerCube += cubeTextureCoordinates.length;
+		}
+		return floatsPerCube * cubeFactor * cubeFactor * cubeFactor;
+	}
+
+	private static void putCubeData(float x1, float x2, float y1, float y2, float z1, float z2,
+			float[] cubeNormals,
+			float[] cubeTextureCoordinates,
+			FloatBuffer out)
+	{
+		final int normalSize = cubeNormals != null ? cubeNormals.length / VERTICES_PER_CUBE : 0;
+		final int textureCoordinateSize = cubeTextureCoordinates != null ? cubeTextureCoordinates.length / VERTICES_PER_CUBE : 0;
+
+		for (int v = 0; v < VERTICES_PER_CUBE; v++)
+		{
+			final int corner = CUBE_VERTEX_CORNERS[v];
+			out.put((corner & 1) != 0 ? x2 : x1);
+			out.put((corner & 2) != 0 ? y2 : y1);
+			out.put((corner & 4) != 0 ? z2 : z1);
+
+			if (normalSize > 0)
+			{
+				out.put(cubeNormals, v * normalSize, normalSize);
+			}
+			if (textureCoordinateSize > 0)
+			{
+				out.put(cubeTextureCoordinates, v * textureCoordinateSize, textureCoordinateSize);
+			}
+		}
+	}
+
+	/**
+	 * 生成用于索引绘制的立方体网格，每个立方体24个顶点，按 位置、法线、纹理坐标 交错写入out。
+	 * 立方体的顺序和位置与putCubeGridData相同。
+	 */
+	public static void putIndexedCubeGridData(int cubeFactor,
+			float minPosition,
+			float maxPosition,
+			FloatBuffer out)
+	{
+		putIndexedCubeGridData(cubeFactor, minPosition, maxPosition, 0, cubeFactor, 0, cubeFactor, 0, cubeFactor, out);
+	}
+
+	/**
+	 * 只生成x、y、z分别在[fromX, toX)、[fromY, toY)、[fromZ, toZ)之间的立方体，位置和整个网格中相同
+	 */
+	public static void putIndexedCubeGridData(int cubeFactor,
+			float minPosition,
+			float maxPosition,
+			int fromX,
+			int toX,
+			int fromY,
+			int toY,
+			int fromZ,
+			int toZ,
+			FloatBuffer out)
+	{
+		final int segments = cubeFactor + (cubeFactor - 1);
+		final float positionRange = maxPosition - minPosition;
+
+		for (int x = fromX; x < toX; x++)
+		{
+			final float x1 = minPosition + ((positionRange / segments) * (x * 2));
+			final float x2 = minPosition + ((positionRange / segments) * ((x * 2) + 1));
+
+			for (int y = fromY; y < toY; y++)
+			{
+				final float y1 = minPosition + ((positionRange / segments) * (y * 2));
+				final float y2 = minPosition + ((positionRange / segments) * ((y * 2) + 1));
+
+				for (int z = fromZ; z < toZ; z++)
+				{
+					final float z1 = minPosition + ((positionRange / segments) * (z * 2));
+					final float z2 = minPosition + ((positionRange / segments) * ((z * 2) + 1));
+
+					for (int v = 0; v < INDEXED_VERTICES_PER_CUBE; v++)
+					{
+						final int face = v / 4;
+						final int corner = CUBE_FACE_CORNERS[v];
+						out.put((corner & 1) != 0 ? x2 : x1);
+						out.put((corner & 2) != 0 ? y2 : y1);
+						out.put((corner & 4) != 0 ? z2 : z1);
+						out.put(CUBE_FACE_NORMALS, face * 3, 3);
+						out.put(CUBE_FACE_TEXTURE_COORDINATES, (v % 4) * 2, 2);
+					}
+				}
+			}
+		}
+	}
+
+	/** putIndexedCubeGridData需要的float数 */
+	public static int getIndexedCubeGridDataLength(int cubeFactor)
+	{
+		return INDEXED_VERTICES_PER_CUBE * INDEXED_FLOATS_PER_VERTEX * cubeFactor * cubeFactor * cubeFactor;
+	}
+
+	/**
+	 * 写入cubeCount个连续立方体的三角形索引，第一个立方体从顶点0开始。
+	 * cubeCount不能超过MAX_CUBES_PER_SHORT_INDEX_BATCH。
+	 */
+	public static void putCubeIndices(int cubeCount, ShortBuffer out)
+	{
+		if (cubeCount > MAX_CUBES_PER_SHORT_INDEX_BATCH)
+		{
+			throw new IllegalArgumentException("Too many cubes for short indices: " + cubeCount);
+		}
+
+		// 立方体的面是连续的，所以和同样多个连续的面相同
+		putFaceIndices(cubeCount * FACE_COUNT, out);
+	}
+
+	/**
+	 * 写入faceCount个连续的面的三角形索引，每个面4个顶点，第一个面从顶点0开始。
+	 * faceCount不能超过MAX_FACES_PER_SHORT_INDEX_BATCH。
+	 */
+	public static void putFaceIndices(int faceCount, ShortBuffer out)
+	{
+		if (faceCount > MAX_FACES_PER_SHORT_INDEX_BATCH)
+		{
+			throw new IllegalArgumentException("Too many faces for short indices: " + faceCount);
+		}
+
+		for (int face = 0; face < faceCount; face++)
+		{
+			final int base = face * INDEXED_VERTICES_PER_FACE;
+			for (int i = 0; i < CUBE_FACE_INDICES.length; i++)
+			{
+				out.put((short) (base + CUBE_FACE_INDICES[i]));
+			}
+		}
+	}
+
+	/**
+	 * 只生成盒子范围内每个立方体朝face方向的一个面，格式和putCubeGridData相同，每个面VERTICES_PER_FACE个顶点。
+	 * 把6个方向分别写入连续的区域，绘制时就可以跳过背对眼睛的方向
+	 */
+	public static void putCubeGridFaceData(int cubeFactor,
+			float minPosition,
+			float maxPosition,
+			int face,
+			int fromX,
+			int toX,
+			int fromY,
+			int toY,
+			int fromZ,
+			int toZ,
+			float[] cubeNormals,
+			float[] cubeTextureCoordinates,
+			FloatBuffer out)
+	{
+		final int segments = cubeFactor + (cubeFactor - 1);
+		final float positionRange = maxPosition - minPosition;
+
+		for (int x = fromX; x < toX; x++)
+		{
+			final float x1 = minPosition + ((positionRange / segments) * (x * 2));
+			final float x2 = minPosition + ((positionRange / segments) * ((x * 2) + 1));
+
+			for (int y = fromY; y < toY; y++)
+			{
+				final float y1 = minPosition + ((positionRange / segments) * (y * 2));
+				final float y2 = minPosition + ((positionRange / segments) * ((y * 2) + 1));
+
+				for (int z = fromZ; z < toZ; z++)
+				{
+					final float z1 = minPosition + ((positionRange / segments) * (z * 2));
+					final float z2 = minPosition + ((positionRange / segments) * ((z * 2) + 1));
+
+					putBoxFaceData(x1, x2, y1, y2, z1, z2, face, cubeNormals, cubeTextureCoordinates, out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 写入x1..x2、y1..y2、z1..z2这个盒子朝face方向的一个面，格式和putCubeGridFaceData相同
+	 */
+	public static void putBoxFaceData(float x1, float x2, float y1, float y2, float z1, float z2,
+			int face,
+			float[] cubeNormals,
+			float[] cubeTextureCoordinates,
+			FloatBuffer out)
+	{
+		final int normalSize = cubeNormals != null ? cubeNormals.length / VERTICES_PER_CUBE : 0;
+		final int textureCoordinateSize = cubeTextureCoordinates != null ? cubeTextureCoordinates.length / VERTICES_PER_CUBE : 0;
+		final int firstVertex = face * VERTICES_PER_FACE;
+
+		for (int v = firstVertex; v < firstVertex + VERTICES_PER_FACE; v++)
+		{
+			final int corner = CUBE_VERTEX_CORNERS[v];
+			out.put((corner & 1) != 0 ? x2 : x1);
+			out.put((corner & 2) != 0 ? y2 : y1);
+			out.put((corner & 4) != 0 ? z2 : z1);
+
+			if (normalSize > 0)
+			{
+				out.put(cubeNormals, v * normalSize, normalSize);
+			}
+			if (textureCoordinateSize > 0)
+			{
+				out.put(cubeTextureCoordinates, v * textureCoordinateSize, textureCoordinateSize);
+			}
+		}
+	}
+
+	/**
+	 * 和putCubeGridFaceData相同，但是使用putIndexedCubeGridData的格式，每个面INDEXED_VERTICES_PER_FACE个顶点
+	 */
+	public static void putIndexedCubeGridFaceData(int cubeFactor,
+			float minPosition,
+			float maxPosition,
+			int face,
+			int fromX,
+			int toX,
+			int fromY,
+			int toY,
+			int fromZ,
+			int toZ,
+			FloatBuffer out)
+	{
+		final int segments = cubeFactor + (cubeFactor - 1);
+		final float positionRange = maxPosition - minPosition;
+
+		for (int x = fromX; x < toX; x++)
+		{
+			final float x1 = minPosition + ((positionRange / segments) * (x * 2));
+			final float x2 = minPosition + ((positionRange / segments) * ((x * 2) + 1));
+
+			for (int y = fromY; y < toY; y++)
+			{
+				final float y1 = minPosition + ((positionRange / segments) * (y * 2));
+				final float y2 = minPosition + ((positionRange / segments) * ((y * 2) + 1));
+
+				for (int z = fromZ; z < toZ; z++)
+				{
+					final float z1 = minPosition + ((positionRange / segments) * (z * 2));
+					final float z2 = minPosition + ((positionRange / segments) * ((z * 2) + 1));
+
+					putIndexedBoxFaceData(x1, x2, y1, y2, z1, z2, face, out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 写入x1..x2、y1..y2、z1..z2这个盒子朝face方向的一个面，格式和putIndexedCubeGridFaceData相同
+	 */
+	public static void putIndexedBoxFaceData(float x1, float x2, float y1, float y2, float z1, float z2,
+			int face,
+			FloatBuffer out)
+	{
+		final int firstVertex = face * INDEXED_VERTICES_PER_FACE;
+
+		for (int v = firstVertex; v < firstVertex + INDEXED_VERTICES_PER_FACE; v++)
+		{
+			final int corner = CUBE_FACE_CORNERS[v];
+			out.put((corner & 1) != 0 ? x2 : x1);
+			out.put((corner & 2) != 0 ? y2 : y1);
+			out.put((corner & 4) != 0 ? z2 : z1);
+			out.put(CUBE_FACE_NORMALS, face * 3, 3);
+			out.put(CUBE_FACE_TEXTURE_COORDINATES, (v % 4) * 2, 2);
+		}
+	}
+
+	/**
+	 * 生成instanceCount个边长为1、最小角在原点的立方体，每个顶点按 位置、法线、纹理坐标、实例槽位 交错写入。
+	 * 着色器用槽位从偏移数组中取出这个立方体的位置，这样一份网格可以分批绘制任意多个立方体。
+	 */
+	public static void putInstancedCubeData(int instanceCount,
+			float[] cubeNormals,
+			float[] cubeTextureCoordinates,
+			FloatBuffer out)
+	{
+		final int normalSize = cubeNormals.length / VERTICES_PER_CUBE;
+		final int textureCoordinateSize = cubeTextureCoordinates.length / VERTICES_PER_CUBE;
+
+		for (int slot = 0; slot < instanceCount; slot++)
+		{
+			for (int v = 0; v < VERTICES_PER_CUBE; v++)
+			{
+				final int corner = CUBE_VERTEX_CORNERS[v];
+				out.put((corner & 1) != 0 ? 1.0F : 0.0F);
+				out.put((corner & 2) != 0 ? 1.0F : 0.0F);
+				out.put((corner & 4) != 0 ? 1.0F : 0.0F);
+				out.put(cubeNormals, v * normalSize, normalSize);
+				out.put(cubeTextureCoordinates, v * textureCoordinateSize, textureCoordinateSize);
+				out.put(slot);
+			}
+		}
+	}
+
+	/** 网格中每个立方体的边长 */
+	public static float getCubeGridCubeSize(int cubeFactor, float minPosition, float maxPosition)
+	{
+		final int segments = cubeFactor + (cubeFactor - 1);
+		return (maxPosition - minPosition) / segments;
+	}
+
+	/**
+	 * 按putCubeGridData的立方体顺序，把每个立方体的最小角写入out，每个立方体3个float
+	 */
+	public static void putCubeGridOffsets(int cubeFactor,
+			float minPosition,
+			float maxPosition,
+			float[] out)
+	{
+		putCubeGridOffsets(cubeFactor, minPosition, maxPosition, 0, cubeFactor, 0, cubeFactor, 0, cubeFactor, out, 0);
+	}
+
+	/**
+	 * 只写入x、y、z分别在[fromX, toX)、[fromY, toY)、[fromZ, toZ)之间的立方体，从out[outOffset]开始
+	 *
+	 * @return 写入的最后一个float之后的下标
+	 */
+	public static int putCubeGridOffsets(int cubeFactor,
+			float minPosition,
+			float maxPosition,
+			int fromX,
+			int toX,
+			int fromY,
+			int toY,
+			int fromZ,
+			int toZ,
+			float[] out,
+			int outOffset)
+	{
+		final int segments = cubeFactor + (cubeFactor - 1);
+		final float positionRange = maxPosition - minPosition;
+
+		int offset = outOffset;
+		for (int x = fromX; x < toX; x++)
+		{
+			for (int y = fromY; y < toY; y++)
+			{
+				for (int z = fromZ; z < toZ; z++)
+				{
+					out[offset++] = minPosition + ((positionRange / segments) * (x * 2));
+					out[offset++] = minPosition + ((positionRange / segments) * (y * 2));
+					out[offset++] = minPosition + ((positionRange / segments) * (z * 2));
+				}
+			}
+		}
+		return offset;
+	}
+}
@@ -0,0 +1,130 @@
+package com.xujiaji.learnopengl.common;
+
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+
+import java.nio.Buffer;
+import java.util.concurrent.Executor;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * 创建OpenGL ES 2.0渲染上下文的同时，再创建一个和它共享资源的上下文和1x1的pbuffer，给BackgroundUploader使用。
+ * 需要在GLSurfaceView.setRenderer()之前设置。
+ */
+public class SharedEglContextFactory implements GLSurfaceView.EGLContextFactory {
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+    private static final int[] CONTEXT_ATTRIBUTES = {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE};
+    private static final int[] PBUFFER_ATTRIBUTES = {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE};
+
+    private EGL10 mEgl;
+    private EGLDisplay mDisplay;
+    private EGLContext mWorkerContext;
+    private EGLSurface mWorkerSurface;
+
+    private BackgroundUploader mUploader;
+
+    @Override
+    public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
+        final EGLContext context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, CONTEXT_ATTRIBUTES);
+
+        synchronized (this) {
+            mEgl = egl;
+            mDisplay = display;
+
+            // 驱动不支持共享或者配置不支持pbuffer时放弃，之后在渲染线程上传
+            mWorkerContext = egl.eglCreateContext(display, config, context, CONTEXT_ATTRIBUTES);
+            if (mWorkerContext == EGL10.EGL_NO_CONTEXT) {
+                mWorkerContext = null;
+            } else {
+                mWorkerSurface = egl.eglCreatePbufferSurface(display, config, PBUFFER_ATTRIBUTES);
+                if (mWorkerSurface == EGL10.EGL_NO_SURFACE) {
+                    egl.eglDestroyContext(display, mWorkerContext);
+                    mWorkerContext = null;
+                    mWorkerSurface = null;
+                }
+            }
+        }
+
+        return context;
+    }
+
+    @Override
+    public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+        synchronized (this) {
+            // 后台线程先释放共享上下文
+            if (mUploader != null) {
+                mUploader.shutdown();
+                mUploader = null;
+            }
+            if (mWorkerContext != null) {
+                egl.eglDestroySurface(display, mWorkerSurface);
+                egl.eglDestroyContext(display, mWorkerContext);
+                mWorkerContext = null;
+                mWorkerSurface = null;
+            }
+        }
+
+        egl.eglDestroyContext(display, context);
+    }
+
+    /**
+     * 在渲染线程调用，比如onSurfaceCreated()。同一个上下文多次调用时返回同一个对象
+     *
+     * @return 不支持共享上下文时返回null
+     */
+    public synchronized BackgroundUploader startUploader(Executor renderThread) {
+        if (mUploader != null) {
+            return mUploader;
+        }
+        if (mWorkerContext == null) {
+            return null;
+        }
+
+        mUploader = new BackgroundUploader(new WorkerGl(mEgl, mDisplay, mWorkerSurface, mWorkerContext), renderThread);
+        mUploader.start();
+        return mUploader;
+    }
+
+    private static final class WorkerGl implements BackgroundUploader.GlFacade {
+        private final EGL10 mEgl;
+        private final EGLDisplay mDisplay;
+        private final EGLSurface mSurface;
+        private final EGLContext mContext;
+
+        WorkerGl(EGL10 egl, EGLDisplay display, EGLSurface surface, EGLContext context) {
+            this.mEgl = egl;
+            this.mDisplay = display;
+            this.mSurface = surface;
+            this.mContext = context;
+        }
+
+        @Override
+        public boolean makeCurrent() {
+            return mEgl.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext);
+        }
+
+        @Override
+        public void releaseCurrent() {
+            mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+        }
+
+        @Override
+        public void bufferData(int target, int bufferId, int size, Buffer data, int usage) {
+            GLES20.glBindBuffer(target, bufferId);
+            GLES20.glBufferData(target, size, data, usage);
+            GLES20.glBindBuffer(target, 0);
+        }
+
+        @Override
+        public void finish() {
+            GLES20.glFinish();
+        }
+    }
+}
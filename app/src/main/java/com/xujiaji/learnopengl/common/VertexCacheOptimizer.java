@@ -0,0 +1,323 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * 为顶点变换后的缓存重新排列三角形列表的索引（Forsyth的线性时间算法），
+ * 并按第一次使用的顺序重新排列顶点，让顶点读取也尽量连续。
+ *
+ * measure()模拟FIFO或LRU缓存，统计每个三角形平均的缓存未命中数（ACMR）
+ * 和每个顶点平均被变换的次数（ATVR），用来比较优化前后的效果。
+ */
+public class VertexCacheOptimizer {
+
+    /** 先进先出的缓存，命中时不改变顺序，大部分GPU的变换后缓存接近这种方式 */
+    public static final int CACHE_FIFO = 0;
+
+    /** 最近最少使用的缓存 */
+    public static final int CACHE_LRU = 1;
+
+    // Forsyth文中的参数
+    private static final float CACHE_DECAY_POWER = 1.5F;
+    private static final float LAST_TRIANGLE_SCORE = 0.75F;
+    private static final float VALENCE_BOOST_SCALE = 2.0F;
+    private static final float VALENCE_BOOST_POWER = 0.5F;
+
+    public static class CacheStatistics {
+        private final int mMisses;
+        private final int mTriangleCount;
+        private final int mVertexCount;
+
+        CacheStatistics(int misses, int triangleCount, int vertexCount) {
+            mMisses = misses;
+            mTriangleCount = triangleCount;
+            mVertexCount = vertexCount;
+        }
+
+        /** 需要变换的顶点数 */
+        public int getMisses() {
+            return mMisses;
+        }
+
+        /** 每个三角形平均的缓存未命中数，最好接近0.5，每个三角形独立时是3 */
+        public float getAcmr() {
+            return mTriangleCount > 0 ? (float) mMisses / mTriangleCount : 0.0F;
+        }
+
+        /** 每个用到的顶点平均被变换的次数，最好是1 */
+        public float getAtvr() {
+            return mVertexCount > 0 ? (float) mMisses / mVertexCount : 0.0F;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ACMR %.3f ATVR %.3f", getAcmr(), getAtvr());
+        }
+    }
+
+    /**
+     * 重新排列三角形的顺序，每个三角形内部的顶点顺序不变，所以正反面不变
+     *
+     * @param indices 三角形列表，直接修改
+     * @param vertexCount 索引引用的顶点数，所有索引都小于它
+     * @param cacheSize 按这个大小的缓存优化，至少为4
+     */
+    public static void optimizeTriangleOrder(int[] indices, int vertexCount, int cacheSize) {
+        if (cacheSize < 4) {
+            throw new IllegalArgumentException("Cache size must be at least 4: " + cacheSize);
+        }
+        if (indices.length % 3 != 0) {
+            throw new IllegalArgumentException("Index count is not a multiple of 3: " + indices.length);
+        }
+
+        final int triangleCount = indices.length / 3;
+
+        // 每个顶点还没有输出的三角形，按顶点连续存放
+        final int[] remaining = new int[vertexCount];
+        for (int index : indices) {
+            remaining[index]++;
+        }
+        final int[] adjacencyStart = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            adjacencyStart[v + 1] = adjacencyStart[v] + remaining[v];
+        }
+        final int[] adjacency = new int[indices.length];
+        final int[] fill = Arrays.copyOf(adjacencyStart, vertexCount);
+        for (int i = 0; i < indices.length; i++) {
+            adjacency[fill[indices[i]]++] = i / 3;
+        }
+
+        final int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        final float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexScores[v] = scoreVertex(-1, remaining[v], cacheSize);
+        }
+
+        final float[] triangleScores = new float[triangleCount];
+        int bestTriangle = -1;
+        float bestScore = -1.0F;
+        for (int t = 0; t < triangleCount; t++) {
+            triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+                    + vertexScores[indices[t * 3 + 2]];
+            if (triangleScores[t] > bestScore) {
+                bestScore = triangleScores[t];
+                bestTriangle = t;
+            }
+        }
+
+        final boolean[] emitted = new boolean[triangleCount];
+        final int[] output = new int[indices.length];
+        int[] cache = new int[cacheSize + 3];
+        int[] nextCache = new int[cacheSize + 3];
+        int cacheCount = 0;
+        int cursor = 0;
+
+        for (int out = 0; out < triangleCount; out++) {
+            if (bestTriangle < 0) {
+                // 缓存里的顶点都没有剩下的三角形，按原来的顺序取下一个
+                while (emitted[cursor]) {
+                    cursor++;
+                }
+                bestTriangle = cursor;
+            }
+
+            emitted[bestTriangle] = true;
+            System.arraycopy(indices, bestTriangle * 3, output, out * 3, 3);
+
+            // 新输出的三个顶点移到缓存最前面
+            int nextCount = 0;
+            for (int corner = 0; corner < 3; corner++) {
+                final int v = indices[bestTriangle * 3 + corner];
+                removeTriangle(adjacency, adjacencyStart[v], remaining[v], bestTriangle);
+                remaining[v]--;
+                if (cachePosition[v] != -2) {
+                    nextCache[nextCount++] = v;
+                    cachePosition[v] = -2;
+                }
+            }
+            for (int i = 0; i < cacheCount; i++) {
+                final int v = cache[i];
+                if (cachePosition[v] != -2) {
+                    nextCache[nextCount++] = v;
+                }
+            }
+
+            // 超出缓存大小的顶点被移出，它们的三角形也需要重新计算分数
+            for (int i = 0; i < nextCount; i++) {
+                final int v = nextCache[i];
+                cachePosition[v] = i < cacheSize ? i : -1;
+                vertexScores[v] = scoreVertex(cachePosition[v], remaining[v], cacheSize);
+            }
+
+            bestTriangle = -1;
+            bestScore = -1.0F;
+            for (int i = 0; i < nextCount; i++) {
+                final int v = nextCache[i];
+                for (int a = adjacencyStart[v], end = adjacencyStart[v] + remaining[v]; a < end; a++) {
+                    final int t = adjacency[a];
+                    final float score = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+                            + vertexScores[indices[t * 3 + 2]];
+                    triangleScores[t] = score;
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTriangle = t;
+                    }
+                }
+            }
+
+            final int[] swap = cache;
+            cache = nextCache;
+            nextCache = swap;
+            cacheCount = Math.min(nextCount, cacheSize);
+        }
+
+        System.arraycopy(output, 0, indices, 0, indices.length);
+    }
+
+    /**
+     * 和optimizeTriangleOrder(int[], int, int)相同，处理缓冲区中position到limit之间的short索引（按无符号读取）
+     */
+    public static void optimizeTriangleOrder(ShortBuffer indices, int vertexCount, int cacheSize) {
+        final int[] array = toIntArray(indices);
+        optimizeTriangleOrder(array, vertexCount, cacheSize);
+        for (int i = 0; i < array.length; i++) {
+            indices.put(indices.position() + i, (short) array[i]);
+        }
+    }
+
+    /**
+     * 按第一次被索引的顺序给顶点重新编号，并修改索引
+     *
+     * @return 每个旧顶点的新编号，没有被索引的顶点是-1
+     */
+    public static int[] optimizeVertexFetch(int[] indices, int vertexCount) {
+        final int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            final int v = indices[i];
+            if (remap[v] < 0) {
+                remap[v] = next++;
+            }
+            indices[i] = remap[v];
+        }
+        return remap;
+    }
+
+    /**
+     * 按optimizeVertexFetch()返回的编号把顶点数据从source拷贝到destination，两者都从下标0开始，不改变position
+     */
+    public static void remapVertices(FloatBuffer source, int floatsPerVertex, int[] remap, FloatBuffer destination) {
+        for (int v = 0; v < remap.length; v++) {
+            if (remap[v] < 0) {
+                continue;
+            }
+            final int from = v * floatsPerVertex;
+            final int to = remap[v] * floatsPerVertex;
+            for (int i = 0; i < floatsPerVertex; i++) {
+                destination.put(to + i, source.get(from + i));
+            }
+        }
+    }
+
+    /**
+     * 模拟变换后的缓存，统计按这个顺序绘制时需要变换多少个顶点
+     *
+     * @param cacheType CACHE_FIFO或CACHE_LRU
+     */
+    public static CacheStatistics measure(int[] indices, int vertexCount, int cacheSize, int cacheType) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + cacheSize);
+        }
+
+        final boolean[] used = new boolean[vertexCount];
+        int usedCount = 0;
+        for (int index : indices) {
+            if (!used[index]) {
+                used[index] = true;
+                usedCount++;
+            }
+        }
+
+        int misses = 0;
+        if (cacheType == CACHE_FIFO) {
+            // 第几次未命中时放入缓存；最近cacheSize次未命中放入的顶点还在缓存中
+            final int[] insertedAt = new int[vertexCount];
+            Arrays.fill(insertedAt, -1);
+            for (int index : indices) {
+                if (insertedAt[index] < 0 || misses - insertedAt[index] > cacheSize) {
+                    insertedAt[index] = misses++;
+                }
+            }
+        } else if (cacheType == CACHE_LRU) {
+            final int[] cache = new int[cacheSize];
+            int cacheCount = 0;
+            for (int index : indices) {
+                int position = 0;
+                while (position < cacheCount && cache[position] != index) {
+                    position++;
+                }
+                if (position == cacheCount) {
+                    misses++;
+                    if (cacheCount < cacheSize) {
+                        cacheCount++;
+                    }
+                    position = cacheCount - 1;
+                }
+                System.arraycopy(cache, 0, cache, 1, position);
+                cache[0] = index;
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown cache type: " + cacheType);
+        }
+
+        return new CacheStatistics(misses, indices.length / 3, usedCount);
+    }
+
+    /**
+     * 读取缓冲区中position到limit之间的short索引（按无符号读取），不改变position
+     */
+    public static int[] toIntArray(ShortBuffer indices) {
+        final int[] array = new int[indices.remaining()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = indices.get(indices.position() + i) & 0xFFFF;
+        }
+        return array;
+    }
+
+    private static float scoreVertex(int cachePosition, int remainingTriangles, int cacheSize) {
+        if (remainingTriangles == 0) {
+            return -1.0F;
+        }
+
+        float score = 0.0F;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // 刚用过的三个顶点分数固定，避免总是沿着同一条边生成细长的条带
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                final float scaler = 1.0F / (cacheSize - 3);
+                score = (float) Math.pow(1.0F - (cachePosition - 3) * scaler, CACHE_DECAY_POWER);
+            }
+        }
+
+        // 剩下三角形少的顶点优先，尽早用完它们
+        score += VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+        return score;
+    }
+
+    private static void removeTriangle(int[] adjacency, int start, int count, int triangle) {
+        final int last = start + count - 1;
+        for (int a = start; a <= last; a++) {
+            if (adjacency[a] == triangle) {
+                adjacency[a] = adjacency[last];
+                adjacency[last] = triangle;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.xujiaji.learnopengl.common;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 描述一个顶点的格式：每个属性的名字、分量数、类型、是否归一化，以及在缓冲区中的偏移和跨度。
+ *
+ * 交错（interleaved）布局把所有属性放在一个缓冲区里，每个属性的偏移按4字节对齐；
+ * 分离（separate）布局每个属性使用自己的缓冲区，偏移都是0。
+ * 布局可以把源数组写入对应的缓冲区，并用一次bind()把所有属性指针设置好，客户端缓冲区和VBO都可以使用。
+ */
+public class VertexLayout {
+
+    /** 属性在缓冲区中的起点按这个字节数对齐，GLES2的硬件通常要求4字节对齐才能直接读取 */
+    public static final int ALIGNMENT = 4;
+
+    public static class Attribute {
+        private final String mName;
+        private final int mSize;
+        private final int mType;
+        private final boolean mNormalized;
+        private final int mOffset;
+        private final int mBufferIndex;
+
+        Attribute(String name, int size, int type, boolean normalized, int offset, int bufferIndex) {
+            mName = name;
+            mSize = size;
+            mType = type;
+            mNormalized = normalized;
+            mOffset = offset;
+            mBufferIndex = bufferIndex;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        public boolean isNormalized() {
+            return mNormalized;
+        }
+
+        /** 在一个顶点中的字节偏移 */
+        public int getOffset() {
+            return mOffset;
+        }
+
+        /** 属性所在的缓冲区，交错布局总是0 */
+        public int getBufferIndex() {
+            return mBufferIndex;
+        }
+
+        public int getByteSize() {
+            return mSize * getTypeSize(mType);
+        }
+    }
+
+    public static class Builder {
+        private final boolean mInterleaved;
+        private final List<Attribute> mAttributes = new ArrayList<>();
+        private int mOffset;
+
+        Builder(boolean interleaved) {
+            mInterleaved = interleaved;
+        }
+
+        /**
+         * 添加一个属性，交错布局中紧接着上一个属性，按ALIGNMENT对齐
+         */
+        public Builder add(String name, int size, int type, boolean normalized) {
+            if (size < 1 || size > 4) {
+                throw new IllegalArgumentException("Attribute size must be 1 to 4: " + size);
+            }
+
+            final int byteSize = size * getTypeSize(type);
+            if (mInterleaved) {
+                mAttributes.add(new Attribute(name, size, type, normalized, mOffset, 0));
+                mOffset = align(mOffset + byteSize);
+            } else {
+                mAttributes.add(new Attribute(name, size, type, normalized, 0, mAttributes.size()));
+            }
+            return this;
+        }
+
+        public Builder addFloat(String name, int size) {
+            return add(name, size, GLES20.GL_FLOAT, false);
+        }
+
+        public VertexLayout build() {
+            if (mAttributes.isEmpty()) {
+                throw new IllegalStateException("A vertex layout needs at least one attribute.");
+            }
+            return new VertexLayout(mInterleaved, mAttributes.toArray(new Attribute[mAttributes.size()]), mOffset);
+        }
+    }
+
+    private final boolean mInterleaved;
+    private final Attribute[] mAttributes;
+    private final int mInterleavedStride;
+
+    // 最后一次bind()的程序和它的属性位置，程序不变时不需要重新查询
+    private int mLocationsProgram;
+    private final int[] mLocations;
+
+    private VertexLayout(boolean interleaved, Attribute[] attributes, int interleavedStride) {
+        mInterleaved = interleaved;
+        mAttributes = attributes;
+        mInterleavedStride = interleavedStride;
+        mLocations = new int[attributes.length];
+    }
+
+    /** 所有属性交错放在一个缓冲区中 */
+    public static Builder interleaved() {
+        return new Builder(true);
+    }
+
+    /** 每个属性放在自己的缓冲区中 */
+    public static Builder separate() {
+        return new Builder(false);
+    }
+
+    public boolean isInterleaved() {
+        return mInterleaved;
+    }
+
+    public int getAttributeCount() {
+        return mAttributes.length;
+    }
+
+    public Attribute getAttribute(int index) {
+        return mAttributes[index];
+    }
+
+    /** bind()和put()需要的缓冲区个数 */
+    public int getBufferCount() {
+        return mInterleaved ? 1 : mAttributes.length;
+    }
+
+    /**
+     * @return 属性所在缓冲区中相邻两个顶点之间的字节数
+     */
+    public int getStride(int attributeIndex) {
+        return mInterleaved ? mInterleavedStride : mAttributes[attributeIndex].getByteSize();
+    }
+
+    /**
+     * @return 一个顶点在所有缓冲区中一共占用的字节数
+     */
+    public int getBytesPerVertex() {
+        if (mInterleaved) {
+            return mInterleavedStride;
+        }
+
+        int bytes = 0;
+        for (Attribute attribute : mAttributes) {
+            bytes += attribute.getByteSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * 把每个属性的源数组写入缓冲区，交错布局写入out[0]，分离布局每个属性写入自己的缓冲区，从缓冲区的当前位置开始。
+     * 源数组比vertexCount个顶点短时循环使用，例如一个立方体的法线可以直接用于整个网格。只支持float属性。
+     *
+     * @param attributeData 每个属性一个数组，顺序和添加属性的顺序相同
+     */
+    public void put(float[][] attributeData, int vertexCount, FloatBuffer... out) {
+        if (attributeData.length != mAttributes.length) {
+            throw new IllegalArgumentException("Expected data for " + mAttributes.length + " attributes, got "
+                    + attributeData.length);
+        }
+        if (out.length != getBufferCount()) {
+            throw new IllegalArgumentException("Expected " + getBufferCount() + " buffers, got " + out.length);
+        }
+        for (int i = 0; i < mAttributes.length; i++) {
+            final Attribute attribute = mAttributes[i];
+            if (attribute.getType() != GLES20.GL_FLOAT) {
+                throw new IllegalStateException("Attribute " + attribute.getName() + " is not a float attribute.");
+            }
+            if (attributeData[i].length == 0 || attributeData[i].length % attribute.getSize() != 0) {
+                throw new IllegalArgumentException("Data for attribute " + attribute.getName()
+                        + " is not a whole number of vertices.");
+            }
+        }
+
+        if (mInterleaved) {
+            final FloatBuffer buffer = out[0];
+            for (int v = 0; v < vertexCount; v++) {
+                for (int i = 0; i < mAttributes.length; i++) {
+                    final int size = mAttributes[i].getSize();
+                    buffer.put(attributeData[i], (v % (attributeData[i].length / size)) * size, size);
+                }
+            }
+        } else {
+            for (int i = 0; i < mAttributes.length; i++) {
+                final float[] data = attributeData[i];
+                final int sourceVertices = data.length / mAttributes[i].getSize();
+                final int wholeCopies = vertexCount / sourceVertices;
+                CubeGridReplicator.putRepeated(data, wholeCopies, out[i]);
+                out[i].put(data, 0, (vertexCount - wholeCopies * sourceVertices) * mAttributes[i].getSize());
+            }
+        }
+    }
+
+    /**
+     * 从客户端缓冲区读取顶点，每个缓冲区从开头开始。会修改缓冲区的position
+     */
+    public void bind(int program, Buffer... buffers) {
+        checkBufferCount(buffers.length);
+        updateLocations(program);
+
+        for (int i = 0; i < mAttributes.length; i++) {
+            if (mLocations[i] < 0) {
+                continue;
+            }
+            final Attribute attribute = mAttributes[i];
+            final Buffer buffer = buffers[attribute.getBufferIndex()];
+            buffer.position(attribute.getOffset() / getElementSize(buffer));
+
+            GLES20.glEnableVertexAttribArray(mLocations[i]);
+            GLES20.glVertexAttribPointer(mLocations[i], attribute.getSize(), attribute.getType(), attribute.isNormalized(),
+                    getStride(i), buffer);
+        }
+    }
+
+    /**
+     * 从VBO读取顶点
+     */
+    public void bind(int program, int[] bufferIds) {
+        bind(program, bufferIds, 0);
+    }
+
+    /**
+     * 从VBO读取顶点，从第firstVertex个顶点开始，用于分批绘制。返回时GL_ARRAY_BUFFER绑定为0
+     */
+    public void bind(int program, int[] bufferIds, int firstVertex) {
+        checkBufferCount(bufferIds.length);
+        updateLocations(program);
+
+        for (int i = 0; i < mAttributes.length; i++) {
+            if (mLocations[i] < 0) {
+                continue;
+            }
+            final Attribute attribute = mAttributes[i];
+            final int stride = getStride(i);
+
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferIds[attribute.getBufferIndex()]);
+            GLES20.glEnableVertexAttribArray(mLocations[i]);
+            GLES20.glVertexAttribPointer(mLocations[i], attribute.getSize(), attribute.getType(), attribute.isNormalized(),
+                    stride, firstVertex * stride + attribute.getOffset());
+        }
+
+        // 清理当前绑定的缓冲（因此以后的OpenGL调用不在使用此缓冲区）
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * 关闭最后一次bind()打开的属性数组
+     */
+    public void unbind() {
+        if (mLocationsProgram == 0) {
+            return;
+        }
+        for (int location : mLocations) {
+            if (location >= 0) {
+                GLES20.glDisableVertexAttribArray(location);
+            }
+        }
+    }
+
+    /**
+     * 重新创建程序之后（例如OpenGL上下文重建）调用，新的程序可能使用同样的句柄
+     */
+    public void resetLocations() {
+        mLocationsProgram = 0;
+    }
+
+    /**
+     * 以前没有绑定过这个程序时查询属性的位置。着色器里没有用到的属性位置是-1，不设置它的指针
+     */
+    private void updateLocations(int program) {
+        if (program == mLocationsProgram) {
+            return;
+        }
+        for (int i = 0; i < mAttributes.length; i++) {
+            mLocations[i] = GLES20.glGetAttribLocation(program, mAttributes[i].getName());
+        }
+        mLocationsProgram = program;
+    }
+
+    private void checkBufferCount(int count) {
+        if (count != getBufferCount()) {
+            throw new IllegalArgumentException("Expected " + getBufferCount() + " buffers, got " + count);
+        }
+    }
+
+    static int getTypeSize(int type) {
+        switch (type) {
+            case GLES20.GL_FLOAT:
+            case GLES20.GL_FIXED:
+                return 4;
+            case GLES20.GL_SHORT:
+            case GLES20.GL_UNSIGNED_SHORT:
+                return 2;
+            case GLES20.GL_BYTE:
+            case GLES20.GL_UNSIGNED_BYTE:
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unsupported attribute type: " + type);
+        }
+    }
+
+    private static int getElementSize(Buffer buffer) {
+        if (buffer instanceof ByteBuffer) {
+            return 1;
+        } else if (buffer instanceof ShortBuffer) {
+            return 2;
+        } else {
+            return 4;
+        }
+    }
+
+    private static int align(int bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,140 @@
+package com.xujiaji.learnopengl.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 把float顶点数据压缩成更小的定点格式，以及对应的解码（和GPU上的换算一致，用来在CPU上校验）。
+ *
+ * 压缩后的立方体顶点格式，每顶点16字节（原来8个float是32字节）：
+ * 位置 3 x GL_SHORT + 1个填充，着色器中乘以u_PositionScale再加u_PositionOffset还原；
+ * 法线 3 x 归一化的GL_BYTE + 1个填充；
+ * 纹理坐标 2 x 归一化的GL_UNSIGNED_SHORT。
+ */
+public class VertexPacker {
+
+    /** 压缩后每个立方体顶点的字节数 */
+    public static final int PACKED_BYTES_PER_VERTEX = 16;
+
+    /** 位置在压缩顶点中的字节偏移 */
+    public static final int PACKED_POSITION_OFFSET = 0;
+
+    /** 法线在压缩顶点中的字节偏移 */
+    public static final int PACKED_NORMAL_OFFSET = 8;
+
+    /** 纹理坐标在压缩顶点中的字节偏移 */
+    public static final int PACKED_TEXTURE_COORDINATE_OFFSET = 12;
+
+    /** RGBA8颜色的字节数 */
+    public static final int BYTES_PER_COLOR = 4;
+
+    private static final int BYTES_PER_FLOAT = 4;
+
+    /** 位置的最大量化值，对称使用[-32767, 32767] */
+    private static final int POSITION_STEPS = 32767;
+
+    /**
+     * 计算把[minPosition, maxPosition]映射到short的缩放和偏移：position = packed * scale + offset
+     *
+     * @return {scale, offset}
+     */
+    public static float[] getPositionScaleAndOffset(float minPosition, float maxPosition) {
+        final float offset = (minPosition + maxPosition) * 0.5F;
+        final float scale = (maxPosition - minPosition) * 0.5F / POSITION_STEPS;
+        return new float[] {scale, offset};
+    }
+
+    public static short packPosition(float position, float scale, float offset) {
+        final int packed = Math.round((position - offset) / scale);
+        return (short) Math.max(-POSITION_STEPS, Math.min(POSITION_STEPS, packed));
+    }
+
+    public static float unpackPosition(short packed, float scale, float offset) {
+        return packed * scale + offset;
+    }
+
+    /**
+     * OpenGL ES 2.0对归一化的有符号整数使用 f = (2c + 1) / (2^b - 1)，
+     * 所以-1和1都能精确表示，0会变成很小的正数或负数。
+     */
+    public static byte packSignedNormalizedByte(float value) {
+        final int packed = Math.round((value * 255.0F - 1.0F) * 0.5F);
+        return (byte) Math.max(-128, Math.min(127, packed));
+    }
+
+    public static float unpackSignedNormalizedByte(byte packed) {
+        return (2 * packed + 1) / 255.0F;
+    }
+
+    public static short packUnsignedNormalizedShort(float value) {
+        return (short) Math.round(Math.max(0.0F, Math.min(1.0F, value)) * 65535.0F);
+    }
+
+    public static float unpackUnsignedNormalizedShort(short packed) {
+        return (packed & 0xFFFF) / 65535.0F;
+    }
+
+    public static byte packUnsignedNormalizedByte(float value) {
+        return (byte) Math.round(Math.max(0.0F, Math.min(1.0F, value)) * 255.0F);
+    }
+
+    public static float unpackUnsignedNormalizedByte(byte packed) {
+        return (packed & 0xFF) / 255.0F;
+    }
+
+    /**
+     * 把交错的 位置(3)、法线(3)、纹理坐标(2) float数据从src的当前位置压缩写入dst的当前位置
+     */
+    public static void packPositionNormalTexture(FloatBuffer src, float positionScale, float positionOffset, ByteBuffer dst) {
+        while (src.remaining() >= 8) {
+            dst.putShort(packPosition(src.get(), positionScale, positionOffset));
+            dst.putShort(packPosition(src.get(), positionScale, positionOffset));
+            dst.putShort(packPosition(src.get(), positionScale, positionOffset));
+            dst.putShort((short) 0);
+
+            dst.put(packSignedNormalizedByte(src.get()));
+            dst.put(packSignedNormalizedByte(src.get()));
+            dst.put(packSignedNormalizedByte(src.get()));
+            dst.put((byte) 0);
+
+            dst.putShort(packUnsignedNormalizedShort(src.get()));
+            dst.putShort(packUnsignedNormalizedShort(src.get()));
+        }
+    }
+
+    /**
+     * 把每个顶点 positionSize个位置float + 4个颜色float 的数据转换成 positionSize个float + RGBA8颜色
+     */
+    public static ByteBuffer packColorsInterleaved(float[] data, int positionSize) {
+        final int floatsPerVertex = positionSize + 4;
+        final int vertexCount = data.length / floatsPerVertex;
+        final ByteBuffer packed = ByteBuffer.allocateDirect(vertexCount * (positionSize * BYTES_PER_FLOAT + BYTES_PER_COLOR))
+                .order(ByteOrder.nativeOrder());
+
+        int index = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            for (int i = 0; i < positionSize; i++) {
+                packed.putFloat(data[index++]);
+            }
+            for (int i = 0; i < 4; i++) {
+                packed.put(packUnsignedNormalizedByte(data[index++]));
+            }
+        }
+
+        packed.position(0);
+        return packed;
+    }
+
+    /**
+     * 把每个顶点4个float的RGBA颜色转换成RGBA8
+     */
+    public static ByteBuffer packColors(float[] colors) {
+        final ByteBuffer packed = ByteBuffer.allocateDirect(colors.length).order(ByteOrder.nativeOrder());
+        for (float color : colors) {
+            packed.put(packUnsignedNormalizedByte(color));
+        }
+        packed.position(0);
+        return packed;
+    }
+}
@@ -0,0 +1,111 @@
+package com.xujiaji.learnopengl.common;
+
+import java.util.Arrays;
+
+/**
+ * size * size * size个体素，每个体素一个byte，EMPTY表示空，其他值表示实心体素的种类。
+ *
+ * 修改体素时记录哪些面片需要重新生成：面片是一个方向（ShapeBuilder.FACE_*）上同一层体素的面，
+ * 一个体素只影响它自己和6个邻居朝向它的面，所以GreedyVoxelMesher只需要重新生成这几片。
+ * 不是线程安全的。
+ */
+public class VoxelChunk {
+
+    public static final int DEFAULT_SIZE = 32;
+
+    /** 面片中的面按8位打包，边长不能超过这个值 */
+    public static final int MAX_SIZE = 256;
+
+    public static final byte EMPTY = 0;
+
+    private final int mSize;
+
+    // 按x、y、z嵌套的顺序存放
+    private final byte[] mVoxels;
+
+    // 第face * size + layer个元素表示这个面片需要重新生成
+    private final boolean[] mDirtySlices;
+    private int mDirtySliceCount;
+
+    public VoxelChunk(int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size " + size);
+        }
+        mSize = size;
+        mVoxels = new byte[size * size * size];
+        mDirtySlices = new boolean[ShapeBuilder.FACE_COUNT * size];
+
+        // 还没有生成过，所有面片都需要生成
+        Arrays.fill(mDirtySlices, true);
+        mDirtySliceCount = mDirtySlices.length;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public byte get(int x, int y, int z) {
+        return mVoxels[(x * mSize + y) * mSize + z];
+    }
+
+    /** 块外面的体素都是空的 */
+    public boolean isSolid(int x, int y, int z) {
+        return x >= 0 && x < mSize && y >= 0 && y < mSize && z >= 0 && z < mSize
+                && mVoxels[(x * mSize + y) * mSize + z] != EMPTY;
+    }
+
+    public void set(int x, int y, int z, byte value) {
+        final int index = (x * mSize + y) * mSize + z;
+        if (mVoxels[index] == value) {
+            return;
+        }
+        mVoxels[index] = value;
+
+        markDirty(x, ShapeBuilder.FACE_RIGHT, ShapeBuilder.FACE_LEFT);
+        markDirty(y, ShapeBuilder.FACE_TOP, ShapeBuilder.FACE_BOTTOM);
+        markDirty(z, ShapeBuilder.FACE_FRONT, ShapeBuilder.FACE_BACK);
+    }
+
+    /** 把[x1, x2) * [y1, y2) * [z1, z2)中的体素都设置成value */
+    public void fill(int x1, int y1, int z1, int x2, int y2, int z2, byte value) {
+        for (int x = x1; x < x2; x++) {
+            for (int y = y1; y < y2; y++) {
+                for (int z = z1; z < z2; z++) {
+                    set(x, y, z, value);
+                }
+            }
+        }
+    }
+
+    public boolean hasDirtySlices() {
+        return mDirtySliceCount > 0;
+    }
+
+    boolean isSliceDirty(int face, int layer) {
+        return mDirtySlices[face * mSize + layer];
+    }
+
+    void clearDirtySlices() {
+        Arrays.fill(mDirtySlices, false);
+        mDirtySliceCount = 0;
+    }
+
+    // 体素在这个轴上的坐标是layer：正方向上自己和前一层的面、负方向上自己和后一层的面都可能改变
+    private void markDirty(int layer, int positiveFace, int negativeFace) {
+        markDirty(positiveFace, layer);
+        markDirty(positiveFace, layer - 1);
+        markDirty(negativeFace, layer);
+        markDirty(negativeFace, layer + 1);
+    }
+
+    private void markDirty(int face, int layer) {
+        if (layer < 0 || layer >= mSize) {
+            return;
+        }
+        final int slice = face * mSize + layer;
+        if (!mDirtySlices[slice]) {
+            mDirtySlices[slice] = true;
+            mDirtySliceCount++;
+        }
+    }
+}
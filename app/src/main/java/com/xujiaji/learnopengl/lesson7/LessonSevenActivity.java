@@ -7,15 +7,51 @@ import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
 import android.util.DisplayMetrics;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.TextView;
 
 import com.xujiaji.learnopengl.R;
+import com.xujiaji.learnopengl.common.SharedEglContextFactory;
 
 public class LessonSevenActivity extends AppCompatActivity {
+    // 选项菜单中的开关，按钮栏放不下这么多
+    private static final int MENU_MORTON_ORDER = 1;
+    private static final int MENU_PARALLEL_GENERATION = 2;
+    private static final int MENU_LEVEL_OF_DETAIL = 3;
+    private static final int MENU_BACKGROUND_UPLOADS = 4;
+
     private LessonSevenGLSurfaceView mGLSurfaceView;
     private LessonSevenRenderer mRenderer;
 
+    // 统计信息，只在UI线程访问
+    private String mMemoryStatus = "";
+    private String mUploadStatus = "";
+    private String mCullingStatus = "";
+
+    // 渲染线程最后一次报告的裁剪结果，在mCullingLock上同步，UI线程用mShowCullingStatus显示
+    private final Object mCullingLock = new Object();
+    private int mVisibleChunks;
+    private int mCulledChunks;
+    private float mOverdraw;
+    private int[] mLodChunkCounts = new int[0];
+    private final Runnable mShowCullingStatus = new Runnable() {
+        @Override
+        public void run() {
+            final StringBuilder lods = new StringBuilder();
+            synchronized (mCullingLock) {
+                for (int level = 0; level < mLodChunkCounts.length; level++) {
+                    lods.append(level == 0 ? "" : "/").append(mLodChunkCounts[level]);
+                }
+                mCullingStatus = String.format("绘制%d块，裁剪%d块，估计overdraw %.2f\n细节层次0/1/2: %s块",
+                        mVisibleChunks, mCulledChunks, mOverdraw, lods);
+            }
+            updateStats();
+        }
+    };
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -33,7 +69,14 @@ public class LessonSevenActivity extends AppCompatActivity {
             final DisplayMetrics displayMetrics = new DisplayMetrics();
             getWindowManager().getDefaultDisplay().getMetrics(displayMetrics);
 
-            mRenderer = new LessonSevenRenderer(this, mGLSurfaceView);
+            // 网格可以使用的内存由应用的堆大小决定
+            mRenderer = new LessonSevenRenderer(this, mGLSurfaceView,
+                    MeshMemoryBudget.fromMemoryClass(activityManager.getMemoryClass()));
+
+            // 再创建一个共享的上下文，在后台线程上传VBO
+            final SharedEglContextFactory contextFactory = new SharedEglContextFactory();
+            mGLSurfaceView.setEGLContextFactory(contextFactory);
+            mRenderer.setSharedContextFactory(contextFactory);
             mGLSurfaceView.setRenderer(mRenderer, displayMetrics.density);
         } else {
             return;
@@ -66,6 +109,34 @@ public class LessonSevenActivity extends AppCompatActivity {
                 toggleStride();
             }
         });
+
+        findViewById(R.id.button_switch_indexed).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                toggleIndices();
+            }
+        });
+
+        findViewById(R.id.button_switch_packed).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                togglePacked();
+            }
+        });
+
+        findViewById(R.id.button_switch_mode).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                toggleGridMode();
+            }
+        });
+
+        findViewById(R.id.button_switch_sort).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                toggleDepthSorting();
+            }
+        });
     }
 
     @Override
@@ -80,66 +151,249 @@ public class LessonSevenActivity extends AppCompatActivity {
         mGLSurfaceView.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mRenderer != null) {
+            mRenderer.shutdown();
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        if (mRenderer == null) {
+            return false;
+        }
+        menu.add(Menu.NONE, MENU_MORTON_ORDER, Menu.NONE, "按Morton码排列立方体").setCheckable(true)
+                .setChecked(mRenderer.isMortonOrder());
+        menu.add(Menu.NONE, MENU_PARALLEL_GENERATION, Menu.NONE, "并行生成网格").setCheckable(true)
+                .setChecked(mRenderer.isParallelGeneration());
+        menu.add(Menu.NONE, MENU_LEVEL_OF_DETAIL, Menu.NONE, "细节层次").setCheckable(true)
+                .setChecked(mRenderer.isLevelOfDetail());
+        menu.add(Menu.NONE, MENU_BACKGROUND_UPLOADS, Menu.NONE, "后台线程上传").setCheckable(true)
+                .setChecked(mRenderer.isBackgroundUploads());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        final int command;
+        switch (item.getItemId()) {
+            case MENU_MORTON_ORDER:
+                command = LessonSevenRenderer.CMD_SET_MORTON_ORDER;
+                break;
+            case MENU_PARALLEL_GENERATION:
+                command = LessonSevenRenderer.CMD_SET_PARALLEL_GENERATION;
+                break;
+            case MENU_LEVEL_OF_DETAIL:
+                command = LessonSevenRenderer.CMD_SET_LEVEL_OF_DETAIL;
+                break;
+            case MENU_BACKGROUND_UPLOADS:
+                command = LessonSevenRenderer.CMD_SET_BACKGROUND_UPLOADS;
+                break;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+
+        // 和按钮一样在OpenGL线程上生效，队列满了时不改变勾选状态
+        final boolean enabled = !item.isChecked();
+        if (mRenderer.postCommand(command, enabled ? 1 : 0)) {
+            item.setChecked(enabled);
+        }
+        return true;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mRenderer != null) {
+            mRenderer.trimMemory();
+        }
+    }
+
 
     private void decreaseCubeCount() {
-        mGLSurfaceView.queueEvent(new Runnable() {
+        mRenderer.postCommand(LessonSevenRenderer.CMD_DECREASE_CUBE_COUNT);
+    }
+
+    private void increaseCubeCount() {
+        mRenderer.postCommand(LessonSevenRenderer.CMD_INCREASE_CUBE_COUNT);
+    }
+
+    private void toggleVBOs() {
+        mRenderer.postCommand(LessonSevenRenderer.CMD_TOGGLE_VBOS);
+    }
+
+    protected void toggleStride() {
+        mRenderer.postCommand(LessonSevenRenderer.CMD_TOGGLE_STRIDE);
+    }
+
+    protected void toggleIndices() {
+        mRenderer.postCommand(LessonSevenRenderer.CMD_TOGGLE_INDICES);
+    }
+
+    protected void togglePacked() {
+        mRenderer.postCommand(LessonSevenRenderer.CMD_TOGGLE_PACKED);
+    }
+
+    protected void toggleGridMode() {
+        mRenderer.postCommand(LessonSevenRenderer.CMD_TOGGLE_GRID_MODE);
+    }
+
+    protected void toggleDepthSorting() {
+        mRenderer.postCommand(LessonSevenRenderer.CMD_TOGGLE_DEPTH_SORTING);
+    }
+
+    /**
+     * @param canToggle 当前的网格布局是否可以选择，比如索引绘制总是使用VBO
+     */
+    public void updateVboStatus(final boolean usingVbos, final boolean canToggle) {
+        runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                mRenderer.decreaseCubeCount();
+                final Button button = (Button) findViewById(R.id.button_switch_VBOs);
+                if (usingVbos) {
+                    button.setText("使用VBOs");
+                } else {
+                    button.setText("未使用VBOs");
+                }
+                button.setEnabled(canToggle);
             }
         });
     }
 
-    private void increaseCubeCount() {
-        mGLSurfaceView.queueEvent(new Runnable() {
+    /**
+     * @param canToggle 当前的网格布局是否可以选择，比如索引绘制的数据总是交错存放
+     */
+    public void updateStrideStatus(final boolean useStride, final boolean canToggle) {
+        runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                mRenderer.increaseCubeCount();
+                final Button button = (Button) findViewById(R.id.button_switch_stride);
+                if (useStride) {
+                    button.setText("使用跨度");
+                } else {
+                    button.setText("未使用跨度");
+                }
+                button.setEnabled(canToggle);
             }
         });
     }
 
-    private void toggleVBOs() {
-        mGLSurfaceView.queueEvent(new Runnable() {
+    public void updateIndexedStatus(final boolean useIndices) {
+        runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                mRenderer.toggleVBOs();
+                if (useIndices) {
+                    ((Button) findViewById(R.id.button_switch_indexed)).setText("使用索引");
+                } else {
+                    ((Button) findViewById(R.id.button_switch_indexed)).setText("未使用索引");
+                }
             }
         });
     }
 
-    protected void toggleStride() {
-        mGLSurfaceView.queueEvent(new Runnable() {
+    public void updatePackedStatus(final boolean usePacked) {
+        runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                mRenderer.toggleStride();
+                if (usePacked) {
+                    ((Button) findViewById(R.id.button_switch_packed)).setText("使用压缩格式");
+                } else {
+                    ((Button) findViewById(R.id.button_switch_packed)).setText("未使用压缩格式");
+                }
             }
         });
     }
 
-    public void updateVboStatus(final boolean usingVbos) {
+    public void updateGridModeStatus(final int gridMode) {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (usingVbos) {
-                    ((Button) findViewById(R.id.button_switch_VBOs)).setText("使用VBOs");
+                if (gridMode == LessonSevenRenderer.GRID_MODE_INSTANCED) {
+                    ((Button) findViewById(R.id.button_switch_mode)).setText("伪实例化");
+                } else if (gridMode == LessonSevenRenderer.GRID_MODE_PROCEDURAL) {
+                    ((Button) findViewById(R.id.button_switch_mode)).setText("程序化顶点");
+                } else if (gridMode == LessonSevenRenderer.GRID_MODE_LATTICE) {
+                    ((Button) findViewById(R.id.button_switch_mode)).setText("增量网格");
                 } else {
-                    ((Button) findViewById(R.id.button_switch_VBOs)).setText("未使用VBOs");
+                    ((Button) findViewById(R.id.button_switch_mode)).setText("普通网格");
                 }
             }
         });
     }
 
-    public void updateStrideStatus(final boolean useStride) {
+    public void updateDepthSortStatus(final boolean sortFrontToBack) {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (useStride) {
-                    ((Button) findViewById(R.id.button_switch_stride)).setText("使用跨度");
+                if (sortFrontToBack) {
+                    ((Button) findViewById(R.id.button_switch_sort)).setText("从前到后");
                 } else {
-                    ((Button) findViewById(R.id.button_switch_stride)).setText("未使用跨度");
+                    ((Button) findViewById(R.id.button_switch_sort)).setText("未排序");
                 }
             }
         });
     }
+
+    /**
+     * 显示最后一次请求预计需要的内存
+     *
+     * @param refused 请求因为内存不足被拒绝
+     */
+    public void updateMemoryStatus(final int cubeFactor, final long heapBytes, final long directBytes, final long gpuBytes,
+                                   final long budgetBytes, final boolean refused) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final String status = String.format("%d³个立方体 堆%.1fMB 直接缓冲区%.1fMB 显存%.1fMB / 预算%.1fMB",
+                        cubeFactor, toMegabytes(heapBytes), toMegabytes(directBytes), toMegabytes(gpuBytes),
+                        toMegabytes(budgetBytes));
+                mMemoryStatus = refused ? "内存不足，已拒绝请求\n" + status : status;
+                updateStats();
+            }
+        });
+    }
+
+    /**
+     * 显示最近一次网格上传用了几帧、单帧最长的上传时间，以及这次重新生成一共占用OpenGL线程的时间
+     */
+    public void updateUploadStatus(final int uploadFrameCount, final long maxFrameUploadNanos, final long glThreadNanos) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mUploadStatus = String.format("上传%d帧，单帧最长%.2fms，OpenGL线程共%.2fms", uploadFrameCount,
+                        maxFrameUploadNanos / 1000000.0F, glThreadNanos / 1000000.0F);
+                updateStats();
+            }
+        });
+    }
+
+    /**
+     * 显示视锥体裁剪后绘制和跳过的块数、按绘制顺序估计的overdraw，以及每个细节层次的块数
+     *
+     * 渲染线程会定期调用，这里只复制数值，不分配对象
+     *
+     * @param lodChunkCounts 第i个元素是使用第i级的可见块数，调用之后可以修改
+     */
+    public void updateCullingStatus(int visibleChunks, int culledChunks, float overdraw, int[] lodChunkCounts) {
+        synchronized (mCullingLock) {
+            mVisibleChunks = visibleChunks;
+            mCulledChunks = culledChunks;
+            mOverdraw = overdraw;
+            if (mLodChunkCounts.length != lodChunkCounts.length) {
+                mLodChunkCounts = new int[lodChunkCounts.length];
+            }
+            System.arraycopy(lodChunkCounts, 0, mLodChunkCounts, 0, lodChunkCounts.length);
+        }
+        runOnUiThread(mShowCullingStatus);
+    }
+
+    private void updateStats() {
+        ((TextView) findViewById(R.id.text_stats)).setText(mMemoryStatus + "\n" + mUploadStatus + "\n" + mCullingStatus);
+    }
+
+    private static float toMegabytes(long bytes) {
+        return bytes / (1024.0F * 1024.0F);
+    }
 }
@@ -14,6 +14,10 @@ public class LessonSevenGLSurfaceView extends GLSurfaceView {
 
     private float mDensity;
 
+    // 队列满时还没有发送的偏移，和下一次的偏移一起发送
+    private float mPendingDeltaX;
+    private float mPendingDeltaY;
+
     public LessonSevenGLSurfaceView(Context context) {
         super(context);
     }
@@ -36,8 +40,12 @@ public class LessonSevenGLSurfaceView extends GLSurfaceView {
                     float deltaX = (x - mPreviousX) / mDensity / 2f;
                     float deltaY = (y - mPreviousY) / mDensity / 2f;
 
-                    mRenderer.mDeltaX += deltaX;
-                    mRenderer.mDeltaY += deltaY;
+                    mPendingDeltaX += deltaX;
+                    mPendingDeltaY += deltaY;
+                    if (mRenderer.postRotation(mPendingDeltaX, mPendingDeltaY)) {
+                        mPendingDeltaX = 0.0F;
+                        mPendingDeltaY = 0.0F;
+                    }
                 }
             }
 
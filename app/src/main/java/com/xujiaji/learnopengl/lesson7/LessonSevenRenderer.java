@@ -3,17 +3,39 @@ package com.xujiaji.learnopengl.lesson7;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
-import android.widget.Toast;
 
 import com.xujiaji.learnopengl.R;
+import com.xujiaji.learnopengl.common.BackgroundUploader;
+import com.xujiaji.learnopengl.common.ChunkedBufferUploader;
+import com.xujiaji.learnopengl.common.CubeGridChunks;
+import com.xujiaji.learnopengl.common.CubeGridReplicator;
+import com.xujiaji.learnopengl.common.CubeIndexPacker;
+import com.xujiaji.learnopengl.common.CubeLatticeShells;
+import com.xujiaji.learnopengl.common.DepthSorter;
+import com.xujiaji.learnopengl.common.DirectBufferPool;
+import com.xujiaji.learnopengl.common.DoubleBufferedMesh;
+import com.xujiaji.learnopengl.common.Frustum;
+import com.xujiaji.learnopengl.common.LatestRequestScheduler;
+import com.xujiaji.learnopengl.common.MeshCache;
+import com.xujiaji.learnopengl.common.OverdrawEstimator;
+import com.xujiaji.learnopengl.common.ParallelCubeGridBuilder;
+import com.xujiaji.learnopengl.common.PendingUpload;
 import com.xujiaji.learnopengl.common.RawResourceReader;
+import com.xujiaji.learnopengl.common.RenderCommandQueue;
 import com.xujiaji.learnopengl.common.ShaderHelper;
 import com.xujiaji.learnopengl.common.ShapeBuilder;
+import com.xujiaji.learnopengl.common.SharedEglContextFactory;
 import com.xujiaji.learnopengl.common.TextureHelper;
+import com.xujiaji.learnopengl.common.VertexPacker;
+import com.xujiaji.learnopengl.common.VertexLayout;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -33,6 +55,28 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
     /** 控制是否使用跨度 */
     private boolean mUseStride = true;
 
+    /** 控制是否使用索引绘制 */
+    private boolean mUseIndices = false;
+
+    /** 控制是否使用压缩的顶点格式 */
+    private boolean mUsePacked = false;
+
+    /** 网格的绘制方式 */
+    static final int GRID_MODE_STANDARD = 0;
+    static final int GRID_MODE_INSTANCED = 1;
+    static final int GRID_MODE_PROCEDURAL = 2;
+    static final int GRID_MODE_LATTICE = 3;
+    static final int GRID_MODE_COUNT = 4;
+
+    private int mGridMode = GRID_MODE_STANDARD;
+
+    // 最后一次请求的模式，在OpenGL线程上切换
+    private boolean mLastRequestedUseVBOs = true;
+    private boolean mLastRequestedUseStride = true;
+    private boolean mLastRequestedUseIndices = false;
+    private boolean mLastRequestedUsePacked = false;
+    private int mLastRequestedGridMode = GRID_MODE_STANDARD;
+
     /** 一个位置数据的大小 */
     static final int POSITION_DATA_SIZE = 3;
 
@@ -45,6 +89,52 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
     /** 每float多少字节 */
     static final int BYTES_PER_FLOAT = 4;
 
+    /** 每short多少字节 */
+    static final int BYTES_PER_SHORT = 2;
+
+    /** 伪实例化时每次绘制的立方体数，受顶点着色器uniform数量限制（GLES2至少保证128个vec4） */
+    static final int INSTANCE_BATCH_SIZE = 64;
+
+    /** 伪实例化网格每个顶点的float数：位置、法线、纹理坐标、实例槽位 */
+    static final int INSTANCED_FLOATS_PER_VERTEX = POSITION_DATA_SIZE + NORMAL_DATA_SIZE + TEXTURE_COORDINATE_DATA_SIZE + 1;
+
+    /** 压缩格式中网格位置[-1, 1]的缩放和偏移 */
+    static final float[] PACKED_POSITION_SCALE_OFFSET = VertexPacker.getPositionScaleAndOffset(-1.0F, 1.0F);
+
+    // 各种网格的顶点格式，属性的位置在bind()时查询
+    private final VertexLayout mSeparateLayout = VertexLayout.separate()
+            .addFloat("a_Position", POSITION_DATA_SIZE)
+            .addFloat("a_Normal", NORMAL_DATA_SIZE)
+            .addFloat("a_TexCoordinate", TEXTURE_COORDINATE_DATA_SIZE)
+            .build();
+
+    private final VertexLayout mInterleavedLayout = VertexLayout.interleaved()
+            .addFloat("a_Position", POSITION_DATA_SIZE)
+            .addFloat("a_Normal", NORMAL_DATA_SIZE)
+            .addFloat("a_TexCoordinate", TEXTURE_COORDINATE_DATA_SIZE)
+            .build();
+
+    private final VertexLayout mPackedLayout = VertexLayout.interleaved()
+            .add("a_Position", POSITION_DATA_SIZE, GLES20.GL_SHORT, false)
+            .add("a_Normal", NORMAL_DATA_SIZE, GLES20.GL_BYTE, true)
+            .add("a_TexCoordinate", TEXTURE_COORDINATE_DATA_SIZE, GLES20.GL_UNSIGNED_SHORT, true)
+            .build();
+
+    private final VertexLayout mInstancedLayout = VertexLayout.interleaved()
+            .addFloat("a_Position", POSITION_DATA_SIZE)
+            .addFloat("a_Normal", NORMAL_DATA_SIZE)
+            .addFloat("a_TexCoordinate", TEXTURE_COORDINATE_DATA_SIZE)
+            .addFloat("a_InstanceSlot", 1)
+            .build();
+
+    private final VertexLayout mProceduralLayout = VertexLayout.interleaved()
+            .add("a_CubeIndex", CubeIndexPacker.PACKED_BYTES_PER_VERTEX, GLES20.GL_UNSIGNED_BYTE, false)
+            .build();
+
+    /** 程序化顶点的着色器用来还原顶点的表 */
+    private static final float[] PROCEDURAL_VERTEX_CORNERS = CubeIndexPacker.getVertexCorners();
+    private static final float[] PROCEDURAL_FACE_NORMALS = CubeIndexPacker.getFaceNormals();
+
     private float[] mModelMatrix = new float[16];
     // 存储累积的旋转值
     private final float[] mAccumulatedRotation = new float[16];
@@ -67,6 +157,48 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
 
     private float[] mMVPMatrix = new float[16];
 
+    // 从MVP矩阵取出的视锥体，平面在模型空间，只在OpenGL线程访问
+    private final Frustum mFrustum = new Frustum();
+
+    // model-view矩阵的逆矩阵，第4列是眼睛在模型空间中的位置
+    private final float[] mInverseModelViewMatrix = new float[16];
+
+    // 最近一帧绘制和裁剪掉的块数
+    private volatile int mVisibleChunkCount;
+    private volatile int mCulledChunkCount;
+
+    // 这一帧的model-view矩阵，用来计算块到眼睛的距离
+    private final float[] mModelViewMatrix = new float[16];
+
+    /** 控制是否按到眼睛的距离从前到后绘制块，让深度测试尽早丢弃被遮挡的片段 */
+    private boolean mSortFrontToBack = true;
+
+    // 按绘制顺序估计overdraw，只在OpenGL线程访问
+    private final OverdrawEstimator mOverdrawEstimator = new OverdrawEstimator();
+    private volatile float mEstimatedOverdraw;
+
+    /** overdraw估计变化超过这个值时才通知界面 */
+    private static final float OVERDRAW_REPORT_THRESHOLD = 0.05F;
+
+    /** 转动时裁剪的结果几乎每帧都变，最多每隔这么多帧通知一次界面 */
+    private static final int CULLING_REPORT_INTERVAL_FRAMES = 30;
+
+    // 最后一次通知界面的裁剪结果和之后经过的帧数，只在OpenGL线程访问
+    private int mReportedVisibleChunkCount;
+    private int mReportedCulledChunkCount;
+    private float mReportedOverdraw;
+    private final int[] mReportedLodChunkCounts = new int[CubeGridChunks.LOD_COUNT];
+    private int mFramesSinceCullingReport = CULLING_REPORT_INTERVAL_FRAMES;
+
+    // 控制是否按块在屏幕上的大小选择细节层次
+    private volatile boolean mUseLevelOfDetail = true;
+
+    // 视图空间中距离为1的地方一个单位长度的像素数，在onSurfaceChanged()中计算
+    private float mPixelsPerUnit;
+
+    // 最近一帧每个细节层次的可见块数，只在OpenGL线程写入
+    private final int[] mLodChunkCounts = new int[CubeGridChunks.LOD_COUNT];
+
     // 用来存放光源在模型空间的初始位置，我们需要第四个坐标
     // 这样我们就可以通过变换矩阵将它们相乘来实现平移
     private final float[] mLightPosInModelSpace = new float[] {0.0f, 0.0f, 0.0f, 1.0f};
@@ -80,49 +212,272 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
 
     // 程序
     private int mProgramHandle;
+    // 伪实例化使用的程序
+    private int mInstancedProgramHandle;
+    // 伪实例化的网格，包含INSTANCE_BATCH_SIZE个单位立方体，和立方体的数量无关
+    private int mInstancedCubeMeshIdx;
+    // 从立方体坐标还原顶点的程序
+    private int mProceduralProgramHandle;
     // Android图标
     private int mAndroidDataHandle;
     private int mMVPMatrixHandle;
     private int mMVMatrixHandle;
     private int mLightPosHandle;
-    private int mPositionHandle;
-    private int mNormalHandle;
     private int mTextureUniformHandle;
-    private int mTextureCoordinateHandle;
-
-    // 没有volatile仍然工作，但是不保证能刷新
-    public volatile float mDeltaX;
-    public volatile float mDeltaY;
+    private int mPositionScaleHandle;
+    private int mPositionOffsetHandle;
+
+    // 这一帧累积的触摸偏移，只在OpenGL线程访问
+    private float mDeltaX;
+    private float mDeltaY;
+
+    // UI线程发送的命令
+    public static final int CMD_DECREASE_CUBE_COUNT = 0;
+    public static final int CMD_INCREASE_CUBE_COUNT = 1;
+    public static final int CMD_TOGGLE_VBOS = 2;
+    public static final int CMD_TOGGLE_STRIDE = 3;
+    public static final int CMD_TOGGLE_INDICES = 4;
+    public static final int CMD_TOGGLE_PACKED = 5;
+    public static final int CMD_TOGGLE_GRID_MODE = 6;
+    public static final int CMD_TOGGLE_DEPTH_SORTING = 7;
+    /** 旋转立方体，两个参数是x和y方向的触摸偏移 */
+    public static final int CMD_ROTATE = 8;
+    /** 换上生成好的网格，参数是在OpenGL线程上创建Cubes的Runnable，只由mSingleThreadedExecutor发送 */
+    static final int CMD_SWAP_MESH = 9;
+    /** 以下选项的参数为1时打开，0时关闭 */
+    public static final int CMD_SET_MORTON_ORDER = 10;
+    public static final int CMD_SET_PARALLEL_GENERATION = 11;
+    public static final int CMD_SET_LEVEL_OF_DETAIL = 12;
+    public static final int CMD_SET_BACKGROUND_UPLOADS = 13;
+
+    // UI线程发送的命令和后台线程生成好的网格各用一个队列，每个队列只有一个生产者，都在onDrawFrame()的开头处理
+    private final RenderCommandQueue mUiCommands = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+    private final RenderCommandQueue mMeshCommands = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+
+    private final RenderCommandQueue.Handler mCommandHandler = new RenderCommandQueue.Handler() {
+        @Override
+        public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+            switch (type) {
+                case CMD_DECREASE_CUBE_COUNT:
+                    decreaseCubeCount();
+                    break;
+                case CMD_INCREASE_CUBE_COUNT:
+                    increaseCubeCount();
+                    break;
+                case CMD_TOGGLE_VBOS:
+                    toggleVBOs();
+                    break;
+                case CMD_TOGGLE_STRIDE:
+                    toggleStride();
+                    break;
+                case CMD_TOGGLE_INDICES:
+                    toggleIndices();
+                    break;
+                case CMD_TOGGLE_PACKED:
+                    togglePacked();
+                    break;
+                case CMD_TOGGLE_GRID_MODE:
+                    toggleGridMode();
+                    break;
+                case CMD_TOGGLE_DEPTH_SORTING:
+                    toggleDepthSorting();
+                    break;
+                case CMD_ROTATE:
+                    mDeltaX += floatArg1;
+                    mDeltaY += floatArg2;
+                    break;
+                case CMD_SWAP_MESH:
+                    ((Runnable) objectArg).run();
+                    break;
+                case CMD_SET_MORTON_ORDER:
+                    setMortonOrder(intArg != 0);
+                    // 排在清空缓存之后重新生成，换上之后就是新的顺序
+                    generateCubes();
+                    break;
+                case CMD_SET_PARALLEL_GENERATION:
+                    setParallelGeneration(intArg != 0);
+                    break;
+                case CMD_SET_LEVEL_OF_DETAIL:
+                    setLevelOfDetail(intArg != 0);
+                    break;
+                case CMD_SET_BACKGROUND_UPLOADS:
+                    setBackgroundUploads(intArg != 0);
+                    break;
+            }
+        }
+    };
 
     // 在后台生成立方体数据的线程池
     private final ExecutorService mSingleThreadedExecutor = Executors.newSingleThreadExecutor();
 
-    // 当前的所有立方体对象
-    private Cubes mCubes;
+    // 重新生成的请求只保留最新的一个：连续点击时旧的请求还没开始就被替换，正在生成的发现被取代时放弃，不再上传
+    private final LatestRequestScheduler<GenDataRequest> mRegenerationScheduler = new LatestRequestScheduler<>(
+            mSingleThreadedExecutor, new LatestRequestScheduler.Builder<GenDataRequest>() {
+                @Override
+                public void build(GenDataRequest request, long generation) {
+                    request.build(generation);
+                }
+            });
+
+    // 并行生成立方体网格时，按CPU核心数把网格切片
+    private static final int GRID_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    // 并行生成的线程池，在shutdown()中关闭
+    private final ExecutorService mGridExecutor = Executors.newFixedThreadPool(Math.max(1, GRID_PARALLELISM - 1));
+    private final ParallelCubeGridBuilder mParallelGridBuilder = new ParallelCubeGridBuilder(mGridExecutor, GRID_PARALLELISM);
+
+    // 控制是否并行生成立方体网格
+    private volatile boolean mUseParallelGeneration = GRID_PARALLELISM > 1;
+
+    // 控制块内的立方体是否按Morton码排列，只在mSingleThreadedExecutor上修改，和网格缓存的清空保持顺序
+    private volatile boolean mUseMortonOrder;
+
+    // 当前的所有立方体对象，新的立方体上传完之前继续绘制旧的
+    private final DoubleBufferedMesh<Cubes> mCubes = new DoubleBufferedMesh<>();
+
+    // 分帧上传VBO
+    private final ChunkedBufferUploader mUploader = new ChunkedBufferUploader();
 
-    public LessonSevenRenderer(final LessonSevenActivity lessonSevenActivity, final GLSurfaceView glSurfaceView) {
+    // 最近一次重新生成时，在OpenGL线程上创建Cubes花费的时间，只在OpenGL线程访问
+    private long mRebuildGlNanos;
+
+    // 创建共享上下文，为null时总是在渲染线程上传
+    private SharedEglContextFactory mContextFactory;
+    // 在后台线程上传VBO，不支持共享上下文时为null
+    private BackgroundUploader mBackgroundUploader;
+    // 控制是否使用后台线程上传
+    private volatile boolean mUseBackgroundUploads = true;
+
+    // 在渲染线程上执行后台上传的完成回调
+    private final Executor mRenderThreadExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mGLSurfaceView.queueEvent(command);
+        }
+    };
+
+    /** 客户端网格数据的布局，作为网格缓存的键 */
+    static final int MESH_LAYOUT_POSITIONS = 0;
+    static final int MESH_LAYOUT_INTERLEAVED = 1;
+    static final int MESH_LAYOUT_INDEXED = 2;
+    static final int MESH_LAYOUT_PACKED = 3;
+    static final int MESH_LAYOUT_INSTANCED = 4;
+    static final int MESH_LAYOUT_PROCEDURAL = 5;
+    static final int MESH_LAYOUT_LATTICE = 6;
+
+    /** 网格缓存的默认字节预算 */
+    static final long DEFAULT_MESH_CACHE_BYTES = 32L * 1024 * 1024;
+
+    /** 网格缓存最多使用内存预算的几分之一 */
+    static final int MESH_CACHE_BUDGET_DIVISOR = 4;
+
+    // 客户端网格数据使用的直接缓冲区都从池中取出，用完放回，不再需要System.gc()来回收本地内存。
+    // 池属于这个渲染器，Activity重建之后旧的池和它的租约一起交给GC，不会一直占着本地内存
+    private final DirectBufferPool mBufferPool;
+
+    // 已经生成的客户端网格数据，切换VBO或跨度时不需要重新生成
+    private final MeshCache mMeshCache;
+
+    // 生成网格之前检查需要的内存，放不下时拒绝请求或者降低立方体数
+    private final MeshMemoryBudget mMemoryBudget;
+
+    // 按壳排列的网格已经生成的立方体数和缓冲区的容量，只在mSingleThreadedExecutor上访问。
+    // mLatticeDataFactor为0时下一次按壳排列的请求重新创建缓冲区
+    private int mLatticeDataFactor;
+    private int mLatticeCapacity;
+
+    // 最后创建的按壳排列的网格，追加的壳写入它的缓冲区，只在OpenGL线程访问
+    private CubesLattice mLattice;
+
+    /**
+     * @param memoryBudget 网格和网格缓存一共可以使用的内存，网格缓存占其中的一部分
+     */
+    public LessonSevenRenderer(final LessonSevenActivity lessonSevenActivity, final GLSurfaceView glSurfaceView,
+                               final MeshMemoryBudget memoryBudget) {
         this.mLessonSevenActivity = lessonSevenActivity;
         this.mGLSurfaceView = glSurfaceView;
+
+        final long meshCacheBytes = Math.min(DEFAULT_MESH_CACHE_BYTES, memoryBudget.getBudgetBytes() / MESH_CACHE_BUDGET_DIVISOR);
+        // 池中空闲的缓冲区不超过网格缓存的大小
+        this.mBufferPool = new DirectBufferPool(meshCacheBytes);
+        this.mMeshCache = new MeshCache(meshCacheBytes, mBufferPool);
+        this.mMemoryBudget = new MeshMemoryBudget(memoryBudget.getBudgetBytes() - meshCacheBytes);
     }
 
-    private void generateCubes(int cubeFactor, boolean toggleVbos, boolean toggleStride) {
-        mSingleThreadedExecutor.submit(new GenDataRunnable(cubeFactor, toggleVbos, toggleStride));
+    private void generateCubes() {
+        reportMemoryStatus(false);
+        mRegenerationScheduler.request(new GenDataRequest(mLastRequestedCubeFactor,
+                mLastRequestedUseVBOs, mLastRequestedUseStride, mLastRequestedUseIndices, mLastRequestedUsePacked,
+                mLastRequestedGridMode));
     }
 
-    class GenDataRunnable implements Runnable {
+    class GenDataRequest {
 
         final int mRequestedCubeFactor;
-        final boolean mToggleVbos;
-        final boolean mToggleStride;
+        final boolean mRequestedUseVbos;
+        final boolean mRequestedUseStride;
+        final boolean mRequestedUseIndices;
+        final boolean mRequestedUsePacked;
+        final int mRequestedGridMode;
+
+        // mRegenerationScheduler分配的代数，在build()中设置
+        long mGeneration;
 
-        GenDataRunnable(int requestedCubeFactor, boolean toggleVbos, boolean toggleStride) {
+        GenDataRequest(int requestedCubeFactor, boolean useVbos, boolean useStride, boolean useIndices, boolean usePacked,
+                       int gridMode) {
             this.mRequestedCubeFactor = requestedCubeFactor;
-            this.mToggleVbos = toggleVbos;
-            this.mToggleStride = toggleStride;
+            this.mRequestedUseVbos = useVbos;
+            this.mRequestedUseStride = useStride;
+            this.mRequestedUseIndices = useIndices;
+            this.mRequestedUsePacked = usePacked;
+            this.mRequestedGridMode = gridMode;
         }
 
-        @Override
-        public void run() {
+        /**
+         * 已经有更新的请求时记录为放弃，之后的结果不再上传
+         */
+        boolean isSuperseded() {
+            if (mRegenerationScheduler.isCurrent(mGeneration)) {
+                return false;
+            }
+            mRegenerationScheduler.abort();
+            return true;
+        }
+
+        void build(long generation) {
+            mGeneration = generation;
+            try {
+                buildMesh();
+            } catch (OutOfMemoryError error) {
+                // 预算只是估计，不知道池中空闲的缓冲区和应用其他部分的内存，allocateDirect仍然可能失败。
+                // 已经取出的缓冲区在失败的地方放回，这里丢弃池中空闲的缓冲区再报告给界面
+                mBufferPool.trim();
+                mRegenerationScheduler.abort();
+                reportMemoryStatus(mRequestedCubeFactor, getMeshLayout(mRequestedUseStride, mRequestedUseIndices,
+                        mRequestedUsePacked, mRequestedGridMode), mRequestedUseVbos, true);
+            }
+        }
+
+        private void buildMesh() {
+            if (isSuperseded()) {
+                return;
+            }
+
+            if (mRequestedGridMode == GRID_MODE_LATTICE) {
+                generateLattice();
+                return;
+            }
+            // 其他网格会替换按壳排列的网格，之后需要重新创建
+            mLatticeDataFactor = 0;
+
+            // 网格按块存放，每块可以单独裁剪
+            final CubeGridChunks chunks = new CubeGridChunks(mRequestedCubeFactor, CubeGridChunks.DEFAULT_CHUNK_SIZE, -1.0F, 1.0F,
+                    mUseMortonOrder ? CubeGridChunks.ORDER_MORTON : CubeGridChunks.ORDER_LINEAR);
+
+            if (mRequestedGridMode == GRID_MODE_INSTANCED) {
+                generateInstanced(chunks);
+                return;
+            }
+
             try {
 
                 // 法线
@@ -138,146 +493,708 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
                                 1.0F, 0.0F
                         });
 
-                final float[] cubePositionData = new float[108 * mRequestedCubeFactor * mRequestedCubeFactor * mRequestedCubeFactor];
-                int cubePositionDataOffset = 0;
-
-                final int segments = mRequestedCubeFactor + (mRequestedCubeFactor - 1);
-                final float minPosition = -1.0f;
-                final float maxPosition = 1.0f;
-                final float positionRange = maxPosition - minPosition;
-
-                for (int x = 0; x < mRequestedCubeFactor; x++) {
-                    for (int y = 0; y < mRequestedCubeFactor; y++) {
-                        for (int z = 0; z < mRequestedCubeFactor; z++) {
-                            final float x1 = minPosition + ((positionRange / segments) * (x * 2));
-                            final float x2 = minPosition + ((positionRange / segments) * ((x * 2) + 1));
-
-                            final float y1 = minPosition + ((positionRange / segments) * (y * 2));
-                            final float y2 = minPosition + ((positionRange / segments) * ((y * 2) + 1));
-
-                            final float z1 = minPosition + ((positionRange / segments) * (z * 2));
-                            final float z2 = minPosition + ((positionRange / segments) * ((z * 2) + 1));
-
-                            // Define points for a cube.
-                            // X, Y, Z
-                            final float[] p1p = { x1, y2, z2 };
-                            final float[] p2p = { x2, y2, z2 };
-                            final float[] p3p = { x1, y1, z2 };
-                            final float[] p4p = { x2, y1, z2 };
-                            final float[] p5p = { x1, y2, z1 };
-                            final float[] p6p = { x2, y2, z1 };
-                            final float[] p7p = { x1, y1, z1 };
-                            final float[] p8p = { x2, y1, z1 };
-
-                            final float[] thisCubePositionData = ShapeBuilder.generateCubeData(p1p, p2p, p3p, p4p, p5p, p6p, p7p, p8p,
-                                    p1p.length);
-
-                            System.arraycopy(thisCubePositionData, 0, cubePositionData, cubePositionDataOffset, thisCubePositionData.length);
-                            cubePositionDataOffset += thisCubePositionData.length;
-                        }
-                    }
+                // 切换VBO或者重新请求同样的网格时直接使用缓存的数据，只需要重新上传
+                // meshData上的引用交给OpenGL线程，在那里创建Cubes之后释放
+                final int meshLayout = getMeshLayout(mRequestedUseStride, mRequestedUseIndices, mRequestedUsePacked,
+                        mRequestedGridMode);
+                Buffer[] meshData = mMeshCache.get(mRequestedCubeFactor, meshLayout);
+                if (meshData == null) {
+                    meshData = generateMeshData(meshLayout, chunks, cubeNormalData, cubeTextureCoordinateData);
+                    mMeshCache.put(mRequestedCubeFactor, meshLayout, meshData);
+                }
+
+                // 生成期间有了新的请求，数据留在缓存中，不再上传
+                if (isSuperseded()) {
+                    releaseAll(meshData);
+                    return;
                 }
 
+                // 所有CPU上的工作到这里都已经完成，OpenGL线程只需要创建和上传缓冲区
+                final Buffer[] generatedMeshData = meshData;
+                final boolean byteLayout = meshLayout == MESH_LAYOUT_PACKED || meshLayout == MESH_LAYOUT_PROCEDURAL;
+                final FloatBuffer cubeBuffer = !byteLayout ? (FloatBuffer) meshData[0] : null;
+                final FloatBuffer cubeNormalsBuffer = meshLayout == MESH_LAYOUT_POSITIONS ? (FloatBuffer) meshData[1] : null;
+                final FloatBuffer cubeTextureCoordinatesBuffer = meshLayout == MESH_LAYOUT_POSITIONS ? (FloatBuffer) meshData[2] : null;
+                final ShortBuffer cubeIndexBuffer = meshLayout == MESH_LAYOUT_INDEXED ? (ShortBuffer) meshData[1] : null;
+                final ByteBuffer packedCubeBuffer = byteLayout ? (ByteBuffer) meshData[0] : null;
+
                 // 在OpenGL 线程运行 -- 其他渲染器
-                mGLSurfaceView.queueEvent(new Runnable() {
+                if (!postMeshSwap(new Runnable() {
                     @Override
                     public void run() {
-                        if (mCubes != null) {
-                            mCubes.release();
-                            mCubes = null;
-                        }
-
-                        // 不因手动调用，但Dalvik有时需要一些额外的刺激来清理堆
-                        System.gc();
-
+                        final long startTime = System.nanoTime();
                         try {
-                            boolean useVbos = mUseVBOs;
-                            boolean useStride = mUseStride;
-
-                            if (mToggleVbos) {
-                                useVbos = !useVbos;
-                            }
-
-                            if (mToggleStride) {
-                                useStride = !useStride;
+                            if (isSuperseded()) {
+                                return;
                             }
 
-                            if (useStride) {
-                                if (useVbos) {
-                                    mCubes = new CubesWithVboWithStride(cubePositionData, cubeNormalData, cubeTextureCoordinateData, mRequestedCubeFactor);
+                            // 请求在提交之前已经按内存预算检查过
+                            final Cubes cubes;
+                            if (mRequestedGridMode == GRID_MODE_PROCEDURAL) {
+                                cubes = new CubesProceduralWithVbo(chunks, packedCubeBuffer, cubeTextureCoordinateData);
+                            } else if (mRequestedUseIndices) {
+                                cubes = new CubesIndexedWithVbo(chunks, cubeBuffer, cubeIndexBuffer);
+                            } else if (mRequestedUsePacked) {
+                                cubes = new CubesPackedWithVbo(chunks, packedCubeBuffer);
+                            } else if (mRequestedUseStride) {
+                                if (mRequestedUseVbos) {
+                                    cubes = new CubesWithVboWithStride(chunks, cubeBuffer);
                                 } else {
-                                    mCubes = new CubesClientSideWithStride(cubePositionData, cubeNormalData, cubeTextureCoordinateData, mRequestedCubeFactor);
+                                    cubes = new CubesClientSideWithStride(chunks, cubeBuffer);
                                 }
                             } else {
-                                if (useVbos) {
-                                    mCubes = new CubesWithVbo(cubePositionData, cubeNormalData, cubeTextureCoordinateData, mRequestedCubeFactor);
+                                if (mRequestedUseVbos) {
+                                    cubes = new CubesWithVbo(chunks, cubeBuffer, cubeNormalsBuffer, cubeTextureCoordinatesBuffer);
                                 } else {
-                                    mCubes = new CubesClientSide(cubePositionData, cubeNormalData, cubeTextureCoordinateData, mRequestedCubeFactor);
+                                    cubes = new CubesClientSide(chunks, cubeBuffer, cubeNormalsBuffer, cubeTextureCoordinatesBuffer);
                                 }
                             }
 
-                            mUseVBOs = useVbos;
-                            mLessonSevenActivity.updateVboStatus(mUseVBOs);
+                            setPendingCubes(cubes, new Runnable() {
+                                @Override
+                                public void run() {
+                                    // 下一次重新生成时这个网格和新的网格同时存在
+                                    mMemoryBudget.setReservedBytes(mMemoryBudget.estimate(mRequestedCubeFactor, meshLayout,
+                                            mRequestedUseVbos).getTotalBytes());
 
-                            mUseStride = useStride;
-                            mLessonSevenActivity.updateStrideStatus(mUseStride);
+                                    reportVboAndStrideStatus(meshLayout, mRequestedUseVbos, mRequestedUseStride);
 
-                            mActualCubeFactor = mRequestedCubeFactor;
-                        } catch (OutOfMemoryError err) {
-                            if (mCubes != null) {
-                                mCubes.release();
-                                mCubes = null;
-                            }
+                                    mUseIndices = mRequestedUseIndices;
+                                    mLessonSevenActivity.updateIndexedStatus(mUseIndices);
 
-                            // 不因手动调用，但Dalvik有时需要一些额外的刺激来清理堆
-                            System.gc();
+                                    mUsePacked = mRequestedUsePacked;
+                                    mLessonSevenActivity.updatePackedStatus(mUsePacked);
 
-                            mLessonSevenActivity.runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-//									Toast.makeText(mLessonSevenActivity, "Out of memory; Dalvik takes a while to clean up the memory. Please try again.\nExternal bytes allocated=" + dalvik.system.VMRuntime.getRuntime().getExternalBytesAllocated(), Toast.LENGTH_LONG).show();
+                                    mGridMode = mRequestedGridMode;
+                                    mLessonSevenActivity.updateGridModeStatus(mGridMode);
+
+                                    mActualCubeFactor = mRequestedCubeFactor;
                                 }
                             });
+                            mRegenerationScheduler.complete(mGeneration);
+                        } finally {
+                            // Cubes和后台上传需要保留客户端数据时自己持有引用
+                            releaseAll(generatedMeshData);
+                            mRebuildGlNanos = System.nanoTime() - startTime;
                         }
                     }
-                });
-            } catch (OutOfMemoryError error) {
-                System.gc();
-                mLessonSevenActivity.runOnUiThread(new Runnable() {
+                })) {
+                    // 等待时被中断，网格没有交出
+                    releaseAll(generatedMeshData);
+                    mRegenerationScheduler.abort();
+                }
+            } catch (InterruptedException e) {
+                mRegenerationScheduler.abort();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 生成这种布局的客户端网格数据，按面的方向分成6段，每段中立方体按块的顺序排列，所有缓冲区的位置都在0
+         */
+        Buffer[] generateMeshData(int meshLayout, CubeGridChunks chunks, float[] cubeNormalData, float[] cubeTextureCoordinateData)
+                throws InterruptedException {
+            if (meshLayout == MESH_LAYOUT_PROCEDURAL) {
+                // 每个顶点只有立方体坐标和顶点序号，位置、法线和纹理坐标在顶点着色器中还原
+                final ByteBuffer cubeIndexBuffer = mBufferPool.acquire(
+                        chunks.getMeshBoxCount() * ShapeBuilder.VERTICES_PER_CUBE * CubeIndexPacker.PACKED_BYTES_PER_VERTEX, false);
+                chunks.putCubeIndexFaceData(cubeIndexBuffer);
+                cubeIndexBuffer.position(0);
+                return new Buffer[] {cubeIndexBuffer};
+            } else if (meshLayout == MESH_LAYOUT_INDEXED) {
+                // 索引绘制：每个面4个共享顶点，索引缓冲只需要一批面的大小，每批复用
+                final int faceCount = chunks.getMeshBoxCount() * ShapeBuilder.FACE_COUNT;
+                final FloatBuffer cubeBuffer = mBufferPool.acquireFloatBuffer(
+                        ShapeBuilder.getIndexedCubeGridDataLength(1) * chunks.getMeshBoxCount(), false);
+                chunks.putIndexedCubeGridFaceData(cubeBuffer);
+                chunks.putIndexedLodFaceData(cubeBuffer);
+                cubeBuffer.position(0);
+
+                final int batchFaceCount = Math.min(faceCount, ShapeBuilder.MAX_FACES_PER_SHORT_INDEX_BATCH);
+                final ShortBuffer cubeIndexBuffer;
+                try {
+                    cubeIndexBuffer = mBufferPool.acquireShortBuffer(batchFaceCount * ShapeBuilder.INDICES_PER_FACE, false);
+                } catch (OutOfMemoryError error) {
+                    mBufferPool.release(cubeBuffer);
+                    throw error;
+                }
+                ShapeBuilder.putFaceIndices(batchFaceCount, cubeIndexBuffer);
+                cubeIndexBuffer.position(0);
+                return new Buffer[] {cubeBuffer, cubeIndexBuffer};
+            } else if (meshLayout == MESH_LAYOUT_PACKED) {
+                return new Buffer[] {packCubeGridData(mBufferPool, chunks, cubeNormalData, cubeTextureCoordinateData)};
+            } else if (meshLayout == MESH_LAYOUT_INTERLEAVED) {
+                // 直接把立方体网格写入客户端浮点缓冲区，同时交错写入法线和纹理坐标
+                return new Buffer[] {generateCubeGridData(chunks, cubeNormalData, cubeTextureCoordinateData)};
+            } else {
+                // 法线和纹理坐标在这里为每个盒子重复，不在OpenGL线程上生成
+                final int boxCount = chunks.getMeshBoxCount();
+                final FloatBuffer cubeBuffer = generateCubeGridData(chunks, null, null);
+                FloatBuffer cubeNormalsBuffer = null;
+                try {
+                    cubeNormalsBuffer = mBufferPool.acquireFloatBuffer(cubeNormalData.length * boxCount, false);
+                    putRepeatedFaces(cubeNormalData, chunks, cubeNormalsBuffer);
+                    cubeNormalsBuffer.position(0);
+
+                    final FloatBuffer cubeTextureCoordinatesBuffer = mBufferPool.acquireFloatBuffer(
+                            cubeTextureCoordinateData.length * boxCount, false);
+                    putRepeatedFaces(cubeTextureCoordinateData, chunks, cubeTextureCoordinatesBuffer);
+                    cubeTextureCoordinatesBuffer.position(0);
+
+                    return new Buffer[] {cubeBuffer, cubeNormalsBuffer, cubeTextureCoordinatesBuffer};
+                } catch (OutOfMemoryError error) {
+                    mBufferPool.release(cubeBuffer);
+                    if (cubeNormalsBuffer != null) {
+                        mBufferPool.release(cubeNormalsBuffer);
+                    }
+                    throw error;
+                }
+            }
+        }
+
+        private FloatBuffer generateCubeGridData(CubeGridChunks chunks, float[] cubeNormalData, float[] cubeTextureCoordinateData)
+                throws InterruptedException {
+            final FloatBuffer cubeBuffer = mBufferPool.acquireFloatBuffer(ShapeBuilder.getCubeGridDataLength(1,
+                    cubeNormalData, cubeTextureCoordinateData) * chunks.getMeshBoxCount(), false);
+            try {
+                putCubeGridData(chunks, cubeNormalData, cubeTextureCoordinateData, cubeBuffer);
+            } catch (InterruptedException | OutOfMemoryError e) {
+                mBufferPool.release(cubeBuffer);
+                throw e;
+            }
+            cubeBuffer.position(0);
+            return cubeBuffer;
+        }
+
+        /**
+         * 伪实例化只需要计算每个立方体的偏移，网格本身不变
+         */
+        private void generateInstanced(final CubeGridChunks chunks) {
+            final int cubeCount = mRequestedCubeFactor * mRequestedCubeFactor * mRequestedCubeFactor;
+            final float[] cubeOffsets = new float[cubeCount * POSITION_DATA_SIZE];
+            chunks.putCubeGridOffsets(cubeOffsets);
+            final float cubeSize = ShapeBuilder.getCubeGridCubeSize(mRequestedCubeFactor, -1.0F, 1.0F);
+
+            if (!postMeshSwap(new Runnable() {
+                @Override
+                public void run() {
+                    if (isSuperseded()) {
+                        return;
+                    }
+
+                    setPendingCubes(new CubesInstanced(chunks, cubeOffsets, cubeSize), new Runnable() {
+                        @Override
+                        public void run() {
+                            mMemoryBudget.setReservedBytes(mMemoryBudget.estimate(mRequestedCubeFactor, MESH_LAYOUT_INSTANCED,
+                                    mRequestedUseVbos).getTotalBytes());
+                            reportVboAndStrideStatus(MESH_LAYOUT_INSTANCED, mRequestedUseVbos, mRequestedUseStride);
+
+                            mGridMode = mRequestedGridMode;
+                            mLessonSevenActivity.updateGridModeStatus(mGridMode);
+
+                            mActualCubeFactor = mRequestedCubeFactor;
+                        }
+                    });
+                    mRegenerationScheduler.complete(mGeneration);
+                }
+            })) {
+                mRegenerationScheduler.abort();
+            }
+        }
+
+        /**
+         * 按壳排列的网格只生成缓冲区中还没有的立方体。生成之后的结果总是应用，否则缓冲区和这里记录的状态不一致：减少立方体数或者增加到生成过的数量时只改变绘制的范围，
+         * 增加时只生成新的壳追加到缓冲区后面，容量不够时才按2的幂扩大容量，重新生成整个缓冲区
+         */
+        private void generateLattice() {
+            final int cubeFactor = mRequestedCubeFactor;
+            final int cubeCount = CubeLatticeShells.getCubeCount(cubeFactor);
+
+            if (mLatticeDataFactor > 0 && cubeCount <= mLatticeCapacity) {
+                ByteBuffer shells = null;
+                int byteOffset = 0;
+                if (cubeFactor > mLatticeDataFactor) {
+                    shells = mBufferPool.acquire(
+                            CubeLatticeShells.getShellCubeCount(mLatticeDataFactor, cubeFactor) * CubeLatticeShells.BYTES_PER_CUBE, false);
+                    CubeLatticeShells.putShells(mLatticeDataFactor, cubeFactor, shells);
+                    shells.position(0);
+                    byteOffset = CubeLatticeShells.getCubeCount(mLatticeDataFactor) * CubeLatticeShells.BYTES_PER_CUBE;
+                    mLatticeDataFactor = cubeFactor;
+                }
+
+                final ByteBuffer appendedShells = shells;
+                final int appendOffset = byteOffset;
+                if (!postMeshSwap(new Runnable() {
                     @Override
                     public void run() {
-                        Toast.makeText(mLessonSevenActivity, "OOM", Toast.LENGTH_LONG).show();
+                        try {
+                            // 上下文重建之后旧的缓冲区已经不存在，重建时会重新生成整个网格
+                            if (mLattice == null) {
+                                mRegenerationScheduler.abort();
+                                return;
+                            }
+
+                            final long startTime = System.nanoTime();
+                            if (appendedShells != null) {
+                                mLattice.append(appendOffset, appendedShells);
+                            }
+                            mLattice.setCubeFactor(cubeFactor);
+                            final long appendNanos = System.nanoTime() - startTime;
+                            mRegenerationScheduler.complete(mGeneration);
+
+                            // 还在上传的网格换上时再更新
+                            if (mCubes.getFront() == mLattice) {
+                                applyLatticeCubeFactor(cubeFactor);
+                                mLessonSevenActivity.updateUploadStatus(appendedShells != null ? 1 : 0, appendNanos, appendNanos);
+                            }
+                        } finally {
+                            if (appendedShells != null) {
+                                mBufferPool.release(appendedShells);
+                            }
+                        }
+                    }
+                })) {
+                    // 壳没有追加到缓冲区，下一次重新生成整个网格
+                    mLatticeDataFactor = 0;
+                    if (appendedShells != null) {
+                        mBufferPool.release(appendedShells);
+                    }
+                    mRegenerationScheduler.abort();
+                }
+                return;
+            }
+
+            // 第一次或者容量不够时重新生成，容量之外的部分不绘制，不需要清零
+            // 分配失败时仍然记录着旧的缓冲区，成功之后才更新容量
+            final int capacity = CubeLatticeShells.getCapacity(cubeCount);
+            final ByteBuffer cubeIndexBuffer = mBufferPool.acquire(capacity * CubeLatticeShells.BYTES_PER_CUBE, false);
+            CubeLatticeShells.putShells(0, cubeFactor, cubeIndexBuffer);
+            cubeIndexBuffer.position(0);
+            mLatticeCapacity = capacity;
+            mLatticeDataFactor = cubeFactor;
+
+            final float[] cubeTextureCoordinateData = ShapeBuilder.generateTextureCoordinateData(
+                    new float[]{
+                            0.0F, 0.0F,
+                            0.0F, 1.0F,
+                            1.0F, 0.0F,
+                            0.0F, 1.0F,
+                            1.0F, 1.0F,
+                            1.0F, 0.0F
+                    });
+
+            if (!postMeshSwap(new Runnable() {
+                @Override
+                public void run() {
+                    final long startTime = System.nanoTime();
+                    try {
+                        final CubesLattice cubes = new CubesLattice(cubeFactor, cubeIndexBuffer, cubeTextureCoordinateData);
+                        setPendingCubes(cubes, new Runnable() {
+                            @Override
+                            public void run() {
+                                mGridMode = mRequestedGridMode;
+                                mLessonSevenActivity.updateGridModeStatus(mGridMode);
+                                reportVboAndStrideStatus(MESH_LAYOUT_LATTICE, mRequestedUseVbos, mRequestedUseStride);
+
+                                // 上传期间可能已经追加或者减少了立方体
+                                applyLatticeCubeFactor(cubes.getCubeFactor());
+                            }
+                        });
+                        mRegenerationScheduler.complete(mGeneration);
+                    } finally {
+                        mBufferPool.release(cubeIndexBuffer);
+                        mRebuildGlNanos = System.nanoTime() - startTime;
                     }
-                });
+                }
+            })) {
+                mLatticeDataFactor = 0;
+                mBufferPool.release(cubeIndexBuffer);
+                mRegenerationScheduler.abort();
+            }
+        }
+    }
+
+    /** 按壳排列的网格换上或者改变立方体数之后更新状态 */
+    private void applyLatticeCubeFactor(int cubeFactor) {
+        mMemoryBudget.setReservedBytes(mMemoryBudget.estimate(cubeFactor, MESH_LAYOUT_LATTICE, true).getTotalBytes());
+        mActualCubeFactor = cubeFactor;
+    }
+
+    private void putCubeGridData(CubeGridChunks chunks, float[] cubeNormals, float[] cubeTextureCoordinates, FloatBuffer out)
+            throws InterruptedException {
+        // 线程池只在mSingleThreadedExecutor上关闭，这里检查之后不会再关闭
+        if (mUseParallelGeneration && !mGridExecutor.isShutdown()) {
+            mParallelGridBuilder.putCubeGridFaceData(chunks, cubeNormals, cubeTextureCoordinates, out);
+        } else {
+            chunks.putCubeGridFaceData(cubeNormals, cubeTextureCoordinates, out);
+        }
+        // 更粗的级别加起来只有第0级的几分之一，不需要并行
+        chunks.putLodFaceData(cubeNormals, cubeTextureCoordinates, out);
+    }
+
+    /**
+     * 按级别和方向分段写入一个立方体的数据：每一级中每个方向的VERTICES_PER_FACE个顶点重复这一级的盒子数次
+     */
+    private static void putRepeatedFaces(float[] cubeData, CubeGridChunks chunks, FloatBuffer out) {
+        final int floatsPerFace = cubeData.length / ShapeBuilder.FACE_COUNT;
+        for (int level = 0; level < CubeGridChunks.LOD_COUNT; level++) {
+            final int boxCount = chunks.getFirstBox(level, chunks.getChunkCount());
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                CubeGridReplicator.putRepeated(Arrays.copyOfRange(cubeData, face * floatsPerFace, (face + 1) * floatsPerFace),
+                        boxCount, out);
             }
         }
     }
 
+    /**
+     * 按级别、方向和块的顺序生成压缩格式的立方体网格。每次只生成一块中一个方向的float数据再压缩，临时内存只需要这么大
+     */
+    static ByteBuffer packCubeGridData(DirectBufferPool bufferPool, CubeGridChunks chunks, float[] cubeNormals, float[] cubeTextureCoordinates) {
+        final int boxCount = chunks.getMeshBoxCount();
+        final int chunkSize = Math.min(chunks.getChunkSize(), chunks.getCubeFactor());
+        final ByteBuffer packedBuffer = bufferPool.acquire(
+                boxCount * ShapeBuilder.VERTICES_PER_CUBE * VertexPacker.PACKED_BYTES_PER_VERTEX, false);
+        final FloatBuffer slice;
+        try {
+            slice = FloatBuffer.allocate(
+                    ShapeBuilder.getCubeGridDataLength(chunkSize, cubeNormals, cubeTextureCoordinates) / ShapeBuilder.FACE_COUNT);
+        } catch (OutOfMemoryError error) {
+            bufferPool.release(packedBuffer);
+            throw error;
+        }
+
+        for (int level = 0; level < CubeGridChunks.LOD_COUNT; level++) {
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+                    slice.clear();
+                    chunks.putLodFaceData(level, face, chunk, chunk + 1, cubeNormals, cubeTextureCoordinates, slice);
+                    slice.flip();
+                    VertexPacker.packPositionNormalTexture(slice, PACKED_POSITION_SCALE_OFFSET[0], PACKED_POSITION_SCALE_OFFSET[1], packedBuffer);
+                }
+            }
+        }
+
+        packedBuffer.position(0);
+        return packedBuffer;
+    }
+
+    /**
+     * 新的Cubes上传完之前继续绘制旧的。还没有换上的Cubes被新的请求替换时直接释放
+     */
+    private void setPendingCubes(Cubes cubes, Runnable onSwappedIn) {
+        mCubes.setBack(cubes, onSwappedIn);
+        mLattice = cubes instanceof CubesLattice ? (CubesLattice) cubes : null;
+        mUploader.resetStatistics();
+    }
+
+    /** 在每帧开始时调用，新的Cubes上传完之后换掉旧的 */
+    private void swapInPendingCubes() {
+        if (mCubes.swapIfReady()) {
+            mLessonSevenActivity.updateUploadStatus(mUploader.getUploadFrameCount(), mUploader.getMaxFrameUploadNanos(),
+                    mRebuildGlNanos + mUploader.getTotalUploadNanos());
+        }
+    }
+
+    /**
+     * 只有普通网格的浮点格式可以选择是否使用VBO和跨度，索引、压缩格式和其他网格模式总是从VBO绘制，数据交错存放
+     */
+    static boolean canToggleVbosAndStride(int meshLayout) {
+        return meshLayout == MESH_LAYOUT_POSITIONS || meshLayout == MESH_LAYOUT_INTERLEAVED;
+    }
+
+    /** 新的Cubes换上之后报告实际使用的VBO和跨度，不能选择时按钮不可用 */
+    private void reportVboAndStrideStatus(int meshLayout, boolean requestedUseVbos, boolean requestedUseStride) {
+        final boolean canToggle = canToggleVbosAndStride(meshLayout);
+        mUseVBOs = requestedUseVbos || !canToggle;
+        mLessonSevenActivity.updateVboStatus(mUseVBOs, canToggle);
+
+        mUseStride = requestedUseStride || !canToggle;
+        mLessonSevenActivity.updateStrideStatus(mUseStride, canToggle);
+    }
+
+    static int getMeshLayout(boolean useStride, boolean useIndices, boolean usePacked, int gridMode) {
+        if (gridMode == GRID_MODE_INSTANCED) {
+            return MESH_LAYOUT_INSTANCED;
+        } else if (gridMode == GRID_MODE_PROCEDURAL) {
+            return MESH_LAYOUT_PROCEDURAL;
+        } else if (gridMode == GRID_MODE_LATTICE) {
+            return MESH_LAYOUT_LATTICE;
+        } else if (useIndices) {
+            return MESH_LAYOUT_INDEXED;
+        } else if (usePacked) {
+            return MESH_LAYOUT_PACKED;
+        } else if (useStride) {
+            return MESH_LAYOUT_INTERLEAVED;
+        } else {
+            return MESH_LAYOUT_POSITIONS;
+        }
+    }
+
+    private int getRequestedMeshLayout() {
+        return getMeshLayout(mLastRequestedUseStride, mLastRequestedUseIndices, mLastRequestedUsePacked, mLastRequestedGridMode);
+    }
+
+    /**
+     * 切换模式之后检查最后一次请求放不放得下，放不下时降低立方体数
+     *
+     * @return 连一个立方体都放不下时返回false，调用者需要撤销这次切换
+     */
+    private boolean fitRequestToBudget() {
+        final int cubeFactor = mMemoryBudget.getLargestCubeFactor(getRequestedMeshLayout(), mLastRequestedUseVBOs,
+                mLastRequestedCubeFactor);
+        if (cubeFactor == 0) {
+            reportMemoryStatus(true);
+            return false;
+        }
+
+        mLastRequestedCubeFactor = cubeFactor;
+        return true;
+    }
+
+    /** 把最后一次请求预计需要的内存报告给界面 */
+    private void reportMemoryStatus(boolean refused) {
+        reportMemoryStatus(mLastRequestedCubeFactor, getRequestedMeshLayout(), mLastRequestedUseVBOs, refused);
+    }
+
+    /** 可以在任何线程调用 */
+    private void reportMemoryStatus(int cubeFactor, int meshLayout, boolean useVbos, boolean refused) {
+        final MeshMemoryBudget.Footprint footprint = mMemoryBudget.estimate(cubeFactor, meshLayout, useVbos);
+        mLessonSevenActivity.updateMemoryStatus(cubeFactor, footprint.getHeapBytes(),
+                footprint.getDirectBytes(), footprint.getGpuBytes(), mMemoryBudget.getBudgetBytes(), refused);
+    }
+
+    private void releaseAll(Buffer[] buffers) {
+        for (Buffer buffer : buffers) {
+            mBufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 在UI线程调用，下一帧在OpenGL线程执行
+     *
+     * @return 队列满了时返回false，命令被丢弃
+     */
+    public boolean postCommand(int type) {
+        return mUiCommands.offer(type);
+    }
+
+    /** 带一个整数参数的命令，比如打开或关闭选项 */
+    public boolean postCommand(int type, int intArg) {
+        return mUiCommands.offer(type, intArg);
+    }
+
+    /**
+     * 在UI线程调用，偏移在下一帧加到旋转上
+     *
+     * @return 队列满了时返回false，调用者保留偏移，和下一次的偏移一起发送
+     */
+    public boolean postRotation(float deltaX, float deltaY) {
+        return mUiCommands.offer(CMD_ROTATE, deltaX, deltaY);
+    }
+
+    /**
+     * 在mSingleThreadedExecutor上调用，把在OpenGL线程创建Cubes的工作交给下一帧。
+     * 生成请求都是OpenGL线程处理命令时发出的，每次生成最多交出一个网格，队列满时只需要等OpenGL线程画完这一帧
+     *
+     * @return 等待时被中断返回false，网格没有交出
+     */
+    private boolean postMeshSwap(Runnable swap) {
+        while (!mMeshCommands.offer(CMD_SWAP_MESH, swap)) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void decreaseCubeCount() {
         if (mLastRequestedCubeFactor > 1) {
-            generateCubes(--mLastRequestedCubeFactor, false, false);
+            --mLastRequestedCubeFactor;
+            generateCubes();
         }
     }
 
     public void increaseCubeCount() {
-        if (mLastRequestedCubeFactor < 16) {
-            generateCubes(++mLastRequestedCubeFactor, false, false);
+        if (mMemoryBudget.fits(mLastRequestedCubeFactor + 1, getRequestedMeshLayout(), mLastRequestedUseVBOs)) {
+            ++mLastRequestedCubeFactor;
+            generateCubes();
+        } else {
+            reportMemoryStatus(true);
         }
     }
 
     public void toggleVBOs() {
-        generateCubes(mLastRequestedCubeFactor, true, false);
+        // 按钮变为不可用之前的点击不重新生成同样的网格
+        if (!canToggleVbosAndStride(getRequestedMeshLayout())) {
+            return;
+        }
+        mLastRequestedUseVBOs = !mLastRequestedUseVBOs;
+        if (!fitRequestToBudget()) {
+            mLastRequestedUseVBOs = !mLastRequestedUseVBOs;
+            return;
+        }
+        generateCubes();
+    }
+
+    public MeshMemoryBudget getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    /**
+     * 需要和GLSurfaceView.setEGLContextFactory()使用同一个工厂，在表面创建之前设置
+     */
+    public void setSharedContextFactory(SharedEglContextFactory contextFactory) {
+        mContextFactory = contextFactory;
+    }
+
+    public void setBackgroundUploads(boolean useBackgroundUploads) {
+        mUseBackgroundUploads = useBackgroundUploads;
+    }
+
+    public boolean isBackgroundUploads() {
+        return mUseBackgroundUploads;
+    }
+
+    /** VBO上传器，可以调整每帧上传的字节数 */
+    public ChunkedBufferUploader getUploader() {
+        return mUploader;
+    }
+
+    /** 重新生成的调度器，可以读取请求、合并、放弃和完成的次数 */
+    public LatestRequestScheduler<?> getRegenerationScheduler() {
+        return mRegenerationScheduler;
+    }
+
+    /** 网格缓存，可以读取命中、未命中和淘汰次数，或者调整字节预算 */
+    public MeshCache getMeshCache() {
+        return mMeshCache;
+    }
+
+    /**
+     * Activity销毁时调用，关闭并行生成的线程池，清空网格缓存并丢弃池中空闲的缓冲区。
+     * 排在已经提交的生成之后，之后的生成改为在一个线程上进行
+     */
+    public void shutdown() {
+        mSingleThreadedExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mGridExecutor.shutdown();
+                mMeshCache.clear();
+                mBufferPool.trim();
+            }
+        });
+    }
+
+    /** 系统内存紧张时调用，丢弃池中空闲的缓冲区，使用中的和缓存的不受影响 */
+    public void trimMemory() {
+        mBufferPool.trim();
+    }
+
+    public void setParallelGeneration(boolean useParallelGeneration) {
+        mUseParallelGeneration = useParallelGeneration;
+    }
+
+    public boolean isParallelGeneration() {
+        return mUseParallelGeneration;
+    }
+
+    /**
+     * 块内的立方体按Morton码排列，空间上相邻的立方体在缓冲区中也靠近。下一次生成网格时生效，
+     * 缓存的网格是另一种顺序，所以同时清空网格缓存
+     */
+    public void setMortonOrder(final boolean useMortonOrder) {
+        mSingleThreadedExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (mUseMortonOrder != useMortonOrder) {
+                    mUseMortonOrder = useMortonOrder;
+                    mMeshCache.clear();
+                }
+            }
+        });
+    }
+
+    /** 已经生效的排列顺序，setMortonOrder()在生成线程上生效 */
+    public boolean isMortonOrder() {
+        return mUseMortonOrder;
+    }
+
+    /** 关闭时所有块都绘制每个立方体 */
+    public void setLevelOfDetail(boolean useLevelOfDetail) {
+        mUseLevelOfDetail = useLevelOfDetail;
+    }
+
+    public boolean isLevelOfDetail() {
+        return mUseLevelOfDetail;
     }
 
     public void toggleStride() {
-        generateCubes(mLastRequestedCubeFactor, false, true);
+        if (!canToggleVbosAndStride(getRequestedMeshLayout())) {
+            return;
+        }
+        mLastRequestedUseStride = !mLastRequestedUseStride;
+        if (!fitRequestToBudget()) {
+            mLastRequestedUseStride = !mLastRequestedUseStride;
+            return;
+        }
+        generateCubes();
+    }
+
+    public void toggleGridMode() {
+        final int previousGridMode = mLastRequestedGridMode;
+        mLastRequestedGridMode = (mLastRequestedGridMode + 1) % GRID_MODE_COUNT;
+        if (!fitRequestToBudget()) {
+            mLastRequestedGridMode = previousGridMode;
+            return;
+        }
+        generateCubes();
+    }
+
+    public void togglePacked() {
+        mLastRequestedUsePacked = !mLastRequestedUsePacked;
+        if (!fitRequestToBudget()) {
+            mLastRequestedUsePacked = !mLastRequestedUsePacked;
+            return;
+        }
+        generateCubes();
+    }
+
+    public void toggleDepthSorting() {
+        mSortFrontToBack = !mSortFrontToBack;
+        mLessonSevenActivity.updateDepthSortStatus(mSortFrontToBack);
+    }
+
+    public void toggleIndices() {
+        mLastRequestedUseIndices = !mLastRequestedUseIndices;
+        if (!fitRequestToBudget()) {
+            mLastRequestedUseIndices = !mLastRequestedUseIndices;
+            return;
+        }
+        generateCubes();
     }
 
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // 旧上下文中的缓冲区已经不存在，正在绘制和准备中的网格都需要重新创建。
+        // 不能删除它们的缓冲区，也不能继续上传，新的上下文可能已经把同样的编号分配给了新的缓冲区
+        mCubes.discardAll();
+        mUploader.cancelAll();
+        mLattice = null;
+        mSingleThreadedExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                mLatticeDataFactor = 0;
+            }
+        });
+
         mLastRequestedCubeFactor = mActualCubeFactor = 3;
-        generateCubes(mActualCubeFactor, false, false);
+        if (fitRequestToBudget()) {
+            generateCubes();
+        }
 
         // 设置背景清理颜色
         GLES20.glClearColor(0.0F, 0.0F, 0.0F, 0.0F);
@@ -315,6 +1232,31 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
         mProgramHandle = ShaderHelper.createAndLinkProgram(vertexShaderHandler, fragmentShaderHandler,
                 "a_Position", "a_Normal", "a_TexCoordinate");
 
+        // 伪实例化的程序和片段着色器共用，批大小在着色器源码前定义
+        final String instancedVertexShader = "#define INSTANCE_BATCH_SIZE " + INSTANCE_BATCH_SIZE + "\n"
+                + RawResourceReader.readTextFileFromRawResource(mLessonSevenActivity, R.raw.lesson_seven_instanced_vertex_shader);
+        final int instancedVertexShaderHandler = ShaderHelper.compileShader(GLES20.GL_VERTEX_SHADER, instancedVertexShader);
+        mInstancedProgramHandle = ShaderHelper.createAndLinkProgram(instancedVertexShaderHandler, fragmentShaderHandler,
+                "a_Position", "a_Normal", "a_TexCoordinate", "a_InstanceSlot");
+
+        mInstancedCubeMeshIdx = createInstancedCubeMesh();
+
+        final String proceduralVertexShader = RawResourceReader.readTextFileFromRawResource(mLessonSevenActivity,
+                R.raw.lesson_seven_procedural_vertex_shader);
+        final int proceduralVertexShaderHandler = ShaderHelper.compileShader(GLES20.GL_VERTEX_SHADER, proceduralVertexShader);
+        mProceduralProgramHandle = ShaderHelper.createAndLinkProgram(proceduralVertexShaderHandler, fragmentShaderHandler,
+                "a_CubeIndex");
+
+        // 新的程序可能复用旧的句柄，需要重新查询属性位置
+        mSeparateLayout.resetLocations();
+        mInterleavedLayout.resetLocations();
+        mPackedLayout.resetLocations();
+        mInstancedLayout.resetLocations();
+        mProceduralLayout.resetLocations();
+
+        // 支持共享上下文时，之后的VBO在后台线程上传
+        mBackgroundUploader = mContextFactory != null ? mContextFactory.startUploader(mRenderThreadExecutor) : null;
+
         // 加载纹理
         mAndroidDataHandle = TextureHelper.loadTexture(mLessonSevenActivity, R.drawable.usb_android);
         GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
@@ -329,6 +1271,30 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
         Matrix.setIdentityM(mAccumulatedRotation, 0);
     }
 
+    private int createInstancedCubeMesh() {
+        final FloatBuffer meshBuffer = mBufferPool.acquireFloatBuffer(
+                INSTANCE_BATCH_SIZE * ShapeBuilder.VERTICES_PER_CUBE * INSTANCED_FLOATS_PER_VERTEX, false);
+        ShapeBuilder.putInstancedCubeData(INSTANCE_BATCH_SIZE, ShapeBuilder.generateCubeNormalData(),
+                ShapeBuilder.generateTextureCoordinateData(new float[]{
+                        0.0F, 0.0F,
+                        0.0F, 1.0F,
+                        1.0F, 0.0F,
+                        0.0F, 1.0F,
+                        1.0F, 1.0F,
+                        1.0F, 0.0F
+                }), meshBuffer);
+        meshBuffer.position(0);
+
+        final int buffers[] = new int[1];
+        GLES20.glGenBuffers(1, buffers, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, meshBuffer.capacity() * BYTES_PER_FLOAT, meshBuffer, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        mBufferPool.release(meshBuffer);
+        return buffers[0];
+    }
+
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         // 设置OpenGL界面和当前视图相同的尺寸
@@ -344,23 +1310,39 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
         final float far = 1000.0F;
 
         Matrix.frustumM(mProjectionMatrix, 0, left, right, bottom, top, near, far);
+
+        // 投影后y在[-1, 1]之间，对应height个像素
+        mPixelsPerUnit = mProjectionMatrix[5] * height * 0.5F;
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        // 先换上后台生成好的网格，再处理UI线程的命令
+        mMeshCommands.drain(mCommandHandler);
+        mUiCommands.drain(mCommandHandler);
+
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-        // 设置每顶点照明程序
-        GLES20.glUseProgram(mProgramHandle);
+        // 上传这一帧预算内的VBO数据，新的立方体上传完时换上
+        mUploader.onFrame();
+        swapInPendingCubes();
+
+        // 设置每顶点照明程序，不同的Cubes可以使用自己的程序
+        final Cubes cubes = mCubes.getFront();
+        final int programHandle = cubes != null ? cubes.getProgramHandle() : mProgramHandle;
+        GLES20.glUseProgram(programHandle);
 
         // 立方体绘制的handle
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVPMatrix");
-        mMVMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVMatrix");
-        mLightPosHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_LightPos");
-        mTextureUniformHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Texture");
-        mPositionHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Position");
-        mNormalHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Normal");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_TexCoordinate");
+        mMVPMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
+        mMVMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVMatrix");
+        mLightPosHandle = GLES20.glGetUniformLocation(programHandle, "u_LightPos");
+        mTextureUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_Texture");
+        mPositionScaleHandle = GLES20.glGetUniformLocation(programHandle, "u_PositionScale");
+        mPositionOffsetHandle = GLES20.glGetUniformLocation(programHandle, "u_PositionOffset");
+
+        // float格式的位置不需要还原，压缩格式的Cubes在render()中设置自己的值
+        GLES20.glUniform1f(mPositionScaleHandle, 1.0F);
+        GLES20.glUniform3f(mPositionOffsetHandle, 0.0F, 0.0F, 0.0F);
 
         Matrix.setIdentityM(mLightModelMatrix, 0);
         Matrix.translateM(mLightModelMatrix, 0, 0.0F, 0.0F, -1.0F);
@@ -394,6 +1376,10 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
         // 传入modelview矩阵
         GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mMVPMatrix, 0);
 
+        // 眼睛在模型空间中的位置，用来跳过背对眼睛的面
+        Matrix.invertM(mInverseModelViewMatrix, 0, mMVPMatrix, 0);
+        System.arraycopy(mMVPMatrix, 0, mModelViewMatrix, 0, 16);
+
         // modelview矩阵乘以projection矩阵，结果放到MVP矩阵
         Matrix.multiplyMM(mTemporaryMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
         System.arraycopy(mTemporaryMatrix, 0, mMVPMatrix, 0, 16);
@@ -414,75 +1400,292 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
         // 通过绑定到纹理单元0，告诉纹理统一采样器在着色器中使用此纹理
         GLES20.glUniform1i(mTextureUniformHandle, 0);
 
-        if (mCubes != null) {
-            mCubes.render();
+        if (cubes != null) {
+            // 平面从MVP矩阵中取出，在模型空间中，块的包围盒不需要变换就可以测试
+            mFrustum.set(mMVPMatrix, 0);
+            final int visibleChunks = cubes.cull(mFrustum,
+                    mInverseModelViewMatrix[12], mInverseModelViewMatrix[13], mInverseModelViewMatrix[14]);
+            cubes.selectLods(mModelViewMatrix,
+                    mUseLevelOfDetail && cubes.hasFaceBuckets() ? mPixelsPerUnit : Float.POSITIVE_INFINITY);
+
+            mOverdrawEstimator.begin();
+            cubes.render();
+            mEstimatedOverdraw = mOverdrawEstimator.getOverdraw();
+
+            reportCullingStatus(visibleChunks, cubes.getChunkCount() - visibleChunks, mEstimatedOverdraw, cubes.mChunks);
         }
     }
 
-    abstract class Cubes {
-        abstract void render();
+    /**
+     * 块数、每一级的块数或者overdraw估计明显变化时才通知界面，避免每帧都向UI线程发送消息
+     */
+    private void reportCullingStatus(int visibleChunks, int culledChunks, float overdraw, CubeGridChunks chunks) {
+        // 每帧只更新字段，不分配对象
+        for (int level = 0; level < CubeGridChunks.LOD_COUNT; level++) {
+            mLodChunkCounts[level] = chunks.getLodChunkCount(level);
+        }
+        mVisibleChunkCount = visibleChunks;
+        mCulledChunkCount = culledChunks;
+
+        if (++mFramesSinceCullingReport < CULLING_REPORT_INTERVAL_FRAMES) {
+            return;
+        }
+
+        boolean changed = visibleChunks != mReportedVisibleChunkCount || culledChunks != mReportedCulledChunkCount
+                || Math.abs(overdraw - mReportedOverdraw) >= OVERDRAW_REPORT_THRESHOLD;
+        for (int level = 0; level < CubeGridChunks.LOD_COUNT; level++) {
+            changed |= mLodChunkCounts[level] != mReportedLodChunkCounts[level];
+        }
+        if (!changed) {
+            return;
+        }
+
+        mFramesSinceCullingReport = 0;
+        mReportedVisibleChunkCount = visibleChunks;
+        mReportedCulledChunkCount = culledChunks;
+        mReportedOverdraw = overdraw;
+        System.arraycopy(mLodChunkCounts, 0, mReportedLodChunkCounts, 0, CubeGridChunks.LOD_COUNT);
+        mLessonSevenActivity.updateCullingStatus(visibleChunks, culledChunks, overdraw, mReportedLodChunkCounts);
+    }
+
+    /** 最近一帧使用第level级细节层次的可见块数 */
+    public int getLodChunkCount(int level) {
+        return mLodChunkCounts[level];
+    }
+
+    /** 最近一帧按绘制顺序估计的每个像素的平均着色次数 */
+    public float getEstimatedOverdraw() {
+        return mEstimatedOverdraw;
+    }
+
+    /** 最近一帧通过视锥体测试的块数 */
+    public int getVisibleChunkCount() {
+        return mVisibleChunkCount;
+    }
+
+    /** 最近一帧被视锥体裁剪掉的块数 */
+    public int getCulledChunkCount() {
+        return mCulledChunkCount;
+    }
+
+    abstract class Cubes implements DoubleBufferedMesh.Mesh {
+        // 还没有上传完的数据，和在OpenGL线程上传的客户端缓冲区，后台上传的缓冲区由后台线程释放
+        private final ArrayList<PendingUpload> mUploads = new ArrayList<>();
+        private final ArrayList<Buffer> mUploadData = new ArrayList<>();
+
+        /** drawBoxes()的face参数，表示数据按立方体排列，绘制所有面 */
+        static final int ALL_FACES = -1;
+
+        // 立方体在缓冲区中按块排列，同时保存每块最后一次的裁剪结果。CubesLattice改变立方体数时换成新的，块数不变
+        CubeGridChunks mChunks;
 
-        abstract void release();
+        // 从前到后排列可见的块
+        private final DepthSorter mSorter;
 
-        FloatBuffer[] getBuffers(float[] cubePositions, float[] cubeNormals, float[] cubeTextureCoordinates, int generatedCubeFactor) {
-            // 首先，拷贝立方体信息到客户端浮点缓冲区
-            final FloatBuffer cubePositionsBuffer;
-            final FloatBuffer cubeNormalsBuffer;
-            final FloatBuffer cubeTextureCoordinatesBuffer;
+        Cubes(CubeGridChunks chunks) {
+            mChunks = chunks;
+            mSorter = new DepthSorter(chunks.getChunkCount());
+        }
+
+        /** 每帧在drawBoxes()之前调用一次，传入属性和uniform */
+        abstract void bind();
+
+        /**
+         * 绘制第level级中从firstBox开始的boxCount个盒子，第0级的盒子就是立方体
+         *
+         * @param face 数据按方向分段时只绘制这个方向的面；为ALL_FACES时数据按立方体排列，绘制所有面
+         */
+        abstract void drawBoxes(int level, int face, int firstBox, int boxCount);
+
+        /** 数据是否按方向分段，是的时候只绘制朝向眼睛的方向。按方向分段的数据也包含更粗的细节层次 */
+        boolean hasFaceBuckets() {
+            return true;
+        }
 
-            cubePositionsBuffer = ByteBuffer.allocateDirect(cubePositions.length * BYTES_PER_FLOAT)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            cubePositionsBuffer.put(cubePositions).position(0);
+        /** 所有drawBoxes()之后调用 */
+        void unbind() {
+        }
 
-            cubeNormalsBuffer = ByteBuffer.allocateDirect(cubeNormals.length * BYTES_PER_FLOAT * generatedCubeFactor * generatedCubeFactor * generatedCubeFactor)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            cubeNormalsBuffer.put(cubeNormals).position(0);
+        int cull(Frustum frustum, float eyeX, float eyeY, float eyeZ) {
+            return mChunks.cull(frustum, eyeX, eyeY, eyeZ);
+        }
 
-            for (int i = 0; i < (generatedCubeFactor * generatedCubeFactor * generatedCubeFactor); i++) {
-                cubeNormalsBuffer.put(cubeNormals);
+        void selectLods(float[] modelView, float pixelsPerUnit) {
+            mChunks.selectLods(modelView, 0, pixelsPerUnit);
+        }
+
+        int getChunkCount() {
+            return mChunks.getChunkCount();
+        }
+
+        /**
+         * 只绘制最后一次cull()中可见的块，按方向分段时每个方向只绘制朝向眼睛的块，每块使用selectLods()选择的级别。
+         * 同一级中块在缓冲区中连续，所以相邻的块合并成一次绘制
+         */
+        final void render() {
+            if (mChunks.getVisibleCount() == 0) {
+                return;
             }
-            cubeNormalsBuffer.position(0);
 
-            cubeTextureCoordinatesBuffer = ByteBuffer.allocateDirect(cubeTextureCoordinates.length * BYTES_PER_FLOAT * generatedCubeFactor * generatedCubeFactor * generatedCubeFactor)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            for (int i = 0; i < (generatedCubeFactor * generatedCubeFactor * generatedCubeFactor); i++) {
-                cubeTextureCoordinatesBuffer.put(cubeTextureCoordinates);
+            bind();
+
+            if (mSortFrontToBack) {
+                drawFrontToBack();
+            } else {
+                for (int chunk = 0; chunk < mChunks.getChunkCount(); chunk++) {
+                    if (mChunks.isVisible(chunk)) {
+                        addToOverdrawEstimate(chunk);
+                    }
+                }
+
+                if (hasFaceBuckets()) {
+                    for (int level = 0; level < CubeGridChunks.LOD_COUNT; level++) {
+                        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                            drawRuns(level, face);
+                        }
+                    }
+                } else {
+                    drawRuns(0, ALL_FACES);
+                }
             }
 
-            cubeTextureCoordinatesBuffer.position(0);
-            return new FloatBuffer[] {cubePositionsBuffer, cubeNormalsBuffer, cubeTextureCoordinatesBuffer};
+            unbind();
         }
 
-        FloatBuffer getInterleavedBuffer(float[] cubePositions, float[] cubeNormals, float[] cubeTextureCoordinates, int generatedCubeFactor) {
-            final int cubeDataLength = cubePositions.length
-                    + (cubeNormals.length * generatedCubeFactor * generatedCubeFactor * generatedCubeFactor)
-                    + (cubeTextureCoordinates.length * generatedCubeFactor * generatedCubeFactor * generatedCubeFactor);
-            int cubePositionOffset = 0;
-            int cubeNormalOffset = 0;
-            int cubeTextureOffset = 0;
+        /**
+         * 每块单独绘制，不能合并相邻的块，所以绘制调用更多，换来更少的片段着色
+         */
+        private void drawFrontToBack() {
+            mSorter.clear();
+            for (int chunk = 0; chunk < mChunks.getChunkCount(); chunk++) {
+                if (mChunks.isVisible(chunk)) {
+                    mSorter.add(chunk, mChunks.getViewDepth(chunk, mModelViewMatrix, 0));
+                }
+            }
+            mSorter.sort();
+
+            for (int i = 0; i < mSorter.getCount(); i++) {
+                final int chunk = mSorter.getItem(i);
+                final int level = mChunks.getLod(chunk);
+                final int firstBox = mChunks.getFirstBox(level, chunk);
+                final int boxCount = mChunks.getBoxCount(level, chunk);
+                addToOverdrawEstimate(chunk);
+
+                if (hasFaceBuckets()) {
+                    for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                        if (mChunks.isFaceVisible(chunk, face)) {
+                            drawBoxes(level, face, firstBox, boxCount);
+                        }
+                    }
+                } else {
+                    drawBoxes(level, ALL_FACES, firstBox, boxCount);
+                }
+            }
+        }
 
+        private void addToOverdrawEstimate(int chunk) {
+            mOverdrawEstimator.addBox(mMVPMatrix, 0, mChunks.getBound(chunk, 0), mChunks.getBound(chunk, 1),
+                    mChunks.getBound(chunk, 2), mChunks.getBound(chunk, 3), mChunks.getBound(chunk, 4), mChunks.getBound(chunk, 5));
+        }
 
-            final FloatBuffer cubeBuffer = ByteBuffer.allocateDirect(cubeDataLength * BYTES_PER_FLOAT)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        private void drawRuns(int level, int face) {
+            final int chunkCount = mChunks.getChunkCount();
+            int chunk = 0;
+            while (chunk < chunkCount) {
+                if (!isDrawn(chunk, level, face)) {
+                    chunk++;
+                    continue;
+                }
 
-            for (int i = 0; i < generatedCubeFactor * generatedCubeFactor * generatedCubeFactor; i++) {
-                for (int v = 0; v < 36; v++) {
-                    cubeBuffer.put(cubePositions, cubePositionOffset, POSITION_DATA_SIZE);
-                    cubePositionOffset += POSITION_DATA_SIZE;
-                    cubeBuffer.put(cubeNormals, cubeNormalOffset, NORMAL_DATA_SIZE);
-                    cubeNormalOffset += NORMAL_DATA_SIZE;
-                    cubeBuffer.put(cubeTextureCoordinates, cubeTextureOffset, TEXTURE_COORDINATE_DATA_SIZE);
-                    cubeTextureOffset += TEXTURE_COORDINATE_DATA_SIZE;
+                final int firstChunk = chunk;
+                while (chunk < chunkCount && isDrawn(chunk, level, face)) {
+                    chunk++;
                 }
 
-                // 为每个立方体重置纹理和法线数据
-                cubeNormalOffset = 0;
-                cubeTextureOffset = 0;
+                final int firstBox = mChunks.getFirstBox(level, firstChunk);
+                drawBoxes(level, face, firstBox, mChunks.getFirstBox(level, chunk) - firstBox);
             }
+        }
 
-            cubeBuffer.position(0);
+        private boolean isDrawn(int chunk, int level, int face) {
+            if (mChunks.getLod(chunk) != level) {
+                return false;
+            }
+            return face == ALL_FACES ? mChunks.isVisible(chunk) : mChunks.isFaceVisible(chunk, face);
+        }
 
-            return cubeBuffer;
+        /** 第level级方向face中第firstBox个盒子的面在缓冲区中的第一个顶点 */
+        int getFirstVertex(int level, int face, int firstBox) {
+            return mChunks.getFaceIndex(level, face, firstBox) * ShapeBuilder.VERTICES_PER_FACE;
+        }
+
+        @Override
+        public abstract void release();
+
+        /** 缓冲区随旧的上下文一起删除了，只取消上传并释放客户端缓冲区 */
+        @Override
+        public void discard() {
+            cancelUploads();
+        }
+
+        int getProgramHandle() {
+            return mProgramHandle;
+        }
+
+        /**
+         * 分配缓冲区并排队上传，接管调用者对data的一个引用，上传完或者取消时释放。
+         * 后台上传时由后台线程在glFinish之后释放，取消时后台线程可能还在读取data
+         */
+        void upload(int target, int bufferId, final Buffer data) {
+            if (canUploadInBackground() && mUseBackgroundUploads && mBackgroundUploader != null && mBackgroundUploader.isShared()) {
+                // 后台线程分配好存储之后才能绘制，所以这里不需要先glBufferData
+                mUploads.add(mBackgroundUploader.upload(target, bufferId, data, GLES20.GL_STATIC_DRAW, null, new Runnable() {
+                    @Override
+                    public void run() {
+                        mBufferPool.release(data);
+                    }
+                }));
+            } else {
+                mUploads.add(mUploader.upload(target, bufferId, data, GLES20.GL_STATIC_DRAW));
+                mUploadData.add(data);
+            }
+        }
+
+        /** 为false时总是在OpenGL线程分配存储，upload()返回之后就可以写入缓冲区 */
+        boolean canUploadInBackground() {
+            return true;
+        }
+
+        /** 还有没有确认完成的上传，这时客户端缓冲区还没有释放 */
+        boolean hasPendingUploads() {
+            return !mUploads.isEmpty();
+        }
+
+        /**
+         * @return 所有数据都已经上传，这时释放客户端缓冲区
+         */
+        @Override
+        public boolean finishUploads() {
+            for (PendingUpload upload : mUploads) {
+                if (!upload.isComplete()) {
+                    return false;
+                }
+            }
+            cancelUploads();
+            return true;
+        }
+
+        /** 在release()中调用，取消还没有完成的上传 */
+        void cancelUploads() {
+            for (PendingUpload upload : mUploads) {
+                upload.cancel();
+            }
+            mUploads.clear();
+
+            for (Buffer data : mUploadData) {
+                mBufferPool.release(data);
+            }
+            mUploadData.clear();
         }
     }
 
@@ -491,210 +1694,454 @@ public class LessonSevenRenderer implements GLSurfaceView.Renderer {
         private FloatBuffer mCubeNormals;
         private FloatBuffer mCubeTextureCoordinates;
 
-        CubesClientSide(float[] cubePositions, float[] cubeNormals, float[] cubeTextureCoordinates, int generatedCubeFactor) {
-            FloatBuffer[] buffers = getBuffers(cubePositions, cubeNormals, cubeTextureCoordinates, generatedCubeFactor);
+        CubesClientSide(CubeGridChunks chunks, FloatBuffer cubePositions, FloatBuffer cubeNormals, FloatBuffer cubeTextureCoordinates) {
+            super(chunks);
 
-            mCubePositions = buffers[0];
-            mCubeNormals = buffers[1];
-            mCubeTextureCoordinates = buffers[2];
+            // 缓冲区属于调用者，需要保留到release()
+            mBufferPool.retain(cubePositions);
+            mBufferPool.retain(cubeNormals);
+            mBufferPool.retain(cubeTextureCoordinates);
+            mCubePositions = cubePositions;
+            mCubeNormals = cubeNormals;
+            mCubeTextureCoordinates = cubeTextureCoordinates;
         }
 
         @Override
-        void render() {
-            // 传入位置信息
-            GLES20.glEnableVertexAttribArray(mPositionHandle);
-            GLES20.glVertexAttribPointer(mPositionHandle, POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, 0, mCubePositions);
-
-            // 传入法线信息
-            GLES20.glEnableVertexAttribArray(mNormalHandle);
-            GLES20.glVertexAttribPointer(mNormalHandle, NORMAL_DATA_SIZE, GLES20.GL_FLOAT, false, 0, mCubeNormals);
-
-            // 传入纹理信息
-            GLES20.glEnableVertexAttribArray(mTextureUniformHandle);
-            GLES20.glVertexAttribPointer(mTextureCoordinateHandle, TEXTURE_COORDINATE_DATA_SIZE, GLES20.GL_FLOAT, false,
-                    0, mCubeTextureCoordinates);
+        void bind() {
+            // 传入位置、法线和纹理信息
+            mSeparateLayout.bind(mProgramHandle, mCubePositions, mCubeNormals, mCubeTextureCoordinates);
+        }
 
-            // 绘制立方体
-            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, mActualCubeFactor * mActualCubeFactor * mActualCubeFactor * 36);
+        @Override
+        void drawBoxes(int level, int face, int firstBox, int boxCount) {
+            // 绘制这个方向的面
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, getFirstVertex(level, face, firstBox), boxCount * ShapeBuilder.VERTICES_PER_FACE);
         }
 
         @Override
-        void release() {
-            mCubePositions.limit(0);
+        public void release() {
+            mBufferPool.release(mCubePositions);
             mCubePositions = null;
-            mCubeNormals.limit(0);
+            mBufferPool.release(mCubeNormals);
             mCubeNormals = null;
-            mCubeTextureCoordinates.limit(0);
+            mBufferPool.release(mCubeTextureCoordinates);
             mCubeTextureCoordinates = null;
         }
+
+        @Override
+        public void discard() {
+            // 没有OpenGL对象
+            release();
+        }
     }
 
 
     class CubesClientSideWithStride extends Cubes {
         private FloatBuffer mCubeBuffer;
 
-        CubesClientSideWithStride(float[] cubePositions, float[] cubeNormals, float[] cubeTextureCoordinates, int generatedCubeFactor) {
-            mCubeBuffer = getInterleavedBuffer(cubePositions, cubeNormals, cubeTextureCoordinates, generatedCubeFactor);
+        CubesClientSideWithStride(CubeGridChunks chunks, FloatBuffer cubeBuffer) {
+            super(chunks);
+            mBufferPool.retain(cubeBuffer);
+            mCubeBuffer = cubeBuffer;
         }
 
         @Override
-        public void render() {
-            final int stride = (POSITION_DATA_SIZE + NORMAL_DATA_SIZE + TEXTURE_COORDINATE_DATA_SIZE) * BYTES_PER_FLOAT;
-
-            // 传入位置信息
-            mCubeBuffer.position(0);
-            GLES20.glEnableVertexAttribArray(mPositionHandle);
-            GLES20.glVertexAttribPointer(mPositionHandle, POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, stride, mCubeBuffer);
-
-            // 传入法线信息
-            mCubeBuffer.position(POSITION_DATA_SIZE);
-            GLES20.glEnableVertexAttribArray(mNormalHandle);
-            GLES20.glVertexAttribPointer(mNormalHandle, NORMAL_DATA_SIZE, GLES20.GL_FLOAT, false, stride, mCubeBuffer);
-
-            // 传入纹理信息
-            mCubeBuffer.position(POSITION_DATA_SIZE + NORMAL_DATA_SIZE);
-            GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-            GLES20.glVertexAttribPointer(mTextureCoordinateHandle, TEXTURE_COORDINATE_DATA_SIZE, GLES20.GL_FLOAT, false,
-                    stride, mCubeBuffer);
+        void bind() {
+            // 传入交错的位置、法线和纹理信息
+            mInterleavedLayout.bind(mProgramHandle, mCubeBuffer);
+        }
 
-            // 绘制立方体
-            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, mActualCubeFactor * mActualCubeFactor * mActualCubeFactor * 36);
+        @Override
+        void drawBoxes(int level, int face, int firstBox, int boxCount) {
+            // 绘制这个方向的面
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, getFirstVertex(level, face, firstBox), boxCount * ShapeBuilder.VERTICES_PER_FACE);
         }
 
         @Override
         public void release() {
-            mCubeBuffer.limit(0);
+            mBufferPool.release(mCubeBuffer);
             mCubeBuffer = null;
         }
+
+        @Override
+        public void discard() {
+            // 没有OpenGL对象
+            release();
+        }
     }
 
     class CubesWithVbo extends Cubes {
-        final int mCubePositionsBufferIdx;
-        final int mCubeNormalsBufferIdx;
-        final int mCubeTexCoordsBufferIdx;
-
-        CubesWithVbo(float[] cubePositions, float[] cubeNormals, float[] cubeTextureCoordinates, int generatedCubeFactor) {
-            FloatBuffer[] floatBuffers = getBuffers(cubePositions, cubeNormals, cubeTextureCoordinates, generatedCubeFactor);
+        final int[] mCubeBufferIds;
 
-            FloatBuffer cubePositionsBuffer = floatBuffers[0];
-            FloatBuffer cubeNormalsBuffer = floatBuffers[1];
-            FloatBuffer cubeTextureCoordinatesBuffer = floatBuffers[2];
+        CubesWithVbo(CubeGridChunks chunks, FloatBuffer cubePositionsBuffer, FloatBuffer cubeNormalsBuffer,
+                     FloatBuffer cubeTextureCoordinatesBuffer) {
+            super(chunks);
 
-            // 第二， 拷贝这些缓冲到OpenGL的内存。然后，我们不需要再保留客户端缓冲区
+            // 分帧拷贝这些缓冲到OpenGL的内存。上传完之后，我们不需要再保留客户端缓冲区
             final int buffers[] = new int[3];
             GLES20.glGenBuffers(3, buffers, 0);
 
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, cubePositionsBuffer.capacity() * BYTES_PER_FLOAT, cubePositionsBuffer, GLES20.GL_STATIC_DRAW);
+            // 缓冲区属于调用者，上传需要自己的引用
+            mBufferPool.retain(cubePositionsBuffer);
+            upload(GLES20.GL_ARRAY_BUFFER, buffers[0], cubePositionsBuffer);
+            mBufferPool.retain(cubeNormalsBuffer);
+            upload(GLES20.GL_ARRAY_BUFFER, buffers[1], cubeNormalsBuffer);
+            mBufferPool.retain(cubeTextureCoordinatesBuffer);
+            upload(GLES20.GL_ARRAY_BUFFER, buffers[2], cubeTextureCoordinatesBuffer);
+
+            mCubeBufferIds = buffers;
+        }
+
+        @Override
+        void bind() {
+            // 传入位置、法线和纹理信息，每种数据在自己的缓冲区中
+            mSeparateLayout.bind(mProgramHandle, mCubeBufferIds);
+        }
 
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[1]);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, cubeNormalsBuffer.capacity() * BYTES_PER_FLOAT, cubeNormalsBuffer, GLES20.GL_STATIC_DRAW);
+        @Override
+        void drawBoxes(int level, int face, int firstBox, int boxCount) {
+            // 绘制这个方向的面
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, getFirstVertex(level, face, firstBox), boxCount * ShapeBuilder.VERTICES_PER_FACE);
+        }
 
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[2]);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, cubeTextureCoordinatesBuffer.capacity() * BYTES_PER_FLOAT, cubeTextureCoordinatesBuffer,
-                    GLES20.GL_STATIC_DRAW);
+        @Override
+        public void release() {
+            cancelUploads();
 
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            // 从OpenGL的内存中删除缓冲区
+            GLES20.glDeleteBuffers(mCubeBufferIds.length, mCubeBufferIds, 0);
+        }
+    }
+
+    class CubesWithVboWithStride extends Cubes {
+        final int[] mCubeBufferIds;
+
+        CubesWithVboWithStride(CubeGridChunks chunks, FloatBuffer cubeBuffer) {
+            super(chunks);
 
-            mCubePositionsBufferIdx = buffers[0];
-            mCubeNormalsBufferIdx = buffers[1];
-            mCubeTexCoordsBufferIdx = buffers[2];
+            // 第二， 分帧拷贝这些缓冲到OpenGL的内存。上传完之后，我们不需要再保留客户端缓冲区
+            final int buffers[] = new int[1];
+            GLES20.glGenBuffers(1, buffers, 0);
 
-            cubePositionsBuffer.limit(0);
-            cubePositionsBuffer = null;
-            cubeNormalsBuffer.limit(0);
-            cubeNormalsBuffer = null;
-            cubeTextureCoordinatesBuffer.limit(0);
-            cubeTextureCoordinatesBuffer = null;
+            mBufferPool.retain(cubeBuffer);
+            upload(GLES20.GL_ARRAY_BUFFER, buffers[0], cubeBuffer);
+
+            mCubeBufferIds = buffers;
         }
 
         @Override
-        public void render() {
-            // 传入位置信息
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mCubePositionsBufferIdx);
-            GLES20.glEnableVertexAttribArray(mPositionHandle);
-            GLES20.glVertexAttribPointer(mPositionHandle, POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, 0, 0);
+        void bind() {
+            // 传入交错的位置、法线和纹理信息
+            mInterleavedLayout.bind(mProgramHandle, mCubeBufferIds);
+        }
 
-            // 传入法线信息
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mCubeNormalsBufferIdx);
-            GLES20.glEnableVertexAttribArray(mNormalHandle);
-            GLES20.glVertexAttribPointer(mNormalHandle, NORMAL_DATA_SIZE, GLES20.GL_FLOAT, false, 0, 0);
+        @Override
+        void drawBoxes(int level, int face, int firstBox, int boxCount) {
+            // 绘制这个方向的面
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, getFirstVertex(level, face, firstBox), boxCount * ShapeBuilder.VERTICES_PER_FACE);
+        }
 
-            // 传入纹理信息
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mCubeTexCoordsBufferIdx);
-            GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-            GLES20.glVertexAttribPointer(mTextureCoordinateHandle, TEXTURE_COORDINATE_DATA_SIZE, GLES20.GL_FLOAT, false,
-                    0, 0);
+        @Override
+        public void release() {
+            cancelUploads();
 
-            // 清理当前绑定的缓冲（因此以后的OpenGL调用不在使用此缓冲区）
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            // 从OpenGL的内存中删除缓冲区
+            GLES20.glDeleteBuffers(mCubeBufferIds.length, mCubeBufferIds, 0);
+        }
+    }
+
+    class CubesIndexedWithVbo extends Cubes {
+        final int[] mCubeBufferIds;
+        final int mCubeIndexBufferIdx;
+
+        CubesIndexedWithVbo(CubeGridChunks chunks, FloatBuffer cubeBuffer, ShortBuffer cubeIndexBuffer) {
+            super(chunks);
+
+            // 分帧拷贝顶点和索引到OpenGL的内存。上传完之后，我们不需要再保留客户端缓冲区
+            final int buffers[] = new int[2];
+            GLES20.glGenBuffers(2, buffers, 0);
+
+            mBufferPool.retain(cubeBuffer);
+            upload(GLES20.GL_ARRAY_BUFFER, buffers[0], cubeBuffer);
+
+            mBufferPool.retain(cubeIndexBuffer);
+            upload(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1], cubeIndexBuffer);
+
+            mCubeBufferIds = new int[] { buffers[0] };
+            mCubeIndexBufferIdx = buffers[1];
+        }
+
+        @Override
+        void bind() {
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mCubeIndexBufferIdx);
+        }
 
-            // 绘制立方体
-            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, mActualCubeFactor * mActualCubeFactor * mActualCubeFactor * 36);
+        @Override
+        void drawBoxes(int level, int face, int firstBox, int boxCount) {
+            // GLES2的short索引最多65536个顶点，所以按面分批绘制，每批移动属性指针的起点并复用同一个索引缓冲。
+            // 批次的边界固定，范围从批次中间开始时从索引缓冲的中间开始
+            final int firstFace = mChunks.getFaceIndex(level, face, firstBox);
+            final int endFace = firstFace + boxCount;
+            int faceIndex = firstFace;
+            while (faceIndex < endFace) {
+                final int batchStart = faceIndex - faceIndex % ShapeBuilder.MAX_FACES_PER_SHORT_INDEX_BATCH;
+                final int batchEnd = Math.min(batchStart + ShapeBuilder.MAX_FACES_PER_SHORT_INDEX_BATCH, endFace);
+
+                // 传入这一批的位置、法线和纹理信息
+                mInterleavedLayout.bind(mProgramHandle, mCubeBufferIds, batchStart * ShapeBuilder.INDEXED_VERTICES_PER_FACE);
+
+                // 绘制这个方向的面，偏移以字节为单位
+                GLES20.glDrawElements(GLES20.GL_TRIANGLES, (batchEnd - faceIndex) * ShapeBuilder.INDICES_PER_FACE, GLES20.GL_UNSIGNED_SHORT,
+                        (faceIndex - batchStart) * ShapeBuilder.INDICES_PER_FACE * BYTES_PER_SHORT);
+                faceIndex = batchEnd;
+            }
+        }
+
+        @Override
+        void unbind() {
+            // 清理当前绑定的缓冲（因此以后的OpenGL调用不在使用此缓冲区）
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
         }
 
         @Override
         public void release() {
+            cancelUploads();
+
             // 从OpenGL的内存中删除缓冲区
-            final int[] buffersToDelete = new int[] { mCubePositionsBufferIdx, mCubeNormalsBufferIdx,
-                    mCubeTexCoordsBufferIdx };
+            final int[] buffersToDelete = new int[] { mCubeBufferIds[0], mCubeIndexBufferIdx };
             GLES20.glDeleteBuffers(buffersToDelete.length, buffersToDelete, 0);
         }
     }
 
-    class CubesWithVboWithStride extends Cubes {
-        final int mCubeBufferIdx;
+    class CubesPackedWithVbo extends Cubes {
+        final int[] mCubeBufferIds;
 
-        CubesWithVboWithStride(float[] cubePositions, float[] cubeNormals, float[] cubeTextureCoordinates, int generatedCubeFactor) {
-            FloatBuffer cubeBuffer = getInterleavedBuffer(cubePositions, cubeNormals, cubeTextureCoordinates, generatedCubeFactor);
+        CubesPackedWithVbo(CubeGridChunks chunks, ByteBuffer packedCubeBuffer) {
+            super(chunks);
 
-            // 第二， 拷贝这些缓冲到OpenGL的内存。然后，我们不需要再保留客户端缓冲区
+            // 分帧拷贝压缩后的缓冲到OpenGL的内存。上传完之后，我们不需要再保留客户端缓冲区
             final int buffers[] = new int[1];
             GLES20.glGenBuffers(1, buffers, 0);
 
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, cubeBuffer.capacity() * BYTES_PER_FLOAT, cubeBuffer, GLES20.GL_STATIC_DRAW);
+            mBufferPool.retain(packedCubeBuffer);
+            upload(GLES20.GL_ARRAY_BUFFER, buffers[0], packedCubeBuffer);
 
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            mCubeBufferIds = buffers;
+        }
 
-            mCubeBufferIdx = buffers[0];
+        @Override
+        void bind() {
+            // 传入位置的还原参数
+            GLES20.glUniform1f(mPositionScaleHandle, PACKED_POSITION_SCALE_OFFSET[0]);
+            GLES20.glUniform3f(mPositionOffsetHandle, PACKED_POSITION_SCALE_OFFSET[1], PACKED_POSITION_SCALE_OFFSET[1], PACKED_POSITION_SCALE_OFFSET[1]);
 
-            cubeBuffer.limit(0);
-            cubeBuffer = null;
+            // 传入压缩的位置、法线和纹理信息
+            mPackedLayout.bind(mProgramHandle, mCubeBufferIds);
         }
 
         @Override
-        public void render() {
-            final int stride = (POSITION_DATA_SIZE + NORMAL_DATA_SIZE + TEXTURE_COORDINATE_DATA_SIZE) * BYTES_PER_FLOAT;
+        void drawBoxes(int level, int face, int firstBox, int boxCount) {
+            // 绘制这个方向的面
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, getFirstVertex(level, face, firstBox), boxCount * ShapeBuilder.VERTICES_PER_FACE);
+        }
 
-            // 传入位置信息
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mCubeBufferIdx);
-            GLES20.glEnableVertexAttribArray(mPositionHandle);
-            GLES20.glVertexAttribPointer(mPositionHandle, POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, stride, 0);
+        @Override
+        public void release() {
+            cancelUploads();
 
-            // 传入法线信息
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mCubeBufferIdx);
-            GLES20.glEnableVertexAttribArray(mNormalHandle);
-            GLES20.glVertexAttribPointer(mNormalHandle, NORMAL_DATA_SIZE, GLES20.GL_FLOAT, false, stride, POSITION_DATA_SIZE * BYTES_PER_FLOAT);
+            // 从OpenGL的内存中删除缓冲区
+            GLES20.glDeleteBuffers(mCubeBufferIds.length, mCubeBufferIds, 0);
+        }
+    }
 
-            // 传入纹理信息
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mCubeBufferIdx);
-            GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-            GLES20.glVertexAttribPointer(mTextureCoordinateHandle, TEXTURE_COORDINATE_DATA_SIZE, GLES20.GL_FLOAT, false,
-                    stride, (POSITION_DATA_SIZE + NORMAL_DATA_SIZE) * BYTES_PER_FLOAT);
+    class CubesProceduralWithVbo extends Cubes {
+        final int[] mCubeBufferIds;
+        private final float[] mCubeTextureCoordinates;
+        float mCubeSize;
 
-            // 清理当前绑定的缓冲（因此以后的OpenGL调用不在使用此缓冲区）
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        /**
+         * @param cubeTextureCoordinates 每个顶点序号的纹理坐标，和其他网格使用的相同
+         */
+        CubesProceduralWithVbo(CubeGridChunks chunks, ByteBuffer cubeIndexBuffer, float[] cubeTextureCoordinates) {
+            super(chunks);
+
+            // 分帧拷贝立方体坐标到OpenGL的内存。上传完之后，我们不需要再保留客户端缓冲区
+            final int buffers[] = new int[1];
+            GLES20.glGenBuffers(1, buffers, 0);
 
-            // 绘制立方体
-            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, mActualCubeFactor * mActualCubeFactor * mActualCubeFactor * 36);
+            mBufferPool.retain(cubeIndexBuffer);
+            upload(GLES20.GL_ARRAY_BUFFER, buffers[0], cubeIndexBuffer);
+
+            mCubeBufferIds = buffers;
+            mCubeTextureCoordinates = cubeTextureCoordinates;
+            mCubeSize = ShapeBuilder.getCubeGridCubeSize(chunks.getCubeFactor(), -1.0F, 1.0F);
+        }
+
+        @Override
+        int getProgramHandle() {
+            return mProceduralProgramHandle;
+        }
+
+        @Override
+        void bind() {
+            // 传入网格间距和还原顶点用的表
+            GLES20.glUniform1f(GLES20.glGetUniformLocation(mProceduralProgramHandle, "u_GridMin"), -1.0F);
+            GLES20.glUniform1f(GLES20.glGetUniformLocation(mProceduralProgramHandle, "u_CubeSize"), mCubeSize);
+            GLES20.glUniform4fv(GLES20.glGetUniformLocation(mProceduralProgramHandle, "u_VertexCorners"),
+                    ShapeBuilder.VERTICES_PER_CUBE, PROCEDURAL_VERTEX_CORNERS, 0);
+            GLES20.glUniform2fv(GLES20.glGetUniformLocation(mProceduralProgramHandle, "u_VertexTexCoords"),
+                    ShapeBuilder.VERTICES_PER_CUBE, mCubeTextureCoordinates, 0);
+            GLES20.glUniform3fv(GLES20.glGetUniformLocation(mProceduralProgramHandle, "u_FaceNormals"),
+                    ShapeBuilder.FACE_COUNT, PROCEDURAL_FACE_NORMALS, 0);
+
+            // 传入立方体坐标和顶点序号
+            mProceduralLayout.bind(mProceduralProgramHandle, mCubeBufferIds);
+        }
+
+        @Override
+        void drawBoxes(int level, int face, int firstBox, int boxCount) {
+            // 绘制这个方向的面
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, getFirstVertex(level, face, firstBox), boxCount * ShapeBuilder.VERTICES_PER_FACE);
+        }
+
+        @Override
+        void unbind() {
+            // 其他程序的属性和这个程序不同，不能让它保持打开
+            mProceduralLayout.unbind();
         }
 
         @Override
         public void release() {
+            cancelUploads();
+
             // 从OpenGL的内存中删除缓冲区
-            final int[] buffersToDelete = new int[] { mCubeBufferIdx };
-            GLES20.glDeleteBuffers(buffersToDelete.length, buffersToDelete, 0);
+            GLES20.glDeleteBuffers(mCubeBufferIds.length, mCubeBufferIds, 0);
+        }
+    }
+
+    /**
+     * 按壳排列的网格，和CubesProceduralWithVbo使用同一个着色器，整个网格作为一块裁剪。
+     * 缓冲区按容量分配，改变立方体数时不重新创建：新的壳用glBufferSubData追加，只绘制前cubeFactor³个立方体
+     */
+    class CubesLattice extends CubesProceduralWithVbo {
+        // 上传完之前追加的壳也要写入客户端缓冲区
+        private final ByteBuffer mCubeIndexBuffer;
+        private int mCubeFactor;
+
+        /**
+         * @param cubeIndexBuffer 容量大小的缓冲区，开头是前cubeFactor层壳
+         */
+        CubesLattice(int cubeFactor, ByteBuffer cubeIndexBuffer, float[] cubeTextureCoordinates) {
+            super(new CubeGridChunks(cubeFactor, cubeFactor, -1.0F, 1.0F), cubeIndexBuffer, cubeTextureCoordinates);
+            mCubeIndexBuffer = cubeIndexBuffer;
+            mCubeFactor = cubeFactor;
+        }
+
+        @Override
+        boolean canUploadInBackground() {
+            // 追加的壳在OpenGL线程写入，存储需要已经分配
+            return false;
+        }
+
+        @Override
+        boolean hasFaceBuckets() {
+            // 每个立方体的6个面连续存放
+            return false;
+        }
+
+        int getCubeFactor() {
+            return mCubeFactor;
+        }
+
+        /** 只改变绘制的范围和立方体的间距，前cubeFactor层壳必须已经在缓冲区中 */
+        void setCubeFactor(int cubeFactor) {
+            if (cubeFactor == mCubeFactor) {
+                return;
+            }
+            mCubeFactor = cubeFactor;
+            mCubeSize = ShapeBuilder.getCubeGridCubeSize(cubeFactor, -1.0F, 1.0F);
+            mChunks = new CubeGridChunks(cubeFactor, cubeFactor, -1.0F, 1.0F);
+        }
+
+        /** 把shells中的所有字节写入缓冲区的byteOffset处 */
+        void append(int byteOffset, ByteBuffer shells) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mCubeBufferIds[0]);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, byteOffset, shells.capacity(), shells);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+            if (hasPendingUploads()) {
+                // 还没有上传的块会用客户端缓冲区的内容覆盖这里
+                final ByteBuffer target = mCubeIndexBuffer.duplicate();
+                target.position(byteOffset);
+                target.put(shells.duplicate());
+            }
+        }
+
+        @Override
+        void drawBoxes(int level, int face, int firstCube, int cubeCount) {
+            // 只有第0级，每个立方体VERTICES_PER_CUBE个顶点
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, firstCube * ShapeBuilder.VERTICES_PER_CUBE,
+                    cubeCount * ShapeBuilder.VERTICES_PER_CUBE);
+        }
+    }
+
+    class CubesInstanced extends Cubes {
+        private final float[] mCubeOffsets;
+        private final float mCubeSize;
+        private final int[] mMeshBufferIds;
+        private int mOffsetsHandle;
+
+        CubesInstanced(CubeGridChunks chunks, float[] cubeOffsets, float cubeSize) {
+            super(chunks);
+
+            // 网格已经在mInstancedCubeMeshIdx中，这里只保存每个立方体的偏移
+            mMeshBufferIds = new int[] { mInstancedCubeMeshIdx };
+            mCubeOffsets = cubeOffsets;
+            mCubeSize = cubeSize;
+        }
+
+        @Override
+        int getProgramHandle() {
+            return mInstancedProgramHandle;
+        }
+
+        @Override
+        void bind() {
+            final int cubeSizeHandle = GLES20.glGetUniformLocation(mInstancedProgramHandle, "u_CubeSize");
+            mOffsetsHandle = GLES20.glGetUniformLocation(mInstancedProgramHandle, "u_Offsets");
+
+            GLES20.glUniform1f(cubeSizeHandle, mCubeSize);
+
+            // 传入位置、法线、纹理信息和实例槽位
+            mInstancedLayout.bind(mInstancedProgramHandle, mMeshBufferIds);
+        }
+
+        @Override
+        boolean hasFaceBuckets() {
+            // 一份网格给每批立方体复用，按立方体排列
+            return false;
+        }
+
+        @Override
+        void drawBoxes(int level, int face, int firstCube, int cubeCount) {
+            // 只有第0级，每批传入INSTANCE_BATCH_SIZE个立方体的偏移，然后绘制这么多个立方体
+            final int endCube = firstCube + cubeCount;
+            for (int cube = firstCube; cube < endCube; cube += INSTANCE_BATCH_SIZE) {
+                final int batchCubeCount = Math.min(INSTANCE_BATCH_SIZE, endCube - cube);
+                GLES20.glUniform3fv(mOffsetsHandle, batchCubeCount, mCubeOffsets, cube * POSITION_DATA_SIZE);
+                GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, batchCubeCount * ShapeBuilder.VERTICES_PER_CUBE);
+            }
+        }
+
+        @Override
+        void unbind() {
+            // 其他程序没有实例槽位属性，不能让它保持打开
+            mInstancedLayout.unbind();
+        }
+
+        @Override
+        public void release() {
+            // 网格由所有CubesInstanced共用，不需要删除
         }
     }
 }
@@ -0,0 +1,175 @@
+package com.xujiaji.learnopengl.lesson7;
+
+import com.xujiaji.learnopengl.common.CubeGridChunks;
+import com.xujiaji.learnopengl.common.CubeIndexPacker;
+import com.xujiaji.learnopengl.common.CubeLatticeShells;
+import com.xujiaji.learnopengl.common.DirectBufferPool;
+import com.xujiaji.learnopengl.common.ShapeBuilder;
+import com.xujiaji.learnopengl.common.VertexPacker;
+
+/**
+ * 在分配之前估算每种Cubes需要的Java堆、直接缓冲区和显存字节数，和预算比较，
+ * 放不下的请求直接拒绝或者降低立方体数，而不是分配之后再捕获OutOfMemoryError。
+ *
+ * 估算的是生成和上传一个网格时的峰值：VBO模式上传之前客户端数据和显存同时存在。
+ * 直接缓冲区按DirectBufferPool分级后的大小计算。
+ */
+public class MeshMemoryBudget {
+
+    /** 网格最多使用memoryClass的几分之一，剩下的留给应用的其他部分 */
+    static final int MEMORY_CLASS_DIVISOR = 2;
+
+    /** 立方体数的上限，再大时单个缓冲区的字节数会超出int */
+    static final int MAX_CUBE_FACTOR = 64;
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int BYTES_PER_SHORT = 2;
+
+    private static final int POSITION_FLOATS_PER_VERTEX = 3;
+    private static final int NORMAL_FLOATS_PER_VERTEX = 3;
+    private static final int TEXTURE_COORDINATE_FLOATS_PER_VERTEX = 2;
+    private static final int INTERLEAVED_FLOATS_PER_VERTEX =
+            POSITION_FLOATS_PER_VERTEX + NORMAL_FLOATS_PER_VERTEX + TEXTURE_COORDINATE_FLOATS_PER_VERTEX;
+
+    private volatile long mBudgetBytes;
+    private volatile long mReservedBytes;
+
+    public MeshMemoryBudget(long budgetBytes) {
+        this.mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * @param memoryClassMegabytes ActivityManager.getMemoryClass()
+     */
+    public static MeshMemoryBudget fromMemoryClass(int memoryClassMegabytes) {
+        return new MeshMemoryBudget(memoryClassMegabytes * 1024L * 1024L / MEMORY_CLASS_DIVISOR);
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    public void setBudgetBytes(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * 已经被占用的字节数。新网格准备好之前旧网格还在绘制，所以新网格只能使用剩下的部分
+     */
+    public void setReservedBytes(long reservedBytes) {
+        mReservedBytes = reservedBytes;
+    }
+
+    public long getReservedBytes() {
+        return mReservedBytes;
+    }
+
+    /**
+     * @param meshLayout LessonSevenRenderer.MESH_LAYOUT_*
+     * @param useVbos 索引和压缩格式总是使用VBO，忽略这个参数
+     */
+    public Footprint estimate(int cubeFactor, int meshLayout, boolean useVbos) {
+        final long cubeCount = (long) cubeFactor * cubeFactor * cubeFactor;
+        // 网格中除了每个立方体还有更粗的细节层次
+        final long boxCount = CubeGridChunks.getMeshBoxCount(cubeFactor, CubeGridChunks.DEFAULT_CHUNK_SIZE);
+        final long vertexCount = boxCount * ShapeBuilder.VERTICES_PER_CUBE;
+
+        switch (meshLayout) {
+            case LessonSevenRenderer.MESH_LAYOUT_POSITIONS: {
+                // 位置、法线和纹理坐标各一个缓冲区
+                final long direct = getDirectSize(vertexCount * POSITION_FLOATS_PER_VERTEX * BYTES_PER_FLOAT)
+                        + getDirectSize(vertexCount * NORMAL_FLOATS_PER_VERTEX * BYTES_PER_FLOAT)
+                        + getDirectSize(vertexCount * TEXTURE_COORDINATE_FLOATS_PER_VERTEX * BYTES_PER_FLOAT);
+                final long gpu = useVbos ? vertexCount * INTERLEAVED_FLOATS_PER_VERTEX * BYTES_PER_FLOAT : 0;
+                return new Footprint(0, direct, gpu);
+            }
+            case LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED: {
+                final long bytes = vertexCount * INTERLEAVED_FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+                return new Footprint(0, getDirectSize(bytes), useVbos ? bytes : 0);
+            }
+            case LessonSevenRenderer.MESH_LAYOUT_INDEXED: {
+                final long vertexBytes = boxCount * ShapeBuilder.INDEXED_VERTICES_PER_CUBE
+                        * ShapeBuilder.INDEXED_FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+                final long indexBytes = Math.min(boxCount * ShapeBuilder.FACE_COUNT, ShapeBuilder.MAX_FACES_PER_SHORT_INDEX_BATCH)
+                        * ShapeBuilder.INDICES_PER_FACE * BYTES_PER_SHORT;
+                return new Footprint(0, getDirectSize(vertexBytes) + getDirectSize(indexBytes), vertexBytes + indexBytes);
+            }
+            case LessonSevenRenderer.MESH_LAYOUT_PACKED: {
+                // 每次压缩一块中一个方向的面，Java堆上需要这么多float数据
+                final long chunkSize = Math.min(cubeFactor, CubeGridChunks.DEFAULT_CHUNK_SIZE);
+                final long sliceBytes = chunkSize * chunkSize * chunkSize * ShapeBuilder.VERTICES_PER_FACE
+                        * INTERLEAVED_FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+                final long packedBytes = vertexCount * VertexPacker.PACKED_BYTES_PER_VERTEX;
+                return new Footprint(sliceBytes, getDirectSize(packedBytes), packedBytes);
+            }
+            case LessonSevenRenderer.MESH_LAYOUT_PROCEDURAL: {
+                // 每个顶点只有立方体坐标和顶点序号
+                final long bytes = vertexCount * CubeIndexPacker.PACKED_BYTES_PER_VERTEX;
+                return new Footprint(0, getDirectSize(bytes), bytes);
+            }
+            case LessonSevenRenderer.MESH_LAYOUT_LATTICE: {
+                // 按容量分配，没有更粗的细节层次，重新生成时客户端数据和显存都是容量的大小
+                final long bytes = (long) CubeLatticeShells.getCapacity((int) cubeCount) * CubeLatticeShells.BYTES_PER_CUBE;
+                return new Footprint(0, getDirectSize(bytes), bytes);
+            }
+            case LessonSevenRenderer.MESH_LAYOUT_INSTANCED:
+                // 网格在创建表面时已经上传，这里只有每个立方体的偏移
+                return new Footprint(cubeCount * POSITION_FLOATS_PER_VERTEX * BYTES_PER_FLOAT, 0, 0);
+            default:
+                throw new IllegalArgumentException("Unknown mesh layout: " + meshLayout);
+        }
+    }
+
+    public boolean fits(int cubeFactor, int meshLayout, boolean useVbos) {
+        return cubeFactor <= MAX_CUBE_FACTOR && estimate(cubeFactor, meshLayout, useVbos).getTotalBytes() <= mBudgetBytes - mReservedBytes;
+    }
+
+    /**
+     * @return 不超过maxCubeFactor并且放得下的最大立方体数，连1都放不下时返回0
+     */
+    public int getLargestCubeFactor(int meshLayout, boolean useVbos, int maxCubeFactor) {
+        for (int cubeFactor = Math.min(maxCubeFactor, MAX_CUBE_FACTOR); cubeFactor > 0; cubeFactor--) {
+            if (fits(cubeFactor, meshLayout, useVbos)) {
+                return cubeFactor;
+            }
+        }
+        return 0;
+    }
+
+    private static long getDirectSize(long bytes) {
+        if (bytes > 1L << 30) {
+            // 池分配不了，让这个请求一定放不下
+            return Long.MAX_VALUE / 4;
+        }
+        return DirectBufferPool.getAllocationSize((int) bytes);
+    }
+
+    public static final class Footprint {
+        private final long mHeapBytes;
+        private final long mDirectBytes;
+        private final long mGpuBytes;
+
+        Footprint(long heapBytes, long directBytes, long gpuBytes) {
+            this.mHeapBytes = heapBytes;
+            this.mDirectBytes = directBytes;
+            this.mGpuBytes = gpuBytes;
+        }
+
+        public long getHeapBytes() {
+            return mHeapBytes;
+        }
+
+        public long getDirectBytes() {
+            return mDirectBytes;
+        }
+
+        public long getGpuBytes() {
+            return mGpuBytes;
+        }
+
+        /** 移动设备的显存和内存共用，所以一起计算 */
+        public long getTotalBytes() {
+            return mHeapBytes + mDirectBytes + mGpuBytes;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+// INSTANCE_BATCH_SIZE由LessonSevenRenderer在源码前面定义
+
+uniform mat4 u_MVPMatrix;
+uniform mat4 u_MVMatrix;
+
+// 每个立方体的边长和这一批立方体的最小角
+uniform float u_CubeSize;
+uniform vec3 u_Offsets[INSTANCE_BATCH_SIZE];
+
+attribute vec4 a_Position;
+attribute vec3 a_Normal;
+attribute vec2 a_TexCoordinate;
+attribute float a_InstanceSlot;
+
+varying vec3 v_Position;
+varying vec3 v_Normal;
+varying vec2 v_TexCoordinate;
+
+void main() {
+    vec4 position = vec4(a_Position.xyz * u_CubeSize + u_Offsets[int(a_InstanceSlot)], 1.0);
+
+    v_Position = vec3(u_MVMatrix * position);
+    v_TexCoordinate = a_TexCoordinate;
+
+    v_Normal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
+
+    gl_Position = u_MVPMatrix * position;
+}
@@ -0,0 +1,31 @@
+uniform mat4 u_MVPMatrix;
+uniform mat4 u_MVMatrix;
+
+// 网格的最小角和每个立方体的边长，相邻两个立方体的最小角相距两个边长
+uniform float u_GridMin;
+uniform float u_CubeSize;
+
+// 立方体每个顶点序号的角（xyz为0或1）和所在的面，以及纹理坐标
+uniform vec4 u_VertexCorners[36];
+uniform vec2 u_VertexTexCoords[36];
+uniform vec3 u_FaceNormals[6];
+
+// xyz是立方体坐标，w是顶点在立方体中的序号
+attribute vec4 a_CubeIndex;
+
+varying vec3 v_Position;
+varying vec3 v_Normal;
+varying vec2 v_TexCoordinate;
+
+void main() {
+    int vertex = int(a_CubeIndex.w);
+    vec4 corner = u_VertexCorners[vertex];
+    vec4 position = vec4(u_GridMin + u_CubeSize * (2.0 * a_CubeIndex.xyz + corner.xyz), 1.0);
+
+    v_Position = vec3(u_MVMatrix * position);
+    v_TexCoordinate = u_VertexTexCoords[vertex];
+
+    v_Normal = vec3(u_MVMatrix * vec4(u_FaceNormals[int(corner.w)], 0.0));
+
+    gl_Position = u_MVPMatrix * position;
+}
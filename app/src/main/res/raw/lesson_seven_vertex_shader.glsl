@@ -1,6 +1,11 @@
 uniform mat4 u_MVPMatrix;
 uniform mat4 u_MVMatrix;
 
+// 压缩顶点格式的位置还原：position = a_Position * u_PositionScale + u_PositionOffset
+// float格式时为1.0和0.0
+uniform float u_PositionScale;
+uniform vec3 u_PositionOffset;
+
 attribute vec4 a_Position;
 attribute vec3 a_Normal;
 attribute vec2 a_TexCoordinate;
@@ -10,10 +15,12 @@ varying vec3 v_Normal;
 varying vec2 v_TexCoordinate;
 
 void main() {
-    v_Position = vec3(u_MVMatrix * a_Position);
+    vec4 position = vec4(a_Position.xyz * u_PositionScale + u_PositionOffset, 1.0);
+
+    v_Position = vec3(u_MVMatrix * position);
     v_TexCoordinate = a_TexCoordinate;
 
     v_Normal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
 
-    gl_Position = u_MVPMatrix * a_Position;
+    gl_Position = u_MVPMatrix * position;
 }
@@ -0,0 +1,276 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BackgroundUploaderTest {
+
+    /** 所有线程的事件，按发生的顺序 */
+    private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+
+    /** 代替渲染线程，测试线程手动执行 */
+    private final LinkedBlockingQueue<Runnable> mRenderQueue = new LinkedBlockingQueue<>();
+    private final Executor mRenderThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mRenderQueue.add(command);
+        }
+    };
+
+    private BackgroundUploader mUploader;
+
+    @After
+    public void tearDown() {
+        if (mUploader != null) {
+            mUploader.shutdown();
+        }
+    }
+
+    @Test
+    public void uploads_completeInOrderAfterFinish() throws InterruptedException {
+        final FakeGl gl = new FakeGl(true);
+        mUploader = new BackgroundUploader(gl, mRenderThread);
+        assertTrue(mUploader.start());
+
+        final List<BackgroundUploader.Task> tasks = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            tasks.add(mUploader.upload(0, i, ByteBuffer.allocate(16), 0, completion(i)));
+        }
+
+        // 在渲染线程上执行完成回调，直到所有上传完成
+        while (mEvents.indexOf("complete 5") < 0) {
+            final Runnable command = mRenderQueue.poll(5, TimeUnit.SECONDS);
+            assertNotNull("timed out", command);
+            command.run();
+        }
+
+        int previousComplete = -1;
+        for (int i = 1; i <= 5; i++) {
+            final int upload = mEvents.indexOf("bufferData " + i);
+            final int complete = mEvents.indexOf("complete " + i);
+            final int finish = indexOfAfter("finish", upload);
+
+            assertTrue(upload >= 0);
+            assertTrue("finish after upload " + i, finish > upload);
+            assertTrue("complete after finish " + i, complete > finish);
+            assertTrue("completions in order", complete > previousComplete);
+            assertTrue(tasks.get(i - 1).isComplete());
+            previousComplete = complete;
+        }
+        assertEquals(16, gl.mLastSize);
+        assertEquals(Collections.singletonList("makeCurrent"), mEvents.subList(0, 1));
+    }
+
+    @Test
+    public void onFinished_runsOnWorkerAfterFinishEvenWhenCancelled() throws InterruptedException {
+        final FakeGl gl = new FakeGl(true);
+        mUploader = new BackgroundUploader(gl, mRenderThread);
+        mUploader.start();
+
+        // 第一个上传在后台线程中等待，第二个排在它后面时被取消
+        gl.mBlockUpload = new CountDownLatch(1);
+        final BackgroundUploader.Task first = mUploader.upload(0, 1, ByteBuffer.allocate(8), 0, completion(1), finished(1));
+        final BackgroundUploader.Task second = mUploader.upload(0, 2, ByteBuffer.allocate(8), 0, completion(2), finished(2));
+        second.cancel();
+        gl.mBlockUpload.countDown();
+
+        while (mEvents.indexOf("complete 1") < 0) {
+            final Runnable command = mRenderQueue.poll(5, TimeUnit.SECONDS);
+            assertNotNull("timed out", command);
+            command.run();
+        }
+        awaitEvent("finished 2");
+
+        // 后台线程还可能在读取的时候，缓冲区不能交还
+        final int finish = indexOfAfter("finish", mEvents.indexOf("bufferData 1"));
+        assertTrue(finish > 0);
+        assertTrue(mEvents.indexOf("finished 1") > finish);
+        assertTrue(mEvents.indexOf("finished 1") < mEvents.indexOf("complete 1"));
+        assertTrue(mEvents.indexOf("finished 2") > mEvents.indexOf("finish"));
+        assertTrue(first.isComplete());
+        assertFalse(second.isComplete());
+        assertFalse(mEvents.contains("complete 2"));
+    }
+
+    @Test
+    public void shutdown_finishesTasksThatNeverRan() throws InterruptedException {
+        final FakeGl gl = new FakeGl(true);
+        mUploader = new BackgroundUploader(gl, mRenderThread);
+        mUploader.start();
+
+        gl.mBlockUpload = new CountDownLatch(1);
+        mUploader.upload(0, 1, ByteBuffer.allocate(8), 0, null, finished(1));
+        awaitEvent("bufferData 1");
+        mUploader.upload(0, 2, ByteBuffer.allocate(8), 0, null, finished(2));
+
+        // shutdown()等待后台线程退出，所以在另一个线程调用
+        final Thread shutdown = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mUploader.shutdown();
+            }
+        });
+        shutdown.start();
+        awaitEvent("finished 2");
+        assertFalse(mEvents.contains("finished 1"));
+
+        gl.mBlockUpload.countDown();
+        shutdown.join(5000);
+        assertFalse("timed out", shutdown.isAlive());
+
+        assertFalse(mEvents.contains("bufferData 2"));
+        assertTrue(mEvents.indexOf("finished 1") > mEvents.indexOf("finish"));
+    }
+
+    @Test
+    public void unsupportedSharing_fallsBackToRenderThread() {
+        final FakeGl gl = new FakeGl(false);
+        mUploader = new BackgroundUploader(gl, mRenderThread);
+        assertFalse(mUploader.start());
+        assertFalse(mUploader.isShared());
+
+        final BackgroundUploader.Task task = mUploader.upload(0, 7, ByteBuffer.allocate(8), 0, completion(7));
+        assertFalse(task.isComplete());
+
+        runRenderQueue();
+        assertTrue(task.isComplete());
+        assertSame(Thread.currentThread(), gl.mLastUploadThread);
+        assertFalse(mEvents.contains("finish"));
+        assertTrue(mEvents.indexOf("complete 7") > mEvents.indexOf("bufferData 7"));
+    }
+
+    @Test
+    public void cancel_skipsWorkAndCompletion() {
+        mUploader = new BackgroundUploader(new FakeGl(false), mRenderThread);
+        mUploader.start();
+
+        final BackgroundUploader.Task task = mUploader.upload(0, 3, ByteBuffer.allocate(8), 0, completion(3), finished(3));
+        task.cancel();
+        assertFalse(mEvents.contains("finished 3"));
+        runRenderQueue();
+
+        assertFalse(task.isComplete());
+        assertFalse(mEvents.contains("bufferData 3"));
+        assertFalse(mEvents.contains("complete 3"));
+        // 取消的任务也要交还它的数据
+        assertTrue(mEvents.contains("finished 3"));
+    }
+
+    @Test
+    public void shutdown_releasesContextAndRejectsNewWork() {
+        final FakeGl gl = new FakeGl(true);
+        mUploader = new BackgroundUploader(gl, mRenderThread);
+        mUploader.start();
+
+        mUploader.shutdown();
+        assertEquals("releaseCurrent", mEvents.get(mEvents.size() - 1));
+
+        try {
+            mUploader.upload(0, 1, ByteBuffer.allocate(8), 0, null);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private Runnable completion(final int bufferId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mEvents.add("complete " + bufferId);
+            }
+        };
+    }
+
+    private Runnable finished(final int bufferId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mEvents.add("finished " + bufferId);
+            }
+        };
+    }
+
+    /** 等待其他线程记录event */
+    private void awaitEvent(String event) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!mEvents.contains(event)) {
+            assertTrue("timed out waiting for " + event, System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private int indexOfAfter(String event, int start) {
+        synchronized (mEvents) {
+            for (int i = start + 1; i < mEvents.size(); i++) {
+                if (mEvents.get(i).equals(event)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void runRenderQueue() {
+        Runnable command;
+        while ((command = mRenderQueue.poll()) != null) {
+            command.run();
+        }
+    }
+
+    private class FakeGl implements BackgroundUploader.GlFacade {
+        final boolean mSupportsSharing;
+        volatile int mLastSize;
+        volatile Thread mLastUploadThread;
+        // 不为null时后台线程在bufferData中等待它
+        volatile CountDownLatch mBlockUpload;
+
+        FakeGl(boolean supportsSharing) {
+            this.mSupportsSharing = supportsSharing;
+        }
+
+        @Override
+        public boolean makeCurrent() {
+            mEvents.add("makeCurrent");
+            return mSupportsSharing;
+        }
+
+        @Override
+        public void releaseCurrent() {
+            mEvents.add("releaseCurrent");
+        }
+
+        @Override
+        public void bufferData(int target, int bufferId, int size, Buffer data, int usage) {
+            assertEquals(0, data.position());
+            mLastSize = size;
+            mLastUploadThread = Thread.currentThread();
+            mEvents.add("bufferData " + bufferId);
+
+            final CountDownLatch block = mBlockUpload;
+            if (block != null) {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void finish() {
+            mEvents.add("finish");
+        }
+    }
+}
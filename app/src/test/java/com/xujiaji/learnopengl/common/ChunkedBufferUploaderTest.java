@@ -0,0 +1,158 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChunkedBufferUploaderTest {
+
+    /** 按顺序记录OpenGL调用："bufferData 缓冲区 大小"和"subData 缓冲区 偏移 大小" */
+    private final FakeGl mGl = new FakeGl();
+
+    @Test
+    public void onFrame_spreadsUploadOverFrames() {
+        final ChunkedBufferUploader uploader = new ChunkedBufferUploader(mGl, 64, 128);
+        // 1000字节：每帧两块128字节，需要8帧
+        final ChunkedBufferUploader.Upload upload = uploader.upload(0, 1, FloatBuffer.allocate(250), 0);
+        assertEquals(1000, upload.getByteCount());
+        assertEquals(Arrays.asList("bufferData 1 1000"), mGl.mCalls);
+
+        int frames = 0;
+        while (!upload.isComplete()) {
+            final int bytes = uploader.onFrame();
+            assertTrue(bytes <= 128);
+            frames++;
+        }
+
+        assertEquals(8, frames);
+        assertEquals(8, uploader.getUploadFrameCount());
+        assertEquals(1000, upload.getBytesUploaded());
+        assertTrue(uploader.isIdle());
+        assertEquals(0, uploader.onFrame());
+
+        // 每块接着上一块，最后一块是剩下的40字节
+        assertEquals(16, mGl.mCalls.size() - 1);
+        for (int chunk = 0; chunk < 15; chunk++) {
+            assertEquals("subData 1 " + chunk * 64 + " 64", mGl.mCalls.get(chunk + 1));
+        }
+        assertEquals("subData 1 960 40", mGl.mCalls.get(16));
+    }
+
+    @Test
+    public void onFrame_uploadsInOrderAcrossBuffers() {
+        final ChunkedBufferUploader uploader = new ChunkedBufferUploader(mGl, 64, 64);
+        final ChunkedBufferUploader.Upload first = uploader.upload(0, 1, ShortBuffer.allocate(40), 0);
+        final ChunkedBufferUploader.Upload second = uploader.upload(0, 2, ByteBuffer.allocate(64), 0);
+
+        uploader.onFrame();
+        assertEquals(64, first.getBytesUploaded());
+        assertEquals(0, second.getBytesUploaded());
+
+        // 第一个剩下的16字节之后，这一帧的预算还可以上传第二个的48字节
+        assertEquals(64, uploader.onFrame());
+        assertTrue(first.isComplete());
+        assertEquals(48, second.getBytesUploaded());
+
+        assertEquals(16, uploader.onFrame());
+        assertTrue(second.isComplete());
+        assertEquals(Arrays.asList(
+                "bufferData 1 80", "bufferData 2 64",
+                "subData 1 0 64",
+                "subData 1 64 16", "subData 2 0 48",
+                "subData 2 48 16"), mGl.mCalls);
+    }
+
+    @Test
+    public void onFrame_uploadsAtLeastOneChunk() {
+        final ChunkedBufferUploader uploader = new ChunkedBufferUploader(mGl, 256, 0);
+        final ChunkedBufferUploader.Upload upload = uploader.upload(0, 1, ByteBuffer.allocate(300), 0);
+
+        assertEquals(256, uploader.onFrame());
+        assertEquals(44, uploader.onFrame());
+        assertTrue(upload.isComplete());
+        assertEquals(Arrays.asList("bufferData 1 300", "subData 1 0 256", "subData 1 256 44"), mGl.mCalls);
+    }
+
+    @Test
+    public void onFrame_neverExceedsBudgetThatIsNotAMultipleOfTheChunk() {
+        // 每帧100字节，块是64字节：第一块之后只剩36字节，向下对齐到32
+        final ChunkedBufferUploader uploader = new ChunkedBufferUploader(mGl, 64, 100);
+        final ChunkedBufferUploader.Upload upload = uploader.upload(0, 1, ByteBuffer.allocate(400), 0);
+
+        int offset = 0;
+        while (!upload.isComplete()) {
+            final int callsBefore = mGl.mCalls.size();
+            final int bytes = uploader.onFrame();
+            assertTrue("frame uploaded " + bytes, bytes <= 100);
+
+            int frameBytes = 0;
+            for (String call : mGl.mCalls.subList(callsBefore, mGl.mCalls.size())) {
+                final String[] parts = call.split(" ");
+                final int size = Integer.parseInt(parts[3]);
+                assertEquals(offset, Integer.parseInt(parts[2]));
+                assertEquals(0, offset % 8);
+                offset += size;
+                frameBytes += size;
+            }
+            assertEquals(bytes, frameBytes);
+        }
+        assertEquals(400, offset);
+        assertEquals(Arrays.asList("bufferData 1 400", "subData 1 0 64", "subData 1 64 32"), mGl.mCalls.subList(0, 3));
+    }
+
+    @Test
+    public void cancel_removesPendingUpload() {
+        final ChunkedBufferUploader uploader = new ChunkedBufferUploader(mGl, 64, 64);
+        final ChunkedBufferUploader.Upload upload = uploader.upload(0, 1, ByteBuffer.allocate(256), 0);
+        uploader.onFrame();
+
+        uploader.cancel(upload);
+        assertTrue(uploader.isIdle());
+        assertEquals(0, uploader.onFrame());
+        assertFalse(upload.isComplete());
+        assertEquals(Arrays.asList("bufferData 1 256", "subData 1 0 64"), mGl.mCalls);
+    }
+
+    @Test
+    public void cancelAll_dropsEveryQueuedUpload() {
+        final ChunkedBufferUploader uploader = new ChunkedBufferUploader(mGl, 64, 64);
+        uploader.upload(0, 1, ByteBuffer.allocate(256), 0);
+        uploader.upload(0, 2, ByteBuffer.allocate(256), 0);
+        uploader.onFrame();
+
+        // 上下文丢失之后不能再向旧的缓冲区编号上传
+        uploader.cancelAll();
+        assertTrue(uploader.isIdle());
+        assertEquals(0, uploader.onFrame());
+        assertEquals(Arrays.asList("bufferData 1 256", "bufferData 2 256", "subData 1 0 64"), mGl.mCalls);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsUnalignedChunks() {
+        new ChunkedBufferUploader(mGl, 100, 1000);
+    }
+
+    private static class FakeGl implements ChunkedBufferUploader.GlFacade {
+        final List<String> mCalls = new ArrayList<>();
+
+        @Override
+        public void bufferData(int target, int bufferId, int size, int usage) {
+            mCalls.add("bufferData " + bufferId + " " + size);
+        }
+
+        @Override
+        public void bufferSubData(int target, int bufferId, int offset, int size, Buffer data) {
+            // 数据从偏移对应的元素开始读取
+            assertEquals(offset, data.position() * (int) (MeshCache.getByteSize(data) / data.capacity()));
+            mCalls.add("subData " + bufferId + " " + offset + " " + size);
+        }
+    }
+}
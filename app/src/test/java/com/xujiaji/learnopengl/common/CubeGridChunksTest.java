@@ -0,0 +1,629 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CubeGridChunksTest {
+
+    @Test
+    public void constructor_splitsGridIntoChunkRanges() {
+        final CubeGridChunks chunks = new CubeGridChunks(10, 4, -1.0F, 1.0F);
+
+        assertEquals(3, chunks.getChunksPerAxis());
+        assertEquals(27, chunks.getChunkCount());
+        assertEquals(1000, chunks.getFirstCube(chunks.getChunkCount()));
+
+        // 最后一块只剩2个立方体
+        assertEquals(4 * 4 * 4, chunks.getCubeCount(0));
+        assertEquals(4 * 4 * 2, chunks.getCubeCount(2));
+        assertEquals(2 * 2 * 2, chunks.getCubeCount(26));
+        assertEquals(8, chunks.getFrom(26, 0));
+        assertEquals(10, chunks.getTo(26, 0));
+
+        int firstCube = 0;
+        for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+            assertEquals(firstCube, chunks.getFirstCube(chunk));
+            firstCube += chunks.getCubeCount(chunk);
+        }
+
+        // x相同的块连续
+        assertEquals(9, chunks.getFirstChunkOfSlab(1));
+        assertEquals(4, chunks.getFrom(9, 0));
+        assertEquals(0, chunks.getFrom(9, 1));
+        assertEquals(0, chunks.getFrom(9, 2));
+    }
+
+    @Test
+    public void bounds_containEveryCubeOfTheChunk() {
+        for (int cubeFactor = 1; cubeFactor <= 9; cubeFactor++) {
+            final CubeGridChunks chunks = new CubeGridChunks(cubeFactor, 4, -1.0F, 1.0F);
+            final FloatBuffer positions = FloatBuffer.allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, null, null));
+            chunks.putCubeGridData(null, null, positions);
+
+            for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+                final float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+                final float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+                final int from = chunks.getFirstCube(chunk) * ShapeBuilder.POSITION_FLOATS_PER_CUBE;
+                final int to = chunks.getFirstCube(chunk + 1) * ShapeBuilder.POSITION_FLOATS_PER_CUBE;
+                for (int i = from; i < to; i++) {
+                    min[i % 3] = Math.min(min[i % 3], positions.get(i));
+                    max[i % 3] = Math.max(max[i % 3], positions.get(i));
+                }
+
+                for (int axis = 0; axis < 3; axis++) {
+                    assertEquals(min[axis], chunks.getBound(chunk, axis), 1e-6F);
+                    assertEquals(max[axis], chunks.getBound(chunk, 3 + axis), 1e-6F);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void putCubeGridData_isChunkOrderedPermutationOfShapeBuilder() {
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(new float[12]);
+        final int cubeFactor = 7;
+        final CubeGridChunks chunks = new CubeGridChunks(cubeFactor, 3, -1.0F, 1.0F);
+        final int cubeCount = cubeFactor * cubeFactor * cubeFactor;
+
+        final FloatBuffer expected = FloatBuffer.allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates));
+        final FloatBuffer actual = FloatBuffer.allocate(expected.capacity());
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, expected);
+        chunks.putCubeGridData(normals, textureCoordinates, actual);
+        assertFalse(actual.hasRemaining());
+
+        final int[] order = getSerialOrder(chunks);
+        final int floatsPerCube = expected.capacity() / cubeCount;
+        for (int cube = 0; cube < cubeCount; cube++) {
+            for (int i = 0; i < floatsPerCube; i++) {
+                assertEquals(expected.get(order[cube] * floatsPerCube + i), actual.get(cube * floatsPerCube + i), 0.0F);
+            }
+        }
+    }
+
+    @Test
+    public void putIndexedCubeGridData_isChunkOrderedPermutationOfShapeBuilder() {
+        final int cubeFactor = 5;
+        final CubeGridChunks chunks = new CubeGridChunks(cubeFactor, 2, -1.0F, 1.0F);
+        final int cubeCount = cubeFactor * cubeFactor * cubeFactor;
+
+        final FloatBuffer expected = FloatBuffer.allocate(ShapeBuilder.getIndexedCubeGridDataLength(cubeFactor));
+        final FloatBuffer actual = FloatBuffer.allocate(expected.capacity());
+        ShapeBuilder.putIndexedCubeGridData(cubeFactor, -1.0F, 1.0F, expected);
+        chunks.putIndexedCubeGridData(actual);
+        assertFalse(actual.hasRemaining());
+
+        final int[] order = getSerialOrder(chunks);
+        final int floatsPerCube = expected.capacity() / cubeCount;
+        for (int cube = 0; cube < cubeCount; cube++) {
+            for (int i = 0; i < floatsPerCube; i++) {
+                assertEquals(expected.get(order[cube] * floatsPerCube + i), actual.get(cube * floatsPerCube + i), 0.0F);
+            }
+        }
+    }
+
+    @Test
+    public void cull_keepsOnlyChunksInsideTheFrustum() {
+        final CubeGridChunks chunks = new CubeGridChunks(8, 4, -1.0F, 1.0F);
+        assertEquals(chunks.getChunkCount(), chunks.getVisibleCount());
+
+        // 90度视角的透视矩阵，眼睛在x=-0.5看向+x，near平面在x=0.5，只能看到x>0的一半
+        final float[] matrix = new float[16];
+        matrix[0] = 1.0F;
+        matrix[5] = 1.0F;
+        matrix[10] = -101.0F / 99.0F;
+        matrix[11] = -1.0F;
+        matrix[14] = -200.0F / 99.0F;
+        // 眼睛空间的(x, y, z) = (z, y, -x - 0.5)：列0 = -P列2，列2 = P列0，列3 = P列3 - 0.5 * P列2
+        final float[] view = new float[16];
+        for (int row = 0; row < 4; row++) {
+            view[row] = -matrix[8 + row];
+            view[4 + row] = matrix[4 + row];
+            view[8 + row] = matrix[row];
+            view[12 + row] = matrix[12 + row] - 0.5F * matrix[8 + row];
+        }
+
+        final Frustum frustum = new Frustum();
+        frustum.set(view, 0);
+        final int visible = chunks.cull(frustum);
+
+        assertEquals(4, visible);
+        assertEquals(visible, chunks.getVisibleCount());
+        for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+            assertEquals(chunks.getFrom(chunk, 0) > 0, chunks.isVisible(chunk));
+        }
+    }
+
+    @Test
+    public void putCubeGridFaceData_splitsCubesIntoDirections() {
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final CubeGridChunks chunks = new CubeGridChunks(5, 2, -1.0F, 1.0F);
+        final int cubeCount = chunks.getTotalCubeCount();
+
+        final FloatBuffer cubes = FloatBuffer.allocate(ShapeBuilder.getCubeGridDataLength(5, normals, null));
+        final FloatBuffer faces = FloatBuffer.allocate(cubes.capacity());
+        chunks.putCubeGridData(normals, null, cubes);
+        chunks.putCubeGridFaceData(normals, null, faces);
+        assertFalse(faces.hasRemaining());
+
+        final int floatsPerFace = cubes.capacity() / cubeCount / ShapeBuilder.FACE_COUNT;
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            for (int cube = 0; cube < cubeCount; cube++) {
+                for (int i = 0; i < floatsPerFace; i++) {
+                    assertEquals(cubes.get((cube * ShapeBuilder.FACE_COUNT + face) * floatsPerFace + i),
+                            faces.get((face * cubeCount + cube) * floatsPerFace + i), 0.0F);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void putIndexedCubeGridFaceData_matchesFaceIndices() {
+        final CubeGridChunks chunks = new CubeGridChunks(3, 2, -1.0F, 1.0F);
+        final int cubeCount = chunks.getTotalCubeCount();
+
+        final FloatBuffer cubes = FloatBuffer.allocate(ShapeBuilder.getIndexedCubeGridDataLength(3));
+        final FloatBuffer faces = FloatBuffer.allocate(cubes.capacity());
+        chunks.putIndexedCubeGridData(cubes);
+        chunks.putIndexedCubeGridFaceData(faces);
+        assertFalse(faces.hasRemaining());
+
+        final int floatsPerFace = ShapeBuilder.INDEXED_VERTICES_PER_FACE * ShapeBuilder.INDEXED_FLOATS_PER_VERTEX;
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            for (int cube = 0; cube < cubeCount; cube++) {
+                for (int i = 0; i < floatsPerFace; i++) {
+                    assertEquals(cubes.get((cube * ShapeBuilder.FACE_COUNT + face) * floatsPerFace + i),
+                            faces.get((face * cubeCount + cube) * floatsPerFace + i), 0.0F);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cullWithEye_drawsSameImageAsAllFaces() {
+        final int cubeFactor = 6;
+        final CubeGridChunks chunks = new CubeGridChunks(cubeFactor, 2, -1.0F, 1.0F);
+        final int cubeCount = chunks.getTotalCubeCount();
+
+        final FloatBuffer cubes = FloatBuffer.allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, null, null));
+        final FloatBuffer faces = FloatBuffer.allocate(cubes.capacity());
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, null, null, cubes);
+        chunks.putCubeGridFaceData(null, null, faces);
+
+        // 眼睛在网格外的角上、正对一个面、在网格里面，以及只看到网格的一部分
+        final float[][] cameras = {
+                {3.0F, 2.5F, 4.0F, 0.0F, 0.0F, 0.0F},
+                {0.0F, 0.0F, 3.0F, 0.0F, 0.0F, 0.0F},
+                {0.1F, 0.05F, 0.2F, 1.0F, 0.3F, -0.5F},
+                {0.5F, -0.2F, 2.5F, 1.5F, 0.0F, 0.0F}
+        };
+        final Frustum frustum = new Frustum();
+        for (int c = 0; c < cameras.length; c++) {
+            final float[] camera = cameras[c];
+            final float[] mvp = multiply(perspective(0.1F, 100.0F), lookAt(camera));
+
+            final StubRasterizer full = new StubRasterizer();
+            full.drawTriangles(cubes, 0, cubeCount * ShapeBuilder.VERTICES_PER_CUBE, mvp);
+
+            frustum.set(mvp, 0);
+            chunks.cull(frustum, camera[0], camera[1], camera[2]);
+            final StubRasterizer bucketed = new StubRasterizer();
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+                    if (chunks.isFaceVisible(chunk, face)) {
+                        bucketed.drawTriangles(faces, (face * cubeCount + chunks.getFirstCube(chunk)) * ShapeBuilder.VERTICES_PER_FACE,
+                                chunks.getCubeCount(chunk) * ShapeBuilder.VERTICES_PER_FACE, mvp);
+                    }
+                }
+            }
+
+            assertTrue(full.mCoveredPixels > 0);
+            assertEquals(full.mCoveredPixels, bucketed.mCoveredPixels);
+            for (int i = 0; i < full.mDepth.length; i++) {
+                assertEquals(full.mDepth[i], bucketed.mDepth[i], 0.0F);
+            }
+            assertTrue(bucketed.mSubmittedTriangles <= full.mSubmittedTriangles);
+            if (c == 0) {
+                // 眼睛在所有块外面时每块正好3个方向
+                assertEquals(full.mSubmittedTriangles / 2, bucketed.mSubmittedTriangles);
+            }
+        }
+    }
+
+    @Test
+    public void getViewDepth_measuresChunkCenterAlongViewDirection() {
+        final CubeGridChunks chunks = new CubeGridChunks(4, 2, -1.0F, 1.0F);
+        // 眼睛在z=5看向-z
+        final float[] modelView = new float[16];
+        modelView[0] = 1.0F;
+        modelView[5] = 1.0F;
+        modelView[10] = 1.0F;
+        modelView[14] = -5.0F;
+        modelView[15] = 1.0F;
+
+        for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+            final float centerZ = (chunks.getBound(chunk, 2) + chunks.getBound(chunk, 5)) * 0.5F;
+            assertEquals(5.0F - centerZ, chunks.getViewDepth(chunk, modelView, 0), 1e-6F);
+        }
+        // z较大的块离眼睛更近
+        assertTrue(chunks.getViewDepth(1, modelView, 0) < chunks.getViewDepth(0, modelView, 0));
+    }
+
+    @Test
+    public void lodBoxCounts_matchStaticCountAndFaceIndices() {
+        for (int cubeFactor = 1; cubeFactor <= 11; cubeFactor++) {
+            for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+                final CubeGridChunks chunks = new CubeGridChunks(cubeFactor, chunkSize, -1.0F, 1.0F);
+                assertEquals(CubeGridChunks.getMeshBoxCount(cubeFactor, chunkSize), chunks.getMeshBoxCount());
+
+                // 最后一级最后一个方向的末尾就是网格的末尾
+                final int lastLevel = CubeGridChunks.LOD_COUNT - 1;
+                assertEquals(chunks.getMeshBoxCount() * ShapeBuilder.FACE_COUNT, chunks.getFaceIndex(lastLevel,
+                        ShapeBuilder.FACE_COUNT - 1, chunks.getFirstBox(lastLevel, chunks.getChunkCount())));
+                // 最后一级每块一个盒子
+                assertEquals(chunks.getChunkCount(), chunks.getFirstBox(lastLevel, chunks.getChunkCount()));
+            }
+        }
+
+        // 10 = 8 + 2，第1级每个轴上是4 + 1个盒子
+        final CubeGridChunks chunks = new CubeGridChunks(10, 8, -1.0F, 1.0F);
+        assertEquals(4 * 4 * 4, chunks.getBoxCount(1, 0));
+        assertEquals(4 * 4, chunks.getBoxCount(1, 1));
+        assertEquals(1, chunks.getBoxCount(1, 7));
+        assertEquals(1000 + 5 * 5 * 5 + 8, chunks.getMeshBoxCount());
+    }
+
+    @Test
+    public void putLodFaceData_staysInsideChunkBounds() {
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final CubeGridChunks chunks = new CubeGridChunks(7, 4, -1.0F, 1.0F);
+        // 位置和法线
+        final int floatsPerVertex = 3 + 3;
+
+        final FloatBuffer mesh = FloatBuffer.allocate(
+                ShapeBuilder.getCubeGridDataLength(1, normals, null) * chunks.getMeshBoxCount());
+        chunks.putCubeGridFaceData(normals, null, mesh);
+        chunks.putLodFaceData(normals, null, mesh);
+        assertFalse(mesh.hasRemaining());
+
+        for (int level = 1; level < CubeGridChunks.LOD_COUNT; level++) {
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+                    final int firstVertex = chunks.getFaceIndex(level, face, chunks.getFirstBox(level, chunk))
+                            * ShapeBuilder.VERTICES_PER_FACE;
+                    final int vertexCount = chunks.getBoxCount(level, chunk) * ShapeBuilder.VERTICES_PER_FACE;
+                    final float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+                    final float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+                    for (int v = firstVertex; v < firstVertex + vertexCount; v++) {
+                        for (int axis = 0; axis < 3; axis++) {
+                            min[axis] = Math.min(min[axis], mesh.get(v * floatsPerVertex + axis));
+                            max[axis] = Math.max(max[axis], mesh.get(v * floatsPerVertex + axis));
+                            // 法线和这个方向的立方体面相同
+                            assertEquals(normals[face * ShapeBuilder.VERTICES_PER_FACE * 3 + axis],
+                                    mesh.get(v * floatsPerVertex + 3 + axis), 0.0F);
+                        }
+                    }
+
+                    // 盒子合起来和块的包围盒在法线方向上相同，cull()的结果仍然成立
+                    for (int axis = 0; axis < 3; axis++) {
+                        if (ShapeBuilder.CUBE_FACE_NORMALS[face * 3 + axis] != 0.0F) {
+                            continue;
+                        }
+                        assertEquals(chunks.getBound(chunk, axis), min[axis], 1e-6F);
+                        assertEquals(chunks.getBound(chunk, 3 + axis), max[axis], 1e-6F);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void selectLods_switchesWithHysteresis() {
+        final CubeGridChunks chunks = new CubeGridChunks(8, 8, -1.0F, 1.0F);
+        // 一个立方体边长2/15，pixelsPerUnit为30时在距离1处是4像素
+        final float pixelsPerUnit = 30.0F;
+
+        assertEquals(0, selectLod(chunks, 0.5F, pixelsPerUnit));
+        // 3.64像素，还没有低于4 / 1.25
+        assertEquals(0, selectLod(chunks, 1.1F, pixelsPerUnit));
+        assertEquals(1, selectLod(chunks, 1.3F, pixelsPerUnit));
+        // 4.44像素，还没有超过4 * 1.25
+        assertEquals(1, selectLod(chunks, 0.9F, pixelsPerUnit));
+        assertEquals(0, selectLod(chunks, 0.7F, pixelsPerUnit));
+
+        // 可以一次跳过几级
+        assertEquals(2, selectLod(chunks, 10.0F, pixelsPerUnit));
+        assertEquals(2, selectLod(chunks, 3.5F, pixelsPerUnit));
+        assertEquals(1, selectLod(chunks, 3.0F, pixelsPerUnit));
+        assertEquals(1, chunks.getLodChunkCount(1));
+        assertEquals(0, chunks.getLodChunkCount(0));
+
+        // 无穷大时总是完整的网格
+        assertEquals(0, selectLod(chunks, 10.0F, Float.POSITIVE_INFINITY));
+    }
+
+    /** 眼睛沿z轴看向唯一的一块，distance是块的包围球到眼睛的距离 */
+    private static int selectLod(CubeGridChunks chunks, float distance, float pixelsPerUnit) {
+        final float[] modelView = new float[16];
+        modelView[0] = 1.0F;
+        modelView[5] = 1.0F;
+        modelView[10] = 1.0F;
+        modelView[14] = -(distance + (float) Math.sqrt(3.0));
+        modelView[15] = 1.0F;
+        chunks.selectLods(modelView, 0, pixelsPerUnit);
+        return chunks.getLod(0);
+    }
+
+    /** 最简单的光栅化：剔除背面（逆时针为正面），深度测试，只记录深度 */
+    private static class StubRasterizer {
+        static final int SIZE = 96;
+
+        final float[] mDepth = new float[SIZE * SIZE];
+        int mSubmittedTriangles;
+        int mCoveredPixels;
+
+        StubRasterizer() {
+            Arrays.fill(mDepth, Float.POSITIVE_INFINITY);
+        }
+
+        void drawTriangles(FloatBuffer positions, int firstVertex, int vertexCount, float[] mvp) {
+            final float[] x = new float[3];
+            final float[] y = new float[3];
+            final float[] z = new float[3];
+            for (int v = firstVertex; v < firstVertex + vertexCount; v += 3) {
+                mSubmittedTriangles++;
+                boolean behindEye = false;
+                for (int k = 0; k < 3; k++) {
+                    final int i = (v + k) * 3;
+                    final float px = positions.get(i);
+                    final float py = positions.get(i + 1);
+                    final float pz = positions.get(i + 2);
+                    final float w = mvp[3] * px + mvp[7] * py + mvp[11] * pz + mvp[15];
+                    if (w <= 1e-4F) {
+                        behindEye = true;
+                        break;
+                    }
+                    x[k] = ((mvp[0] * px + mvp[4] * py + mvp[8] * pz + mvp[12]) / w + 1.0F) * 0.5F * SIZE;
+                    y[k] = ((mvp[1] * px + mvp[5] * py + mvp[9] * pz + mvp[13]) / w + 1.0F) * 0.5F * SIZE;
+                    z[k] = (mvp[2] * px + mvp[6] * py + mvp[10] * pz + mvp[14]) / w;
+                }
+                if (!behindEye) {
+                    rasterize(x, y, z);
+                }
+            }
+        }
+
+        private void rasterize(float[] x, float[] y, float[] z) {
+            final float area = edge(x[0], y[0], x[1], y[1], x[2], y[2]);
+            if (area <= 0.0F) {
+                return;
+            }
+
+            final int minX = Math.max(0, (int) Math.floor(Math.min(x[0], Math.min(x[1], x[2]))));
+            final int maxX = Math.min(SIZE - 1, (int) Math.ceil(Math.max(x[0], Math.max(x[1], x[2]))));
+            final int minY = Math.max(0, (int) Math.floor(Math.min(y[0], Math.min(y[1], y[2]))));
+            final int maxY = Math.min(SIZE - 1, (int) Math.ceil(Math.max(y[0], Math.max(y[1], y[2]))));
+            for (int py = minY; py <= maxY; py++) {
+                for (int px = minX; px <= maxX; px++) {
+                    final float cx = px + 0.5F;
+                    final float cy = py + 0.5F;
+                    final float w0 = edge(x[1], y[1], x[2], y[2], cx, cy);
+                    final float w1 = edge(x[2], y[2], x[0], y[0], cx, cy);
+                    final float w2 = edge(x[0], y[0], x[1], y[1], cx, cy);
+                    if (w0 < 0.0F || w1 < 0.0F || w2 < 0.0F) {
+                        continue;
+                    }
+
+                    final float depth = (w0 * z[0] + w1 * z[1] + w2 * z[2]) / area;
+                    final int i = py * SIZE + px;
+                    if (depth >= -1.0F && depth <= 1.0F && depth < mDepth[i]) {
+                        if (mDepth[i] == Float.POSITIVE_INFINITY) {
+                            mCoveredPixels++;
+                        }
+                        mDepth[i] = depth;
+                    }
+                }
+            }
+        }
+
+        private static float edge(float ax, float ay, float bx, float by, float cx, float cy) {
+            return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        }
+    }
+
+    /** 和Matrix.perspectiveM(m, 0, 90, 1, near, far)相同 */
+    private static float[] perspective(float near, float far) {
+        final float[] m = new float[16];
+        m[0] = 1.0F;
+        m[5] = 1.0F;
+        m[10] = -(far + near) / (far - near);
+        m[11] = -1.0F;
+        m[14] = -2.0F * far * near / (far - near);
+        return m;
+    }
+
+    /** 和Matrix.setLookAtM相同，camera是眼睛和目标的坐标，上方向是y轴 */
+    private static float[] lookAt(float[] camera) {
+        float fx = camera[3] - camera[0];
+        float fy = camera[4] - camera[1];
+        float fz = camera[5] - camera[2];
+        final float fLength = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx /= fLength;
+        fy /= fLength;
+        fz /= fLength;
+
+        // s = f x up，up = (0, 1, 0)
+        float sx = -fz;
+        float sz = fx;
+        final float sLength = (float) Math.sqrt(sx * sx + sz * sz);
+        sx /= sLength;
+        sz /= sLength;
+
+        // u = s x f
+        final float ux = -sz * fy;
+        final float uy = sz * fx - sx * fz;
+        final float uz = sx * fy;
+
+        final float[] m = new float[16];
+        m[0] = sx;
+        m[4] = 0.0F;
+        m[8] = sz;
+        m[1] = ux;
+        m[5] = uy;
+        m[9] = uz;
+        m[2] = -fx;
+        m[6] = -fy;
+        m[10] = -fz;
+        m[12] = -(m[0] * camera[0] + m[4] * camera[1] + m[8] * camera[2]);
+        m[13] = -(m[1] * camera[0] + m[5] * camera[1] + m[9] * camera[2]);
+        m[14] = -(m[2] * camera[0] + m[6] * camera[1] + m[10] * camera[2]);
+        m[15] = 1.0F;
+        return m;
+    }
+
+    private static float[] multiply(float[] lhs, float[] rhs) {
+        final float[] result = new float[16];
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0.0F;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[k * 4 + row] * rhs[column * 4 + k];
+                }
+                result[column * 4 + row] = sum;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void mortonOrder_permutesBoxesWithinEachChunk() {
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(new float[12]);
+        for (int cubeFactor = 1; cubeFactor <= 9; cubeFactor++) {
+            final CubeGridChunks linear = new CubeGridChunks(cubeFactor, 4, -1.0F, 1.0F);
+            final CubeGridChunks morton = new CubeGridChunks(cubeFactor, 4, -1.0F, 1.0F, CubeGridChunks.ORDER_MORTON);
+            assertEquals(CubeGridChunks.ORDER_MORTON, morton.getCubeOrder());
+            assertNull(linear.getMortonOrder(0, 0));
+
+            final int floatsPerFace = ShapeBuilder.getCubeGridDataLength(1, normals, textureCoordinates) / ShapeBuilder.FACE_COUNT;
+            final FloatBuffer linearData = FloatBuffer.allocate(floatsPerFace * ShapeBuilder.FACE_COUNT * linear.getMeshBoxCount());
+            final FloatBuffer mortonData = FloatBuffer.allocate(linearData.capacity());
+            linear.putCubeGridFaceData(normals, textureCoordinates, linearData);
+            linear.putLodFaceData(normals, textureCoordinates, linearData);
+            morton.putCubeGridFaceData(normals, textureCoordinates, mortonData);
+            morton.putLodFaceData(normals, textureCoordinates, mortonData);
+            assertFalse(mortonData.hasRemaining());
+            assertSameBoxesPerChunk(linear, linearData.array(), mortonData.array(), floatsPerFace);
+
+            final int indexedFloatsPerFace = ShapeBuilder.getIndexedCubeGridDataLength(1) / ShapeBuilder.FACE_COUNT;
+            final FloatBuffer linearIndexed = FloatBuffer.allocate(indexedFloatsPerFace * ShapeBuilder.FACE_COUNT * linear.getMeshBoxCount());
+            final FloatBuffer mortonIndexed = FloatBuffer.allocate(linearIndexed.capacity());
+            linear.putIndexedCubeGridFaceData(linearIndexed);
+            linear.putIndexedLodFaceData(linearIndexed);
+            morton.putIndexedCubeGridFaceData(mortonIndexed);
+            morton.putIndexedLodFaceData(mortonIndexed);
+            assertFalse(mortonIndexed.hasRemaining());
+            assertSameBoxesPerChunk(linear, linearIndexed.array(), mortonIndexed.array(), indexedFloatsPerFace);
+        }
+    }
+
+    @Test
+    public void mortonOrder_octreeNodesAreContiguousInTheBuffer() {
+        final CubeGridChunks chunks = new CubeGridChunks(6, 4, -1.0F, 1.0F, CubeGridChunks.ORDER_MORTON);
+        final int bytesPerFace = ShapeBuilder.VERTICES_PER_FACE * CubeIndexPacker.PACKED_BYTES_PER_VERTEX;
+        final ByteBuffer data = ByteBuffer.allocate(bytesPerFace * ShapeBuilder.FACE_COUNT * chunks.getMeshBoxCount());
+        chunks.putCubeIndexFaceData(data);
+        assertFalse(data.hasRemaining());
+
+        for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+            final MortonOrder order = chunks.getMortonOrder(0, chunk);
+            assertEquals(chunks.getCubeCount(chunk), order.getCount());
+
+            // 每个2×2×2的节点中的立方体在第一个方向的数据中是连续的一段
+            for (int x = 0; x < order.getSize(0); x += 2) {
+                for (int y = 0; y < order.getSize(1); y += 2) {
+                    for (int z = 0; z < order.getSize(2); z += 2) {
+                        final int first = order.getNodeFirst(1, x, y, z);
+                        final int end = order.getNodeEnd(1, x, y, z);
+                        for (int i = first; i < end; i++) {
+                            final int face = chunks.getFaceIndex(0, ShapeBuilder.FACE_FRONT, chunks.getFirstBox(0, chunk) + i);
+                            // 一个面的顶点中最小的立方体坐标就是这个立方体
+                            int minX = Integer.MAX_VALUE;
+                            int minY = Integer.MAX_VALUE;
+                            int minZ = Integer.MAX_VALUE;
+                            for (int v = 0; v < ShapeBuilder.VERTICES_PER_FACE; v++) {
+                                final int offset = face * bytesPerFace + v * CubeIndexPacker.PACKED_BYTES_PER_VERTEX;
+                                minX = Math.min(minX, data.get(offset));
+                                minY = Math.min(minY, data.get(offset + 1));
+                                minZ = Math.min(minZ, data.get(offset + 2));
+                            }
+                            assertEquals(chunks.getFrom(chunk, 0) + order.getX(i), minX);
+                            assertEquals(chunks.getFrom(chunk, 1) + order.getY(i), minY);
+                            assertEquals(chunks.getFrom(chunk, 2) + order.getZ(i), minZ);
+                            assertEquals(x, order.getX(i) & ~1);
+                            assertEquals(y, order.getY(i) & ~1);
+                            assertEquals(z, order.getZ(i) & ~1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // 每一级、每个方向、每一块中的盒子相同，只是顺序不同
+    private static void assertSameBoxesPerChunk(CubeGridChunks chunks, float[] expected, float[] actual, int floatsPerBox) {
+        for (int level = 0; level < CubeGridChunks.LOD_COUNT; level++) {
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                for (int chunk = 0; chunk < chunks.getChunkCount(); chunk++) {
+                    final int first = chunks.getFaceIndex(level, face, chunks.getFirstBox(level, chunk));
+                    final int count = chunks.getBoxCount(level, chunk);
+                    final String[] expectedBoxes = new String[count];
+                    final String[] actualBoxes = new String[count];
+                    for (int box = 0; box < count; box++) {
+                        final int from = (first + box) * floatsPerBox;
+                        expectedBoxes[box] = Arrays.toString(Arrays.copyOfRange(expected, from, from + floatsPerBox));
+                        actualBoxes[box] = Arrays.toString(Arrays.copyOfRange(actual, from, from + floatsPerBox));
+                    }
+                    Arrays.sort(expectedBoxes);
+                    Arrays.sort(actualBoxes);
+                    assertArrayEquals(expectedBoxes, actualBoxes);
+                }
+            }
+        }
+    }
+
+    /** @return 按块排列的第i个立方体在ShapeBuilder输出中的序号 */
+    private static int[] getSerialOrder(CubeGridChunks chunks) {
+        final int cubeFactor = chunks.getCubeFactor();
+        final int cubeCount = cubeFactor * cubeFactor * cubeFactor;
+        final float[] expectedOffsets = new float[cubeCount * 3];
+        final float[] actualOffsets = new float[cubeCount * 3];
+        ShapeBuilder.putCubeGridOffsets(cubeFactor, -1.0F, 1.0F, expectedOffsets);
+        chunks.putCubeGridOffsets(actualOffsets);
+
+        final Map<String, Integer> serialIndices = new HashMap<>();
+        for (int cube = 0; cube < cubeCount; cube++) {
+            serialIndices.put(key(expectedOffsets, cube), cube);
+        }
+
+        final int[] order = new int[cubeCount];
+        for (int cube = 0; cube < cubeCount; cube++) {
+            final Integer serialIndex = serialIndices.remove(key(actualOffsets, cube));
+            assertNotNull(serialIndex);
+            order[cube] = serialIndex;
+        }
+        assertTrue(serialIndices.isEmpty());
+        return order;
+    }
+
+    private static String key(float[] offsets, int cube) {
+        return offsets[cube * 3] + "," + offsets[cube * 3 + 1] + "," + offsets[cube * 3 + 2];
+    }
+}
@@ -0,0 +1,142 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class CubeGridReplicatorTest {
+
+    private static final float[] TEXTURE_COORDINATES = {
+            0.0F, 0.0F,
+            0.0F, 1.0F,
+            1.0F, 0.0F,
+            0.0F, 1.0F,
+            1.0F, 1.0F,
+            1.0F, 0.0F
+    };
+
+    @Test
+    public void putRepeated_writesCopiesBackToBack() {
+        final float[] data = {1, 2, 3};
+        for (int count = 0; count <= 9; count++) {
+            final FloatBuffer out = FloatBuffer.allocate(1 + data.length * count);
+            out.put(-1);
+
+            CubeGridReplicator.putRepeated(data, count, out);
+
+            assertFalse(out.hasRemaining());
+            for (int i = 1; i < out.capacity(); i++) {
+                assertEquals(data[(i - 1) % data.length], out.get(i), 0.0F);
+            }
+        }
+    }
+
+    @Test
+    public void putCubeGridData_positionsMatchShapeBuilder() {
+        for (int cubeFactor = 1; cubeFactor <= 7; cubeFactor++) {
+            assertMatchesShapeBuilder(cubeFactor, null, null);
+        }
+    }
+
+    @Test
+    public void putCubeGridData_interleavedMatchesShapeBuilder() {
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(TEXTURE_COORDINATES);
+        for (int cubeFactor = 1; cubeFactor <= 7; cubeFactor++) {
+            assertMatchesShapeBuilder(cubeFactor, normals, textureCoordinates);
+        }
+    }
+
+    @Test
+    public void putCubeGridData_slabsMatchShapeBuilder() {
+        final int cubeFactor = 6;
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(TEXTURE_COORDINATES);
+        final int floatsPerSlice = ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates) / cubeFactor;
+
+        for (int fromX = 0; fromX < cubeFactor; fromX++) {
+            for (int toX = fromX + 1; toX <= cubeFactor; toX++) {
+                final FloatBuffer expected = allocate(floatsPerSlice * (toX - fromX));
+                ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, fromX, toX, normals, textureCoordinates, expected);
+
+                // 从非0位置开始写入，确认只写了自己的范围
+                final FloatBuffer actual = allocate(floatsPerSlice * (toX - fromX) + 1);
+                actual.put(-1);
+                CubeGridReplicator.putCubeGridData(cubeFactor, -1.0F, 1.0F, fromX, toX, normals, textureCoordinates, actual);
+
+                assertFalse(actual.hasRemaining());
+                assertEquals(-1, actual.get(0), 0.0F);
+                actual.position(1);
+                assertArrayEquals(toArray(expected), toArray(actual.slice()), 0.0F);
+            }
+        }
+    }
+
+    /** 输出cubeFactor 8、16、32时逐立方体写入和倍增拷贝的生成耗时 */
+    @Ignore("基准测试，只输出结果，需要时手动运行")
+    @Test
+    public void benchmark_againstShapeBuilder() {
+        final int[] cubeFactors = {8, 16, 32};
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(TEXTURE_COORDINATES);
+
+        final StringBuilder report = new StringBuilder("cubeFactor\tShapeBuilder ms\tCubeGridReplicator ms\n");
+        for (int cubeFactor : cubeFactors) {
+            final FloatBuffer buffer = allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates));
+            report.append(cubeFactor)
+                    .append('\t').append(String.format("%.3f", timeMillis(false, cubeFactor, normals, textureCoordinates, buffer)))
+                    .append('\t').append(String.format("%.3f", timeMillis(true, cubeFactor, normals, textureCoordinates, buffer)))
+                    .append('\n');
+        }
+        System.out.print(report);
+    }
+
+    private static void assertMatchesShapeBuilder(int cubeFactor, float[] normals, float[] textureCoordinates) {
+        final int length = ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates);
+        final FloatBuffer expected = allocate(length);
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, expected);
+
+        final FloatBuffer actual = allocate(length);
+        CubeGridReplicator.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, actual);
+
+        assertFalse(actual.hasRemaining());
+        assertArrayEquals(toArray(expected), toArray(actual), 0.0F);
+    }
+
+    private static double timeMillis(boolean replicate, int cubeFactor, float[] normals, float[] textureCoordinates,
+                                     FloatBuffer buffer) {
+        final int warmup = 3;
+        final int runs = 5;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < warmup + runs; i++) {
+            buffer.clear();
+            final long start = System.nanoTime();
+            if (replicate) {
+                CubeGridReplicator.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, buffer);
+            } else {
+                ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, buffer);
+            }
+            final long elapsed = System.nanoTime() - start;
+            if (i >= warmup) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best / 1e6;
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        final float[] array = new float[buffer.capacity()];
+        buffer.position(0);
+        buffer.get(array);
+        return array;
+    }
+
+    private static FloatBuffer allocate(int floatCount) {
+        return ByteBuffer.allocateDirect(floatCount * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,95 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class CubeIndexPackerTest {
+
+    private static final float[] TEXTURE_COORDINATES = {
+            0.0F, 0.0F,
+            0.0F, 1.0F,
+            1.0F, 0.0F,
+            0.0F, 1.0F,
+            1.0F, 1.0F,
+            1.0F, 0.0F
+    };
+
+    // 位置、法线和纹理坐标
+    private static final int FLOATS_PER_VERTEX = 3 + 3 + 2;
+
+    @Test
+    public void putBoxFace_decodesToShapeBuilderCubes() {
+        final int cubeFactor = 4;
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(TEXTURE_COORDINATES);
+
+        final FloatBuffer expected = FloatBuffer.allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates));
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, expected);
+
+        // 和ShapeBuilder一样按立方体排列
+        final int cubeCount = cubeFactor * cubeFactor * cubeFactor;
+        final ByteBuffer packed = ByteBuffer.allocate(cubeCount * ShapeBuilder.VERTICES_PER_CUBE * CubeIndexPacker.PACKED_BYTES_PER_VERTEX);
+        for (int x = 0; x < cubeFactor; x++) {
+            for (int y = 0; y < cubeFactor; y++) {
+                for (int z = 0; z < cubeFactor; z++) {
+                    for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                        CubeIndexPacker.putBoxFace(x, y, z, x, y, z, face, packed);
+                    }
+                }
+            }
+        }
+        assertFalse(packed.hasRemaining());
+
+        assertDecodesTo(expected, packed, ShapeBuilder.getCubeGridCubeSize(cubeFactor, -1.0F, 1.0F), textureCoordinates);
+    }
+
+    @Test
+    public void putCubeIndexFaceData_matchesFloatMeshWithLods() {
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(TEXTURE_COORDINATES);
+        for (int cubeFactor = 1; cubeFactor <= 7; cubeFactor++) {
+            final CubeGridChunks chunks = new CubeGridChunks(cubeFactor, 3, -1.0F, 1.0F);
+
+            final FloatBuffer expected = FloatBuffer.allocate(
+                    ShapeBuilder.getCubeGridDataLength(1, normals, textureCoordinates) * chunks.getMeshBoxCount());
+            chunks.putCubeGridFaceData(normals, textureCoordinates, expected);
+            chunks.putLodFaceData(normals, textureCoordinates, expected);
+
+            final ByteBuffer packed = ByteBuffer.allocate(
+                    chunks.getMeshBoxCount() * ShapeBuilder.VERTICES_PER_CUBE * CubeIndexPacker.PACKED_BYTES_PER_VERTEX);
+            chunks.putCubeIndexFaceData(packed);
+            assertFalse(packed.hasRemaining());
+
+            assertDecodesTo(expected, packed, ShapeBuilder.getCubeGridCubeSize(cubeFactor, -1.0F, 1.0F), textureCoordinates);
+        }
+    }
+
+    @Test
+    public void packedVertex_isAnEighthOfFloatVertex() {
+        assertEquals(FLOATS_PER_VERTEX * 4, CubeIndexPacker.PACKED_BYTES_PER_VERTEX * 8);
+
+        // 表中的面序号和角与ShapeBuilder相同
+        final float[] corners = CubeIndexPacker.getVertexCorners();
+        assertEquals(ShapeBuilder.FACE_BOTTOM, corners[(ShapeBuilder.VERTICES_PER_CUBE - 1) * 4 + 3], 0.0F);
+        assertArrayEquals(ShapeBuilder.CUBE_FACE_NORMALS, CubeIndexPacker.getFaceNormals(), 0.0F);
+    }
+
+    private static void assertDecodesTo(FloatBuffer expected, ByteBuffer packed, float cubeSize, float[] textureCoordinates) {
+        final int vertexCount = packed.capacity() / CubeIndexPacker.PACKED_BYTES_PER_VERTEX;
+        assertEquals(expected.capacity(), vertexCount * FLOATS_PER_VERTEX);
+
+        final float[] decoded = new float[FLOATS_PER_VERTEX];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            CubeIndexPacker.unpackPosition(packed, vertex, -1.0F, cubeSize, decoded, 0);
+            CubeIndexPacker.unpackNormal(packed, vertex, decoded, 3);
+            CubeIndexPacker.unpackTextureCoordinate(packed, vertex, textureCoordinates, decoded, 6);
+            for (int i = 0; i < FLOATS_PER_VERTEX; i++) {
+                assertEquals("vertex " + vertex + " component " + i, expected.get(vertex * FLOATS_PER_VERTEX + i), decoded[i], 1e-6F);
+            }
+        }
+    }
+}
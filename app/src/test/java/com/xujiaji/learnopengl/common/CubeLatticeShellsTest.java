@@ -0,0 +1,92 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class CubeLatticeShellsTest {
+
+    @Test
+    public void putShells_prefixIsEveryCubeOfSmallerGridOnce() {
+        final int maxFactor = 9;
+        final ByteBuffer data = ByteBuffer.allocate(CubeLatticeShells.getCubeCount(maxFactor) * CubeLatticeShells.BYTES_PER_CUBE);
+        CubeLatticeShells.putShells(0, maxFactor, data);
+        assertFalse(data.hasRemaining());
+
+        for (int cubeFactor = 1; cubeFactor <= maxFactor; cubeFactor++) {
+            final int cubeCount = CubeLatticeShells.getCubeCount(cubeFactor);
+            final boolean[] seen = new boolean[cubeCount];
+            for (int cube = 0; cube < cubeCount; cube++) {
+                final int offset = cube * CubeLatticeShells.BYTES_PER_CUBE;
+                final int x = data.get(offset) & 0xFF;
+                final int y = data.get(offset + 1) & 0xFF;
+                final int z = data.get(offset + 2) & 0xFF;
+                assertTrue(x < cubeFactor && y < cubeFactor && z < cubeFactor);
+
+                final int index = (x * cubeFactor + y) * cubeFactor + z;
+                assertFalse(seen[index]);
+                seen[index] = true;
+            }
+        }
+    }
+
+    @Test
+    public void putShells_eachCubeMatchesCubeIndexPacker() {
+        final int cubeFactor = 5;
+        final ByteBuffer data = ByteBuffer.allocate(CubeLatticeShells.getCubeCount(cubeFactor) * CubeLatticeShells.BYTES_PER_CUBE);
+        CubeLatticeShells.putShells(0, cubeFactor, data);
+
+        final ByteBuffer expected = ByteBuffer.allocate(CubeLatticeShells.BYTES_PER_CUBE);
+        for (int cube = 0; cube < CubeLatticeShells.getCubeCount(cubeFactor); cube++) {
+            final int offset = cube * CubeLatticeShells.BYTES_PER_CUBE;
+            expected.clear();
+            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                CubeIndexPacker.putBoxFace(data.get(offset), data.get(offset + 1), data.get(offset + 2),
+                        data.get(offset), data.get(offset + 1), data.get(offset + 2), face, expected);
+            }
+            for (int i = 0; i < CubeLatticeShells.BYTES_PER_CUBE; i++) {
+                assertEquals(expected.get(i), data.get(offset + i));
+            }
+        }
+    }
+
+    @Test
+    public void putShells_appendedShellsMatchFullGrid() {
+        final ByteBuffer full = ByteBuffer.allocate(CubeLatticeShells.getCubeCount(7) * CubeLatticeShells.BYTES_PER_CUBE);
+        CubeLatticeShells.putShells(0, 7, full);
+
+        // 3到5、5到7分两次追加
+        final ByteBuffer appended = ByteBuffer.allocate(full.capacity());
+        CubeLatticeShells.putShells(0, 3, appended);
+        assertEquals(CubeLatticeShells.getCubeCount(3) * CubeLatticeShells.BYTES_PER_CUBE, appended.position());
+        CubeLatticeShells.putShells(3, 5, appended);
+        assertEquals(CubeLatticeShells.getShellCubeCount(3, 5) * CubeLatticeShells.BYTES_PER_CUBE,
+                appended.position() - CubeLatticeShells.getCubeCount(3) * CubeLatticeShells.BYTES_PER_CUBE);
+        CubeLatticeShells.putShells(5, 7, appended);
+
+        assertArrayEquals(full.array(), appended.array());
+    }
+
+    @Test
+    public void getCapacity_growsInPowersOfTwo() {
+        assertEquals(1, CubeLatticeShells.getCapacity(1));
+        assertEquals(8, CubeLatticeShells.getCapacity(8));
+        assertEquals(32, CubeLatticeShells.getCapacity(27));
+        assertEquals(64, CubeLatticeShells.getCapacity(64));
+
+        // 从1逐个增加到64时只重新分配对数级次
+        int capacity = 0;
+        int reallocations = 0;
+        for (int cubeFactor = 1; cubeFactor <= 64; cubeFactor++) {
+            final int cubeCount = CubeLatticeShells.getCubeCount(cubeFactor);
+            if (cubeCount > capacity) {
+                capacity = CubeLatticeShells.getCapacity(cubeCount);
+                reallocations++;
+            }
+            assertTrue(capacity >= cubeCount && capacity < 2 * cubeCount);
+        }
+        assertTrue(reallocations <= 19);
+    }
+}
@@ -0,0 +1,84 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DepthSorterTest {
+
+    @Test
+    public void sort_ordersFrontToBack() {
+        final Random random = new Random(7);
+        final DepthSorter sorter = new DepthSorter(1000);
+        for (int round = 0; round < 10; round++) {
+            final int count = random.nextInt(1000);
+            final float[] depths = new float[count];
+            sorter.clear();
+            for (int i = 0; i < count; i++) {
+                depths[i] = 1.0F + random.nextFloat() * 100.0F;
+                sorter.add(i, depths[i]);
+            }
+
+            sorter.sort();
+
+            assertEquals(count, sorter.getCount());
+            final boolean[] seen = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                final int item = sorter.getItem(i);
+                assertFalse(seen[item]);
+                seen[item] = true;
+                if (i > 0) {
+                    // 量化到16位，相邻的物体最多差一个量化步长
+                    assertTrue(depths[sorter.getItem(i - 1)] <= depths[item] + 100.0F / 65535.0F);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sort_isStableForEqualDepths() {
+        final DepthSorter sorter = new DepthSorter(6);
+        sorter.clear();
+        sorter.add(10, 5.0F);
+        sorter.add(11, 2.0F);
+        sorter.add(12, 5.0F);
+        sorter.add(13, 2.0F);
+        sorter.add(14, 9.0F);
+        sorter.add(15, 5.0F);
+
+        sorter.sort();
+
+        final int[] expected = {11, 13, 10, 12, 15, 14};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], sorter.getItem(i));
+        }
+    }
+
+    @Test
+    public void sort_handlesSameDepthAndSingleItem() {
+        final DepthSorter sorter = new DepthSorter(3);
+        sorter.clear();
+        sorter.add(4, 1.0F);
+        sorter.sort();
+        assertEquals(4, sorter.getItem(0));
+
+        sorter.clear();
+        sorter.add(2, 3.0F);
+        sorter.add(1, 3.0F);
+        sorter.add(0, 3.0F);
+        sorter.sort();
+        assertEquals(2, sorter.getItem(0));
+        assertEquals(1, sorter.getItem(1));
+        assertEquals(0, sorter.getItem(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void add_rejectsMoreThanCapacity() {
+        final DepthSorter sorter = new DepthSorter(1);
+        sorter.clear();
+        sorter.add(0, 1.0F);
+        sorter.add(1, 2.0F);
+    }
+}
@@ -0,0 +1,90 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void acquire_returnsExactCapacityInNativeOrder() {
+        final DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+
+        final ByteBuffer bytes = pool.acquire(100, false);
+        final FloatBuffer floats = pool.acquireFloatBuffer(25, false);
+        final ShortBuffer shorts = pool.acquireShortBuffer(3, false);
+
+        assertTrue(bytes.isDirect());
+        assertEquals(100, bytes.capacity());
+        assertEquals(ByteOrder.nativeOrder(), bytes.order());
+        assertEquals(25, floats.capacity());
+        assertEquals(ByteOrder.nativeOrder(), floats.order());
+        assertEquals(3, shorts.capacity());
+
+        // 128 + 128 + 64
+        assertEquals(320, pool.getBytesInUse());
+        assertEquals(320, pool.getBytesHeld());
+    }
+
+    @Test
+    public void release_reusesBufferOfSameSizeClass() {
+        final DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+
+        final FloatBuffer first = pool.acquireFloatBuffer(1000, false);
+        first.put(0, 42.0F);
+        pool.release(first);
+        assertEquals(0, pool.getBytesInUse());
+
+        final FloatBuffer second = pool.acquireFloatBuffer(900, false);
+        assertEquals(42.0F, second.get(0), 0.0F);
+        assertEquals(4096, pool.getBytesHeld());
+        assertEquals(4096, pool.getHighWaterMark());
+
+        pool.release(second);
+        final FloatBuffer zeroed = pool.acquireFloatBuffer(1000, true);
+        for (int i = 0; i < zeroed.capacity(); i++) {
+            assertEquals(0.0F, zeroed.get(i), 0.0F);
+        }
+    }
+
+    @Test
+    public void retain_keepsBufferUntilLastRelease() {
+        final DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+        final ByteBuffer buffer = pool.acquire(64, false);
+
+        pool.retain(buffer);
+        pool.release(buffer);
+        assertTrue(pool.owns(buffer));
+        assertEquals(64, pool.getBytesInUse());
+
+        pool.release(buffer);
+        assertFalse(pool.owns(buffer));
+        assertEquals(0, pool.getBytesInUse());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void release_rejectsForeignBuffers() {
+        new DirectBufferPool(Long.MAX_VALUE).release(ByteBuffer.allocateDirect(64));
+    }
+
+    @Test
+    public void freeBytes_areCappedAndTrimmed() {
+        final DirectBufferPool pool = new DirectBufferPool(1024);
+        final ByteBuffer small = pool.acquire(1024, false);
+        final ByteBuffer large = pool.acquire(2048, false);
+
+        pool.release(large);
+        pool.release(small);
+        // 超过上限的2048字节没有留在池中
+        assertEquals(1024, pool.getBytesHeld());
+        assertEquals(3072, pool.getHighWaterMark());
+
+        pool.trim();
+        assertEquals(0, pool.getBytesHeld());
+    }
+}
@@ -0,0 +1,205 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DoubleBufferedMeshTest {
+
+    /** 记录每个网格的事件，检查顺序和泄漏 */
+    private final List<String> mEvents = new ArrayList<>();
+    private final List<FakeMesh> mMeshes = new ArrayList<>();
+
+    private DoubleBufferedMesh<FakeMesh> mDoubleBuffered;
+
+    @Before
+    public void setUp() {
+        mDoubleBuffered = new DoubleBufferedMesh<>();
+    }
+
+    @After
+    public void checkNoLeaks() {
+        mDoubleBuffered.releaseAll();
+        for (FakeMesh mesh : mMeshes) {
+            assertEquals(mesh.mName + " release count", 1, mesh.mReleaseCount + mesh.mDiscardCount);
+        }
+    }
+
+    @Test
+    public void swap_waitsUntilBackIsReady() {
+        final FakeMesh first = newMesh("first", 0);
+        mDoubleBuffered.setBack(first, null);
+        assertTrue(mDoubleBuffered.swapIfReady());
+        assertSame(first, mDoubleBuffered.getFront());
+
+        final FakeMesh second = newMesh("second", 2);
+        mDoubleBuffered.setBack(second, swappedIn("second"));
+
+        // 两帧之内还在上传，继续绘制first
+        assertFalse(mDoubleBuffered.swapIfReady());
+        assertFalse(mDoubleBuffered.swapIfReady());
+        assertSame(first, mDoubleBuffered.getFront());
+        assertEquals(0, first.mReleaseCount);
+
+        assertTrue(mDoubleBuffered.swapIfReady());
+        assertSame(second, mDoubleBuffered.getFront());
+        assertNull(mDoubleBuffered.getBack());
+    }
+
+    @Test
+    public void swap_releasesOldFrontOnlyAfterNewFrontIsReady() {
+        final FakeMesh first = newMesh("first", 0);
+        mDoubleBuffered.setBack(first, swappedIn("first"));
+        mDoubleBuffered.swapIfReady();
+
+        mDoubleBuffered.setBack(newMesh("second", 1), swappedIn("second"));
+        mDoubleBuffered.swapIfReady();
+        mDoubleBuffered.swapIfReady();
+
+        assertEquals(Arrays.asList(
+                "first ready", "first swapped in",
+                "second ready", "first released", "second swapped in"), mEvents);
+    }
+
+    @Test
+    public void setBack_releasesReplacedBackWithoutTouchingFront() {
+        final FakeMesh first = newMesh("first", 0);
+        mDoubleBuffered.setBack(first, null);
+        mDoubleBuffered.swapIfReady();
+
+        final FakeMesh stale = newMesh("stale", 5);
+        mDoubleBuffered.setBack(stale, swappedIn("stale"));
+        mDoubleBuffered.swapIfReady();
+
+        final FakeMesh latest = newMesh("latest", 0);
+        mDoubleBuffered.setBack(latest, swappedIn("latest"));
+        assertEquals(1, stale.mReleaseCount);
+        assertEquals(0, first.mReleaseCount);
+
+        mDoubleBuffered.swapIfReady();
+        assertSame(latest, mDoubleBuffered.getFront());
+        assertFalse(mEvents.contains("stale swapped in"));
+    }
+
+    @Test
+    public void failedBuild_keepsCurrentFront() {
+        final FakeMesh first = newMesh("first", 0);
+        mDoubleBuffered.setBack(first, null);
+        mDoubleBuffered.swapIfReady();
+
+        // 新网格在创建时失败，从来没有交给setBack
+        try {
+            buildFailingMesh();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        assertFalse(mDoubleBuffered.swapIfReady());
+        assertSame(first, mDoubleBuffered.getFront());
+        assertEquals(0, first.mReleaseCount);
+    }
+
+    @Test
+    public void releaseAll_releasesFrontAndBack() {
+        mDoubleBuffered.setBack(newMesh("first", 0), null);
+        mDoubleBuffered.swapIfReady();
+        mDoubleBuffered.setBack(newMesh("second", 3), null);
+
+        mDoubleBuffered.releaseAll();
+        assertNull(mDoubleBuffered.getFront());
+        assertNull(mDoubleBuffered.getBack());
+        for (FakeMesh mesh : mMeshes) {
+            assertEquals(1, mesh.mReleaseCount);
+        }
+
+        // 再调用一次不会重复释放
+        mDoubleBuffered.releaseAll();
+    }
+
+    @Test
+    public void discardAll_dropsMeshesWithoutReleasing() {
+        final FakeMesh front = newMesh("front", 0);
+        mDoubleBuffered.setBack(front, null);
+        mDoubleBuffered.swapIfReady();
+        final FakeMesh back = newMesh("back", 3);
+        mDoubleBuffered.setBack(back, swappedIn("back"));
+
+        // 上下文丢失：两个网格的OpenGL对象已经不存在，不能再删除，也不能再绘制
+        mDoubleBuffered.discardAll();
+        assertNull(mDoubleBuffered.getFront());
+        assertNull(mDoubleBuffered.getBack());
+        assertEquals(0, front.mReleaseCount);
+        assertEquals(0, back.mReleaseCount);
+        assertEquals(1, front.mDiscardCount);
+        assertEquals(1, back.mDiscardCount);
+
+        // 在新的上下文中重新生成，换上时不会再释放丢弃的网格，丢弃的back也不会换上
+        final FakeMesh regenerated = newMesh("regenerated", 0);
+        mDoubleBuffered.setBack(regenerated, swappedIn("regenerated"));
+        assertTrue(mDoubleBuffered.swapIfReady());
+        assertSame(regenerated, mDoubleBuffered.getFront());
+        assertEquals(Arrays.asList(
+                "front ready", "back discarded", "front discarded",
+                "regenerated ready", "regenerated swapped in"), mEvents);
+    }
+
+    private FakeMesh buildFailingMesh() {
+        throw new IllegalStateException("out of budget");
+    }
+
+    private FakeMesh newMesh(String name, int framesUntilReady) {
+        final FakeMesh mesh = new FakeMesh(name, framesUntilReady);
+        mMeshes.add(mesh);
+        return mesh;
+    }
+
+    private Runnable swappedIn(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mEvents.add(name + " swapped in");
+            }
+        };
+    }
+
+    private class FakeMesh implements DoubleBufferedMesh.Mesh {
+        final String mName;
+        int mFramesUntilReady;
+        int mReleaseCount;
+        int mDiscardCount;
+
+        FakeMesh(String name, int framesUntilReady) {
+            this.mName = name;
+            this.mFramesUntilReady = framesUntilReady;
+        }
+
+        @Override
+        public boolean finishUploads() {
+            assertEquals(mName + " used after release", 0, mReleaseCount + mDiscardCount);
+            if (mFramesUntilReady > 0) {
+                mFramesUntilReady--;
+                return false;
+            }
+            mEvents.add(mName + " ready");
+            return true;
+        }
+
+        @Override
+        public void release() {
+            mReleaseCount++;
+            mEvents.add(mName + " released");
+        }
+
+        @Override
+        public void discard() {
+            mDiscardCount++;
+            mEvents.add(mName + " discarded");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrustumTest {
+
+    private static final float NEAR = 1.0F;
+    private static final float FAR = 100.0F;
+
+    /** 和Matrix.frustumM(m, 0, -1, 1, -1, 1, NEAR, FAR)相同，按列存放 */
+    private static float[] perspective() {
+        final float[] m = new float[16];
+        m[0] = NEAR;
+        m[5] = NEAR;
+        m[10] = -(FAR + NEAR) / (FAR - NEAR);
+        m[11] = -1.0F;
+        m[14] = -2.0F * FAR * NEAR / (FAR - NEAR);
+        return m;
+    }
+
+    /** perspective()乘以沿z轴平移的矩阵 */
+    private static float[] perspectiveTranslatedZ(float z) {
+        final float[] m = perspective();
+        m[14] += m[10] * z;
+        m[15] += m[11] * z;
+        return m;
+    }
+
+    @Test
+    public void set_extractsNormalizedPlanes() {
+        final Frustum frustum = new Frustum();
+        frustum.set(perspective(), 0);
+
+        // 原点在near平面前面1个单位，near和far平面的法线沿z轴
+        assertEquals(-NEAR, frustum.distance(Frustum.NEAR, 0, 0, 0), 1e-4F);
+        assertEquals(0.0F, frustum.distance(Frustum.NEAR, 0, 0, -NEAR), 1e-4F);
+        assertEquals(0.0F, frustum.distance(Frustum.FAR, 0, 0, -FAR), 1e-3F);
+        assertEquals(1.0F, frustum.distance(Frustum.FAR, 0, 0, -FAR + 1.0F), 1e-3F);
+
+        // 90度视角，侧面平面和z轴成45度
+        final float halfSqrt2 = (float) Math.sqrt(0.5);
+        assertEquals(halfSqrt2, frustum.distance(Frustum.LEFT, 0, 0, -1.0F), 1e-4F);
+        assertEquals(0.0F, frustum.distance(Frustum.LEFT, -5.0F, 0, -5.0F), 1e-4F);
+        assertEquals(0.0F, frustum.distance(Frustum.RIGHT, 5.0F, 0, -5.0F), 1e-4F);
+        assertEquals(0.0F, frustum.distance(Frustum.BOTTOM, 0, -5.0F, -5.0F), 1e-4F);
+        assertEquals(0.0F, frustum.distance(Frustum.TOP, 0, 5.0F, -5.0F), 1e-4F);
+    }
+
+    @Test
+    public void set_readsFromOffset() {
+        final float[] matrix = new float[20];
+        System.arraycopy(perspective(), 0, matrix, 4, 16);
+
+        final Frustum frustum = new Frustum();
+        frustum.set(matrix, 4);
+
+        assertTrue(frustum.intersectsBox(-1, -1, -6, 1, 1, -4));
+        assertFalse(frustum.intersectsBox(-1, -1, 4, 1, 1, 6));
+    }
+
+    @Test
+    public void intersectsBox_insideOutsideAndStraddling() {
+        final Frustum frustum = new Frustum();
+        frustum.set(perspective(), 0);
+
+        // 完全在里面
+        assertTrue(frustum.intersectsBox(-1, -1, -6, 1, 1, -4));
+        // 在眼睛后面
+        assertFalse(frustum.intersectsBox(-1, -1, 4, 1, 1, 6));
+        // 比far平面远
+        assertFalse(frustum.intersectsBox(-1, -1, -200, 1, 1, -150));
+        // 在左、右、下、上平面外面
+        assertFalse(frustum.intersectsBox(-20, -1, -6, -10, 1, -4));
+        assertFalse(frustum.intersectsBox(10, -1, -6, 20, 1, -4));
+        assertFalse(frustum.intersectsBox(-1, -20, -6, 1, -10, -4));
+        assertFalse(frustum.intersectsBox(-1, 10, -6, 1, 20, -4));
+        // 跨越平面的包围盒可见
+        assertTrue(frustum.intersectsBox(-20, -1, -6, -4, 1, -4));
+        assertTrue(frustum.intersectsBox(-1, -1, -2, 1, 1, 0.5F));
+        assertTrue(frustum.intersectsBox(-1, -1, -150, 1, 1, -50));
+        // 包含整个视锥体
+        assertTrue(frustum.intersectsBox(-1000, -1000, -1000, 1000, 1000, 1000));
+    }
+
+    @Test
+    public void intersectsBox_usesModelSpaceOfTheMatrix() {
+        final Frustum frustum = new Frustum();
+        // 模型向屏幕里移动10个单位，原点附近的包围盒变为可见，z=8附近的包围盒在眼睛后面
+        frustum.set(perspectiveTranslatedZ(-10.0F), 0);
+
+        assertTrue(frustum.intersectsBox(-1, -1, -1, 1, 1, 1));
+        assertFalse(frustum.intersectsBox(-1, -1, 10.5F, 1, 1, 11));
+        assertEquals(0.0F, frustum.distance(Frustum.NEAR, 0, 0, 9.0F), 1e-4F);
+    }
+}
@@ -0,0 +1,254 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GreedyVoxelMesherTest {
+
+    @Test
+    public void singleVoxel_isOneCube() {
+        final VoxelChunk chunk = new VoxelChunk(4);
+        chunk.set(1, 2, 3, (byte) 1);
+        final GreedyVoxelMesher mesher = new GreedyVoxelMesher(chunk);
+        mesher.remesh();
+        assertEquals(ShapeBuilder.FACE_COUNT, mesher.getQuadCount());
+
+        // 和同一位置的立方体完全相同
+        final FloatBuffer expected = FloatBuffer.allocate(ShapeBuilder.POSITION_FLOATS_PER_CUBE);
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            ShapeBuilder.putBoxFaceData(-0.5F, 0.0F, 0.0F, 0.5F, 0.5F, 1.0F, face, null, null, expected);
+        }
+        final FloatBuffer actual = FloatBuffer.allocate(mesher.getMeshDataLength(null, null));
+        mesher.putMeshData(-1.0F, 0.5F, null, null, actual);
+        assertArrayEquals(expected.array(), actual.array(), 0.0F);
+    }
+
+    @Test
+    public void solidChunk_mergesEachSideIntoOneQuad() {
+        final VoxelChunk chunk = new VoxelChunk(8);
+        chunk.fill(0, 0, 0, 8, 8, 8, (byte) 1);
+        final GreedyVoxelMesher mesher = new GreedyVoxelMesher(chunk);
+        mesher.remesh();
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            assertEquals(1, mesher.getQuadCount(face));
+        }
+
+        // 不同种类的面不合并
+        chunk.fill(0, 0, 4, 8, 8, 8, (byte) 2);
+        mesher.remesh();
+        assertEquals(1, mesher.getQuadCount(ShapeBuilder.FACE_FRONT));
+        assertEquals(2, mesher.getQuadCount(ShapeBuilder.FACE_TOP));
+        assertEquals(2, mesher.getQuadCount(ShapeBuilder.FACE_RIGHT));
+    }
+
+    @Test
+    public void randomVoxels_coverEveryExposedFaceExactlyOnce() {
+        final Random random = new Random(20);
+        for (int size = 1; size <= 9; size++) {
+            final VoxelChunk chunk = randomChunk(size, random);
+            final GreedyVoxelMesher mesher = new GreedyVoxelMesher(chunk);
+            mesher.remesh();
+            assertCoversExposedFaces(chunk, mesher);
+        }
+    }
+
+    @Test
+    public void remesh_afterEditsMatchesFullRemesh() {
+        final Random random = new Random(21);
+        final int size = 12;
+        final VoxelChunk chunk = randomChunk(size, random);
+        final GreedyVoxelMesher mesher = new GreedyVoxelMesher(chunk);
+        mesher.remesh();
+        assertEquals(0, mesher.remesh());
+
+        for (int edit = 0; edit < 200; edit++) {
+            chunk.set(random.nextInt(size), random.nextInt(size), random.nextInt(size), (byte) random.nextInt(3));
+            // 一个体素最多影响每个方向的两片
+            assertTrue(mesher.remesh() <= 2 * ShapeBuilder.FACE_COUNT);
+
+            if (edit % 20 == 0) {
+                final VoxelChunk copy = copyOf(chunk);
+                final GreedyVoxelMesher fullMesher = new GreedyVoxelMesher(copy);
+                fullMesher.remesh();
+                assertArrayEquals(toArray(fullMesher), toArray(mesher), 0.0F);
+            }
+        }
+        assertCoversExposedFaces(chunk, mesher);
+    }
+
+    /** 输出32³的地形和随机体素的三角形数和生成时间：逐体素生成所有面，以及贪心合并 */
+    @Ignore("基准测试，只输出结果，需要时手动运行")
+    @Test
+    public void benchmark_againstPerCubeFaces() {
+        final int size = VoxelChunk.DEFAULT_SIZE;
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+
+        final VoxelChunk terrain = new VoxelChunk(size);
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                final int height = (int) (size / 2 + size / 4 * Math.sin(x * 0.2) * Math.cos(z * 0.3));
+                terrain.fill(x, 0, z, x + 1, height, z + 1, (byte) (height > size / 2 ? 2 : 1));
+            }
+        }
+        final VoxelChunk noise = randomChunk(size, new Random(22));
+
+        final StringBuilder report = new StringBuilder("chunk\tper-cube triangles\tms\tgreedy triangles\tms\tone-voxel remesh ms\n");
+        appendBenchmark(report, "terrain", terrain, normals);
+        appendBenchmark(report, "random", noise, normals);
+        System.out.print(report);
+    }
+
+    private static void appendBenchmark(StringBuilder report, String name, VoxelChunk chunk, float[] normals) {
+        final int size = chunk.getSize();
+        int solidCount = 0;
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++) {
+                    if (chunk.isSolid(x, y, z)) {
+                        solidCount++;
+                    }
+                }
+            }
+        }
+
+        final int warmup = 3;
+        final int runs = 5;
+        final FloatBuffer perCube = FloatBuffer.allocate(
+                ShapeBuilder.getCubeGridDataLength(1, normals, null) * solidCount);
+        long perCubeBest = Long.MAX_VALUE;
+        long greedyBest = Long.MAX_VALUE;
+        long remeshBest = Long.MAX_VALUE;
+        GreedyVoxelMesher mesher = null;
+        for (int i = 0; i < warmup + runs; i++) {
+            perCube.clear();
+            long start = System.nanoTime();
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    for (int z = 0; z < size; z++) {
+                        if (chunk.isSolid(x, y, z)) {
+                            for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+                                ShapeBuilder.putBoxFaceData(x, x + 1, y, y + 1, z, z + 1, face, normals, null, perCube);
+                            }
+                        }
+                    }
+                }
+            }
+            final long perCubeNanos = System.nanoTime() - start;
+
+            final VoxelChunk copy = copyOf(chunk);
+            start = System.nanoTime();
+            mesher = new GreedyVoxelMesher(copy);
+            mesher.remesh();
+            final FloatBuffer greedy = FloatBuffer.allocate(mesher.getMeshDataLength(normals, null));
+            mesher.putMeshData(0.0F, 1.0F, normals, null, greedy);
+            final long greedyNanos = System.nanoTime() - start;
+
+            copy.set(size / 2, size / 2, size / 2, copy.isSolid(size / 2, size / 2, size / 2) ? VoxelChunk.EMPTY : (byte) 1);
+            start = System.nanoTime();
+            mesher.remesh();
+            final long remeshNanos = System.nanoTime() - start;
+
+            if (i >= warmup) {
+                perCubeBest = Math.min(perCubeBest, perCubeNanos);
+                greedyBest = Math.min(greedyBest, greedyNanos);
+                remeshBest = Math.min(remeshBest, remeshNanos);
+            }
+        }
+
+        report.append(name)
+                .append('\t').append(solidCount * 12)
+                .append('\t').append(String.format("%.3f", perCubeBest / 1e6))
+                .append('\t').append(mesher.getQuadCount() * 2)
+                .append('\t').append(String.format("%.3f", greedyBest / 1e6))
+                .append('\t').append(String.format("%.3f", remeshBest / 1e6))
+                .append('\n');
+    }
+
+    /** 把矩形展开成单位面，和逐个体素检查的结果比较 */
+    private static void assertCoversExposedFaces(VoxelChunk chunk, GreedyVoxelMesher mesher) {
+        final int size = chunk.getSize();
+        final float[] positions = toArray(mesher);
+        final int[][] covered = new int[ShapeBuilder.FACE_COUNT][size * size * size];
+
+        int vertex = 0;
+        for (int face = 0; face < ShapeBuilder.FACE_COUNT; face++) {
+            int axis = 0;
+            while (ShapeBuilder.CUBE_FACE_NORMALS[face * 3 + axis] == 0.0F) {
+                axis++;
+            }
+            final boolean positive = ShapeBuilder.CUBE_FACE_NORMALS[face * 3 + axis] > 0.0F;
+
+            for (int quad = 0; quad < mesher.getQuadCount(face); quad++) {
+                final int[] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+                final int[] max = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+                for (int v = 0; v < ShapeBuilder.VERTICES_PER_FACE; v++, vertex++) {
+                    for (int i = 0; i < 3; i++) {
+                        min[i] = Math.min(min[i], (int) positions[vertex * 3 + i]);
+                        max[i] = Math.max(max[i], (int) positions[vertex * 3 + i]);
+                    }
+                }
+                assertEquals(min[axis], max[axis]);
+
+                // 正方向的面在体素的另一边
+                final int layer = positive ? min[axis] - 1 : min[axis];
+                min[axis] = layer;
+                max[axis] = layer + 1;
+                for (int x = min[0]; x < max[0]; x++) {
+                    for (int y = min[1]; y < max[1]; y++) {
+                        for (int z = min[2]; z < max[2]; z++) {
+                            covered[face][(x * size + y) * size + z]++;
+                        }
+                    }
+                }
+            }
+
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    for (int z = 0; z < size; z++) {
+                        final int sign = positive ? 1 : -1;
+                        final boolean exposed = chunk.isSolid(x, y, z) && !chunk.isSolid(
+                                x + (axis == 0 ? sign : 0), y + (axis == 1 ? sign : 0), z + (axis == 2 ? sign : 0));
+                        assertEquals(exposed ? 1 : 0, covered[face][(x * size + y) * size + z]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static VoxelChunk randomChunk(int size, Random random) {
+        final VoxelChunk chunk = new VoxelChunk(size);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++) {
+                    chunk.set(x, y, z, (byte) random.nextInt(3));
+                }
+            }
+        }
+        return chunk;
+    }
+
+    private static VoxelChunk copyOf(VoxelChunk chunk) {
+        final int size = chunk.getSize();
+        final VoxelChunk copy = new VoxelChunk(size);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++) {
+                    copy.set(x, y, z, chunk.get(x, y, z));
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static float[] toArray(GreedyVoxelMesher mesher) {
+        final FloatBuffer buffer = FloatBuffer.allocate(mesher.getMeshDataLength(null, null));
+        mesher.putMeshData(0.0F, 1.0F, null, null, buffer);
+        assertFalse(buffer.hasRemaining());
+        return buffer.array();
+    }
+}
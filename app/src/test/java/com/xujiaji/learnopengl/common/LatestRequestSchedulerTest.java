@@ -0,0 +1,258 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LatestRequestSchedulerTest {
+
+    /** 测试线程手动运行提交的任务 */
+    private static final class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.poll().run();
+            }
+        }
+    }
+
+    /** 像渲染器一样：生成完之后检查代数，只有最新的才上传 */
+    private static class UploadingBuilder implements LatestRequestScheduler.Builder<Integer> {
+        final List<Integer> mBuilt = new ArrayList<>();
+        final List<Integer> mUploaded = new ArrayList<>();
+        LatestRequestScheduler<Integer> mScheduler;
+
+        @Override
+        public void build(Integer request, long generation) {
+            mBuilt.add(request);
+            generate(request);
+            if (!mScheduler.isCurrent(generation)) {
+                mScheduler.abort();
+                return;
+            }
+            synchronized (mUploaded) {
+                mUploaded.add(request);
+            }
+            mScheduler.complete(generation);
+        }
+
+        void generate(Integer request) {
+        }
+    }
+
+    @Test
+    public void burst_coalescesIntoOneUploadOfTheLatest() {
+        final ManualExecutor executor = new ManualExecutor();
+        final UploadingBuilder builder = new UploadingBuilder();
+        final LatestRequestScheduler<Integer> scheduler = new LatestRequestScheduler<>(executor, builder);
+        builder.mScheduler = scheduler;
+
+        // 连续点五次增加按钮
+        for (int cubeFactor = 4; cubeFactor <= 8; cubeFactor++) {
+            scheduler.request(cubeFactor);
+        }
+        assertEquals(1, executor.mTasks.size());
+        executor.runAll();
+
+        assertEquals(1, builder.mBuilt.size());
+        assertEquals(1, builder.mUploaded.size());
+        assertEquals(8, (int) builder.mUploaded.get(0));
+        assertEquals(5, scheduler.getRequestedCount());
+        assertEquals(4, scheduler.getCoalescedCount());
+        assertEquals(0, scheduler.getAbortedCount());
+        assertEquals(1, scheduler.getCompletedCount());
+    }
+
+    @Test
+    public void requestDuringBuild_abortsTheOldBuild() {
+        final ManualExecutor executor = new ManualExecutor();
+        final AtomicReference<LatestRequestScheduler<Integer>> holder = new AtomicReference<>();
+        final UploadingBuilder builder = new UploadingBuilder() {
+            @Override
+            void generate(Integer request) {
+                // 第一次生成的过程中又点了两次
+                if (request == 3) {
+                    holder.get().request(4);
+                    holder.get().request(5);
+                }
+            }
+        };
+        final LatestRequestScheduler<Integer> scheduler = new LatestRequestScheduler<>(executor, builder);
+        holder.set(scheduler);
+        builder.mScheduler = scheduler;
+
+        scheduler.request(3);
+        executor.runAll();
+
+        assertEquals(2, builder.mBuilt.size());
+        assertEquals(1, builder.mUploaded.size());
+        assertEquals(5, (int) builder.mUploaded.get(0));
+        assertEquals(3, scheduler.getRequestedCount());
+        assertEquals(1, scheduler.getCoalescedCount());
+        assertEquals(1, scheduler.getAbortedCount());
+        assertEquals(1, scheduler.getCompletedCount());
+    }
+
+    @Test
+    public void otherTasksOnTheExecutorKeepTheirOrder() {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<String> events = new ArrayList<>();
+        final AtomicReference<LatestRequestScheduler<Integer>> holder = new AtomicReference<>();
+        final LatestRequestScheduler<Integer> scheduler = new LatestRequestScheduler<>(executor,
+                new LatestRequestScheduler.Builder<Integer>() {
+                    @Override
+                    public void build(Integer request, long generation) {
+                        events.add("build " + request);
+                        if (request == 1) {
+                            // 生成的过程中先提交其他任务，再请求
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    events.add("reset");
+                                }
+                            });
+                            holder.get().request(2);
+                        }
+                        holder.get().complete(generation);
+                    }
+                });
+        holder.set(scheduler);
+
+        scheduler.request(1);
+        executor.runAll();
+        assertEquals("[build 1, reset, build 2]", events.toString());
+    }
+
+    @Test
+    public void throwingBuild_isReportedAndLaterRequestsStillRun() {
+        final ManualExecutor executor = new ManualExecutor();
+        final AtomicReference<LatestRequestScheduler<Integer>> holder = new AtomicReference<>();
+        final UploadingBuilder builder = new UploadingBuilder() {
+            @Override
+            void generate(Integer request) {
+                if (request == 1) {
+                    // 生成的过程中又有了新的请求，然后失败
+                    holder.get().request(2);
+                    throw new OutOfMemoryError("test");
+                }
+            }
+        };
+        final List<String> failures = new ArrayList<>();
+        final LatestRequestScheduler<Integer> scheduler = new LatestRequestScheduler<>(executor, builder,
+                new LatestRequestScheduler.FailureListener<Integer>() {
+                    @Override
+                    public void onBuildFailed(Integer request, long generation, Throwable error) {
+                        failures.add(request + " " + generation + " " + error.getMessage());
+                    }
+                });
+        holder.set(scheduler);
+        builder.mScheduler = scheduler;
+
+        // 异常不会从执行器的任务中抛出
+        scheduler.request(1);
+        executor.mTasks.poll().run();
+        assertEquals("[1 1 test]", failures.toString());
+        assertEquals(1, scheduler.getAbortedCount());
+
+        // 生成中放入的请求已经重新提交
+        assertEquals(1, executor.mTasks.size());
+        executor.runAll();
+        assertEquals(2, (int) builder.mUploaded.get(0));
+
+        // 之后的请求照常执行
+        scheduler.request(3);
+        assertEquals(1, executor.mTasks.size());
+        executor.runAll();
+        assertEquals("[1, 2, 3]", builder.mBuilt.toString());
+        assertEquals("[2, 3]", builder.mUploaded.toString());
+        assertEquals(scheduler.getRequestedCount(), scheduler.getAbortedCount() + scheduler.getCompletedCount());
+    }
+
+    @Test
+    public void complete_dropsResultsOlderThanTheLatestCompleted() {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<Long> generations = new ArrayList<>();
+        final LatestRequestScheduler<Integer> scheduler = new LatestRequestScheduler<>(executor,
+                new LatestRequestScheduler.Builder<Integer>() {
+                    @Override
+                    public void build(Integer request, long generation) {
+                        // 结果交给其他线程，稍后才完成
+                        generations.add(generation);
+                    }
+                });
+
+        scheduler.request(1);
+        executor.runAll();
+        scheduler.request(2);
+        executor.runAll();
+
+        // 第二代先到达，第一代的结果已经过时
+        assertTrue(scheduler.complete(generations.get(1)));
+        assertFalse(scheduler.complete(generations.get(0)));
+        assertEquals(1, scheduler.getCompletedCount());
+        assertEquals(1, scheduler.getAbortedCount());
+    }
+
+    @Test
+    public void concurrentBursts_uploadOnlyTheLastRequest() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final UploadingBuilder builder = new UploadingBuilder() {
+            @Override
+            void generate(Integer request) {
+                Thread.yield();
+            }
+        };
+        final LatestRequestScheduler<Integer> scheduler = new LatestRequestScheduler<>(executor, builder);
+        builder.mScheduler = scheduler;
+
+        final int threadCount = 4;
+        final int requestsPerThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < requestsPerThread; i++) {
+                        scheduler.request(i);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // 最后再请求一次，之后不再有新的请求
+        final long lastGeneration = scheduler.request(-1);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (scheduler.getCoalescedCount() + scheduler.getAbortedCount() + scheduler.getCompletedCount()
+                < scheduler.getRequestedCount() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertTrue(scheduler.isCurrent(lastGeneration));
+        assertEquals(-1, (int) builder.mUploaded.get(builder.mUploaded.size() - 1));
+        assertEquals(threadCount * requestsPerThread + 1, scheduler.getRequestedCount());
+        // 每个请求要么被合并，要么被生成之后完成或者放弃
+        assertEquals(scheduler.getRequestedCount(),
+                scheduler.getCoalescedCount() + scheduler.getAbortedCount() + scheduler.getCompletedCount());
+        assertEquals(builder.mBuilt.size(), scheduler.getAbortedCount() + scheduler.getCompletedCount());
+    }
+}
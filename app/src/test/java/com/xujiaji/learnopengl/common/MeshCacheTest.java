@@ -0,0 +1,133 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class MeshCacheTest {
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        final MeshCache cache = new MeshCache(1024);
+
+        assertNull(cache.get(3, 0));
+        cache.put(3, 0, FloatBuffer.allocate(10));
+
+        assertNotNull(cache.get(3, 0));
+        assertNull(cache.get(3, 1));
+        assertNull(cache.get(4, 0));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(40, cache.getBytesCached());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedOverBudget() {
+        final MeshCache cache = new MeshCache(100);
+        cache.put(1, 0, FloatBuffer.allocate(10));
+        cache.put(2, 0, FloatBuffer.allocate(10));
+        // 访问1，之后2是最久没有使用的
+        cache.get(1, 0);
+        cache.put(3, 0, ShortBuffer.allocate(20), ByteBuffer.allocate(10));
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+        assertEquals(90, cache.getBytesCached());
+        assertNull(cache.get(2, 0));
+        assertNotNull(cache.get(1, 0));
+        assertNotNull(cache.get(3, 0));
+    }
+
+    @Test
+    public void put_skipsEntriesLargerThanBudget() {
+        final MeshCache cache = new MeshCache(16);
+        cache.put(1, 0, FloatBuffer.allocate(2));
+        cache.put(2, 0, FloatBuffer.allocate(5));
+
+        assertEquals(0, cache.getEvictionCount());
+        assertNull(cache.get(2, 0));
+        assertNotNull(cache.get(1, 0));
+    }
+
+    @Test
+    public void setByteBudget_trimsImmediately() {
+        final MeshCache cache = new MeshCache(1000);
+        cache.put(1, 0, ByteBuffer.allocate(300));
+        cache.put(2, 0, ByteBuffer.allocate(300));
+        cache.put(3, 0, ByteBuffer.allocate(300));
+
+        cache.setByteBudget(400);
+
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(300, cache.getBytesCached());
+        assertNotNull(cache.get(3, 0));
+    }
+
+    @Test
+    public void get_returnsCachedBuffers() {
+        final MeshCache cache = new MeshCache(1024);
+        final FloatBuffer original = FloatBuffer.allocate(4);
+        original.put(new float[] {1, 2, 3, 4});
+        final ByteBuffer bytes = ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder());
+        cache.put(1, 0, original, bytes);
+
+        final Buffer[] first = cache.get(1, 0);
+        assertSame(original, first[0]);
+        assertSame(bytes, first[1]);
+        assertEquals(3.0F, ((FloatBuffer) first[0]).get(2), 0.0F);
+    }
+
+    @Test
+    public void pooledBuffers_areReleasedOnEviction() {
+        final DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+        final MeshCache cache = new MeshCache(1024, pool);
+
+        final FloatBuffer first = pool.acquireFloatBuffer(200, false);
+        cache.put(1, 0, first);
+        pool.release(first);
+        assertTrue(pool.owns(first));
+
+        // 调用者从缓存取出的引用，在淘汰之后仍然有效
+        final Buffer[] cached = cache.get(1, 0);
+        final FloatBuffer second = pool.acquireFloatBuffer(200, false);
+        cache.put(2, 0, second);
+        pool.release(second);
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(pool.owns(first));
+
+        pool.release(cached[0]);
+        assertFalse(pool.owns(first));
+
+        cache.clear();
+        assertFalse(pool.owns(second));
+        assertEquals(0, pool.getBytesInUse());
+    }
+
+    @Test
+    public void pooledBuffers_countTheirSizeClass() {
+        final DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+        final MeshCache cache = new MeshCache(2048, pool);
+
+        // 1100字节来自2048字节的分级，已经占满预算
+        final ByteBuffer first = pool.acquire(1100, false);
+        cache.put(1, 0, first);
+        pool.release(first);
+        assertEquals(2048, cache.getBytesCached());
+
+        final ByteBuffer second = pool.acquire(100, false);
+        cache.put(2, 0, second);
+        pool.release(second);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(128, cache.getBytesCached());
+        assertEquals(pool.getBytesInUse(), cache.getBytesCached());
+
+        cache.clear();
+    }
+}
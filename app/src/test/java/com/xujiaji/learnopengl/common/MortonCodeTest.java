@@ -0,0 +1,50 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MortonCodeTest {
+
+    @Test
+    public void encode_interleavesBitsWithXHighest() {
+        assertEquals(0, MortonCode.encode(0, 0, 0));
+        assertEquals(1, MortonCode.encode(0, 0, 1));
+        assertEquals(2, MortonCode.encode(0, 1, 0));
+        assertEquals(4, MortonCode.encode(1, 0, 0));
+        assertEquals(7 << 3, MortonCode.encode(2, 2, 2));
+        assertEquals((1 << 30) - 1, MortonCode.encode(MortonCode.MAX_COORDINATE - 1, MortonCode.MAX_COORDINATE - 1,
+                MortonCode.MAX_COORDINATE - 1));
+    }
+
+    @Test
+    public void decode_invertsEncode() {
+        final Random random = new Random(23);
+        for (int i = 0; i < 10000; i++) {
+            final int x = random.nextInt(MortonCode.MAX_COORDINATE);
+            final int y = random.nextInt(MortonCode.MAX_COORDINATE);
+            final int z = random.nextInt(MortonCode.MAX_COORDINATE);
+            final int code = MortonCode.encode(x, y, z);
+            assertEquals(x, MortonCode.decodeX(code));
+            assertEquals(y, MortonCode.decodeY(code));
+            assertEquals(z, MortonCode.decodeZ(code));
+        }
+    }
+
+    @Test
+    public void encode_keepsEachOctreeNodeContiguous() {
+        // 边长4的节点中的64个格子正好是一段对齐的码
+        final int level = 2;
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                for (int z = 0; z < 4; z++) {
+                    final int code = MortonCode.encode(12 + x, 4 + y, 8 + z);
+                    final int nodeCode = MortonCode.encode(12, 4, 8);
+                    assertTrue(code >= nodeCode && code < nodeCode + MortonCode.getNodeSpan(level));
+                }
+            }
+        }
+    }
+}
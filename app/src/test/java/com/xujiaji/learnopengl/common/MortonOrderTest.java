@@ -0,0 +1,163 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MortonOrderTest {
+
+    @Test
+    public void order_visitsEveryCellOnceInCodeOrder() {
+        final MortonOrder order = new MortonOrder(3, 5, 2);
+        assertEquals(30, order.getCount());
+
+        final boolean[] seen = new boolean[30];
+        int previousCode = -1;
+        for (int i = 0; i < order.getCount(); i++) {
+            final int x = order.getX(i);
+            final int y = order.getY(i);
+            final int z = order.getZ(i);
+            assertTrue(x < 3 && y < 5 && z < 2);
+            assertFalse(seen[(x * 5 + y) * 2 + z]);
+            seen[(x * 5 + y) * 2 + z] = true;
+
+            final int code = MortonCode.encode(x, y, z);
+            assertTrue(code > previousCode);
+            previousCode = code;
+            assertEquals(i, order.indexOf(x, y, z));
+        }
+    }
+
+    @Test
+    public void nodeRange_containsExactlyTheCellsOfTheNode() {
+        final MortonOrder order = new MortonOrder(7, 6, 5);
+        for (int level = 0; level <= 3; level++) {
+            final int side = 1 << level;
+            for (int x = 0; x < 7; x += side) {
+                for (int y = 0; y < 6; y += side) {
+                    for (int z = 0; z < 5; z += side) {
+                        final int first = order.getNodeFirst(level, x, y, z);
+                        final int end = order.getNodeEnd(level, x, y, z);
+                        final int expected = (Math.min(x + side, 7) - x) * (Math.min(y + side, 6) - y) * (Math.min(z + side, 5) - z);
+                        assertEquals(expected, end - first);
+                        for (int i = first; i < end; i++) {
+                            assertEquals(x, order.getX(i) & -side);
+                            assertEquals(y, order.getY(i) & -side);
+                            assertEquals(z, order.getZ(i) & -side);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 输出32³的网格按x、y、z嵌套和按Morton码排列时：空间上相邻的格子在缓冲区中的距离不超过64个格子的比例，
+     * 以及按不同大小的节点裁剪到一个球时，绘制可见的格子需要几段连续的范围（每段一次glDrawArrays）
+     */
+    @Ignore("基准测试，只输出结果，需要时手动运行")
+    @Test
+    public void benchmark_againstLinearOrder() {
+        final int size = 32;
+        final MortonOrder order = new MortonOrder(size, size, size);
+        final int[] mortonIndices = new int[size * size * size];
+        for (int i = 0; i < order.getCount(); i++) {
+            mortonIndices[(order.getX(i) * size + order.getY(i)) * size + order.getZ(i)] = i;
+        }
+
+        // 两种顺序的平均距离相同，区别在于距离的分布，所以统计近的比例
+        final int nearDistance = 64;
+        int linearNear = 0;
+        int mortonNear = 0;
+        int neighbours = 0;
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++) {
+                    final int cell = (x * size + y) * size + z;
+                    final int[] next = {x + 1 < size ? cell + size * size : -1, y + 1 < size ? cell + size : -1, z + 1 < size ? cell + 1 : -1};
+                    for (int neighbour : next) {
+                        if (neighbour >= 0) {
+                            linearNear += neighbour - cell <= nearDistance ? 1 : 0;
+                            mortonNear += Math.abs(mortonIndices[neighbour] - mortonIndices[cell]) <= nearDistance ? 1 : 0;
+                            neighbours++;
+                        }
+                    }
+                }
+            }
+        }
+
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("neighbours within %d cells\tlinear %.1f%%\tmorton %.1f%%%n", nearDistance,
+                100.0 * linearNear / neighbours, 100.0 * mortonNear / neighbours));
+        report.append("node\tvisible nodes\tvisible cells\tlinear ranges\tmorton ranges\n");
+
+        final Random random = new Random(23);
+        final boolean[] visible = new boolean[size * size * size];
+        final int[] linearSorted = new int[visible.length];
+        final int[] mortonSorted = new int[visible.length];
+        for (int level = 0; level <= 3; level++) {
+            final int side = 1 << level;
+            int nodeCount = 0;
+            int cellCount = 0;
+            int linearRanges = 0;
+            int mortonRanges = 0;
+            for (int sample = 0; sample < 20; sample++) {
+                final float centerX = random.nextFloat() * size;
+                final float centerY = random.nextFloat() * size;
+                final float centerZ = random.nextFloat() * size;
+                final float radius = size * (0.2F + 0.3F * random.nextFloat());
+
+                // 和球相交的节点整个可见
+                Arrays.fill(visible, false);
+                int cells = 0;
+                for (int x = 0; x < size; x += side) {
+                    for (int y = 0; y < size; y += side) {
+                        for (int z = 0; z < size; z += side) {
+                            final float dx = Math.max(Math.max(x - centerX, centerX - (x + side)), 0.0F);
+                            final float dy = Math.max(Math.max(y - centerY, centerY - (y + side)), 0.0F);
+                            final float dz = Math.max(Math.max(z - centerZ, centerZ - (z + side)), 0.0F);
+                            if (dx * dx + dy * dy + dz * dz > radius * radius) {
+                                continue;
+                            }
+                            nodeCount++;
+                            for (int i = 0; i < side * side * side; i++) {
+                                final int cell = ((x + i / (side * side)) * size + y + (i / side) % side) * size + z + i % side;
+                                visible[cell] = true;
+                                linearSorted[cells] = cell;
+                                mortonSorted[cells] = mortonIndices[cell];
+                                cells++;
+                            }
+                        }
+                    }
+                }
+                cellCount += cells;
+
+                linearRanges += countRanges(linearSorted, cells);
+                mortonRanges += countRanges(mortonSorted, cells);
+            }
+            // 每个可见节点最多一段
+            assertTrue(mortonRanges <= nodeCount);
+
+            report.append(side).append('\t').append(nodeCount).append('\t').append(cellCount)
+                    .append('\t').append(linearRanges).append('\t').append(mortonRanges)
+                    .append('\n');
+        }
+        System.out.print(report);
+    }
+
+    // 排序后连续的序号合并成一段
+    private static int countRanges(int[] indices, int count) {
+        Arrays.sort(indices, 0, count);
+        int ranges = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || indices[i] != indices[i - 1] + 1) {
+                ranges++;
+            }
+        }
+        return ranges;
+    }
+}
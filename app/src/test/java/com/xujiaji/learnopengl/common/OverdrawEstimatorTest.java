@@ -0,0 +1,69 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OverdrawEstimatorTest {
+
+    @Test
+    public void frontToBack_estimatesLessOverdrawThanBackToFront() {
+        final OverdrawEstimator estimator = new OverdrawEstimator(4);
+
+        // 三个覆盖整个屏幕的物体，深度依次变远
+        estimator.begin();
+        for (int i = 0; i < 3; i++) {
+            estimator.addRect(-1.0F, -1.0F, 1.0F, 1.0F, i * 0.3F, i * 0.3F + 0.1F);
+        }
+        assertEquals(16, estimator.getCoveredTiles());
+        assertEquals(1.0F, estimator.getOverdraw(), 0.0F);
+
+        estimator.begin();
+        for (int i = 2; i >= 0; i--) {
+            estimator.addRect(-1.0F, -1.0F, 1.0F, 1.0F, i * 0.3F, i * 0.3F + 0.1F);
+        }
+        assertEquals(3.0F, estimator.getOverdraw(), 0.0F);
+    }
+
+    @Test
+    public void addRect_countsOnlyCoveredTiles() {
+        final OverdrawEstimator estimator = new OverdrawEstimator(4);
+        estimator.begin();
+        // 左下角的一块，以及完全在屏幕外面的矩形
+        estimator.addRect(-1.0F, -1.0F, -0.6F, -0.6F, 0.0F, 0.1F);
+        estimator.addRect(1.5F, 1.5F, 2.0F, 2.0F, 0.0F, 0.1F);
+        assertEquals(1, estimator.getCoveredTiles());
+        assertEquals(1, estimator.getShadedTiles());
+        assertEquals(0.0F, new OverdrawEstimator(4).getOverdraw(), 0.0F);
+    }
+
+    @Test
+    public void addBox_projectsWithMatrix() {
+        // 正交投影：x、y不变，z取反
+        final float[] mvp = new float[16];
+        mvp[0] = 1.0F;
+        mvp[5] = 1.0F;
+        mvp[10] = -1.0F;
+        mvp[15] = 1.0F;
+
+        final OverdrawEstimator estimator = new OverdrawEstimator(2);
+        estimator.begin();
+        estimator.addBox(mvp, 0, 0.1F, 0.1F, -0.5F, 0.9F, 0.9F, -0.4F);
+        assertEquals(1, estimator.getCoveredTiles());
+
+        // 在后面并且被挡住，不需要着色
+        estimator.addBox(mvp, 0, 0.2F, 0.2F, -0.9F, 0.8F, 0.8F, -0.8F);
+        assertEquals(1, estimator.getShadedTiles());
+
+        // 跨过眼睛的包围盒覆盖整个屏幕
+        final float[] perspective = new float[16];
+        perspective[0] = 1.0F;
+        perspective[5] = 1.0F;
+        perspective[10] = -1.0F;
+        perspective[11] = -1.0F;
+        perspective[14] = -2.0F;
+        estimator.begin();
+        estimator.addBox(perspective, 0, -1.0F, -1.0F, -1.0F, 1.0F, 1.0F, 1.0F);
+        assertEquals(4, estimator.getCoveredTiles());
+    }
+}
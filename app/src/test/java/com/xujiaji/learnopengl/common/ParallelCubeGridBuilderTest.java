@@ -0,0 +1,120 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class ParallelCubeGridBuilderTest {
+
+    private static final int MAX_CORES = Runtime.getRuntime().availableProcessors();
+
+    @Test
+    public void putCubeGridData_matchesSerialOutput() throws InterruptedException {
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(new float[12]);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int parallelism = 1; parallelism <= 4; parallelism++) {
+                final ParallelCubeGridBuilder builder = new ParallelCubeGridBuilder(executor, parallelism);
+                for (int cubeFactor = 1; cubeFactor <= 7; cubeFactor++) {
+                    final int length = ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates);
+                    final FloatBuffer expected = allocate(length);
+                    final FloatBuffer actual = allocate(length);
+
+                    ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, expected);
+                    builder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, actual);
+
+                    assertEquals(length, actual.position());
+                    expected.position(0);
+                    actual.position(0);
+                    assertEquals(expected, actual);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void putCubeGridFaceData_matchesSerialOutput() throws InterruptedException {
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(new float[12]);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int parallelism = 1; parallelism <= 4; parallelism++) {
+                final ParallelCubeGridBuilder builder = new ParallelCubeGridBuilder(executor, parallelism);
+                for (int cubeFactor = 1; cubeFactor <= 9; cubeFactor++) {
+                    final CubeGridChunks chunks = new CubeGridChunks(cubeFactor, 2, -1.0F, 1.0F);
+                    final int length = ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates);
+                    final FloatBuffer expected = allocate(length);
+                    final FloatBuffer actual = allocate(length);
+
+                    chunks.putCubeGridFaceData(normals, textureCoordinates, expected);
+                    builder.putCubeGridFaceData(chunks, normals, textureCoordinates, actual);
+
+                    assertEquals(length, actual.position());
+                    expected.position(0);
+                    actual.position(0);
+                    assertEquals(expected, actual);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** 输出1..N个核心、cubeFactor 1..32的生成耗时，用来观察扩展性 */
+    @Ignore("基准测试，只输出结果，需要时手动运行")
+    @Test
+    public void benchmark_scalingAcrossCores() throws InterruptedException {
+        final int[] cubeFactors = {1, 2, 4, 8, 16, 32};
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, MAX_CORES - 1));
+        try {
+            final StringBuilder report = new StringBuilder("cubeFactor");
+            for (int cores = 1; cores <= MAX_CORES; cores++) {
+                report.append('\t').append(cores).append(" core(s) ms");
+            }
+            report.append('\n');
+
+            for (int cubeFactor : cubeFactors) {
+                final FloatBuffer buffer = allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, null, null));
+                report.append(cubeFactor);
+                for (int cores = 1; cores <= MAX_CORES; cores++) {
+                    final ParallelCubeGridBuilder builder = new ParallelCubeGridBuilder(executor, cores);
+                    report.append('\t').append(String.format("%.3f", timeMillis(builder, cubeFactor, buffer)));
+                }
+                report.append('\n');
+            }
+            System.out.print(report);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static double timeMillis(ParallelCubeGridBuilder builder, int cubeFactor, FloatBuffer buffer) throws InterruptedException {
+        final int warmup = 3;
+        final int runs = 5;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < warmup + runs; i++) {
+            buffer.clear();
+            final long start = System.nanoTime();
+            builder.putCubeGridData(cubeFactor, -1.0F, 1.0F, null, null, buffer);
+            final long elapsed = System.nanoTime() - start;
+            if (i >= warmup) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best / 1e6;
+    }
+
+    private static FloatBuffer allocate(int floatCount) {
+        return ByteBuffer.allocateDirect(floatCount * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,424 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenderCommandQueueTest {
+
+    /** 把收到的命令记成字符串 */
+    private static final class RecordingHandler implements RenderCommandQueue.Handler {
+        final List<String> mCommands = new ArrayList<>();
+
+        @Override
+        public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+            mCommands.add(type + ":" + intArg + ":" + floatArg1 + ":" + floatArg2 + ":" + objectArg);
+        }
+    }
+
+    @Test
+    public void capacity_roundsUpToPowerOfTwo() {
+        assertEquals(1, new RenderCommandQueue(1).getCapacity());
+        assertEquals(8, new RenderCommandQueue(5).getCapacity());
+        assertEquals(64, new RenderCommandQueue(64).getCapacity());
+    }
+
+    @Test
+    public void drain_runsCommandsInOrderWithTheirArguments() {
+        final RenderCommandQueue queue = new RenderCommandQueue(8);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2, 9729));
+        assertTrue(queue.offer(3, 1.5F, -2.0F));
+        assertTrue(queue.offer(4, "mesh"));
+        assertEquals(4, queue.size());
+
+        final RecordingHandler handler = new RecordingHandler();
+        assertEquals(4, queue.drain(handler));
+        assertEquals("[1:0:0.0:0.0:null, 2:9729:0.0:0.0:null, 3:0:1.5:-2.0:null, 4:0:0.0:0.0:mesh]",
+                handler.mCommands.toString());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.drain(handler));
+    }
+
+    @Test
+    public void offer_whenFull_rejectsUntilDrained() {
+        final RenderCommandQueue queue = new RenderCommandQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertFalse(queue.offer(5));
+        assertEquals(2, queue.getRejectedCount());
+
+        final RecordingHandler handler = new RecordingHandler();
+        queue.drain(handler);
+        assertEquals(4, handler.mCommands.size());
+        assertTrue(queue.offer(6));
+    }
+
+    @Test
+    public void offer_wrapsAroundTheRing() {
+        final RenderCommandQueue queue = new RenderCommandQueue(4);
+        final RecordingHandler handler = new RecordingHandler();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(0, i));
+            assertTrue(queue.offer(1, i));
+            assertTrue(queue.offer(2, i));
+            assertEquals(3, queue.drain(handler));
+        }
+        assertEquals(30, handler.mCommands.size());
+        assertEquals("2:9:0.0:0.0:null", handler.mCommands.get(29));
+    }
+
+    @Test
+    public void drain_commandsOfferedDuringDrainWaitForTheNextDrain() {
+        final RenderCommandQueue queue = new RenderCommandQueue(4);
+        final int[] handled = new int[1];
+        queue.offer(0);
+        queue.drain(new RenderCommandQueue.Handler() {
+            @Override
+            public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+                handled[0]++;
+                queue.offer(type + 1);
+            }
+        });
+        assertEquals(1, handled[0]);
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void drain_releasesObjectArguments() throws NoSuchFieldException, IllegalAccessException {
+        final RenderCommandQueue queue = new RenderCommandQueue(2);
+        queue.offer(0, new Object());
+        queue.drain(new RecordingHandler());
+
+        final Field field = RenderCommandQueue.class.getDeclaredField("mObjectArgs");
+        field.setAccessible(true);
+        assertArrayEquals(new Object[2], (Object[]) field.get(queue));
+    }
+
+    @Test
+    public void drain_handlerThrows_commandIsConsumed() {
+        final RenderCommandQueue queue = new RenderCommandQueue(4);
+        queue.offer(0);
+        queue.offer(1);
+        try {
+            queue.drain(new RenderCommandQueue.Handler() {
+                @Override
+                public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void offerAndDrain_doNotAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        final long threadId = Thread.currentThread().getId();
+
+        final RenderCommandQueue queue = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+        final SummingHandler handler = new SummingHandler();
+        // 先预热，让分配统计不包括类加载和第一次调用
+        sendRotations(queue, handler, 1000);
+
+        final long before = allocations.getThreadAllocatedBytes(threadId);
+        sendRotations(queue, handler, 100000);
+        final long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+        // 留一点余量给统计本身
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void concurrentProducer_commandsArriveInOrder() throws InterruptedException {
+        final RenderCommandQueue queue = new RenderCommandQueue(16);
+        final int count = 50000;
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    while (!queue.offer(1, i, i, -i, null)) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        final int[] next = new int[1];
+        final boolean[] ordered = {true};
+        final RenderCommandQueue.Handler handler = new RenderCommandQueue.Handler() {
+            @Override
+            public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+                ordered[0] &= type == 1 && intArg == next[0] && floatArg1 == next[0] && floatArg2 == -next[0];
+                next[0]++;
+            }
+        };
+        final long deadline = System.nanoTime() + 10000000000L;
+        while (next[0] < count && System.nanoTime() < deadline) {
+            if (queue.drain(handler) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.interrupt();
+        producer.join();
+
+        assertEquals(count, next[0]);
+        assertTrue(ordered[0]);
+    }
+
+    /**
+     * UI线程每次发送一批触摸偏移，等OpenGL线程处理完再发送下一批，像一帧之内收到的输入。
+     * 输出每秒处理的命令数、从发送到处理的延迟、发送线程每条命令分配的字节数，
+     * 以及同一个线程发送和处理时每条命令的CPU时间（不包括线程切换）。
+     * 对照的是GLSurfaceView.queueEvent()的做法：每次创建一个Runnable，加锁放进ArrayList，GLThread加锁一个一个取出
+     */
+    @Ignore("基准测试，只输出结果，需要时手动运行")
+    @Test
+    public void benchmark_againstQueueEvent() throws InterruptedException {
+        final int count = 20000;
+        final StringBuilder report = new StringBuilder(
+                "path\tcommands/s\tmean latency us\tp99 latency us\tbytes/command\tsame-thread ns/command\n");
+        for (int run = 0; run < 3; run++) {
+            final boolean last = run == 2;
+            appendResult(report, "queueEvent", runQueueEvent(count), count, timeQueueEventSameThread(count * 10), last);
+            appendResult(report, "ring buffer", runRingBuffer(count), count, timeRingBufferSameThread(count * 10), last);
+        }
+        System.out.print(report);
+    }
+
+    private static void appendResult(StringBuilder report, String path, Result result, int count, double sameThreadNanos,
+                                     boolean print) {
+        assertEquals(count, result.mReceived);
+        if (!print) {
+            return;
+        }
+        final long[] latencies = result.mLatencies;
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        report.append(path)
+                .append('\t').append(String.format("%.0f", count / (result.mElapsedNanos / 1e9)))
+                .append('\t').append(String.format("%.2f", total / (double) count / 1e3))
+                .append('\t').append(String.format("%.2f", latencies[count * 99 / 100] / 1e3))
+                .append('\t').append(result.mAllocatedBytes < 0 ? "n/a" : String.format("%.1f", result.mAllocatedBytes / (double) count))
+                .append('\t').append(String.format("%.1f", sameThreadNanos))
+                .append('\n');
+    }
+
+    private static final class Result {
+        long[] mSentTimes;
+        long[] mLatencies;
+        // 只由处理命令的线程增加
+        volatile int mReceived;
+        long mElapsedNanos;
+        long mAllocatedBytes = -1;
+
+        Result(int count) {
+            mSentTimes = new long[count];
+            mLatencies = new long[count];
+        }
+
+        void receive(int index) {
+            mLatencies[index] = System.nanoTime() - mSentTimes[index];
+            mReceived++;
+        }
+    }
+
+    /** 和GLSurfaceView.GLThread一样的事件队列 */
+    private static final class QueueEventEmulation {
+        private final ArrayList<Runnable> mEventQueue = new ArrayList<>();
+
+        void queueEvent(Runnable r) {
+            synchronized (this) {
+                mEventQueue.add(r);
+                notifyAll();
+            }
+        }
+
+        boolean runNext() {
+            final Runnable event;
+            synchronized (this) {
+                if (mEventQueue.isEmpty()) {
+                    return false;
+                }
+                event = mEventQueue.remove(0);
+            }
+            event.run();
+            return true;
+        }
+    }
+
+    /** 每批发送的命令数 */
+    private static final int BURST = 8;
+
+    // 上一批处理完之前不发送下一批
+    private static void awaitBurst(Result result, int sent) {
+        if (sent % BURST == 0) {
+            while (result.mReceived < sent) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static Result runQueueEvent(final int count) throws InterruptedException {
+        final Result result = new Result(count);
+        final QueueEventEmulation glThread = new QueueEventEmulation();
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long before = getAllocatedBytes();
+                for (int i = 0; i < count; i++) {
+                    final int index = i;
+                    result.mSentTimes[index] = System.nanoTime();
+                    glThread.queueEvent(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.receive(index);
+                        }
+                    });
+                    awaitBurst(result, i + 1);
+                }
+                result.mAllocatedBytes = allocatedSince(before);
+            }
+        });
+
+        final long start = System.nanoTime();
+        producer.start();
+        while (result.mReceived < count) {
+            if (!glThread.runNext()) {
+                Thread.yield();
+            }
+        }
+        result.mElapsedNanos = System.nanoTime() - start;
+        producer.join();
+        return result;
+    }
+
+    private static Result runRingBuffer(final int count) throws InterruptedException {
+        final Result result = new Result(count);
+        final RenderCommandQueue queue = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long before = getAllocatedBytes();
+                for (int i = 0; i < count; i++) {
+                    result.mSentTimes[i] = System.nanoTime();
+                    // 队列满时等待，延迟包括等待的时间
+                    while (!queue.offer(0, i, 1.0F, 1.0F, null)) {
+                        Thread.yield();
+                    }
+                    awaitBurst(result, i + 1);
+                }
+                result.mAllocatedBytes = allocatedSince(before);
+            }
+        });
+        final RenderCommandQueue.Handler handler = new RenderCommandQueue.Handler() {
+            @Override
+            public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+                result.receive(intArg);
+            }
+        };
+
+        final long start = System.nanoTime();
+        producer.start();
+        while (result.mReceived < count) {
+            if (queue.drain(handler) == 0) {
+                Thread.yield();
+            }
+        }
+        result.mElapsedNanos = System.nanoTime() - start;
+        producer.join();
+        return result;
+    }
+
+    private static double timeQueueEventSameThread(int count) {
+        final QueueEventEmulation glThread = new QueueEventEmulation();
+        final int[] received = new int[1];
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            glThread.queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    received[0]++;
+                }
+            });
+            if ((i + 1) % BURST == 0) {
+                while (glThread.runNext()) {
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertEquals(count, received[0]);
+        return elapsed / (double) count;
+    }
+
+    private static double timeRingBufferSameThread(int count) {
+        final RenderCommandQueue queue = new RenderCommandQueue(RenderCommandQueue.DEFAULT_CAPACITY);
+        final SummingHandler handler = new SummingHandler();
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            queue.offer(0, 1.0F, 1.0F);
+            if ((i + 1) % BURST == 0) {
+                queue.drain(handler);
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertEquals(count, handler.mDeltaX, 0.0F);
+        return elapsed / (double) count;
+    }
+
+    /** 当前线程已经分配的字节数，不支持时返回-1 */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long allocatedSince(long before) {
+        return before < 0 ? -1 : getAllocatedBytes() - before;
+    }
+
+    private static final class SummingHandler implements RenderCommandQueue.Handler {
+        float mDeltaX;
+        float mDeltaY;
+
+        @Override
+        public void onCommand(int type, int intArg, float floatArg1, float floatArg2, Object objectArg) {
+            mDeltaX += floatArg1;
+            mDeltaY += floatArg2;
+        }
+    }
+
+    private static void sendRotations(RenderCommandQueue queue, SummingHandler handler, int count) {
+        for (int i = 0; i < count; i++) {
+            queue.offer(0, 0.5F, -0.5F);
+            if (queue.size() == queue.getCapacity()) {
+                queue.drain(handler);
+            }
+        }
+        queue.drain(handler);
+    }
+}
@@ -0,0 +1,209 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class ShapeBuilderTest {
+
+    private static final float[] TEXTURE_COORDINATES = {
+            0.0F, 0.0F,
+            0.0F, 1.0F,
+            1.0F, 0.0F,
+            0.0F, 1.0F,
+            1.0F, 1.0F,
+            1.0F, 0.0F
+    };
+
+    @Test
+    public void putCubeGridData_positionsMatchGenerateCubeData() {
+        for (int cubeFactor = 1; cubeFactor <= 5; cubeFactor++) {
+            final float[] expected = generateWithCubeData(cubeFactor);
+            final FloatBuffer buffer = allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, null, null));
+
+            ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, null, null, buffer);
+
+            assertEquals(expected.length, buffer.position());
+            assertArrayEquals(expected, toArray(buffer), 0.0F);
+        }
+    }
+
+    @Test
+    public void putCubeGridData_interleavedMatchesPerVertexCopy() {
+        final int cubeFactor = 4;
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(TEXTURE_COORDINATES);
+        final float[] positions = generateWithCubeData(cubeFactor);
+
+        // 按原来的方式逐顶点交错
+        final float[] expected = new float[ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates)];
+        int offset = 0;
+        for (int i = 0; i < cubeFactor * cubeFactor * cubeFactor; i++) {
+            for (int v = 0; v < ShapeBuilder.VERTICES_PER_CUBE; v++) {
+                System.arraycopy(positions, (i * ShapeBuilder.VERTICES_PER_CUBE + v) * 3, expected, offset, 3);
+                offset += 3;
+                System.arraycopy(normals, v * 3, expected, offset, 3);
+                offset += 3;
+                System.arraycopy(textureCoordinates, v * 2, expected, offset, 2);
+                offset += 2;
+            }
+        }
+
+        final FloatBuffer buffer = allocate(expected.length);
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, buffer);
+
+        assertArrayEquals(expected, toArray(buffer), 0.0F);
+    }
+
+    @Test
+    public void putIndexedCubeGridData_expandsToSameTrianglesAsGrid() {
+        final int cubeFactor = 3;
+        final int cubeCount = cubeFactor * cubeFactor * cubeFactor;
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(TEXTURE_COORDINATES);
+
+        final FloatBuffer expected = allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates));
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, expected);
+
+        final FloatBuffer vertices = allocate(ShapeBuilder.getIndexedCubeGridDataLength(cubeFactor));
+        ShapeBuilder.putIndexedCubeGridData(cubeFactor, -1.0F, 1.0F, vertices);
+        assertEquals(vertices.capacity(), vertices.position());
+
+        final ShortBuffer indices = ShortBuffer.allocate(cubeCount * ShapeBuilder.INDICES_PER_CUBE);
+        ShapeBuilder.putCubeIndices(cubeCount, indices);
+
+        // 按索引展开后应该和非索引的交错数据完全相同
+        final float[] verticesArray = toArray(vertices);
+        final float[] expanded = new float[expected.capacity()];
+        for (int i = 0; i < indices.capacity(); i++) {
+            System.arraycopy(verticesArray, indices.get(i) * ShapeBuilder.INDEXED_FLOATS_PER_VERTEX,
+                    expanded, i * ShapeBuilder.INDEXED_FLOATS_PER_VERTEX, ShapeBuilder.INDEXED_FLOATS_PER_VERTEX);
+        }
+        assertArrayEquals(toArray(expected), expanded, 0.0F);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putCubeIndices_rejectsBatchesBeyondShortRange() {
+        final int cubeCount = ShapeBuilder.MAX_CUBES_PER_SHORT_INDEX_BATCH + 1;
+        ShapeBuilder.putCubeIndices(cubeCount, ShortBuffer.allocate(cubeCount * ShapeBuilder.INDICES_PER_CUBE));
+    }
+
+    @Test
+    public void putInstancedCubeData_withOffsetsReproducesGridPositions() {
+        final int cubeFactor = 4;
+        final int cubeCount = cubeFactor * cubeFactor * cubeFactor;
+        final int floatsPerVertex = 3 + 3 + 2 + 1;
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(TEXTURE_COORDINATES);
+
+        final FloatBuffer mesh = FloatBuffer.allocate(2 * ShapeBuilder.VERTICES_PER_CUBE * floatsPerVertex);
+        ShapeBuilder.putInstancedCubeData(2, normals, textureCoordinates, mesh);
+        assertEquals(0, mesh.remaining());
+
+        final float[] offsets = new float[cubeCount * 3];
+        ShapeBuilder.putCubeGridOffsets(cubeFactor, -1.0F, 1.0F, offsets);
+        final float cubeSize = ShapeBuilder.getCubeGridCubeSize(cubeFactor, -1.0F, 1.0F);
+        final float[] expected = generateWithCubeData(cubeFactor);
+
+        // 和着色器一样：position = a_Position * u_CubeSize + u_Offsets[slot]
+        for (int cube = 0; cube < cubeCount; cube++) {
+            final int slot = cube % 2;
+            for (int v = 0; v < ShapeBuilder.VERTICES_PER_CUBE; v++) {
+                final int vertex = (slot * ShapeBuilder.VERTICES_PER_CUBE + v) * floatsPerVertex;
+                assertEquals(slot, mesh.get(vertex + 8), 0.0F);
+                for (int i = 0; i < 3; i++) {
+                    final float position = mesh.get(vertex + i) * cubeSize + offsets[cube * 3 + i];
+                    assertEquals(expected[(cube * ShapeBuilder.VERTICES_PER_CUBE + v) * 3 + i], position, 1e-6F);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void putCubeGridData_allocatesFarLessThanPerCubeArrays() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        final long threadId = Thread.currentThread().getId();
+        final int cubeFactor = 16;
+        final FloatBuffer buffer = allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, null, null));
+
+        // 预热，避免把类加载和JIT计入
+        generateWithCubeData(cubeFactor);
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, null, null, buffer);
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        generateWithCubeData(cubeFactor);
+        final long perCubeBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        buffer.clear();
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, null, null, buffer);
+        final long gridBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("cubeFactor " + cubeFactor + ": generateCubeData allocated " + perCubeBytes
+                + " bytes, putCubeGridData allocated " + gridBytes + " bytes", gridBytes * 100 < perCubeBytes);
+    }
+
+    // 和LessonSevenRenderer原来的生成方式一致
+    private static float[] generateWithCubeData(int cubeFactor) {
+        final float[] cubePositionData = new float[108 * cubeFactor * cubeFactor * cubeFactor];
+        int cubePositionDataOffset = 0;
+
+        final int segments = cubeFactor + (cubeFactor - 1);
+        final float minPosition = -1.0f;
+        final float maxPosition = 1.0f;
+        final float positionRange = maxPosition - minPosition;
+
+        for (int x = 0; x < cubeFactor; x++) {
+            for (int y = 0; y < cubeFactor; y++) {
+                for (int z = 0; z < cubeFactor; z++) {
+                    final float x1 = minPosition + ((positionRange / segments) * (x * 2));
+                    final float x2 = minPosition + ((positionRange / segments) * ((x * 2) + 1));
+
+                    final float y1 = minPosition + ((positionRange / segments) * (y * 2));
+                    final float y2 = minPosition + ((positionRange / segments) * ((y * 2) + 1));
+
+                    final float z1 = minPosition + ((positionRange / segments) * (z * 2));
+                    final float z2 = minPosition + ((positionRange / segments) * ((z * 2) + 1));
+
+                    final float[] p1p = { x1, y2, z2 };
+                    final float[] p2p = { x2, y2, z2 };
+                    final float[] p3p = { x1, y1, z2 };
+                    final float[] p4p = { x2, y1, z2 };
+                    final float[] p5p = { x1, y2, z1 };
+                    final float[] p6p = { x2, y2, z1 };
+                    final float[] p7p = { x1, y1, z1 };
+                    final float[] p8p = { x2, y1, z1 };
+
+                    final float[] thisCubePositionData = ShapeBuilder.generateCubeData(p1p, p2p, p3p, p4p, p5p, p6p, p7p, p8p,
+                            p1p.length);
+
+                    System.arraycopy(thisCubePositionData, 0, cubePositionData, cubePositionDataOffset, thisCubePositionData.length);
+                    cubePositionDataOffset += thisCubePositionData.length;
+                }
+            }
+        }
+        return cubePositionData;
+    }
+
+    private static FloatBuffer allocate(int floatCount) {
+        return ByteBuffer.allocateDirect(floatCount * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        final float[] result = new float[buffer.capacity()];
+        buffer.position(0);
+        buffer.get(result);
+        return result;
+    }
+}
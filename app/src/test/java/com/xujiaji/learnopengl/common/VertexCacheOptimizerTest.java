@@ -0,0 +1,156 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VertexCacheOptimizerTest {
+
+    @Test
+    public void measure_countsFifoAndLruMisses() {
+        // 两个三角形共用一条边
+        final int[] quad = {0, 1, 2, 2, 1, 3};
+        assertEquals(4, VertexCacheOptimizer.measure(quad, 4, 16, VertexCacheOptimizer.CACHE_FIFO).getMisses());
+        assertEquals(2.0F, VertexCacheOptimizer.measure(quad, 4, 16, VertexCacheOptimizer.CACHE_LRU).getAcmr(), 0.0F);
+        assertEquals(1.0F, VertexCacheOptimizer.measure(quad, 4, 16, VertexCacheOptimizer.CACHE_LRU).getAtvr(), 0.0F);
+
+        // 0被再次使用后，FIFO仍然先移出0，LRU移出1
+        final int[] reuse = {0, 1, 2, 0, 3, 0};
+        assertEquals(5, VertexCacheOptimizer.measure(reuse, 4, 3, VertexCacheOptimizer.CACHE_FIFO).getMisses());
+        assertEquals(4, VertexCacheOptimizer.measure(reuse, 4, 3, VertexCacheOptimizer.CACHE_LRU).getMisses());
+    }
+
+    @Test
+    public void optimizeTriangleOrder_keepsTheSameTriangles() {
+        final int size = 20;
+        final int[] indices = shuffledGrid(size, new Random(1));
+        final int[] optimized = indices.clone();
+
+        VertexCacheOptimizer.optimizeTriangleOrder(optimized, (size + 1) * (size + 1), 16);
+
+        assertEquals(sortedTriangles(indices), sortedTriangles(optimized));
+    }
+
+    @Test
+    public void optimizeTriangleOrder_improvesShuffledGrid() {
+        final int size = 64;
+        final int vertexCount = (size + 1) * (size + 1);
+        final int[] indices = shuffledGrid(size, new Random(2));
+        final float before = VertexCacheOptimizer.measure(indices, vertexCount, 16, VertexCacheOptimizer.CACHE_FIFO).getAcmr();
+
+        VertexCacheOptimizer.optimizeTriangleOrder(indices, vertexCount, 16);
+        final float after = VertexCacheOptimizer.measure(indices, vertexCount, 16, VertexCacheOptimizer.CACHE_FIFO).getAcmr();
+
+        // 打乱后每个三角形几乎都要变换3个顶点，规则网格的理想值是0.5
+        assertTrue("before " + before, before > 2.5F);
+        assertTrue("after " + after, after < 0.9F);
+    }
+
+    @Test
+    public void optimizeTriangleOrder_doesNotHurtCubeGrid() {
+        final int cubeCount = 64;
+        final ShortBuffer indices = ShortBuffer.allocate(cubeCount * ShapeBuilder.INDICES_PER_CUBE);
+        ShapeBuilder.putCubeIndices(cubeCount, indices);
+        indices.flip();
+        final int vertexCount = cubeCount * ShapeBuilder.INDEXED_VERTICES_PER_CUBE;
+
+        VertexCacheOptimizer.optimizeTriangleOrder(indices, vertexCount, 16);
+        final VertexCacheOptimizer.CacheStatistics statistics = VertexCacheOptimizer.measure(
+                VertexCacheOptimizer.toIntArray(indices), vertexCount, 16, VertexCacheOptimizer.CACHE_FIFO);
+
+        // 每个面4个顶点2个三角形，面之间不共用顶点，2.0已经是最好的结果
+        assertEquals(2.0F, statistics.getAcmr(), 0.0F);
+        assertEquals(1.0F, statistics.getAtvr(), 0.0F);
+        assertEquals(0, indices.position());
+    }
+
+    @Test
+    public void optimizeVertexFetch_numbersVerticesInFirstUseOrder() {
+        final int[] indices = {4, 2, 0, 0, 2, 3};
+        final int[] remap = VertexCacheOptimizer.optimizeVertexFetch(indices, 5);
+
+        assertArrayEquals(new int[] {0, 1, 2, 2, 1, 3}, indices);
+        assertArrayEquals(new int[] {2, -1, 1, 3, 0}, remap);
+
+        final FloatBuffer source = FloatBuffer.wrap(new float[] {0, 0, 1, 1, 2, 2, 3, 3, 4, 4});
+        final FloatBuffer destination = FloatBuffer.allocate(8);
+        VertexCacheOptimizer.remapVertices(source, 2, remap, destination);
+        assertArrayEquals(new float[] {4, 4, 2, 2, 0, 0, 3, 3}, destination.array(), 0.0F);
+    }
+
+    /** 输出LessonSeven的立方体网格和更大的打乱网格在优化前后的ACMR/ATVR和耗时 */
+    @Ignore("基准测试，只输出结果，需要时手动运行")
+    @Test
+    public void benchmark_acmrBeforeAndAfter() {
+        final StringBuilder report = new StringBuilder();
+
+        final int cubeCount = ShapeBuilder.MAX_CUBES_PER_SHORT_INDEX_BATCH;
+        final ShortBuffer cubeIndices = ShortBuffer.allocate(cubeCount * ShapeBuilder.INDICES_PER_CUBE);
+        ShapeBuilder.putCubeIndices(cubeCount, cubeIndices);
+        cubeIndices.flip();
+        appendReport(report, "cube grid batch", VertexCacheOptimizer.toIntArray(cubeIndices),
+                cubeCount * ShapeBuilder.INDEXED_VERTICES_PER_CUBE);
+
+        for (int size : new int[] {64, 256, 512}) {
+            appendReport(report, "shuffled " + size + "x" + size + " grid", shuffledGrid(size, new Random(size)),
+                    (size + 1) * (size + 1));
+        }
+        System.out.print(report);
+    }
+
+    private static void appendReport(StringBuilder report, String name, int[] indices, int vertexCount) {
+        final int[] optimized = indices.clone();
+        final long start = System.nanoTime();
+        VertexCacheOptimizer.optimizeTriangleOrder(optimized, vertexCount, 32);
+        VertexCacheOptimizer.optimizeVertexFetch(optimized, vertexCount);
+        final long elapsed = System.nanoTime() - start;
+
+        report.append(name).append(", ").append(indices.length / 3).append(" triangles, optimized in ")
+                .append(String.format("%.1f", elapsed / 1e6)).append(" ms\n");
+        for (int cacheSize : new int[] {16, 32}) {
+            for (int cacheType : new int[] {VertexCacheOptimizer.CACHE_FIFO, VertexCacheOptimizer.CACHE_LRU}) {
+                report.append(cacheType == VertexCacheOptimizer.CACHE_FIFO ? "\tFIFO " : "\tLRU  ").append(cacheSize)
+                        .append("\tbefore ").append(VertexCacheOptimizer.measure(indices, vertexCount, cacheSize, cacheType))
+                        .append("\tafter ").append(VertexCacheOptimizer.measure(optimized, vertexCount, cacheSize, cacheType))
+                        .append('\n');
+            }
+        }
+    }
+
+    /** size * size个格子的平面，每格两个三角形，三角形顺序打乱 */
+    private static int[] shuffledGrid(int size, Random random) {
+        final List<int[]> triangles = new ArrayList<>();
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int v = y * (size + 1) + x;
+                triangles.add(new int[] {v, v + size + 1, v + 1});
+                triangles.add(new int[] {v + 1, v + size + 1, v + size + 2});
+            }
+        }
+        Collections.shuffle(triangles, random);
+
+        final int[] indices = new int[triangles.size() * 3];
+        for (int t = 0; t < triangles.size(); t++) {
+            System.arraycopy(triangles.get(t), 0, indices, t * 3, 3);
+        }
+        return indices;
+    }
+
+    private static List<String> sortedTriangles(int[] indices) {
+        final List<String> triangles = new ArrayList<>();
+        for (int t = 0; t < indices.length; t += 3) {
+            triangles.add(Arrays.toString(Arrays.copyOfRange(indices, t, t + 3)));
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+}
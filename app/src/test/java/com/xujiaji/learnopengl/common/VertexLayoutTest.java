@@ -0,0 +1,123 @@
+package com.xujiaji.learnopengl.common;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class VertexLayoutTest {
+
+    @Test
+    public void interleaved_offsetsFollowEachOther() {
+        final VertexLayout layout = VertexLayout.interleaved()
+                .addFloat("a_Position", 3)
+                .addFloat("a_Normal", 3)
+                .addFloat("a_TexCoordinate", 2)
+                .build();
+
+        assertTrue(layout.isInterleaved());
+        assertEquals(1, layout.getBufferCount());
+        assertEquals(0, layout.getAttribute(0).getOffset());
+        assertEquals(12, layout.getAttribute(1).getOffset());
+        assertEquals(24, layout.getAttribute(2).getOffset());
+        for (int i = 0; i < layout.getAttributeCount(); i++) {
+            assertEquals(0, layout.getAttribute(i).getBufferIndex());
+            assertEquals(ShapeBuilder.INDEXED_FLOATS_PER_VERTEX * 4, layout.getStride(i));
+        }
+        assertEquals(ShapeBuilder.INDEXED_FLOATS_PER_VERTEX * 4, layout.getBytesPerVertex());
+    }
+
+    @Test
+    public void interleaved_alignsSmallTypesLikeVertexPacker() {
+        final VertexLayout layout = VertexLayout.interleaved()
+                .add("a_Position", 3, GLES20.GL_SHORT, false)
+                .add("a_Normal", 3, GLES20.GL_BYTE, true)
+                .add("a_TexCoordinate", 2, GLES20.GL_UNSIGNED_SHORT, true)
+                .build();
+
+        assertEquals(VertexPacker.PACKED_POSITION_OFFSET, layout.getAttribute(0).getOffset());
+        assertEquals(VertexPacker.PACKED_NORMAL_OFFSET, layout.getAttribute(1).getOffset());
+        assertEquals(VertexPacker.PACKED_TEXTURE_COORDINATE_OFFSET, layout.getAttribute(2).getOffset());
+        assertEquals(VertexPacker.PACKED_BYTES_PER_VERTEX, layout.getStride(0));
+        assertTrue(layout.getAttribute(1).isNormalized());
+    }
+
+    @Test
+    public void separate_eachAttributeHasItsOwnTightBuffer() {
+        final VertexLayout layout = VertexLayout.separate()
+                .addFloat("a_Position", 3)
+                .add("a_Color", 4, GLES20.GL_UNSIGNED_BYTE, true)
+                .addFloat("a_Normal", 3)
+                .build();
+
+        assertFalse(layout.isInterleaved());
+        assertEquals(3, layout.getBufferCount());
+        for (int i = 0; i < layout.getAttributeCount(); i++) {
+            assertEquals(i, layout.getAttribute(i).getBufferIndex());
+            assertEquals(0, layout.getAttribute(i).getOffset());
+        }
+        assertEquals(12, layout.getStride(0));
+        assertEquals(4, layout.getStride(1));
+        assertEquals(12, layout.getStride(2));
+        assertEquals(28, layout.getBytesPerVertex());
+    }
+
+    @Test
+    public void put_interleavedMatchesShapeBuilder() {
+        final int cubeFactor = 2;
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(new float[]{
+                0.0F, 0.0F, 0.0F, 1.0F, 1.0F, 0.0F, 0.0F, 1.0F, 1.0F, 1.0F, 1.0F, 0.0F});
+        final int vertexCount = cubeFactor * cubeFactor * cubeFactor * ShapeBuilder.VERTICES_PER_CUBE;
+
+        final FloatBuffer positions = FloatBuffer.allocate(vertexCount * 3);
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, null, null, positions);
+        final FloatBuffer expected = FloatBuffer.allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates));
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, expected);
+
+        final VertexLayout layout = VertexLayout.interleaved()
+                .addFloat("a_Position", 3)
+                .addFloat("a_Normal", 3)
+                .addFloat("a_TexCoordinate", 2)
+                .build();
+        final FloatBuffer actual = FloatBuffer.allocate(expected.capacity());
+        // 法线和纹理坐标只有一个立方体，循环使用
+        layout.put(new float[][] {positions.array(), normals, textureCoordinates}, vertexCount, actual);
+
+        assertFalse(actual.hasRemaining());
+        assertArrayEquals(expected.array(), actual.array(), 0.0F);
+    }
+
+    @Test
+    public void put_separateRepeatsShortSources() {
+        final VertexLayout layout = VertexLayout.separate()
+                .addFloat("a_Position", 3)
+                .addFloat("a_TexCoordinate", 2)
+                .build();
+        final float[] positions = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+        final float[] textureCoordinates = {0, 1, 2, 3};
+
+        final FloatBuffer positionBuffer = FloatBuffer.allocate(9);
+        final FloatBuffer textureCoordinateBuffer = FloatBuffer.allocate(6);
+        layout.put(new float[][] {positions, textureCoordinates}, 3, positionBuffer, textureCoordinateBuffer);
+
+        assertArrayEquals(positions, positionBuffer.array(), 0.0F);
+        assertArrayEquals(new float[] {0, 1, 2, 3, 0, 1}, textureCoordinateBuffer.array(), 0.0F);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void put_rejectsNonFloatAttributes() {
+        final VertexLayout layout = VertexLayout.separate()
+                .add("a_Color", 4, GLES20.GL_UNSIGNED_BYTE, true)
+                .build();
+        layout.put(new float[][] {{1, 1, 1, 1}}, 1, FloatBuffer.allocate(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_rejectsUnknownTypes() {
+        VertexLayout.interleaved().add("a_Position", 3, GLES20.GL_ARRAY_BUFFER, false);
+    }
+}
@@ -0,0 +1,95 @@
+package com.xujiaji.learnopengl.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class VertexPackerTest {
+
+    @Test
+    public void position_roundTripWithinHalfStep() {
+        final float[] scaleOffset = VertexPacker.getPositionScaleAndOffset(-1.0F, 1.0F);
+        final float scale = scaleOffset[0];
+        final float offset = scaleOffset[1];
+
+        for (float position = -1.0F; position <= 1.0F; position += 0.001F) {
+            final short packed = VertexPacker.packPosition(position, scale, offset);
+            assertEquals(position, VertexPacker.unpackPosition(packed, scale, offset), scale * 0.5F + 1e-6F);
+        }
+        assertEquals(-1.0F, VertexPacker.unpackPosition(VertexPacker.packPosition(-1.0F, scale, offset), scale, offset), 1e-6F);
+        assertEquals(1.0F, VertexPacker.unpackPosition(VertexPacker.packPosition(1.0F, scale, offset), scale, offset), 1e-6F);
+    }
+
+    @Test
+    public void signedNormalizedByte_keepsUnitNormalsExact() {
+        assertEquals(1.0F, VertexPacker.unpackSignedNormalizedByte(VertexPacker.packSignedNormalizedByte(1.0F)), 0.0F);
+        assertEquals(-1.0F, VertexPacker.unpackSignedNormalizedByte(VertexPacker.packSignedNormalizedByte(-1.0F)), 0.0F);
+        for (float value = -1.0F; value <= 1.0F; value += 0.01F) {
+            assertEquals(value, VertexPacker.unpackSignedNormalizedByte(VertexPacker.packSignedNormalizedByte(value)), 1.0F / 255.0F);
+        }
+    }
+
+    @Test
+    public void unsignedNormalized_roundTrip() {
+        for (float value = 0.0F; value <= 1.0F; value += 0.01F) {
+            assertEquals(value, VertexPacker.unpackUnsignedNormalizedShort(VertexPacker.packUnsignedNormalizedShort(value)), 1.0F / 65535.0F);
+            assertEquals(value, VertexPacker.unpackUnsignedNormalizedByte(VertexPacker.packUnsignedNormalizedByte(value)), 1.0F / 255.0F);
+        }
+        assertEquals(1.0F, VertexPacker.unpackUnsignedNormalizedShort(VertexPacker.packUnsignedNormalizedShort(1.0F)), 0.0F);
+    }
+
+    @Test
+    public void packPositionNormalTexture_halvesCubeGridAndDecodesBack() {
+        final int cubeFactor = 3;
+        final float[] normals = ShapeBuilder.generateCubeNormalData();
+        final float[] textureCoordinates = ShapeBuilder.generateTextureCoordinateData(new float[] {
+                0.0F, 0.0F, 0.0F, 1.0F, 1.0F, 0.0F, 0.0F, 1.0F, 1.0F, 1.0F, 1.0F, 0.0F});
+        final FloatBuffer source = FloatBuffer.allocate(ShapeBuilder.getCubeGridDataLength(cubeFactor, normals, textureCoordinates));
+        ShapeBuilder.putCubeGridData(cubeFactor, -1.0F, 1.0F, normals, textureCoordinates, source);
+        source.flip();
+
+        final int vertexCount = source.remaining() / 8;
+        final float[] scaleOffset = VertexPacker.getPositionScaleAndOffset(-1.0F, 1.0F);
+        final ByteBuffer packed = ByteBuffer.allocate(vertexCount * VertexPacker.PACKED_BYTES_PER_VERTEX).order(ByteOrder.nativeOrder());
+        VertexPacker.packPositionNormalTexture(source, scaleOffset[0], scaleOffset[1], packed);
+
+        assertEquals(0, packed.remaining());
+        assertEquals(vertexCount * 8 * 4, packed.capacity() * 2);
+
+        for (int v = 0; v < vertexCount; v++) {
+            final int base = v * VertexPacker.PACKED_BYTES_PER_VERTEX;
+            for (int i = 0; i < 3; i++) {
+                final short position = packed.getShort(base + VertexPacker.PACKED_POSITION_OFFSET + i * 2);
+                assertEquals(source.get(v * 8 + i), VertexPacker.unpackPosition(position, scaleOffset[0], scaleOffset[1]), scaleOffset[0]);
+
+                final byte normal = packed.get(base + VertexPacker.PACKED_NORMAL_OFFSET + i);
+                assertEquals(source.get(v * 8 + 3 + i), VertexPacker.unpackSignedNormalizedByte(normal), 1.0F / 255.0F);
+            }
+            for (int i = 0; i < 2; i++) {
+                final short textureCoordinate = packed.getShort(base + VertexPacker.PACKED_TEXTURE_COORDINATE_OFFSET + i * 2);
+                assertEquals(source.get(v * 8 + 6 + i), VertexPacker.unpackUnsignedNormalizedShort(textureCoordinate), 0.0F);
+            }
+        }
+    }
+
+    @Test
+    public void packColorsInterleaved_keepsPositionsAndPacksColors() {
+        final float[] data = {
+                -0.5F, -0.25F, 0.0F, 1.0F, 0.0F, 0.0F, 1.0F,
+                0.5F, -0.25F, 0.0F, 0.5F, 0.5F, 0.5F, 1.0F
+        };
+
+        final ByteBuffer packed = VertexPacker.packColorsInterleaved(data, 3);
+
+        assertEquals(2 * 16, packed.capacity());
+        assertEquals(0.5F, packed.getFloat(16), 0.0F);
+        assertEquals(-0.25F, packed.getFloat(20), 0.0F);
+        assertEquals((byte) 255, packed.get(12));
+        assertEquals((byte) 0, packed.get(13));
+        assertEquals(0.5F, VertexPacker.unpackUnsignedNormalizedByte(packed.get(16 + 12)), 1.0F / 255.0F);
+    }
+}
@@ -0,0 +1,101 @@
+package com.xujiaji.learnopengl.lesson7;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MeshMemoryBudgetTest {
+
+    @Test
+    public void estimate_interleavedVbo() {
+        final MeshMemoryBudget budget = new MeshMemoryBudget(Long.MAX_VALUE);
+
+        // (8个立方体 + 第1级和第2级各1个盒子) * 36个顶点 * 8个float * 4字节 = 11520字节，池中按16384分配
+        final MeshMemoryBudget.Footprint footprint = budget.estimate(2, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true);
+        assertEquals(0, footprint.getHeapBytes());
+        assertEquals(16384, footprint.getDirectBytes());
+        assertEquals(11520, footprint.getGpuBytes());
+
+        final MeshMemoryBudget.Footprint clientSide = budget.estimate(2, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, false);
+        assertEquals(0, clientSide.getGpuBytes());
+    }
+
+    @Test
+    public void estimate_packedIsSmallerThanInterleaved() {
+        final MeshMemoryBudget budget = new MeshMemoryBudget(Long.MAX_VALUE);
+
+        final MeshMemoryBudget.Footprint packed = budget.estimate(16, LessonSevenRenderer.MESH_LAYOUT_PACKED, true);
+        final MeshMemoryBudget.Footprint interleaved = budget.estimate(16, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true);
+        // 8块，第1级每块4³个盒子，第2级每块1个
+        assertEquals((16 * 16 * 16 + 8 * 4 * 4 * 4 + 8) * 36 * 16, packed.getGpuBytes());
+        assertEquals(8 * 8 * 8 * 6 * 8 * 4, packed.getHeapBytes());
+        assertTrue(packed.getTotalBytes() < interleaved.getTotalBytes());
+    }
+
+    @Test
+    public void estimate_proceduralIsAnEighthOfInterleaved() {
+        final MeshMemoryBudget budget = new MeshMemoryBudget(Long.MAX_VALUE);
+
+        final MeshMemoryBudget.Footprint procedural = budget.estimate(16, LessonSevenRenderer.MESH_LAYOUT_PROCEDURAL, true);
+        final MeshMemoryBudget.Footprint interleaved = budget.estimate(16, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true);
+        assertEquals(0, procedural.getHeapBytes());
+        assertEquals(interleaved.getGpuBytes() / 8, procedural.getGpuBytes());
+    }
+
+    @Test
+    public void estimate_latticeUsesPowerOfTwoCapacity() {
+        final MeshMemoryBudget budget = new MeshMemoryBudget(Long.MAX_VALUE);
+
+        // 27个立方体按32个分配，每个立方体36个顶点、每顶点4字节
+        final MeshMemoryBudget.Footprint lattice = budget.estimate(3, LessonSevenRenderer.MESH_LAYOUT_LATTICE, true);
+        assertEquals(32 * 36 * 4, lattice.getGpuBytes());
+        assertEquals(lattice.getGpuBytes(), budget.estimate(4, LessonSevenRenderer.MESH_LAYOUT_LATTICE, true).getGpuBytes() / 2);
+    }
+
+    @Test
+    public void estimate_instancedOnlyNeedsOffsets() {
+        final MeshMemoryBudget.Footprint footprint = new MeshMemoryBudget(Long.MAX_VALUE)
+                .estimate(10, LessonSevenRenderer.MESH_LAYOUT_INSTANCED, true);
+        assertEquals(1000 * 3 * 4, footprint.getTotalBytes());
+    }
+
+    @Test
+    public void getLargestCubeFactor_downgradesToWhatFits() {
+        // 8MB的预算放不下16³个交错的立方体（约4.5MB显存加8MB直接缓冲区）
+        final MeshMemoryBudget budget = MeshMemoryBudget.fromMemoryClass(16);
+        assertEquals(8L * 1024 * 1024, budget.getBudgetBytes());
+        assertFalse(budget.fits(16, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true));
+
+        final int cubeFactor = budget.getLargestCubeFactor(LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true, 16);
+        assertTrue(cubeFactor > 0 && cubeFactor < 16);
+        assertTrue(budget.fits(cubeFactor, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true));
+        assertFalse(budget.fits(cubeFactor + 1, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true));
+
+        // 伪实例化不受影响
+        assertEquals(16, budget.getLargestCubeFactor(LessonSevenRenderer.MESH_LAYOUT_INSTANCED, true, 16));
+    }
+
+    @Test
+    public void getLargestCubeFactor_returnsZeroWhenNothingFits() {
+        final MeshMemoryBudget budget = new MeshMemoryBudget(100);
+        assertEquals(0, budget.getLargestCubeFactor(LessonSevenRenderer.MESH_LAYOUT_POSITIONS, false, 3));
+    }
+
+    @Test
+    public void fits_capsCubeFactor() {
+        final MeshMemoryBudget budget = new MeshMemoryBudget(Long.MAX_VALUE);
+        assertTrue(budget.fits(MeshMemoryBudget.MAX_CUBE_FACTOR, LessonSevenRenderer.MESH_LAYOUT_POSITIONS, true));
+        assertFalse(budget.fits(MeshMemoryBudget.MAX_CUBE_FACTOR + 1, LessonSevenRenderer.MESH_LAYOUT_INSTANCED, true));
+    }
+
+    @Test
+    public void fits_leavesRoomForMeshOnScreen() {
+        final MeshMemoryBudget budget = new MeshMemoryBudget(1024 * 1024);
+        assertTrue(budget.fits(4, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true));
+
+        budget.setReservedBytes(1024 * 1024 - 1024);
+        assertFalse(budget.fits(4, LessonSevenRenderer.MESH_LAYOUT_INTERLEAVED, true));
+        // 剩下的1024字节只够4³个立方体的偏移
+        assertEquals(4, budget.getLargestCubeFactor(LessonSevenRenderer.MESH_LAYOUT_INSTANCED, true, 16));
+    }
+}